@@ -0,0 +1,62 @@
+package org.netno;
+
+import com.coinbase.advanced.orders.OrdersService;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// Shared setup for the benchmarks: a TradingBot wired to mocked Coinbase services
+final class BenchmarkFixtures {
+
+    static final double PRICE = 1.0;
+
+    private BenchmarkFixtures() {
+    }
+
+    static Config config() {
+        Config config = new Config();
+        config.coins = List.of("BTC", "SOL", "ETH", "XRP");
+        config.purchaseDropPercent = 3.5;
+        config.maxHeldCoins = Integer.MAX_VALUE;
+        config.useFundsPortionPerTrade = 0.05;
+        config.logLevel = "ERROR"; // keep the log file out of the measurements
+        config.timeZone = "Europe/Berlin";
+        config.negativeProfitLevels = List.of(0.0, 0.0, 1.0, 2.0, 3.0, 4.0, 5.0, 6.0);
+        config.averageDownSteps = List.of(0.0, 2.0, 4.0, 6.0);
+        config.minimumProfitPercentage = 2.0;
+        config.stopLossSalePercentage = 1.0;
+        config.takerFeePercentage = 0.4;
+        return config;
+    }
+
+    // Positions bought at PRICE, so evaluating them at PRICE holds every coin and leaves the state unchanged
+    static PositionBook positions(int count) {
+        PositionBook assets = new PositionBook();
+        LocalDateTime purchaseDate = LocalDateTime.now().minusDays(3);
+        for (int i = 0; i < count; i++) {
+            assets.put("C" + i, new TradeInfo(PRICE, 100, purchaseDate, PRICE, 0.4, 0, 3));
+        }
+        return assets;
+    }
+
+    static TradingBot tradingBot(PositionBook assets) throws Exception {
+        MarketDataFetcher marketDataFetcher = mock(MarketDataFetcher.class);
+        when(marketDataFetcher.getUsdcBalance()).thenReturn(10000.0);
+        when(marketDataFetcher.getCurrentPrice(anyString())).thenReturn(PRICE);
+        when(marketDataFetcher.get24hPriceChangePercentage(anyString())).thenReturn(0.0);
+        when(marketDataFetcher.getBasePrecision(anyString())).thenReturn(0.001);
+        return new TradingBot(mock(OrdersService.class), marketDataFetcher, config(), assets);
+    }
+
+    // TradingBot.log always prints to the console; drop that output so the
+    // benchmarks measure the bot and not the terminal JMH forwards it to
+    static void silenceConsole() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+}
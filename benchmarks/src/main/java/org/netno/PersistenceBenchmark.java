@@ -0,0 +1,60 @@
+package org.netno;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Measures writing and reading currentAssets.json with a growing number of positions
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    @Param({ "10", "1000", "100000" })
+    int positions;
+
+    TradingBot bot;
+    File assetsFile;
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkFixtures.silenceConsole();
+        bot = BenchmarkFixtures.tradingBot(BenchmarkFixtures.positions(positions));
+        // never touch the currentAssets.json of a real installation
+        assetsFile = File.createTempFile("currentAssets", ".json");
+        bot.assetsFile = assetsFile.getPath();
+        bot.saveAssets();
+    }
+
+    @TearDown
+    public void tearDown() {
+        assetsFile.delete();
+    }
+
+    @Benchmark
+    public long saveAssets() {
+        bot.saveAssets();
+        return assetsFile.length();
+    }
+
+    @Benchmark
+    public Map<String, TradeInfo> loadAssets() throws Exception {
+        return bot.loadAssets();
+    }
+}
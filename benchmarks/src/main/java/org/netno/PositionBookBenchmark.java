@@ -0,0 +1,64 @@
+package org.netno;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Compares valuing every held position in the columnar book, as a tick does, with the same scan over a map of TradeInfo objects
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PositionBookBenchmark {
+
+    @Param({ "100", "100000" })
+    int positions;
+
+    PositionBook book;
+    Map<String, TradeInfo> map;
+    long[] pricesByCoinId;
+    long price;
+
+    @Setup
+    public void setUp() {
+        map = new HashMap<>();
+        LocalDateTime purchaseDate = LocalDateTime.now();
+        for (int i = 0; i < positions; i++) {
+            map.put("C" + i, new TradeInfo(1.0, 100, purchaseDate, 1.0, 0.4, 0, 2));
+        }
+        book = new PositionBook(map);
+        price = FixedPoint.pow10(FixedPoint.PRICE_SCALE);
+        pricesByCoinId = new long[book.coinCount()];
+        Arrays.fill(pricesByCoinId, price);
+    }
+
+    @Benchmark
+    public long bookTotalValue() {
+        return book.totalValue(pricesByCoinId);
+    }
+
+    @Benchmark
+    public long mapTotalValue() {
+        long total = 0;
+        for (TradeInfo tradeInfo : map.values()) {
+            total += tradeInfo.value(price);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,62 @@
+package org.netno;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+// Measures the per-position accounting done on every tick and every average down
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TradeInfoBenchmark {
+
+    LocalDateTime purchaseDate;
+    TradeInfo tradeInfo;
+    long currentPrice;
+    long averageDownPrice;
+    long averageDownAmount;
+    long takerFeePercent;
+
+    @Setup
+    public void setUp() {
+        purchaseDate = LocalDateTime.now();
+        tradeInfo = new TradeInfo(0.5, 100, purchaseDate, 0.5, 0.2, 0, 3);
+        currentPrice = FixedPoint.fromDouble(0.513, FixedPoint.PRICE_SCALE, RoundingMode.HALF_EVEN);
+        averageDownPrice = FixedPoint.fromDouble(0.489, FixedPoint.PRICE_SCALE, RoundingMode.HALF_EVEN);
+        averageDownAmount = FixedPoint.fromDouble(100, 3, RoundingMode.HALF_EVEN);
+        takerFeePercent = FixedPoint.fromDouble(0.4, FixedPoint.PERCENT_SCALE, RoundingMode.HALF_EVEN);
+    }
+
+    // updatePurchase mutates the position, so every invocation starts from a fresh one
+    @Benchmark
+    public TradeInfo updatePurchase() {
+        TradeInfo info = new TradeInfo(0.5, 100, purchaseDate, 0.5, 0.2, 0, 3);
+        info.updatePurchase(averageDownPrice, averageDownAmount, takerFeePercent);
+        return info;
+    }
+
+    @Benchmark
+    public long winLossIncludingFees() {
+        return tradeInfo.winLossIncludingFees(currentPrice, takerFeePercent);
+    }
+
+    // the double variant used by the web interface, including the conversions at the boundary
+    @Benchmark
+    public double getWinLossIncludingFees() {
+        return tradeInfo.getWinLossIncludingFees(0.513, 0.4);
+    }
+}
@@ -0,0 +1,42 @@
+package org.netno;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Measures one executeTrade() pass over N held positions that all end up being held
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TradingBotBenchmark {
+
+    @Param({ "4", "100", "1000" })
+    int positions;
+
+    TradingBot bot;
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkFixtures.silenceConsole();
+        bot = BenchmarkFixtures.tradingBot(BenchmarkFixtures.positions(positions));
+    }
+
+    @Benchmark
+    public int executeTrade() {
+        bot.executeTrade();
+        return bot.getNumberOfHeldCoins();
+    }
+}
@@ -0,0 +1,49 @@
+package org.netno;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Measures rendering the held coins dashboard without the HTTP layer
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WebServerBenchmark {
+
+    @Param({ "4", "100", "1000" })
+    int positions;
+
+    WebServer webServer;
+    ResponseBuffer buffer = new ResponseBuffer(64 * 1024);
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkFixtures.silenceConsole();
+        TradingBot tradingBot = BenchmarkFixtures.tradingBot(BenchmarkFixtures.positions(positions));
+        // one evaluation fetches the prices the page is rendered from
+        tradingBot.executeTrade();
+        tradingBot.publishSnapshot();
+        webServer = new WebServer(tradingBot);
+    }
+
+    // renders into a reused buffer, as the web server does
+    @Benchmark
+    public int renderDashboard() {
+        buffer.reset();
+        webServer.renderDashboard(buffer);
+        return buffer.size();
+    }
+}
@@ -3,19 +3,31 @@ package org.netno;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.List;
 import java.util.Map;
 
 public class AssetDataWrapper {
 
     private final Map<String, TradeInfo> currentAssets;
+    private final List<String> appliedOrders; // client order ids of the latest orders already in currentAssets
+
+    public AssetDataWrapper(Map<String, TradeInfo> currentAssets) {
+        this(currentAssets, List.of());
+    }
 
     @JsonCreator
     public AssetDataWrapper(
-            @JsonProperty("currentAssets") Map<String, TradeInfo> currentAssets) {
+            @JsonProperty("currentAssets") Map<String, TradeInfo> currentAssets,
+            @JsonProperty("appliedOrders") List<String> appliedOrders) {
         this.currentAssets = currentAssets;
+        this.appliedOrders = appliedOrders == null ? List.of() : appliedOrders;
     }
 
     public Map<String, TradeInfo> getCurrentAssets() {
         return currentAssets;
     }
-}
\ No newline at end of file
+
+    public List<String> getAppliedOrders() {
+        return appliedOrders;
+    }
+}
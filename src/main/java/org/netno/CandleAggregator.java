@@ -0,0 +1,338 @@
+package org.netno;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * OHLCV candles per coin in several resolutions at once, folded from the
+ * prices the trading loop fetches.
+ *
+ * Every resolution of a coin is a ring of primitive arrays with a fixed
+ * capacity, so memory stays bounded however long the bot runs: about 300 KB
+ * per coin. Candles start at multiples of their length in UTC. Minutes
+ * without a fetched price have no candle.
+ *
+ * Coinbase reports only the traded volume of the last 24 hours, so the volume
+ * of a candle is the sum of the increases of that figure between two fetches,
+ * an estimate rather than the exchange's own candle volume.
+ *
+ * The candles are saved to a binary file now and then and loaded at start,
+ * so the aggregation continues after a restart.
+ */
+public class CandleAggregator {
+
+    static final String FILE = "candles.dat";
+    private static final int MAGIC = 0x434e444c; // "CNDL"
+    private static final int VERSION = 1;
+
+    public enum Resolution {
+        ONE_MINUTE("1m", 60, 24 * 60, "ONE_MINUTE"), // 1 day
+        FIVE_MINUTES("5m", 5 * 60, 7 * 24 * 12, "FIVE_MINUTE"), // 1 week
+        ONE_HOUR("1h", 60 * 60, 90 * 24, "ONE_HOUR"), // 90 days
+        ONE_DAY("1d", 24 * 60 * 60, 3 * 365, "ONE_DAY"); // 3 years
+
+        final String label;
+        final int seconds;
+        final int capacity; // candles kept in memory
+        final String granularity; // name in the Coinbase candles API
+
+        Resolution(String label, int seconds, int capacity, String granularity) {
+            this.label = label;
+            this.seconds = seconds;
+            this.capacity = capacity;
+            this.granularity = granularity;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        // The resolution with the given label, e.g. "5m", or null
+        public static Resolution of(String label) {
+            for (Resolution resolution : values()) {
+                if (resolution.label.equals(label)) {
+                    return resolution;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Map<String, Series> series = new ConcurrentHashMap<>();
+
+    /**
+     * Folds a fetched price into the candles of coin. price is at
+     * FixedPoint.PRICE_SCALE, volume24h the 24h volume reported with it.
+     */
+    public void record(String coin, long epochMillis, long price, double volume24h) {
+        series.computeIfAbsent(coin, c -> new Series()).add(Math.floorDiv(epochMillis, 1000), price, volume24h);
+    }
+
+    /**
+     * The candles of coin in the given resolution starting at or after
+     * fromMillis, oldest first, or null if no price of coin was recorded.
+     */
+    public Candles query(String coin, Resolution resolution, long fromMillis) {
+        Series s = series.get(coin);
+        return s == null ? null : s.query(resolution, Math.floorDiv(fromMillis, 1000));
+    }
+
+    // Number of candles held for coin in resolution
+    public int size(String coin, Resolution resolution) {
+        Series s = series.get(coin);
+        return s == null ? 0 : s.size(resolution);
+    }
+
+    /**
+     * The candles of one coin and resolution. Times are epoch milliseconds of
+     * the candle start, prices at FixedPoint.PRICE_SCALE.
+     */
+    public static final class Candles {
+        final long[] times;
+        final long[] open;
+        final long[] high;
+        final long[] low;
+        final long[] close;
+        final double[] volume;
+
+        Candles(int size) {
+            times = new long[size];
+            open = new long[size];
+            high = new long[size];
+            low = new long[size];
+            close = new long[size];
+            volume = new double[size];
+        }
+
+        public int size() {
+            return times.length;
+        }
+
+        public long timeAt(int i) {
+            return times[i];
+        }
+
+        public long openAt(int i) {
+            return open[i];
+        }
+
+        public long highAt(int i) {
+            return high[i];
+        }
+
+        public long lowAt(int i) {
+            return low[i];
+        }
+
+        public long closeAt(int i) {
+            return close[i];
+        }
+
+        public double volumeAt(int i) {
+            return volume[i];
+        }
+    }
+
+    // Reads saved candles, or returns an empty aggregator if there are none
+    public static CandleAggregator load(String filePath) {
+        CandleAggregator aggregator = new CandleAggregator();
+        Path path = Path.of(filePath);
+        if (!Files.exists(path)) {
+            return aggregator;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a candle file");
+            }
+            int coins = in.readInt();
+            for (int c = 0; c < coins; c++) {
+                Series s = new Series();
+                aggregator.series.put(in.readUTF(), s);
+                int resolutions = in.readInt();
+                for (int r = 0; r < resolutions; r++) {
+                    Resolution resolution = Resolution.of(in.readUTF());
+                    int size = in.readInt();
+                    Ring ring = resolution == null ? null : s.rings[resolution.ordinal()];
+                    for (int i = 0; i < size; i++) {
+                        long start = Integer.toUnsignedLong(in.readInt());
+                        long open = in.readLong();
+                        long high = in.readLong();
+                        long low = in.readLong();
+                        long close = in.readLong();
+                        double volume = in.readDouble();
+                        if (ring != null) {
+                            ring.append(start, open, high, low, close, volume);
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("Ignoring unreadable " + filePath + ": " + e.getMessage());
+            return new CandleAggregator();
+        }
+        return aggregator;
+    }
+
+    // Replaces the candles with the ones saved in filePath, when another instance wrote them
+    public void reload(String filePath) {
+        Map<String, Series> saved = load(filePath).series;
+        series.putAll(saved);
+        series.keySet().retainAll(saved.keySet());
+    }
+
+    public void save(String filePath) throws IOException {
+        // write a copy and move it into place, so a crash never leaves half a file
+        Path path = Path.of(filePath).toAbsolutePath();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Map<String, Series> sorted = new TreeMap<>(series);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sorted.size());
+            for (Map.Entry<String, Series> entry : sorted.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().write(out);
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static final class Series {
+        private final Ring[] rings = new Ring[Resolution.values().length];
+        private double lastVolume24h = Double.NaN; // not known before the first price, and not saved
+
+        Series() {
+            for (Resolution resolution : Resolution.values()) {
+                rings[resolution.ordinal()] = new Ring(resolution);
+            }
+        }
+
+        synchronized void add(long epochSecond, long price, double volume24h) {
+            double traded = Double.isNaN(lastVolume24h) ? 0 : Math.max(volume24h - lastVolume24h, 0);
+            lastVolume24h = volume24h;
+            for (Ring ring : rings) {
+                ring.add(epochSecond, price, traded);
+            }
+        }
+
+        synchronized int size(Resolution resolution) {
+            return rings[resolution.ordinal()].size;
+        }
+
+        synchronized Candles query(Resolution resolution, long fromSecond) {
+            return rings[resolution.ordinal()].query(fromSecond);
+        }
+
+        synchronized void write(DataOutputStream out) throws IOException {
+            out.writeInt(rings.length);
+            for (Ring ring : rings) {
+                out.writeUTF(ring.resolution.label);
+                out.writeInt(ring.size);
+                for (int i = 0; i < ring.size; i++) {
+                    int index = ring.physical(i);
+                    out.writeInt(ring.starts[index]);
+                    out.writeLong(ring.open[index]);
+                    out.writeLong(ring.high[index]);
+                    out.writeLong(ring.low[index]);
+                    out.writeLong(ring.close[index]);
+                    out.writeDouble(ring.volume[index]);
+                }
+            }
+        }
+    }
+
+    // The candles of one resolution, the oldest is overwritten when full
+    private static final class Ring {
+        final Resolution resolution;
+        final int[] starts; // epoch seconds, unsigned
+        final long[] open;
+        final long[] high;
+        final long[] low;
+        final long[] close;
+        final double[] volume;
+        int first;
+        int size;
+
+        Ring(Resolution resolution) {
+            this.resolution = resolution;
+            starts = new int[resolution.capacity];
+            open = new long[resolution.capacity];
+            high = new long[resolution.capacity];
+            low = new long[resolution.capacity];
+            close = new long[resolution.capacity];
+            volume = new double[resolution.capacity];
+        }
+
+        void add(long epochSecond, long price, double traded) {
+            long start = epochSecond - Math.floorMod(epochSecond, resolution.seconds);
+            if (size > 0) {
+                int last = physical(size - 1);
+                // a clock going back updates the latest candle, the candles stay ordered
+                if (start <= Integer.toUnsignedLong(starts[last])) {
+                    high[last] = Math.max(high[last], price);
+                    low[last] = Math.min(low[last], price);
+                    close[last] = price;
+                    volume[last] += traded;
+                    return;
+                }
+            }
+            append(start, price, price, price, price, traded);
+        }
+
+        void append(long start, long o, long h, long l, long c, double v) {
+            int index;
+            if (size < starts.length) {
+                index = physical(size++);
+            } else {
+                index = first;
+                first = (first + 1) % starts.length;
+            }
+            starts[index] = (int) start;
+            open[index] = o;
+            high[index] = h;
+            low[index] = l;
+            close[index] = c;
+            volume[index] = v;
+        }
+
+        Candles query(long fromSecond) {
+            // candles are ordered, find the first one at or after fromSecond
+            int from = 0;
+            int to = size;
+            while (from < to) {
+                int mid = (from + to) >>> 1;
+                if (Integer.toUnsignedLong(starts[physical(mid)]) < fromSecond) {
+                    from = mid + 1;
+                } else {
+                    to = mid;
+                }
+            }
+            Candles candles = new Candles(size - from);
+            for (int i = from; i < size; i++) {
+                int index = physical(i);
+                int target = i - from;
+                candles.times[target] = Integer.toUnsignedLong(starts[index]) * 1000;
+                candles.open[target] = open[index];
+                candles.high[target] = high[index];
+                candles.low[target] = low[index];
+                candles.close[target] = close[index];
+                candles.volume[target] = volume[index];
+            }
+            return candles;
+        }
+
+        int physical(int logical) {
+            int index = first + logical;
+            return index < starts.length ? index : index - starts.length;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package org.netno;
+
+import java.io.IOException;
+import java.math.RoundingMode;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Downloads the historical candles of the configured coins into a
+ * CandleStore.
+ *
+ * The Coinbase candles endpoint answers at most 350 candles per request, so
+ * the time range is fetched page by page, oldest first, with at most
+ * requestsPerSecond requests. Failed and rate limited requests are retried
+ * with a growing pause. Every page is written before the next one is fetched,
+ * so a download that was stopped continues after the newest stored candle when
+ * it is started again. The candle that is still open is never stored.
+ *
+ * Run it with
+ * java -cp CoinbaseBot-1.0-SNAPSHOT-jar-with-dependencies.jar -Dhistory.resolution=1h -Dhistory.from=2022-01-01 org.netno.CandleDownloader [config.json]
+ */
+public class CandleDownloader {
+
+    static final String DEFAULT_API_URL = "https://api.coinbase.com/api/v3/brokerage";
+    static final int PAGE_CANDLES = 300;
+    private static final int MAX_ATTEMPTS = 8;
+    private static final long MAX_RETRY_MILLIS = 60_000;
+
+    /**
+     * One page of candles as answered by the Coinbase candles endpoint: objects
+     * with start (epoch seconds), open, high, low, close and volume, in any
+     * order, covering startSecond to endSecond.
+     */
+    interface CandleSource {
+        JSONArray fetch(String productId, CandleAggregator.Resolution resolution, long startSecond, long endSecond)
+                throws IOException, InterruptedException;
+    }
+
+    private final CandleSource source;
+    private final CandleStore store;
+    private final long minRequestNanos; // 0 for no limit
+    long retryMillis = 1000; // first pause after a failed request, doubled for every further failure
+    private long lastRequestNanos;
+    private long requests;
+
+    public CandleDownloader(CandleSource source, CandleStore store, double requestsPerSecond) {
+        this.source = source;
+        this.store = store;
+        this.minRequestNanos = requestsPerSecond > 0 ? (long) (1_000_000_000 / requestsPerSecond) : 0;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.loadConfig(args.length > 0 ? args[0] : "config.json");
+        CandleAggregator.Resolution resolution = CandleAggregator.Resolution
+                .of(System.getProperty("history.resolution", "1h"));
+        if (resolution == null) {
+            throw new IllegalArgumentException("history.resolution must be one of 1m, 5m, 1h or 1d");
+        }
+        long from = LocalDate.parse(System.getProperty("history.from", LocalDate.now(ZoneOffset.UTC).minusYears(3)
+                .toString())).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+        CandleStore store = new CandleStore(Path.of(System.getProperty("history.dir", CandleStore.DIRECTORY)));
+        CandleDownloader downloader = new CandleDownloader(
+                new HttpCandleSource(config.apiUrl == null ? DEFAULT_API_URL : config.apiUrl), store,
+                Double.parseDouble(System.getProperty("history.requestsPerSecond", "8")));
+
+        long to = System.currentTimeMillis() / 1000;
+        for (String coin : config.coins) {
+            try {
+                long added = downloader.download(coin, resolution, from, to);
+                System.out.printf("%s: %d new candles, %d stored.%n", coin, added,
+                        store.open(coin, resolution).size());
+            } catch (IllegalArgumentException e) {
+                System.out.printf("%s: skipped, %s%n", coin, e.getMessage());
+            }
+        }
+        System.out.printf("Done after %d requests.%n", downloader.requests());
+    }
+
+    /**
+     * Stores the candles of coin from fromSecond up to the last candle that
+     * closed before toSecond, continuing after the candles already stored.
+     * Returns the number of candles added.
+     */
+    public long download(String coin, CandleAggregator.Resolution resolution, long fromSecond, long toSecond)
+            throws IOException, InterruptedException {
+        String productId = coin + "-" + TradingBot.QUOTECURRENCY;
+        long end = toSecond - Math.floorMod(toSecond, resolution.seconds); // start of the open candle
+        try (CandleStore.Appender appender = store.append(coin, resolution)) {
+            long before = appender.size();
+            long next = appender.size() == 0 ? fromSecond - Math.floorMod(fromSecond, resolution.seconds)
+                    : appender.lastTime() + resolution.seconds;
+            while (next < end) {
+                long pageEnd = Math.min(next + (long) PAGE_CANDLES * resolution.seconds, end);
+                JSONArray page = fetch(productId, resolution, next, pageEnd);
+                appendPage(appender, page, next, pageEnd);
+                appender.flush();
+                next = pageEnd;
+            }
+            return appender.size() - before;
+        }
+    }
+
+    long requests() {
+        return requests;
+    }
+
+    // Appends the candles of page starting in [from, to), oldest first; the endpoint answers newest first
+    private static void appendPage(CandleStore.Appender appender, JSONArray page, long from, long to)
+            throws IOException {
+        List<JSONObject> candles = new ArrayList<>();
+        for (int i = 0; i < page.length(); i++) {
+            JSONObject candle = page.getJSONObject(i);
+            long start = candle.getLong("start");
+            if (start >= from && start < to) {
+                candles.add(candle);
+            }
+        }
+        candles.sort(Comparator.comparingLong(candle -> candle.getLong("start")));
+        for (JSONObject candle : candles) {
+            long start = candle.getLong("start");
+            if (start <= appender.lastTime()) {
+                continue; // the endpoint repeated a candle
+            }
+            appender.append(start, price(candle, "open"), price(candle, "high"), price(candle, "low"),
+                    price(candle, "close"), Double.parseDouble(candle.get("volume").toString()));
+        }
+    }
+
+    private static long price(JSONObject candle, String field) {
+        return FixedPoint.fromDouble(Double.parseDouble(candle.get(field).toString()), FixedPoint.PRICE_SCALE,
+                RoundingMode.HALF_EVEN);
+    }
+
+    private JSONArray fetch(String productId, CandleAggregator.Resolution resolution, long start, long end)
+            throws IOException, InterruptedException {
+        long pause = retryMillis;
+        for (int attempt = 1;; attempt++) {
+            pace();
+            try {
+                return source.fetch(productId, resolution, start, end);
+            } catch (IOException e) {
+                if (attempt == MAX_ATTEMPTS) {
+                    throw new IOException("Giving up on " + productId + " after " + attempt + " attempts: "
+                            + e.getMessage(), e);
+                }
+                Thread.sleep(pause);
+                pause = Math.min(pause * 2, MAX_RETRY_MILLIS);
+            }
+        }
+    }
+
+    // Waits until the next request keeps within requestsPerSecond
+    private void pace() throws InterruptedException {
+        requests++;
+        if (minRequestNanos == 0) {
+            return;
+        }
+        long wait = lastRequestNanos + minRequestNanos - System.nanoTime();
+        if (wait > 0) {
+            Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+        }
+        lastRequestNanos = System.nanoTime();
+    }
+
+    /**
+     * Reads candles from the public market endpoint of the Coinbase Advanced
+     * API, which needs no API key. Rate limits and server errors are thrown as
+     * IOException to be retried, other errors as IllegalArgumentException.
+     */
+    static final class HttpCandleSource implements CandleSource {
+        private final HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        private final String apiUrl;
+
+        HttpCandleSource(String apiUrl) {
+            this.apiUrl = apiUrl;
+        }
+
+        @Override
+        public JSONArray fetch(String productId, CandleAggregator.Resolution resolution, long startSecond,
+                long endSecond) throws IOException, InterruptedException {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(apiUrl + "/market/products/" + productId
+                    + "/candles?start=" + startSecond + "&end=" + endSecond + "&granularity=" + resolution.granularity
+                    + "&limit=" + PAGE_CANDLES))
+                    .timeout(Duration.ofSeconds(30))
+                    .header("Accept", "application/json")
+                    .GET()
+                    .build();
+            HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() == 429 || response.statusCode() >= 500) {
+                throw new IOException("HTTP " + response.statusCode() + " " + response.body());
+            }
+            if (response.statusCode() != 200) {
+                throw new IllegalArgumentException("HTTP " + response.statusCode() + " " + response.body());
+            }
+            return new JSONObject(response.body()).getJSONArray("candles");
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package org.netno;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Historical candles on disk, one directory per coin and resolution, e.g.
+ * history/BTC/1h.
+ *
+ * The candles are stored by column: time.i64 holds the candle starts in
+ * epoch seconds, open.i64, high.i64, low.i64 and close.i64 the prices at
+ * FixedPoint.PRICE_SCALE and volume.f64 the volume in the base currency. All
+ * values are 8 bytes, little endian, without any header, oldest candle first.
+ * Reading maps the columns into memory, so scanning years of candles needs no
+ * parsing and no copies on the heap.
+ *
+ * Columns are only ever appended to. If a write was interrupted the columns
+ * are cut back to the number of complete candles when they are opened again.
+ */
+public class CandleStore {
+
+    static final String DIRECTORY = "history";
+    private static final int TIME = 0;
+    private static final int OPEN = 1;
+    private static final int HIGH = 2;
+    private static final int LOW = 3;
+    private static final int CLOSE = 4;
+    private static final int VOLUME = 5;
+    private static final String[] COLUMNS = { "time.i64", "open.i64", "high.i64", "low.i64", "close.i64", "volume.f64" };
+    private static final int VALUE_BYTES = 8;
+    private static final int BUFFERED_CANDLES = 1024;
+
+    private final Path directory;
+
+    public CandleStore(Path directory) {
+        this.directory = directory;
+    }
+
+    Path seriesDirectory(String coin, CandleAggregator.Resolution resolution) {
+        return directory.resolve(coin).resolve(resolution.label);
+    }
+
+    // Opens the candles of coin for appending, creating the files if needed
+    public Appender append(String coin, CandleAggregator.Resolution resolution) throws IOException {
+        return new Appender(seriesDirectory(coin, resolution));
+    }
+
+    /**
+     * Maps the candles of coin into memory. The result does not see candles
+     * appended later. A coin without candles gives an empty series.
+     */
+    public Series open(String coin, CandleAggregator.Resolution resolution) throws IOException {
+        Path series = seriesDirectory(coin, resolution);
+        if (!Files.exists(series.resolve(COLUMNS[TIME]))) {
+            return new Series(new ByteBuffer[COLUMNS.length], 0);
+        }
+        FileChannel[] channels = new FileChannel[COLUMNS.length];
+        try {
+            long size = Long.MAX_VALUE;
+            for (int i = 0; i < COLUMNS.length; i++) {
+                channels[i] = FileChannel.open(series.resolve(COLUMNS[i]), StandardOpenOption.READ);
+                size = Math.min(size, channels[i].size() / VALUE_BYTES);
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Too many candles in " + series);
+            }
+            ByteBuffer[] columns = new ByteBuffer[COLUMNS.length];
+            for (int i = 0; i < COLUMNS.length; i++) {
+                columns[i] = channels[i].map(FileChannel.MapMode.READ_ONLY, 0, size * VALUE_BYTES);
+            }
+            return new Series(columns, (int) size);
+        } finally {
+            closeAll(channels);
+        }
+    }
+
+    private static void closeAll(FileChannel[] channels) throws IOException {
+        for (FileChannel channel : channels) {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Candles of one coin and resolution mapped from disk, read in place.
+     */
+    public static final class Series {
+        private final LongBuffer times;
+        private final LongBuffer open;
+        private final LongBuffer high;
+        private final LongBuffer low;
+        private final LongBuffer close;
+        private final DoubleBuffer volume;
+        private final int size;
+
+        Series(ByteBuffer[] columns, int size) {
+            this.size = size;
+            this.times = longs(columns[TIME]);
+            this.open = longs(columns[OPEN]);
+            this.high = longs(columns[HIGH]);
+            this.low = longs(columns[LOW]);
+            this.close = longs(columns[CLOSE]);
+            this.volume = columns[VOLUME] == null ? DoubleBuffer.allocate(0)
+                    : columns[VOLUME].order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        }
+
+        private static LongBuffer longs(ByteBuffer column) {
+            return column == null ? LongBuffer.allocate(0) : column.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        }
+
+        public int size() {
+            return size;
+        }
+
+        // Start of candle i in epoch seconds
+        public long timeAt(int i) {
+            return times.get(i);
+        }
+
+        public long openAt(int i) {
+            return open.get(i);
+        }
+
+        public long highAt(int i) {
+            return high.get(i);
+        }
+
+        public long lowAt(int i) {
+            return low.get(i);
+        }
+
+        public long closeAt(int i) {
+            return close.get(i);
+        }
+
+        public double volumeAt(int i) {
+            return volume.get(i);
+        }
+
+        // Index of the first candle starting at or after epochSecond, size() if there is none
+        public int firstAtOrAfter(long epochSecond) {
+            int from = 0;
+            int to = size;
+            while (from < to) {
+                int mid = (from + to) >>> 1;
+                if (times.get(mid) < epochSecond) {
+                    from = mid + 1;
+                } else {
+                    to = mid;
+                }
+            }
+            return from;
+        }
+    }
+
+    /**
+     * Appends candles to the columns of one coin and resolution. Candles are
+     * buffered and written by flush() and close().
+     */
+    public static final class Appender implements Closeable {
+        private final FileChannel[] channels = new FileChannel[COLUMNS.length];
+        private final ByteBuffer[] buffers = new ByteBuffer[COLUMNS.length];
+        private long size;
+        private long lastTime = Long.MIN_VALUE;
+
+        Appender(Path series) throws IOException {
+            Files.createDirectories(series);
+            try {
+                size = Long.MAX_VALUE;
+                for (int i = 0; i < COLUMNS.length; i++) {
+                    channels[i] = FileChannel.open(series.resolve(COLUMNS[i]), StandardOpenOption.CREATE,
+                            StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    size = Math.min(size, channels[i].size() / VALUE_BYTES);
+                    buffers[i] = ByteBuffer.allocateDirect(BUFFERED_CANDLES * VALUE_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                }
+                // drop what an interrupted write left behind
+                for (FileChannel channel : channels) {
+                    channel.truncate(size * VALUE_BYTES);
+                    channel.position(size * VALUE_BYTES);
+                }
+                if (size > 0) {
+                    ByteBuffer last = ByteBuffer.allocate(VALUE_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                    channels[TIME].read(last, (size - 1) * VALUE_BYTES);
+                    lastTime = last.getLong(0);
+                }
+            } catch (IOException e) {
+                closeAll(channels);
+                throw e;
+            }
+        }
+
+        // Number of candles, including the buffered ones
+        public long size() {
+            return size;
+        }
+
+        // Start of the newest candle in epoch seconds, Long.MIN_VALUE if there is none
+        public long lastTime() {
+            return lastTime;
+        }
+
+        // Appends a candle; candles must come oldest first
+        public void append(long epochSecond, long open, long high, long low, long close, double volume)
+                throws IOException {
+            if (epochSecond <= lastTime) {
+                throw new IllegalArgumentException("Candle at " + epochSecond + " is not after " + lastTime);
+            }
+            if (!buffers[TIME].hasRemaining()) {
+                flush();
+            }
+            buffers[TIME].putLong(epochSecond);
+            buffers[OPEN].putLong(open);
+            buffers[HIGH].putLong(high);
+            buffers[LOW].putLong(low);
+            buffers[CLOSE].putLong(close);
+            buffers[VOLUME].putDouble(volume);
+            lastTime = epochSecond;
+            size++;
+        }
+
+        public void flush() throws IOException {
+            for (int i = 0; i < COLUMNS.length; i++) {
+                ByteBuffer buffer = buffers[i];
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channels[i].write(buffer);
+                }
+                buffer.clear();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                closeAll(channels);
+            }
+        }
+    }
+}
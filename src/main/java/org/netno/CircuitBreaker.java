@@ -0,0 +1,94 @@
+package org.netno;
+
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calling an endpoint that keeps failing.
+ *
+ * After failureThreshold failures in a row the circuit opens and calls fail
+ * right away instead of waiting for a timeout. After openMillis a single call
+ * is let through as a probe: if it succeeds the circuit closes again, if it
+ * fails the circuit stays open for another openMillis.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    // Thrown instead of calling an endpoint whose circuit is open
+    public static class OpenException extends RuntimeException {
+        OpenException(String message) {
+            super(message);
+        }
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final LongSupplier clock; // epoch millis, replaced by tests
+    private State state = State.CLOSED;
+    private int failures; // in a row
+    private long openedAt;
+    private boolean probing; // the probe of the half open circuit is running
+    private volatile BiConsumer<String, String> log = (level, message) -> System.out.println(message);
+
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this(name, failureThreshold, openMillis, System::currentTimeMillis);
+    }
+
+    CircuitBreaker(String name, int failureThreshold, long openMillis, LongSupplier clock) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.clock = clock;
+    }
+
+    // Receives the changes of the state with a log level, e.g. the bot's log
+    void setLog(BiConsumer<String, String> log) {
+        this.log = log;
+    }
+
+    // Throws OpenException unless a call may be made now; every allowed call must be followed by succeeded,
+    // failed or released
+    public synchronized void acquire() {
+        if (state == State.OPEN && clock.getAsLong() - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+        }
+        if (state == State.OPEN || (state == State.HALF_OPEN && probing)) {
+            throw new OpenException(String.format("%s is failing, trying again in %d s.", name,
+                    Math.max(0, (openedAt + openMillis - clock.getAsLong() + 999) / 1000)));
+        }
+        probing = state == State.HALF_OPEN;
+    }
+
+    public synchronized void succeeded() {
+        if (state != State.CLOSED) {
+            log.accept("INFO", String.format("%s recovered, circuit closed.", name));
+        }
+        state = State.CLOSED;
+        failures = 0;
+        probing = false;
+    }
+
+    public synchronized void failed() {
+        failures++;
+        probing = false;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+            log.accept("ERROR", String.format("%s failed %d times in a row, circuit opened for %d s.", name, failures,
+                    openMillis / 1000));
+            state = State.OPEN;
+            openedAt = clock.getAsLong();
+        }
+    }
+
+    // A call ended without showing whether the endpoint works, e.g. a rejected request
+    public synchronized void released() {
+        probing = false;
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+}
@@ -3,6 +3,9 @@ package org.netno;
 import com.coinbase.advanced.client.CoinbaseAdvancedClient;
 import com.coinbase.advanced.credentials.CoinbaseAdvancedCredentials;
 import org.json.JSONObject;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.Scanner;
 
 public class CoinbaseBot {
@@ -11,6 +14,9 @@ public class CoinbaseBot {
     private static Config config;
     private static CoinbaseAdvancedClient client;
     private static TradingBot tradingBot;
+    private static ConfigWatcher configWatcher;
+    private static LeaderElection leaderElection;
+    private static final long LEADER_CHECK_MILLIS = 1000;
 
     public CoinbaseAdvancedClient getClient() {
         return client;
@@ -60,13 +66,17 @@ public class CoinbaseBot {
         try {
             config = Config.loadConfig(CONFIG_FILE);
             System.out.println("Configuration loaded successfully.");
+            if (config.flightRecording) {
+                startFlightRecording();
+            }
 
             // Initialize the client
             JSONObject credentialsJson = new JSONObject();
             credentialsJson.put("apiKeyName", config.apiKey);
             credentialsJson.put("privateKey", config.apiSecret);
             CoinbaseAdvancedCredentials credentials = new CoinbaseAdvancedCredentials(credentialsJson.toString());
-            client = new CoinbaseAdvancedClient(credentials);
+            client = config.apiUrl == null ? new CoinbaseAdvancedClient(credentials)
+                    : new CoinbaseAdvancedClient(credentials, config.apiUrl);
 
             System.out.println("API unlocked successfully.");
         } catch (Exception e) {
@@ -75,7 +85,19 @@ public class CoinbaseBot {
         }
     }
 
-    private static void startTrading() {
+    // Records the trading loop continuously, written to recordings/ when the bot exits
+    private static void startFlightRecording() {
+        String started = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+        Path destination = Path.of("recordings", config.shardFile("trading-" + started + ".jfr"));
+        try {
+            FlightEvents.start(destination);
+            System.out.println("Flight recording started, written to " + destination + " on exit.");
+        } catch (Exception e) {
+            System.out.println("Failed to start the flight recording: " + e.getMessage());
+        }
+    }
+
+    private static synchronized void startTrading() {
         if (client == null) {
             System.out.println("Error: API is not unlocked. Use 'unlock' first.");
             return;
@@ -89,26 +111,72 @@ public class CoinbaseBot {
         System.out.println("Starting trading loop...");
 
         tradingBot = new TradingBot(client, config);
-        if (tradingBot.initialized) {
-            tradingBot.startTrading();
-            WebServer webServer = new WebServer(tradingBot);
-            try {
-                webServer.start();
-            } catch (Exception e) {
-                System.out.println("Failed to start web server: " + e.getLocalizedMessage());
-            }
-        } else {
+        if (!tradingBot.initialized) {
+            tradingBot = null;
             System.out.println("Failed to start trading!");
+            return;
+        }
+        if (!config.highAvailability) {
+            startServices();
+            return;
+        }
+        TradingBot standby = tradingBot;
+        leaderElection = new LeaderElection(config.shardFile(LeaderElection.FILE), LEADER_CHECK_MILLIS, standby::refreshAssets, () -> {
+            synchronized (CoinbaseBot.class) {
+                if (tradingBot != standby) {
+                    return; // stopped meanwhile
+                }
+                try {
+                    standby.takeOver();
+                } catch (Exception e) {
+                    // trading with the state from before the standby started could send orders twice
+                    throw new IllegalStateException(e.getLocalizedMessage(), e);
+                }
+                System.out.println("This instance is the leader now.");
+                startServices();
+            }
+        });
+        try {
+            if (!leaderElection.start()) {
+                System.out.println("Another instance is trading. Standing by to take over when it stops.");
+            }
+        } catch (Exception e) {
+            System.out.println("Failed to join the leader election: " + e.getLocalizedMessage());
         }
     }
 
-    private static void stopTrading() {
+    // Starts trading, the configuration watcher and the web interface
+    private static void startServices() {
+        tradingBot.startTrading();
+        configWatcher = new ConfigWatcher(tradingBot, CONFIG_FILE);
+        try {
+            configWatcher.start();
+        } catch (Exception e) {
+            System.out.println("Failed to watch the configuration: " + e.getLocalizedMessage());
+        }
+        WebServer webServer = new WebServer(tradingBot);
+        try {
+            webServer.start();
+        } catch (Exception e) {
+            System.out.println("Failed to start web server: " + e.getLocalizedMessage());
+        }
+    }
+
+    private static synchronized void stopTrading() {
         if (tradingBot != null) {
+            if (configWatcher != null) {
+                configWatcher.stop();
+                configWatcher = null;
+            }
             tradingBot.stopTrading();
             tradingBot = null;
+            if (leaderElection != null) {
+                leaderElection.stop(); // after the last save, so a standby reads the final state
+                leaderElection = null;
+            }
             System.out.println("Trading loop stopped. Returning to main menu...");
         } else {
             System.out.println("Trading is not currently running.");
         }
     }
-}
\ No newline at end of file
+}
@@ -1,16 +1,32 @@
 package org.netno;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
+/**
+ * The settings from config.json.
+ *
+ * A loaded Config is never modified. When config.json changes, the
+ * ConfigWatcher loads a new instance and the trading bot swaps it in between
+ * two evaluations.
+ */
 public class Config {
     String apiKey;                              //our Coinbase API key
     String apiSecret;                           //our Coinbase API secret
     String portfolioId;                         //our Coinbase POrtfolio ID
+    String apiUrl;                              //base URL of the Coinbase API, e.g. of the ExchangeSimulator, the real API if not set
     List<String> coins;                         //List of Coins to trade
     double purchaseDropPercent;                 //minimum percentage a coin price has to drop compared to previous day in order to buy it
     int maxHeldCoins;                           //maximum number of coins to hold
@@ -22,6 +38,15 @@ public class Config {
     double minimumProfitPercentage;             //minimum performance percentage to reach in order to sell
     double stopLossSalePercentage;              //percentage down from highest price to sell    
     double takerFeePercentage;                  //percentage of take fee to visualize realistic net performance
+    int webServerThreads;                       //threads serving the web interface, 0 for a virtual thread per request where available
+    boolean fallingKnifeFilter;                 //do not buy or average down while the price is below its falling moving averages
+    boolean highAvailability;                   //wait as a standby while another instance in the same directory trades, take over when it stops
+    int shardCount;                             //number of processes sharing the coins, 1 for a single process
+    int shardIndex;                             //which of the shardCount processes this is, from 0
+    boolean adaptivePolling;                    //poll coins close to a trigger every second and calm ones every minute instead of all every 15 seconds
+    double maxRequestsPerSecond;                //price requests per second adaptive polling may make in total
+    boolean flightRecording;                    //keep a continuous Java Flight Recorder recording of the last day with the trading events
+    List<ShadowStrategy.Settings> shadowStrategies = List.of(); //variants of purchaseDropPercent, stopLossSalePercentage and averageDownSteps to paper trade next to the live settings
 
     public Config(){};
 
@@ -33,9 +58,10 @@ public class Config {
         config.apiKey = json.getString("apiKey");
         config.apiSecret = json.getString("apiSecret");
         config.portfolioId = json.getString("portfolioId");
+        config.apiUrl = json.optString("apiUrl", null);
         config.coins = json.getJSONArray("coins").toList().stream()
                 .map(Object::toString)
-                .collect(Collectors.toList());
+                .collect(Collectors.toUnmodifiableList());
         config.purchaseDropPercent = json.getDouble("purchaseDropPercent");
         config.maxHeldCoins = json.getInt("maxHeldCoins");
         config.useFundsPortionPerTrade = json.getDouble("useFundsPortionPerTrade");
@@ -43,14 +69,127 @@ public class Config {
         config.timeZone = json.has("timeZone") ? json.getString("timeZone") : "UTC";
         config.negativeProfitLevels = json.getJSONArray("negativeProfitLevels").toList().stream()
                 .map(obj -> Double.valueOf(obj.toString()))
-                .collect(Collectors.toList());
+                .collect(Collectors.toUnmodifiableList());
         config.averageDownSteps = json.getJSONArray("averageDownSteps").toList().stream()
                 .map(val -> Double.parseDouble(val.toString()))
-                .collect(Collectors.toList());
+                .collect(Collectors.toUnmodifiableList());
         config.minimumProfitPercentage = json.getDouble("minimumProfitPercentage");
         config.stopLossSalePercentage = json.getDouble("stopLossSalePercentage");
         config.takerFeePercentage = json.getDouble("takerFeePercentage");
+        config.webServerThreads = json.optInt("webServerThreads", 0);
+        config.fallingKnifeFilter = json.optBoolean("fallingKnifeFilter", false);
+        config.highAvailability = json.optBoolean("highAvailability", false);
+        config.shardCount = json.optInt("shardCount", 1);
+        config.shardIndex = json.optInt("shardIndex", 0);
+        config.adaptivePolling = json.optBoolean("adaptivePolling", false);
+        config.maxRequestsPerSecond = json.optDouble("maxRequestsPerSecond", 5);
+        config.flightRecording = json.optBoolean("flightRecording", false);
+        if (json.has("shadowStrategies")) {
+            JSONArray shadows = json.getJSONArray("shadowStrategies");
+            List<ShadowStrategy.Settings> settings = new ArrayList<>();
+            for (int i = 0; i < shadows.length(); i++) {
+                settings.add(ShadowStrategy.Settings.fromJson(shadows.getJSONObject(i)));
+            }
+            config.shadowStrategies = List.copyOf(settings);
+        }
+        config.validate();
         return config;
     }
 
+    // The name of file for this shard, e.g. currentAssets.shard2.json; file itself if the coins are not sharded
+    String shardFile(String file) {
+        if (shardCount <= 1) {
+            return file;
+        }
+        int extension = file.lastIndexOf('.');
+        return extension < 0 ? file + ".shard" + shardIndex
+                : file.substring(0, extension) + ".shard" + shardIndex + file.substring(extension);
+    }
+
+    // Rejects settings the trading loop cannot work with
+    void validate() {
+        if (coins == null || coins.isEmpty()) {
+            throw new IllegalArgumentException("coins must not be empty");
+        }
+        if (shardCount < 0 || shardIndex < 0 || shardIndex >= Math.max(shardCount, 1)) {
+            throw new IllegalArgumentException("shardIndex must be between 0 and shardCount - 1");
+        }
+        if (maxRequestsPerSecond < 0) {
+            throw new IllegalArgumentException("maxRequestsPerSecond must not be negative");
+        }
+        if (maxHeldCoins < 0) {
+            throw new IllegalArgumentException("maxHeldCoins must not be negative");
+        }
+        if (!(useFundsPortionPerTrade > 0 && useFundsPortionPerTrade <= 1)) {
+            throw new IllegalArgumentException("useFundsPortionPerTrade must be greater than 0 and at most 1");
+        }
+        if (negativeProfitLevels == null || negativeProfitLevels.isEmpty()) {
+            throw new IllegalArgumentException("negativeProfitLevels must not be empty");
+        }
+        if (averageDownSteps == null || averageDownSteps.isEmpty()) {
+            throw new IllegalArgumentException("averageDownSteps must not be empty");
+        }
+        if (purchaseDropPercent < 0 || minimumProfitPercentage < 0 || stopLossSalePercentage < 0
+                || takerFeePercentage < 0) {
+            throw new IllegalArgumentException("percentages must not be negative");
+        }
+        Set<String> shadowNames = new HashSet<>();
+        for (ShadowStrategy.Settings shadow : shadowStrategies) {
+            if (shadow.name.isEmpty() || !shadowNames.add(shadow.name)) {
+                throw new IllegalArgumentException("shadowStrategies need distinct names");
+            }
+            if ((shadow.purchaseDropPercent != null && shadow.purchaseDropPercent < 0)
+                    || (shadow.stopLossSalePercentage != null && shadow.stopLossSalePercentage < 0)) {
+                throw new IllegalArgumentException("percentages must not be negative");
+            }
+            if (shadow.averageDownSteps != null && shadow.averageDownSteps.isEmpty()) {
+                throw new IllegalArgumentException("averageDownSteps must not be empty");
+            }
+        }
+        try {
+            TradingBot.LogLevel.valueOf(logLevel.toUpperCase());
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("unknown logLevel " + logLevel);
+        }
+        try {
+            ZoneId.of(timeZone);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("unknown timeZone " + timeZone);
+        }
+    }
+
+    // Names of the settings that differ between this and other
+    List<String> changedFields(Config other) {
+        List<String> changed = new ArrayList<>();
+        for (Field field : Config.class.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+                continue;
+            }
+            try {
+                if (!Objects.equals(field.get(this), field.get(other))) {
+                    changed.add(field.getName());
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return changed;
+    }
+
+    // A copy with the same settings; the lists are shared, they are never modified either
+    Config copy() {
+        Config copy = new Config();
+        for (Field field : Config.class.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+                continue;
+            }
+            try {
+                field.set(copy, field.get(this));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return copy;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,89 @@
+package org.netno;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reloads config.json into the running trading bot when the file changes.
+ *
+ * Editors often write a file in several steps, so a reload waits until the
+ * file has been quiet for a moment. A file that cannot be parsed or contains
+ * invalid settings is logged and ignored; the bot keeps trading with the
+ * settings it has.
+ */
+public class ConfigWatcher {
+
+    private static final long QUIET_MILLIS = 500;
+
+    private final TradingBot tb;
+    private final Path file;
+    private WatchService watchService;
+    private Thread thread;
+
+    public ConfigWatcher(TradingBot tradingBot, String filePath) {
+        this.tb = tradingBot;
+        this.file = Path.of(filePath).toAbsolutePath();
+    }
+
+    public void start() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        // directories are watched, not files; this also sees files replaced by a rename
+        file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        thread = new Thread(this::watch, "config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            tb.log("ERROR", "Error closing the configuration watcher: " + e.getMessage());
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = concernsFile(key);
+                // collect the rest of the burst of events of a single save
+                while ((key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= concernsFile(key);
+                }
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // stopped
+        }
+    }
+
+    private boolean concernsFile(WatchKey key) {
+        boolean concerns = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+                concerns = true;
+            }
+        }
+        key.reset();
+        return concerns;
+    }
+
+    void reload() {
+        try {
+            tb.reloadConfig(Config.loadConfig(file.toString()));
+        } catch (Exception e) {
+            tb.log("ERROR", String.format("Ignoring changed configuration %s: %s", file.getFileName(), e.getMessage()));
+        }
+    }
+}
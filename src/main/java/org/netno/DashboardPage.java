@@ -0,0 +1,463 @@
+package org.netno;
+
+import java.nio.charset.StandardCharsets;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Renders the held coins dashboard as UTF-8 bytes.
+ *
+ * The static markup, style and script are encoded once. Numbers are written
+ * from the fixed point values of the snapshot straight into a ResponseBuffer,
+ * without String.format and regular expressions. Safe for concurrent use.
+ */
+final class DashboardPage {
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss z");
+    private static final int MAX_CACHED_DATES = 16 * 1024;
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    // everything up to the snapshot time
+    private static final byte[] HEAD = utf8(
+            "<!DOCTYPE html>",
+            "<html>",
+            "<head>",
+            "<title>CoinbaseBot</title>",
+            "<style>",
+            "body { font-family: Arial, sans-serif; margin: 0; padding: 0; }",
+            "table { border-collapse: collapse; width: 90%; margin: auto; }",
+            "th, td { border: 1px solid black; padding: 8px; text-align: center; }",
+            "th { background-color: #f2f2f2; }",
+            ".profit { color: green; }",
+            ".loss { color: red; }",
+            ".neutral { color: black; }",
+            ".cash-info { text-align: center; font-size: 18px; margin-top: 20px; }",
+            ".datetime { position: absolute; top: 10px; left: 10px; font-size: 12px; color: gray; }",
+            ".collapsible { cursor: pointer; padding: 10px; text-align: left; background-color: #f2f2f2; border: none; outline: none; width: 90%; margin: auto; font-size: 16px; }",
+            ".content { padding: 10px 15px; display: none; background-color: #ffffff; width: 90%; margin: auto; }",
+            ".collapsible:after { content: '\\002B'; float: right; }",
+            ".active:after { content: '\\2212'; }",
+            "@media screen and (max-width: 600px) { table { font-size: 12px; } th, td { padding: 5px; } }",
+            "</style>",
+            "<script>",
+            "document.addEventListener('DOMContentLoaded', () => {",
+            "    const collapsibles = document.querySelectorAll('.collapsible');",
+            "    collapsibles.forEach(button => {",
+            "        button.addEventListener('click', () => {",
+            "            button.classList.toggle('active');",
+            "            const content = button.nextElementSibling;",
+            "            content.style.display = content.style.display === 'block' ? 'none' : 'block';",
+            "        });",
+            "    });",
+            "});",
+            // Live updates: the rows below are the first paint, afterwards /api/events pushes only the changes
+            "const positions = {};",
+            "const num = (v, d) => v === null ? '-' : Number(v.toFixed(d)).toString();",
+            "const cls = v => v === null ? 'neutral' : v >= 0 ? 'profit' : 'loss';",
+            "function row(p) {",
+            "  const known = p.currentPrice !== null;",
+            "  return '<td>' + p.coin + '</td><td>' + p.purchaseDate.substring(0, 19).replace('T', ' ') + '</td>'",
+            "    + '<td>' + p.daysHeld + '</td><td>' + num(p.purchasePrice, 6) + '</td>'",
+            "    + '<td class=\\'' + (p.aboveSellBarrier ? 'profit' : 'neutral') + '\\'>' + num(p.highestPrice, 6)",
+            "    + ' (' + num(p.highestPerformance, 2) + '%)</td>'",
+            "    + '<td>' + num(p.currentPrice, 6) + '</td><td>' + (known ? p.currentValue.toFixed(2) : '-') + '</td>'",
+            "    + '<td class=\\'' + cls(p.winLossPercent) + '\\'>' + (known ? p.winLossPercent.toFixed(2) + '%' : '-') + '</td>'",
+            "    + '<td class=\\'' + cls(p.winLoss) + '\\'>' + (known ? p.winLoss.toFixed(2) + ' USDC' : '-') + '</td>'",
+            "    + '<td>' + (p.averageDownSteps > 0 ? p.averageDownSteps : 'None') + '</td>'",
+            "    + '<td><form method=\\'post\\' action=\\'/sell\\'><input type=\\'hidden\\' name=\\'coin\\' value=\\'' + p.coin",
+            "    + '\\'/><input type=\\'submit\\' value=\\'Sell\\'/></form></td>';",
+            "}",
+            "function render(coin) {",
+            "  let tr = document.getElementById('row-' + coin);",
+            "  if (!positions[coin]) { if (tr) tr.remove(); return; }",
+            "  if (!tr) { tr = document.createElement('tr'); tr.id = 'row-' + coin; document.getElementById('positions').appendChild(tr); }",
+            "  tr.innerHTML = row(positions[coin]);",
+            "}",
+            "function cash(balance) { document.getElementById('cash').textContent = balance.toFixed(2) + ' USDC'; }",
+            "function updated() { document.querySelector('.datetime').textContent = new Date().toLocaleString(); }",
+            // Sell buttons queue a command and show its progress instead of leaving the page
+            "document.addEventListener('submit', e => {",
+            "  e.preventDefault();",
+            "  const form = e.target, button = form.querySelector('input[type=submit]');",
+            "  button.disabled = true; button.value = 'Queued';",
+            "  fetch(form.action, { method: 'POST', body: new URLSearchParams(new FormData(form)) })",
+            "    .then(r => r.json()).then(command => poll(command, button))",
+            "    .catch(() => { button.disabled = false; button.value = 'Sell'; });",
+            "});",
+            "function poll(command, button) {",
+            "  if (!command.id || command.status === 'SUCCEEDED' || command.status === 'FAILED') {",
+            "    const sold = command.status === 'SUCCEEDED';",
+            "    button.disabled = sold; button.value = sold ? 'Sold' : 'Sell';",
+            "    if (!sold) alert(command.message || command.error);",
+            "    return;",
+            "  }",
+            "  button.value = command.status === 'RUNNING' ? 'Selling' : 'Queued';",
+            "  setTimeout(() => fetch('/api/commands/' + command.id).then(r => r.json()).then(c => poll(c, button)), 1000);",
+            "}",
+            // Price history chart of the selected coin, drawn from /api/history
+            "function historyCoins() {",
+            "  const select = document.getElementById('history-coin');",
+            "  const selected = select.value;",
+            "  select.innerHTML = Object.keys(positions).sort().map(c => '<option>' + c + '</option>').join('');",
+            "  if (positions[selected]) select.value = selected;",
+            "}",
+            "function drawHistory() {",
+            "  const coin = document.getElementById('history-coin').value;",
+            "  const canvas = document.getElementById('history');",
+            "  if (!coin || canvas.offsetParent === null) return;",
+            "  const from = Date.now() - document.getElementById('history-range').value * 86400000;",
+            "  fetch('/api/history?coin=' + encodeURIComponent(coin) + '&from=' + from + '&points=' + canvas.width)",
+            "    .then(r => r.ok ? r.json() : { points: [] }).then(h => {",
+            "      const ctx = canvas.getContext('2d');",
+            "      ctx.clearRect(0, 0, canvas.width, canvas.height);",
+            "      if (h.points.length < 2) return;",
+            "      const t0 = h.points[0][0], t1 = h.points[h.points.length - 1][0];",
+            "      const purchase = positions[coin] ? positions[coin].purchasePrice : null;",
+            "      const prices = h.points.map(p => p[1]).concat(purchase === null ? [] : [purchase]);",
+            "      const lo = Math.min(...prices), hi = Math.max(...prices);",
+            "      const x = t => 80 + (t - t0) / Math.max(1, t1 - t0) * (canvas.width - 90);",
+            "      const y = p => canvas.height - 20 - (p - lo) / Math.max(1e-12, hi - lo) * (canvas.height - 40);",
+            "      ctx.fillStyle = 'gray';",
+            "      ctx.fillText(num(hi, 6), 0, y(hi) + 4);",
+            "      ctx.fillText(num(lo, 6), 0, y(lo) + 4);",
+            "      if (purchase !== null) {",
+            "        ctx.strokeStyle = 'gray'; ctx.setLineDash([4, 4]);",
+            "        ctx.beginPath(); ctx.moveTo(80, y(purchase)); ctx.lineTo(canvas.width, y(purchase)); ctx.stroke();",
+            "        ctx.setLineDash([]);",
+            "      }",
+            "      ctx.strokeStyle = 'black';",
+            "      ctx.beginPath();",
+            "      h.points.forEach((p, i) => i ? ctx.lineTo(x(p[0]), y(p[1])) : ctx.moveTo(x(p[0]), y(p[1])));",
+            "      ctx.stroke();",
+            "    });",
+            "}",
+            "document.addEventListener('DOMContentLoaded', () => {",
+            "  document.getElementById('history-toggle').addEventListener('click', drawHistory);",
+            "  setInterval(drawHistory, 60000);",
+            "});",
+            // Indicator table, refreshed from /api/indicators while it is open
+            "function drawIndicators() {",
+            "  const table = document.getElementById('indicators');",
+            "  if (table.offsetParent === null) return;",
+            "  fetch('/api/indicators').then(r => r.json()).then(data => {",
+            "    table.innerHTML = data.indicators.map(i => '<tr><td>' + i.coin + '</td><td>' + num(i.price, 6) + '</td>'",
+            "      + '<td>' + num(i.fastEma, 6) + '</td><td>' + num(i.slowEma, 6) + '</td><td>' + num(i.rsi, 1) + '</td>'",
+            "      + '<td>' + num(i.hourlyVolatilityPercent, 3) + '%</td><td>' + num(i.vwap, 6) + '</td>'",
+            "      + '<td class=\\'' + (i.falling ? 'loss' : 'neutral') + '\\'>' + (!i.ready ? 'Warming up' : i.falling ? 'Falling' : '-')",
+            "      + '</td></tr>').join('');",
+            "  });",
+            "}",
+            "document.addEventListener('DOMContentLoaded', () => {",
+            "  document.getElementById('indicators-toggle').addEventListener('click', drawIndicators);",
+            "  setInterval(drawIndicators, 15000);",
+            "});",
+            // Latency of the stages of the latest orders, refreshed from /api/traces while it is open
+            "function drawTraces() {",
+            "  const stages = document.getElementById('trace-stages');",
+            "  if (stages.offsetParent === null) return;",
+            "  const ms = micros => num(micros / 1000, 1);",
+            "  fetch('/api/traces?limit=10').then(r => r.json()).then(data => {",
+            "    stages.innerHTML = Object.entries(data.stages).map(([stage, s]) => '<tr><td>' + stage + '</td><td>'",
+            "      + s.count + '</td><td>' + ms(s.p50Micros) + '</td><td>' + ms(s.p95Micros) + '</td><td>'",
+            "      + ms(s.maxMicros) + '</td></tr>').join('');",
+            "    document.getElementById('trace-spans').innerHTML = data.spans.map(s => '<tr><td>'",
+            "      + new Date(s.startedAt).toLocaleString() + '</td><td>' + s.coin + '</td><td>' + s.decision + '</td><td>'",
+            "      + s.outcome + '</td><td>' + ['evaluate', 'build', 'exchange', 'persist'].map(stage =>",
+            "        stage in s.stageMicros ? ms(s.stageMicros[stage]) : '-').join(' / ') + '</td><td>'",
+            "      + ms(s.totalMicros) + '</td></tr>').join('');",
+            "  });",
+            "}",
+            "document.addEventListener('DOMContentLoaded', () => {",
+            "  document.getElementById('traces-toggle').addEventListener('click', drawTraces);",
+            "  setInterval(drawTraces, 15000);",
+            "});",
+            // Realized results and the latest trades, refreshed from /api/performance while it is open
+            "function drawPerformance() {",
+            "  const summary = document.getElementById('performance-summary');",
+            "  if (summary.offsetParent === null) return;",
+            "  const signed = v => '<td class=\\'' + (v >= 0 ? 'profit' : 'loss') + '\\'>' + num(v, 2) + ' USDC</td>';",
+            "  fetch('/api/performance?limit=200').then(r => r.json()).then(data => {",
+            "    const p = data.summary;",
+            "    summary.innerHTML = '<tr>' + signed(p.realized) + signed(p.unrealized) + signed(p.total)",
+            "      + '<td>' + num(p.fees, 2) + ' USDC</td><td>' + p.sales + '</td><td>' + num(p.winRate, 1) + '%</td>'",
+            "      + '<td>' + num(p.averageHoldHours, 1) + ' h</td></tr>';",
+            "    document.getElementById('performance-trades').innerHTML = data.events.filter(e => e.type !== 'EQUITY')",
+            "      .slice(0, 20).map(e => '<tr><td>' + new Date(e.time).toLocaleString() + '</td><td>' + e.coin + '</td><td>'",
+            "      + e.type + '</td>' + (e.type === 'SELL' ? signed(e.winLoss) : '<td>-</td>') + '<td>' + num(e.fee, 2)",
+            "      + ' USDC</td></tr>').join('');",
+            "  });",
+            "}",
+            "document.addEventListener('DOMContentLoaded', () => {",
+            "  document.getElementById('performance-toggle').addEventListener('click', drawPerformance);",
+            "  setInterval(drawPerformance, 60000);",
+            "});",
+            // Live and shadow strategy results since the shadows started, refreshed from /api/shadows while it is open
+            "function drawShadows() {",
+            "  const table = document.getElementById('shadows');",
+            "  if (table.offsetParent === null) return;",
+            "  const signed = v => '<td class=\\'' + (v >= 0 ? 'profit' : 'loss') + '\\'>' + num(v, 2) + '</td>';",
+            "  const setting = v => v === undefined ? 'live' : Array.isArray(v) ? v.join(', ') : v;",
+            "  fetch('/api/shadows').then(r => r.json()).then(data => {",
+            "    table.innerHTML = '<tr><td><b>Live</b></td><td>-</td><td>-</td><td>-</td>' + signed(data.live.total)",
+            "      + signed(data.live.totalPercent) + '<td>-</td><td>-</td><td>-</td></tr>'",
+            "      + data.strategies.map(s => '<tr><td>' + s.name + '</td><td>' + setting(s.purchaseDropPercent) + '</td><td>'",
+            "      + setting(s.stopLossSalePercentage) + '</td><td>' + setting(s.averageDownSteps) + '</td>' + signed(s.total)",
+            "      + signed(s.totalPercent) + '<td>' + s.sales + '</td><td>' + num(s.winRate, 1) + '%</td><td>'",
+            "      + s.held.join(', ') + '</td></tr>').join('');",
+            "    document.getElementById('shadow-rounds').textContent = data.rounds + ' rounds on ' + data.threads",
+            "      + ' threads, the last took ' + num(data.roundMicros / 1000, 1) + ' ms';",
+            "  });",
+            "}",
+            "document.addEventListener('DOMContentLoaded', () => {",
+            "  document.getElementById('shadows-toggle').addEventListener('click', drawShadows);",
+            "  setInterval(drawShadows, 15000);",
+            "});",
+            "const source = new EventSource('/api/events');",
+            "source.addEventListener('snapshot', e => {",
+            "  const data = JSON.parse(e.data);",
+            "  document.getElementById('positions').innerHTML = '';",
+            "  Object.keys(positions).forEach(coin => delete positions[coin]);",
+            "  data.positions.forEach(p => { positions[p.coin] = p; render(p.coin); });",
+            "  cash(data.usdcBalance); historyCoins(); drawHistory(); updated();",
+            "});",
+            "source.addEventListener('delta', e => {",
+            "  const data = JSON.parse(e.data);",
+            "  Object.entries(data.positions || {}).forEach(([coin, fields]) => {",
+            "    positions[coin] = Object.assign(positions[coin] || {}, fields); render(coin); });",
+            "  (data.removed || []).forEach(coin => { delete positions[coin]; render(coin); });",
+            "  if (data.usdcBalance !== undefined) cash(data.usdcBalance);",
+            "  historyCoins();",
+            "  if (data.positions && data.positions[document.getElementById('history-coin').value]) drawHistory();",
+            "  updated();",
+            "});",
+            "</script>",
+            "</head>",
+            "<body>",
+            "<div class='datetime'>");
+
+    private static final byte[] TABLE_HEAD = utf8(
+            "</div>",
+            // Held Coins Table
+            "<h1 style='text-align:center;'>CoinbaseBot</h1>",
+            "<table>",
+            "<tr>",
+            "<th>Coin</th>",
+            "<th>Purchase<br>Date</th>",
+            "<th>Days<br>Held</th>",
+            "<th>Average<br>Purchase<br>Price</th>",
+            "<th>Highest Price<br>Highest Gross Win %</th>",
+            "<th>Current<br>Price</th>",
+            "<th>Current<br>Gross Value<br>(USDC)</th>",
+            "<th>Net<br>Win/Loss<br>(%)</th>",
+            "<th>Net<br>Win/Loss<br>(USDC)</th>",
+            "<th>Average<br>Down<br>Steps</th>",
+            "<th>Action</th>",
+            "</tr>",
+            "<tbody id='positions'>");
+
+    private static final byte[] ROW_START = utf8("<tr id='row-");
+    private static final byte[] ROW_COIN = utf8("'><td>");
+    private static final byte[] NEXT_CELL = utf8("</td><td>");
+    private static final byte[] HIGHEST_PROFIT = utf8("</td><td class='profit'>");
+    private static final byte[] HIGHEST_NEUTRAL = utf8("</td><td class='neutral'>");
+    private static final byte[] PERCENT_OPEN = utf8(" (");
+    private static final byte[] PERCENT_CLOSE = utf8("%)");
+    private static final byte[] PROFIT_CELL = utf8("</td><td class='profit'>");
+    private static final byte[] LOSS_CELL = utf8("</td><td class='loss'>");
+    private static final byte[] PERCENT = utf8("%");
+    private static final byte[] USDC = utf8(" USDC");
+    private static final byte[] NO_PRICE = utf8("-</td><td>-</td><td>-</td><td>-");
+    private static final byte[] NONE = utf8("None");
+    private static final byte[] SELL_FORM = utf8(
+            "</td><td>",
+            "<form method='post' action='/sell'>",
+            "<input type='hidden' name='coin' value='");
+    private static final byte[] ROW_END = utf8(
+            "'/>",
+            "<input type='submit' value='Sell'/>",
+            "</form>",
+            "</td>",
+            "</tr>");
+    private static final byte[] CASH = utf8(
+            "</tbody>",
+            "</table>",
+            // Display Current USDC Cash
+            "<div class='cash-info'>",
+            "Current USDC Cash: <span id='cash'>");
+    private static final byte[] TAIL = utf8(
+            " USDC</span>",
+            "</div>",
+            // Price history chart, filled by the script
+            "<button id='history-toggle' class='collapsible' style='display: block; margin: 20px auto 0;'>Price history</button>",
+            "<div class='content'>",
+            "<select id='history-coin' onchange='drawHistory()'></select> ",
+            "<select id='history-range' onchange='drawHistory()'>",
+            "<option value='1'>1 day</option>",
+            "<option value='7'>7 days</option>",
+            "<option value='30'>30 days</option>",
+            "</select>",
+            "<canvas id='history' width='800' height='300' style='width: 100%;'></canvas>",
+            "</div>",
+            // Indicators of all traded coins, filled by the script
+            "<button id='indicators-toggle' class='collapsible' style='display: block; margin: 20px auto 0;'>Indicators</button>",
+            "<div class='content'>",
+            "<table>",
+            "<tr><th>Coin</th><th>Price</th><th>EMA 20</th><th>EMA 240</th><th>RSI 14</th><th>Hourly<br>Volatility</th><th>VWAP</th><th>Trend</th></tr>",
+            "<tbody id='indicators'></tbody>",
+            "</table>",
+            "</div>",
+            // Stage latencies of the latest orders, filled by the script
+            "<button id='traces-toggle' class='collapsible' style='display: block; margin: 20px auto 0;'>Order Latency</button>",
+            "<div class='content'>",
+            "<table>",
+            "<tr><th>Stage</th><th>Orders</th><th>Median ms</th><th>95% ms</th><th>Max ms</th></tr>",
+            "<tbody id='trace-stages'></tbody>",
+            "</table>",
+            "<table>",
+            "<tr><th>Price Fetched</th><th>Coin</th><th>Decision</th><th>Outcome</th><th>Evaluate / Build / Exchange / Persist ms</th><th>Total ms</th></tr>",
+            "<tbody id='trace-spans'></tbody>",
+            "</table>",
+            "</div>",
+            // Realized and unrealized results and the latest trades, filled by the script
+            "<button id='performance-toggle' class='collapsible' style='display: block; margin: 20px auto 0;'>Performance</button>",
+            "<div class='content'>",
+            "<table>",
+            "<tr><th>Realized</th><th>Unrealized</th><th>Total</th><th>Fees</th><th>Sales</th><th>Win Rate</th><th>Average Hold</th></tr>",
+            "<tbody id='performance-summary'></tbody>",
+            "</table>",
+            "<table>",
+            "<tr><th>Time</th><th>Coin</th><th>Trade</th><th>Profit/Loss</th><th>Fee</th></tr>",
+            "<tbody id='performance-trades'></tbody>",
+            "</table>",
+            "</div>",
+            // Shadow strategies compared with the live one, filled by the script
+            "<button id='shadows-toggle' class='collapsible' style='display: block; margin: 20px auto 0;'>Shadow Strategies</button>",
+            "<div class='content'>",
+            "<table>",
+            "<tr><th>Strategy</th><th>Purchase Drop %</th><th>Stop Loss %</th><th>Average Down Steps</th><th>Profit/Loss USDC</th><th>Profit/Loss %</th><th>Sales</th><th>Win Rate</th><th>Held</th></tr>",
+            "<tbody id='shadows'></tbody>",
+            "</table>",
+            "<p id='shadow-rounds'></p>",
+            "</div>",
+            "</body>",
+            "</html>");
+
+    // formatted purchase dates, they only change when a coin is bought
+    private volatile DateCache dates = new DateCache(ZoneId.of("UTC"));
+
+    void render(PortfolioSnapshot snapshot, Config config, ResponseBuffer out) {
+        ZoneId zoneId = ZoneId.of(config.timeZone);
+        DateCache dateCache = dates;
+        if (!dateCache.zoneId.equals(zoneId)) {
+            dateCache = new DateCache(zoneId);
+            dates = dateCache;
+        }
+        double sellBarrier = config.minimumProfitPercentage + config.stopLossSalePercentage;
+        long nowMillis = PositionBook.toEpochMillis(LocalDateTime.now());
+
+        out.append(HEAD);
+        // Time of the snapshot (with local timezone)
+        out.append(snapshot.getTimestamp() == null ? "-"
+                : snapshot.getTimestamp().withZoneSameInstant(zoneId).format(FORMATTER));
+        out.append(TABLE_HEAD);
+
+        for (PortfolioSnapshot.Position position : snapshot.getPositions()) {
+            double highestPerformance = position.getHighestPerformance();
+
+            out.append(ROW_START).append(position.coin).append(ROW_COIN).append(position.coin).append(NEXT_CELL);
+            out.append(dateCache.format(position.purchaseDate)).append(NEXT_CELL);
+            out.append(daysHeld(position, nowMillis)).append(NEXT_CELL);
+            appendPrice(out, position.purchasePrice);
+            out.append(highestPerformance > sellBarrier ? HIGHEST_PROFIT : HIGHEST_NEUTRAL);
+            appendPrice(out, position.highestPrice);
+            out.append(PERCENT_OPEN);
+            appendPercent(out, highestPerformance, true);
+            out.append(PERCENT_CLOSE).append(NEXT_CELL);
+            if (position.hasCurrentPrice()) {
+                double winLossPercent = position.getWinLossPercent();
+                appendPrice(out, position.currentPrice);
+                out.append(NEXT_CELL);
+                out.appendDecimal(FixedPoint.rescale(position.currentValue, FixedPoint.PRICE_SCALE, 2,
+                        RoundingMode.HALF_UP), 2);
+                out.append(winLossPercent >= 0 ? PROFIT_CELL : LOSS_CELL);
+                appendPercent(out, winLossPercent, false);
+                out.append(PERCENT);
+                out.append(position.winLossCents >= 0 ? PROFIT_CELL : LOSS_CELL);
+                out.appendDecimal(position.winLossCents, FixedPoint.USDC_SCALE).append(USDC);
+            } else {
+                // not evaluated since the start yet
+                out.append(NO_PRICE);
+            }
+            out.append(NEXT_CELL);
+            if (position.averageDownStepIndex > 0) {
+                out.append(position.averageDownStepIndex);
+            } else {
+                out.append(NONE);
+            }
+            out.append(SELL_FORM).append(position.coin).append(ROW_END);
+        }
+
+        out.append(CASH);
+        out.appendDecimal(snapshot.usdcBalanceCents(), FixedPoint.USDC_SCALE);
+        out.append(TAIL);
+    }
+
+    // Full days since the purchase, like ChronoUnit.DAYS.between; nowMillis as from PositionBook.toEpochMillis
+    static long daysHeld(PortfolioSnapshot.Position position, long nowMillis) {
+        return (nowMillis - PositionBook.toEpochMillis(position.purchaseDate)) / MILLIS_PER_DAY;
+    }
+
+    // prices are shown with up to 6 decimals
+    private static void appendPrice(ResponseBuffer out, long price) {
+        out.appendDecimalStripped(FixedPoint.rescale(price, FixedPoint.PRICE_SCALE, 6, RoundingMode.HALF_UP), 6);
+    }
+
+    private static void appendPercent(ResponseBuffer out, double percent, boolean stripZeros) {
+        if (!Double.isFinite(percent)) {
+            out.append(String.valueOf(percent));
+            return;
+        }
+        // rounding the scaled double is exact unless it lies next to a tie, those take the exact way
+        double scaled = percent * 100;
+        double fraction = Math.abs(scaled - (long) scaled);
+        long hundredths = Math.abs(fraction - 0.5) > 1e-6 ? Math.round(scaled)
+                : FixedPoint.fromDouble(percent, 2, RoundingMode.HALF_UP);
+        if (hundredths == 0 && Double.doubleToRawLongBits(percent) < 0) {
+            out.append("-"); // like String.format, a negative percentage that rounds to zero shows "-0.00"
+        }
+        if (stripZeros) {
+            out.appendDecimalStripped(hundredths, 2);
+        } else {
+            out.appendDecimal(hundredths, 2);
+        }
+    }
+
+    private static byte[] utf8(String... parts) {
+        return String.join("", parts).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final class DateCache {
+        final ZoneId zoneId;
+        final Map<LocalDateTime, byte[]> formatted = new ConcurrentHashMap<>();
+
+        DateCache(ZoneId zoneId) {
+            this.zoneId = zoneId;
+        }
+
+        byte[] format(LocalDateTime dateTime) {
+            byte[] bytes = formatted.get(dateTime);
+            if (bytes == null) {
+                if (formatted.size() >= MAX_CACHED_DATES) {
+                    formatted.clear();
+                }
+                bytes = utf8(dateTime.atZone(zoneId).format(FORMATTER));
+                formatted.put(dateTime, bytes);
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package org.netno;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.json.JSONObject;
+
+/**
+ * Records how long each trading decision took from the price it was based
+ * on to the saved result.
+ *
+ * Every buy or sell decision gets a Span with System.nanoTime stamps of its
+ * stages: the price was fetched, the rule decided, the order was built,
+ * createOrder returned and the assets were saved. Finished spans are kept in
+ * memory for the dashboard and appended as one JSON object per line to
+ * traces.jsonl by a background thread, so the trading loop never waits for
+ * the disk. Once the file reaches maxFileBytes it is renamed to
+ * traces.jsonl.1, replacing the previous one, so the traces take at most
+ * twice maxFileBytes on disk.
+ */
+public class DecisionTracer {
+
+    static final String FILE = "traces.jsonl";
+    static final String[] STAGES = { "evaluate", "build", "exchange", "persist" };
+    static final long NOT_MEASURED = Long.MIN_VALUE; // any other System.nanoTime value is a valid time
+    static final long MAX_FILE_BYTES = 10 * 1024 * 1024;
+    private static final int CAPACITY = 1000; // spans kept in memory
+
+    private final Path file; // null to keep the spans in memory only
+    private final long maxFileBytes;
+    private final Deque<Span> recent = new ArrayDeque<>(); // newest first
+    private final ExecutorService export = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "trace-export");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public DecisionTracer(Path file) {
+        this(file, MAX_FILE_BYTES);
+    }
+
+    DecisionTracer(Path file, long maxFileBytes) {
+        this.file = file;
+        this.maxFileBytes = maxFileBytes;
+    }
+
+    /**
+     * Starts the span of a decision about coin, based on a price fetched at
+     * priceFetchedNanos (System.nanoTime, NOT_MEASURED if not known).
+     */
+    public Span start(String coin, String decision, long priceFetchedNanos) {
+        return new Span(coin, decision, priceFetchedNanos);
+    }
+
+    // Keeps span and queues it for the file
+    public void finish(Span span, String outcome) {
+        span.outcome = outcome;
+        synchronized (recent) {
+            recent.addFirst(span);
+            if (recent.size() > CAPACITY) {
+                recent.removeLast();
+            }
+        }
+        if (file != null) {
+            String line = span.toJson().toString() + "\n";
+            export.execute(() -> {
+                try {
+                    if (Files.exists(file) && Files.size(file) >= maxFileBytes) {
+                        Files.move(file, file.resolveSibling(file.getFileName() + ".1"),
+                                StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    Files.writeString(file, line, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                            StandardOpenOption.APPEND);
+                } catch (IOException e) {
+                    System.out.println("Failed to write " + file + ": " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    // The latest finished spans, newest first
+    public List<Span> recent(int limit) {
+        synchronized (recent) {
+            List<Span> spans = new ArrayList<>(Math.min(limit, recent.size()));
+            for (Span span : recent) {
+                if (spans.size() == limit) {
+                    break;
+                }
+                spans.add(span);
+            }
+            return spans;
+        }
+    }
+
+    // Per stage the number of spans that reached it and the median, 95th percentile and maximum in microseconds
+    public JSONObject stageSummary() {
+        List<Span> spans = recent(CAPACITY);
+        JSONObject summary = new JSONObject();
+        for (int stage = 0; stage < STAGES.length; stage++) {
+            long[] micros = new long[spans.size()];
+            int count = 0;
+            for (Span span : spans) {
+                long duration = span.stageMicros(stage);
+                if (duration >= 0) {
+                    micros[count++] = duration;
+                }
+            }
+            Arrays.sort(micros, 0, count);
+            summary.put(STAGES[stage], new JSONObject()
+                    .put("count", count)
+                    .put("p50Micros", count == 0 ? 0 : micros[(count - 1) / 2])
+                    .put("p95Micros", count == 0 ? 0 : micros[(int) Math.ceil(count * 0.95) - 1])
+                    .put("maxMicros", count == 0 ? 0 : micros[count - 1]));
+        }
+        return summary;
+    }
+
+    /**
+     * One decision. The stage methods are called on the trading thread in
+     * order; stages that were not reached stay NOT_MEASURED.
+     */
+    public static final class Span {
+        final String coin;
+        final String decision; // BUY, AVERAGE_DOWN, SELL or MANUAL_SELL
+        final long startedAt; // epoch millis of the price fetch, or of the decision if that is not known
+        private final long[] stageNanos = new long[STAGES.length + 1]; // price fetched, then the end of every stage
+        String clientOrderId;
+        String orderId;
+        long priceUnits; // at FixedPoint.PRICE_SCALE
+        String outcome;
+
+        Span(String coin, String decision, long priceFetchedNanos) {
+            this.coin = coin;
+            this.decision = decision;
+            long now = System.nanoTime();
+            Arrays.fill(stageNanos, NOT_MEASURED);
+            this.stageNanos[0] = priceFetchedNanos;
+            this.startedAt = System.currentTimeMillis()
+                    - (priceFetchedNanos != NOT_MEASURED ? (now - priceFetchedNanos) / 1_000_000 : 0);
+        }
+
+        public void evaluated() {
+            stageNanos[1] = System.nanoTime();
+        }
+
+        public void built() {
+            stageNanos[2] = System.nanoTime();
+        }
+
+        public void returned() {
+            stageNanos[3] = System.nanoTime();
+        }
+
+        public void persisted() {
+            stageNanos[4] = System.nanoTime();
+        }
+
+        // Duration of stage in microseconds, -1 if it was not measured
+        long stageMicros(int stage) {
+            long from = stageNanos[stage];
+            long to = stageNanos[stage + 1];
+            return from == NOT_MEASURED || to == NOT_MEASURED ? -1 : (to - from) / 1000;
+        }
+
+        JSONObject toJson() {
+            JSONObject stages = new JSONObject();
+            long total = 0;
+            for (int stage = 0; stage < STAGES.length; stage++) {
+                long micros = stageMicros(stage);
+                if (micros >= 0) {
+                    stages.put(STAGES[stage], micros);
+                    total += micros;
+                }
+            }
+            return new JSONObject()
+                    .put("startedAt", startedAt)
+                    .put("coin", coin)
+                    .put("decision", decision)
+                    .put("outcome", outcome)
+                    .put("clientOrderId", clientOrderId == null ? JSONObject.NULL : clientOrderId)
+                    .put("orderId", orderId == null ? JSONObject.NULL : orderId)
+                    .put("price", FixedPoint.toDouble(priceUnits, FixedPoint.PRICE_SCALE))
+                    .put("stageMicros", stages)
+                    .put("totalMicros", total);
+        }
+    }
+}
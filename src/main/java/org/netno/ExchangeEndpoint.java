@@ -0,0 +1,189 @@
+package org.netno;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Calls one endpoint of the Coinbase API with a timeout and a circuit
+ * breaker, so a hung or failing endpoint cannot stall the trading loop.
+ *
+ * Reads that can safely be repeated are hedged: if the answer takes longer
+ * than the 95th percentile of the recent calls, the same request is sent a
+ * second time and the first answer wins. Only the slowest 5% of the calls are
+ * sent twice, but a single slow response no longer delays the evaluation.
+ *
+ * Only failures of the endpoint count towards opening the circuit:
+ * timeouts, IO errors and the HTTP status 429 or 5xx. A request the endpoint
+ * rejects, like one for an unknown product, fails on its own without
+ * stopping the requests for other products.
+ */
+public class ExchangeEndpoint {
+
+    static final int FAILURE_THRESHOLD = 5;
+    static final long OPEN_MILLIS = 30_000;
+    static final long TIMEOUT_MILLIS = 10_000;
+    private static final int LATENCY_SAMPLES = 128;
+    private static final int MIN_HEDGE_SAMPLES = 20; // no hedging until the usual latency is known
+    private static final Pattern STATUS = Pattern.compile("status(?: code)?:? ?(\\d{3})", Pattern.CASE_INSENSITIVE);
+
+    // the SDK calls block, they run here so the caller can stop waiting for them
+    private static final ExecutorService CALL_THREADS = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "exchange-call");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String name;
+    private final boolean hedged;
+    private final long timeoutNanos;
+    private final CircuitBreaker breaker;
+    private final long[] latencies = new long[LATENCY_SAMPLES]; // nanos of the latest successful calls
+    private int latencyCount;
+    private final AtomicLong hedges = new AtomicLong();
+
+    public ExchangeEndpoint(String name, boolean hedged) {
+        this(name, hedged, new CircuitBreaker(name, FAILURE_THRESHOLD, OPEN_MILLIS), TIMEOUT_MILLIS);
+    }
+
+    ExchangeEndpoint(String name, boolean hedged, CircuitBreaker breaker, long timeoutMillis) {
+        this.name = name;
+        this.hedged = hedged;
+        this.breaker = breaker;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * Returns the answer of request. Throws CircuitBreaker.OpenException
+     * without calling if the endpoint is failing, and TimeoutException
+     * wrapped in an IllegalStateException if there is no answer in time.
+     */
+    public <T> T call(Supplier<T> request) {
+        breaker.acquire();
+        long start = System.nanoTime();
+        try {
+            T result = attempt(request, start);
+            recordLatency(System.nanoTime() - start);
+            breaker.succeeded();
+            return result;
+        } catch (RuntimeException | Error e) {
+            if (isEndpointFailure(e)) {
+                breaker.failed();
+            } else {
+                breaker.released();
+            }
+            throw e;
+        }
+    }
+
+    // True if e shows that the endpoint is down or overloaded rather than that it rejected the request
+    static boolean isEndpointFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TimeoutException || cause instanceof IOException) {
+                return true;
+            }
+            Matcher status = cause.getMessage() == null ? null : STATUS.matcher(cause.getMessage());
+            if (status != null && status.find()) {
+                int code = Integer.parseInt(status.group(1));
+                return code == 429 || code >= 500;
+            }
+        }
+        return false;
+    }
+
+    private <T> T attempt(Supplier<T> request, long start) {
+        CompletionService<T> attempts = new ExecutorCompletionService<>(CALL_THREADS);
+        List<Future<T>> started = new ArrayList<>();
+        started.add(attempts.submit(request::get));
+        long deadline = start + timeoutNanos;
+        long hedgeAfter = hedged ? p95LatencyNanos() : 0;
+        boolean hedgeSent = hedgeAfter == 0;
+        int running = 1;
+        RuntimeException failure = null;
+        try {
+            while (running > 0) {
+                long now = System.nanoTime();
+                long wait = hedgeSent ? deadline - now : Math.min(start + hedgeAfter, deadline) - now;
+                Future<T> done = attempts.poll(Math.max(0, wait), TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    if (!hedgeSent && System.nanoTime() < deadline) {
+                        started.add(attempts.submit(request::get)); // the first attempt is slower than usual
+                        hedges.incrementAndGet();
+                        hedgeSent = true;
+                        running++;
+                        continue;
+                    }
+                    throw new IllegalStateException(new TimeoutException(
+                            String.format("%s did not answer within %d ms", name,
+                                    TimeUnit.NANOSECONDS.toMillis(timeoutNanos))));
+                }
+                running--;
+                try {
+                    return done.get();
+                } catch (ExecutionException e) {
+                    failure = unchecked(e.getCause());
+                }
+            }
+            throw failure;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(name + " was interrupted", e);
+        } finally {
+            started.forEach(attempt -> attempt.cancel(true)); // the slower attempt is not needed anymore
+        }
+    }
+
+    private static RuntimeException unchecked(Throwable cause) {
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+    }
+
+    private synchronized void recordLatency(long nanos) {
+        latencies[latencyCount++ % LATENCY_SAMPLES] = nanos;
+    }
+
+    // The 95th percentile of the recent latencies, 0 while there are too few of them
+    synchronized long p95LatencyNanos() {
+        int samples = Math.min(latencyCount, LATENCY_SAMPLES);
+        if (samples < MIN_HEDGE_SAMPLES) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(latencies, samples);
+        Arrays.sort(sorted);
+        return Math.max(1, sorted[(int) Math.ceil(samples * 0.95) - 1]);
+    }
+
+    // Where the circuit breaker reports opening and closing, with a log level
+    public void setLog(BiConsumer<String, String> log) {
+        breaker.setLog(log);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CircuitBreaker.State getState() {
+        return breaker.state();
+    }
+
+    // How many requests were sent a second time
+    public long getHedges() {
+        return hedges.get();
+    }
+}
@@ -0,0 +1,479 @@
+package org.netno;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for the Coinbase Advanced Trade API, for running the bot
+ * and its tests without an account and without risking money.
+ *
+ * It serves the endpoints the bot uses below /api/v3/brokerage: products,
+ * portfolios, the portfolio breakdown and market orders, plus the order
+ * status. Prices move randomly (see SimulatedProduct), orders are filled
+ * against a synthetic order book and charged the taker fee, and the account
+ * starts with a configurable USDC balance.
+ *
+ * For testing the error handling, requests can be delayed, rate limited to
+ * 429 responses and failed with 500 responses at a configurable rate. If an
+ * apiKey is configured, requests need a bearer JWT for that key as sent by
+ * the SDK; with a publicKey its signature is verified as well.
+ *
+ * Point the bot at it with "apiUrl": "http://localhost:8081/api/v3/brokerage"
+ * in config.json. Run it with
+ * java -cp CoinbaseBot-1.0-SNAPSHOT-jar-with-dependencies.jar org.netno.ExchangeSimulator [simulator.json]
+ */
+public class ExchangeSimulator {
+
+    static final String BASE_PATH = "/api/v3/brokerage";
+    private static final String JSON = "application/json";
+
+    final int port;
+    final String portfolioId;
+    final double takerFee; // fraction of the traded value
+    final double timeScale;
+    final boolean createUnknownProducts;
+    final long seed;
+    final Latency latency;
+    final double errorRate;
+    final double rateLimitPerSecond; // 0 for no limit
+    final String apiKey; // null to accept any request
+    final PublicKey publicKey; // null to skip the signature check
+
+    private final JSONObject productSettings;
+    private final Map<String, SimulatedProduct> products = new ConcurrentHashMap<>();
+    private final Map<String, BigDecimal> balances = new TreeMap<>(); // currency -> amount, guarded by this
+    private final Map<String, JSONObject> orders = new ConcurrentHashMap<>();
+    private final Map<String, JSONObject> responsesByClientOrderId = new HashMap<>(); // guarded by this
+    private final Map<String, LongAdder> requestCounts = new ConcurrentHashMap<>();
+    private double tokens; // rate limit bucket, guarded by this
+    private long tokensUpdated;
+    private HttpServer server;
+
+    public ExchangeSimulator(JSONObject settings) throws Exception {
+        this.port = settings.optInt("port", 8081);
+        this.portfolioId = settings.optString("portfolioId", "simulated-portfolio");
+        this.takerFee = settings.optDouble("takerFeePercentage", 0.4) / 100;
+        this.timeScale = settings.optDouble("timeScale", 1);
+        this.createUnknownProducts = settings.optBoolean("createUnknownProducts", true);
+        this.seed = settings.optLong("seed", 42);
+        this.latency = Latency.parse(settings.optString("latency", "none"));
+        this.errorRate = settings.optDouble("errorRate", 0);
+        this.rateLimitPerSecond = settings.optDouble("rateLimitPerSecond", 0);
+        this.apiKey = settings.optString("apiKey", null);
+        this.publicKey = settings.has("publicKey") ? parsePublicKey(settings.getString("publicKey")) : null;
+        this.productSettings = settings.optJSONObject("products") == null ? new JSONObject()
+                : settings.getJSONObject("products");
+        balances.put("USDC", new BigDecimal(settings.optString("usdcBalance", "10000")));
+        for (String coin : productSettings.keySet()) {
+            product(coin + "-USDC");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        JSONObject settings = args.length > 0
+                ? new JSONObject(Files.readString(Path.of(args[0]), StandardCharsets.UTF_8))
+                : new JSONObject();
+        ExchangeSimulator simulator = new ExchangeSimulator(settings);
+        simulator.start();
+        System.out.println("Exchange simulator listening on " + simulator.baseUrl());
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext(BASE_PATH + "/", this::handle);
+        server.setExecutor(WebServer.createExecutor(0));
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    // The URL to configure as apiUrl, with the port actually bound
+    public String baseUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + BASE_PATH;
+    }
+
+    // Number of requests per endpoint since the start, e.g. "GET products" -> 120
+    public Map<String, Long> requestCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        requestCounts.forEach((endpoint, count) -> counts.put(endpoint, count.sum()));
+        return counts;
+    }
+
+    public synchronized BigDecimal balance(String currency) {
+        return balances.getOrDefault(currency, BigDecimal.ZERO);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String[] path = exchange.getRequestURI().getPath().substring(BASE_PATH.length() + 1).split("/");
+            requestCounts.computeIfAbsent(method + " " + path[0], e -> new LongAdder()).increment();
+
+            latency.sleep();
+            if (!takeToken()) {
+                send(exchange, 429, error("rate_limit_exceeded", "Too many requests"));
+                return;
+            }
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                send(exchange, 500, error("INTERNAL", "Simulated failure"));
+                return;
+            }
+            String authError = authenticate(exchange);
+            if (authError != null) {
+                send(exchange, 401, error("UNAUTHENTICATED", authError));
+                return;
+            }
+            route(exchange, method, path);
+        } catch (Exception e) {
+            send(exchange, 500, error("INTERNAL", String.valueOf(e.getMessage())));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange, String method, String[] path) throws IOException {
+        if (method.equals("GET") && path.length == 2 && path[0].equals("products")) {
+            SimulatedProduct product = product(path[1]);
+            if (product == null) {
+                send(exchange, 404, error("NOT_FOUND", "ProductID is invalid"));
+            } else {
+                send(exchange, 200, productJson(product));
+            }
+        } else if (method.equals("GET") && path.length == 1 && path[0].equals("portfolios")) {
+            send(exchange, 200, new JSONObject().put("portfolios", new JSONArray().put(portfolioJson())));
+        } else if (method.equals("GET") && path.length == 2 && path[0].equals("portfolios")) {
+            if (!path[1].equals(portfolioId)) {
+                send(exchange, 404, error("NOT_FOUND", "portfolio not found"));
+            } else {
+                send(exchange, 200, new JSONObject().put("breakdown", breakdownJson()));
+            }
+        } else if (method.equals("POST") && path.length == 1 && path[0].equals("orders")) {
+            JSONObject request = new JSONObject(new String(exchange.getRequestBody().readAllBytes(),
+                    StandardCharsets.UTF_8));
+            send(exchange, 200, createOrder(request));
+        } else if (method.equals("GET") && path.length == 3 && path[0].equals("orders")
+                && path[1].equals("historical")) {
+            JSONObject order = orders.get(path[2]);
+            if (order == null) {
+                send(exchange, 404, error("NOT_FOUND", "order not found"));
+            } else {
+                send(exchange, 200, new JSONObject().put("order", order));
+            }
+        } else {
+            send(exchange, 404, error("NOT_FOUND", "Not found"));
+        }
+    }
+
+    // The product, created with default settings for unknown coins if createUnknownProducts is set
+    SimulatedProduct product(String productId) {
+        int dash = productId.indexOf('-');
+        if (dash <= 0 || !productId.endsWith("-USDC")) {
+            return null;
+        }
+        String coin = productId.substring(0, dash);
+        if (!productSettings.has(coin) && !createUnknownProducts) {
+            return null;
+        }
+        return products.computeIfAbsent(productId, id -> new SimulatedProduct(id,
+                productSettings.optJSONObject(coin) == null ? new JSONObject() : productSettings.getJSONObject(coin),
+                timeScale, seed ^ id.hashCode()));
+    }
+
+    private JSONObject productJson(SimulatedProduct product) {
+        String price = product.format(product.price());
+        return new JSONObject()
+                .put("product_id", product.productId)
+                .put("price", price)
+                .put("mid_market_price", price)
+                .put("price_percentage_change_24h", BigDecimal.valueOf(product.change24h())
+                        .setScale(8, RoundingMode.HALF_EVEN).toPlainString())
+                .put("volume_24h", BigDecimal.valueOf(product.tradedVolume()).toPlainString())
+                .put("base_increment", product.baseIncrement.toPlainString())
+                .put("quote_increment", product.quoteIncrement.toPlainString())
+                .put("base_min_size", product.baseIncrement.toPlainString())
+                .put("base_max_size", "1000000000")
+                .put("quote_min_size", "1")
+                .put("quote_max_size", "10000000")
+                .put("base_name", product.baseCurrency)
+                .put("quote_name", "USDC")
+                .put("base_currency_id", product.baseCurrency)
+                .put("quote_currency_id", "USDC")
+                .put("status", "online")
+                .put("trading_disabled", false)
+                .put("product_type", "SPOT");
+    }
+
+    private JSONObject portfolioJson() {
+        return new JSONObject()
+                .put("name", "Simulated")
+                .put("uuid", portfolioId)
+                .put("type", "DEFAULT")
+                .put("deleted", false);
+    }
+
+    private synchronized JSONObject breakdownJson() {
+        BigDecimal cash = balance("USDC");
+        BigDecimal crypto = BigDecimal.ZERO;
+        JSONArray positions = new JSONArray();
+        for (Map.Entry<String, BigDecimal> entry : balances.entrySet()) {
+            if (entry.getKey().equals("USDC") || entry.getValue().signum() == 0) {
+                continue;
+            }
+            BigDecimal value = entry.getValue().multiply(BigDecimal.valueOf(product(entry.getKey() + "-USDC").price()));
+            crypto = crypto.add(value);
+            positions.put(new JSONObject()
+                    .put("asset", entry.getKey())
+                    .put("total_balance_crypto", entry.getValue().toPlainString())
+                    .put("total_balance_fiat", value.toPlainString())
+                    .put("available_to_trade_fiat", value.toPlainString())
+                    .put("is_cash", false));
+        }
+        return new JSONObject()
+                .put("portfolio", portfolioJson())
+                .put("portfolio_balances", new JSONObject()
+                        .put("total_balance", amount(cash.add(crypto)))
+                        .put("total_futures_balance", amount(BigDecimal.ZERO))
+                        .put("total_cash_equivalent_balance", amount(cash))
+                        .put("total_crypto_balance", amount(crypto)))
+                .put("spot_positions", positions);
+    }
+
+    private static JSONObject amount(BigDecimal value) {
+        return new JSONObject().put("value", value.setScale(2, RoundingMode.DOWN).toPlainString())
+                .put("currency", "USD");
+    }
+
+    // Fills a market IOC order immediately, like the exchange does for the orders of the bot.
+    // A client_order_id that was used before returns that order instead of placing a new one.
+    synchronized JSONObject createOrder(JSONObject request) {
+        String clientOrderId = request.optString("client_order_id");
+        JSONObject previous = responsesByClientOrderId.get(clientOrderId);
+        if (previous != null) {
+            return previous;
+        }
+        String productId = request.optString("product_id");
+        String side = request.optString("side");
+        JSONObject ioc = request.optJSONObject("order_configuration") == null ? null
+                : request.getJSONObject("order_configuration").optJSONObject("market_market_ioc");
+        SimulatedProduct product = product(productId);
+        if (product == null) {
+            return failure("UNKNOWN_FAILURE_REASON", "INVALID_PRODUCT_ID", "Product " + productId + " is unknown");
+        }
+        if (ioc == null || !ioc.has("base_size") || !(side.equals("BUY") || side.equals("SELL"))) {
+            return failure("UNSUPPORTED_ORDER_CONFIGURATION", "INVALID_ORDER_CONFIG",
+                    "Only market IOC orders with a base_size are simulated");
+        }
+        BigDecimal size = new BigDecimal(ioc.getString("base_size"));
+        if (size.signum() <= 0 || size.remainder(product.baseIncrement).signum() != 0) {
+            return failure("INVALID_SIZE_PRECISION", "PREVIEW_INVALID_SIZE_PRECISION",
+                    "base_size " + size.toPlainString() + " is not a multiple of " + product.baseIncrement);
+        }
+        boolean buy = side.equals("BUY");
+        if (!buy && balance(product.baseCurrency).compareTo(size) < 0) {
+            return failure("INSUFFICIENT_FUND", "PREVIEW_INSUFFICIENT_FUND", "Insufficient balance in source account");
+        }
+
+        SimulatedProduct.Fill fill = product.fill(buy, size.doubleValue());
+        BigDecimal filled = BigDecimal.valueOf(fill.size).setScale(product.baseIncrement.scale(),
+                RoundingMode.DOWN);
+        BigDecimal quote = BigDecimal.valueOf(fill.quote);
+        BigDecimal fee = quote.multiply(BigDecimal.valueOf(takerFee));
+        if (buy && balance("USDC").compareTo(quote.add(fee)) < 0) {
+            return failure("INSUFFICIENT_FUND", "PREVIEW_INSUFFICIENT_FUND", "Insufficient balance in source account");
+        }
+        product.recordVolume(fill.size);
+        if (buy) {
+            balances.merge("USDC", quote.add(fee).negate(), BigDecimal::add);
+            balances.merge(product.baseCurrency, filled, BigDecimal::add);
+        } else {
+            balances.merge("USDC", quote.subtract(fee), BigDecimal::add);
+            balances.merge(product.baseCurrency, filled.negate(), BigDecimal::add);
+        }
+
+        String orderId = UUID.randomUUID().toString();
+        orders.put(orderId, new JSONObject()
+                .put("order_id", orderId)
+                .put("client_order_id", clientOrderId)
+                .put("product_id", productId)
+                .put("side", side)
+                .put("status", filled.compareTo(size) == 0 ? "FILLED" : "CANCELLED")
+                .put("filled_size", filled.toPlainString())
+                .put("average_filled_price", product.format(fill.averagePrice()))
+                .put("total_fees", fee.setScale(8, RoundingMode.HALF_EVEN).toPlainString())
+                .put("order_type", "MARKET")
+                .put("time_in_force", "IMMEDIATE_OR_CANCEL"));
+        JSONObject response = new JSONObject()
+                .put("success", true)
+                .put("order_id", orderId)
+                .put("success_response", new JSONObject()
+                        .put("order_id", orderId)
+                        .put("product_id", productId)
+                        .put("side", side)
+                        .put("client_order_id", clientOrderId))
+                .put("order_configuration", request.getJSONObject("order_configuration"));
+        if (!clientOrderId.isEmpty()) {
+            responsesByClientOrderId.put(clientOrderId, response);
+        }
+        return response;
+    }
+
+    private static JSONObject failure(String error, String previewFailureReason, String message) {
+        return new JSONObject()
+                .put("success", false)
+                .put("failure_reason", error)
+                .put("error_response", new JSONObject()
+                        .put("error", error)
+                        .put("message", message)
+                        .put("error_details", message)
+                        .put("preview_failure_reason", previewFailureReason));
+    }
+
+    private static JSONObject error(String error, String message) {
+        return new JSONObject().put("error", error).put("message", message);
+    }
+
+    // Token bucket refilled with rateLimitPerSecond tokens per second
+    private synchronized boolean takeToken() {
+        if (rateLimitPerSecond <= 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        tokens = tokensUpdated == 0 ? rateLimitPerSecond
+                : Math.min(rateLimitPerSecond, tokens + (now - tokensUpdated) / 1e9 * rateLimitPerSecond);
+        tokensUpdated = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    // Checks the JWT the SDK sends as bearer token, returns why it is rejected or null
+    private String authenticate(HttpExchange exchange) {
+        if (apiKey == null) {
+            return null;
+        }
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.startsWith("Bearer ")) {
+            return "missing bearer token";
+        }
+        String[] parts = authorization.substring("Bearer ".length()).split("\\.");
+        if (parts.length != 3) {
+            return "malformed token";
+        }
+        try {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            JSONObject header = new JSONObject(new String(decoder.decode(parts[0]), StandardCharsets.UTF_8));
+            JSONObject claims = new JSONObject(new String(decoder.decode(parts[1]), StandardCharsets.UTF_8));
+            if (!apiKey.equals(header.optString("kid")) || !apiKey.equals(claims.optString("sub"))) {
+                return "unknown key";
+            }
+            if (claims.optLong("exp") * 1000 < System.currentTimeMillis()) {
+                return "token expired";
+            }
+            String uri = claims.optString("uri");
+            if (!uri.startsWith(exchange.getRequestMethod() + " ")
+                    || !uri.endsWith(exchange.getRequestURI().getPath())) {
+                return "token is for " + uri;
+            }
+            if (publicKey != null) {
+                Signature verifier = Signature.getInstance("SHA256withECDSAinP1363Format");
+                verifier.initVerify(publicKey);
+                verifier.update((parts[0] + "." + parts[1]).getBytes(StandardCharsets.US_ASCII));
+                if (!verifier.verify(decoder.decode(parts[2]))) {
+                    return "invalid signature";
+                }
+            }
+            return null;
+        } catch (Exception e) {
+            return "malformed token: " + e.getMessage();
+        }
+    }
+
+    private static PublicKey parsePublicKey(String pem) throws Exception {
+        String base64 = pem.replaceAll("-----[A-Z ]+-----", "").replaceAll("\\s", "");
+        return KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(base64)));
+    }
+
+    private static void send(HttpExchange exchange, int status, JSONObject body) throws IOException {
+        WebServer.send(exchange, status, JSON, body.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Delay added to every response: "none", "fixed:MILLIS",
+     * "uniform:MIN:MAX" or "lognormal:MEDIAN:SIGMA", the latter giving the
+     * long tail real network latencies have.
+     */
+    static final class Latency {
+        private final String kind;
+        private final double a;
+        private final double b;
+
+        private Latency(String kind, double a, double b) {
+            this.kind = kind;
+            this.a = a;
+            this.b = b;
+        }
+
+        static Latency parse(String spec) {
+            String[] parts = spec.split(":");
+            switch (parts[0]) {
+                case "none":
+                    return new Latency("none", 0, 0);
+                case "fixed":
+                    return new Latency("fixed", Double.parseDouble(parts[1]), 0);
+                case "uniform":
+                case "lognormal":
+                    return new Latency(parts[0], Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+                default:
+                    throw new IllegalArgumentException("unknown latency " + spec);
+            }
+        }
+
+        long nextMillis() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            switch (kind) {
+                case "fixed":
+                    return Math.round(a);
+                case "uniform":
+                    return Math.round(a + random.nextDouble() * (b - a));
+                case "lognormal":
+                    return Math.round(a * Math.exp(b * random.nextGaussian()));
+                default:
+                    return 0;
+            }
+        }
+
+        void sleep() throws InterruptedException {
+            long millis = nextMillis();
+            if (millis > 0) {
+                Thread.sleep(millis);
+            }
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package org.netno;
+
+import java.math.RoundingMode;
+
+/**
+ * Fixed-point arithmetic on primitive longs.
+ *
+ * A fixed-point value is a long counting units of 10^-scale, e.g. 0.4945 USDC at
+ * PRICE_SCALE is stored as 49450000. Prices use PRICE_SCALE, cash, fees and profits
+ * USDC_SCALE (cents) and coin amounts the scale of the product's base increment
+ * (TradeInfo.decimalPlaces).
+ *
+ * Products are computed with a 128 bit intermediate and rounded exactly once with
+ * the given RoundingMode. None of the arithmetic allocates.
+ */
+public final class FixedPoint {
+
+    public static final int PRICE_SCALE = 8;    // prices in 1/100,000,000 USDC
+    public static final int USDC_SCALE = 2;     // cash, fees and profits in cents
+    public static final int PERCENT_SCALE = 4;  // configured percentages, 0.4 % is stored as 4000
+
+    private static final int MAX_SCALE = 18;
+    private static final long[] POW10 = new long[MAX_SCALE + 1];
+    private static final double[] POW10_DOUBLE = new double[MAX_SCALE + 1];
+
+    static {
+        POW10[0] = 1;
+        POW10_DOUBLE[0] = 1.0;
+        for (int i = 1; i <= MAX_SCALE; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+            POW10_DOUBLE[i] = POW10_DOUBLE[i - 1] * 10;
+        }
+    }
+
+    private FixedPoint() {
+    }
+
+    public static long pow10(int exponent) {
+        return POW10[exponent];
+    }
+
+    /**
+     * Converts a double to a fixed-point value.
+     * Doubles parsed from a decimal with at most scale places (prices and sizes
+     * from the API, values from config.json) convert exactly without allocating.
+     * Anything else is rounded from its shortest decimal representation, the
+     * same value BigDecimal.valueOf(double) would use.
+     */
+    public static long fromDouble(double value, int scale, RoundingMode mode) {
+        double nearest = Math.rint(value * POW10_DOUBLE[scale]);
+        // exact if the decimal with scale places next to the value is the one the double was parsed from
+        if (Math.abs(nearest) < 0x1p53 && nearest / POW10_DOUBLE[scale] == value) {
+            return (long) nearest;
+        }
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new ArithmeticException("Not a finite number: " + value);
+        }
+        return parse(Double.toString(value), scale, mode);
+    }
+
+    // Parses a plain or scientific decimal string such as "0.00010000" or "1.0E-4"
+    public static long parse(CharSequence text, int scale, RoundingMode mode) {
+        int length = text.length();
+        int pos = 0;
+        boolean negative = false;
+        if (pos < length && (text.charAt(pos) == '-' || text.charAt(pos) == '+')) {
+            negative = text.charAt(pos) == '-';
+            pos++;
+        }
+
+        long mantissa = 0;        // up to 18 significant digits
+        int digits = 0;
+        int exponent = 0;         // value = mantissa * 10^exponent
+        int pendingZeros = 0;     // zeros not yet multiplied into the mantissa
+        boolean seenDigit = false;
+        boolean fraction = false;
+        for (; pos < length; pos++) {
+            char c = text.charAt(pos);
+            if (c == '.' && !fraction) {
+                fraction = true;
+                continue;
+            }
+            if (c < '0' || c > '9') {
+                break;
+            }
+            seenDigit = true;
+            if (fraction) {
+                exponent--;
+            }
+            if (c == '0') {
+                pendingZeros++;
+                continue;
+            }
+            if (digits > 0) {
+                if (digits + pendingZeros >= MAX_SCALE) {
+                    throw new NumberFormatException("More than " + MAX_SCALE + " significant digits: " + text);
+                }
+                mantissa *= POW10[pendingZeros];
+                digits += pendingZeros;
+            }
+            pendingZeros = 0;
+            mantissa = mantissa * 10 + (c - '0');
+            digits++;
+        }
+        // trailing zeros scale the value instead of filling up the mantissa
+        exponent += pendingZeros;
+        if (!seenDigit) {
+            throw new NumberFormatException("Not a number: " + text);
+        }
+        if (pos < length && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+            int exp = 0;
+            boolean negativeExp = false;
+            pos++;
+            if (pos < length && (text.charAt(pos) == '-' || text.charAt(pos) == '+')) {
+                negativeExp = text.charAt(pos) == '-';
+                pos++;
+            }
+            if (pos >= length) {
+                throw new NumberFormatException("Missing exponent: " + text);
+            }
+            for (; pos < length && Character.isDigit(text.charAt(pos)); pos++) {
+                exp = Math.min(exp * 10 + (text.charAt(pos) - '0'), 1000);
+            }
+            exponent += negativeExp ? -exp : exp;
+        }
+        if (pos != length) {
+            throw new NumberFormatException("Not a number: " + text);
+        }
+        if (mantissa == 0) {
+            return 0;
+        }
+
+        int shift = exponent + scale;
+        if (shift >= 0) {
+            if (shift > MAX_SCALE) {
+                throw new ArithmeticException("Overflow: " + text);
+            }
+            long result = Math.multiplyExact(mantissa, POW10[shift]);
+            return negative ? -result : result;
+        }
+        if (-shift > MAX_SCALE) {
+            // the value is below a single unit
+            return round(0, -1, true, negative, mode);
+        }
+        long divisor = POW10[-shift];
+        long quotient = mantissa / divisor;
+        long remainder = mantissa % divisor;
+        return round(quotient, Long.compare(remainder, divisor - remainder), remainder != 0, negative, mode);
+    }
+
+    public static double toDouble(long units, int scale) {
+        // both operands are exact doubles below 2^53, so the division rounds correctly
+        return units / POW10_DOUBLE[scale];
+    }
+
+    // Formats a value with exactly scale places, e.g. "400.000" for an order size
+    public static String toPlainString(long units, int scale) {
+        StringBuilder sb = new StringBuilder(24);
+        if (units < 0) {
+            sb.append('-');
+        }
+        long magnitude = units < 0 ? -units : units; // unsigned, so Long.MIN_VALUE keeps its magnitude
+        long divisor = POW10[scale];
+        sb.append(Long.toUnsignedString(Long.divideUnsigned(magnitude, divisor)));
+        if (scale > 0) {
+            sb.append('.');
+            String fraction = Long.toUnsignedString(Long.remainderUnsigned(magnitude, divisor));
+            for (int i = fraction.length(); i < scale; i++) {
+                sb.append('0');
+            }
+            sb.append(fraction);
+        }
+        return sb.toString();
+    }
+
+    // Number of decimal places of an increment such as a product's base increment, 0.001 -> 3
+    public static int scaleOf(double increment) {
+        for (int scale = 0; scale <= MAX_SCALE; scale++) {
+            if (Math.rint(increment * POW10_DOUBLE[scale]) / POW10_DOUBLE[scale] == increment) {
+                return scale;
+            }
+        }
+        throw new ArithmeticException("Increment has more than " + MAX_SCALE + " decimal places: " + increment);
+    }
+
+    public static long rescale(long units, int fromScale, int toScale, RoundingMode mode) {
+        if (toScale >= fromScale) {
+            return Math.multiplyExact(units, POW10[toScale - fromScale]);
+        }
+        return mulDivPow10(units, 1, fromScale - toScale, mode);
+    }
+
+    // Returns percent % of a value at the value's scale, e.g. the drop to the next average down step
+    public static long percentOf(long units, double percent, RoundingMode mode) {
+        return mulDivPow10(units, fromDouble(percent, PERCENT_SCALE, RoundingMode.HALF_EVEN), PERCENT_SCALE + 2, mode);
+    }
+
+    // Returns a * b / 10^exponent, for exponents up to 36
+    public static long mulDivPow10(long a, long b, int exponent, RoundingMode mode) {
+        boolean negative = (a < 0) != (b < 0);
+        long ua = abs(a);
+        long ub = abs(b);
+        return divideByPow10(Math.multiplyHigh(ua, ub), ua * ub, exponent, negative, mode);
+    }
+
+    // Returns a * b / c
+    public static long mulDiv(long a, long b, long c, RoundingMode mode) {
+        if (c == 0) {
+            throw new ArithmeticException("Division by zero");
+        }
+        boolean negative = (a < 0) != (b < 0) != (c < 0);
+        long ua = abs(a);
+        long ub = abs(b);
+        return divideAndRound(Math.multiplyHigh(ua, ub), ua * ub, abs(c), negative, mode);
+    }
+
+    // Returns (price1 * amount1 + price2 * amount2) / (amount1 + amount2) for non-negative inputs
+    public static long weightedAverage(long price1, long amount1, long price2, long amount2, RoundingMode mode) {
+        if (price1 < 0 || amount1 < 0 || price2 < 0 || amount2 < 0) {
+            throw new ArithmeticException("Weighted average of negative values");
+        }
+        long lo1 = price1 * amount1;
+        long lo2 = price2 * amount2;
+        long lo = lo1 + lo2;
+        long hi = Math.multiplyHigh(price1, amount1) + Math.multiplyHigh(price2, amount2)
+                + (Long.compareUnsigned(lo, lo1) < 0 ? 1 : 0);
+        return divideAndRound(hi, lo, Math.addExact(amount1, amount2), false, mode);
+    }
+
+    private static long abs(long value) {
+        if (value == Long.MIN_VALUE) {
+            throw new ArithmeticException("Overflow");
+        }
+        return Math.abs(value);
+    }
+
+    // Divides the unsigned 128 bit value hi:lo by 10^exponent and rounds the quotient
+    private static long divideByPow10(long hi, long lo, int exponent, boolean negative, RoundingMode mode) {
+        if (exponent <= MAX_SCALE) {
+            return divideAndRound(hi, lo, POW10[exponent], negative, mode);
+        }
+        if (exponent > 2 * MAX_SCALE) {
+            throw new ArithmeticException("Exponent too large: " + exponent);
+        }
+        // first by 10^(exponent - 18) keeping the full 128 bit quotient, then by 10^18
+        long first = POW10[exponent - MAX_SCALE];
+        long quotientHi = Long.divideUnsigned(hi, first);
+        long quotientLo = divide128(Long.remainderUnsigned(hi, first), lo, first);
+        long firstRemainder = lo - quotientLo * first;
+
+        long second = POW10[MAX_SCALE];
+        if (Long.compareUnsigned(quotientHi, second) >= 0) {
+            throw new ArithmeticException("Overflow");
+        }
+        long quotient = divide128(quotientHi, quotientLo, second);
+        if (quotient < 0) {
+            throw new ArithmeticException("Overflow");
+        }
+        long remainder = quotientLo - quotient * second;
+        int cmpHalf = Long.compare(remainder, second / 2);
+        if (cmpHalf == 0 && firstRemainder != 0) {
+            cmpHalf = 1;
+        }
+        return round(quotient, cmpHalf, remainder != 0 || firstRemainder != 0, negative, mode);
+    }
+
+    // Divides the unsigned 128 bit value hi:lo by a positive divisor and rounds the quotient
+    private static long divideAndRound(long hi, long lo, long divisor, boolean negative, RoundingMode mode) {
+        if (Long.compareUnsigned(hi, divisor) >= 0) {
+            throw new ArithmeticException("Overflow");
+        }
+        long quotient = divide128(hi, lo, divisor);
+        if (quotient < 0) {
+            throw new ArithmeticException("Overflow");
+        }
+        // the remainder is smaller than the divisor, so the low 64 bits are enough
+        long remainder = lo - quotient * divisor;
+        return round(quotient, Long.compare(remainder, divisor - remainder), remainder != 0, negative, mode);
+    }
+
+    // Unsigned quotient of hi:lo / divisor, requires hi < divisor
+    private static long divide128(long hi, long lo, long divisor) {
+        if (hi == 0) {
+            return Long.divideUnsigned(lo, divisor);
+        }
+        long remainder = hi;
+        long quotient = 0;
+        for (int i = 63; i >= 0; i--) {
+            // remainder < divisor < 2^63, so the shift cannot lose a bit
+            remainder = (remainder << 1) | ((lo >>> i) & 1);
+            quotient <<= 1;
+            if (Long.compareUnsigned(remainder, divisor) >= 0) {
+                remainder -= divisor;
+                quotient |= 1;
+            }
+        }
+        return quotient;
+    }
+
+    // Applies the rounding mode to a truncated magnitude.
+    // cmpHalf is the sign of (remainder - divisor / 2), inexact whether the remainder is non-zero.
+    private static long round(long quotient, int cmpHalf, boolean inexact, boolean negative, RoundingMode mode) {
+        boolean up;
+        switch (mode) {
+            case DOWN:
+                up = false;
+                break;
+            case UP:
+                up = inexact;
+                break;
+            case FLOOR:
+                up = inexact && negative;
+                break;
+            case CEILING:
+                up = inexact && !negative;
+                break;
+            case HALF_UP:
+                up = inexact && cmpHalf >= 0;
+                break;
+            case HALF_DOWN:
+                up = cmpHalf > 0;
+                break;
+            case HALF_EVEN:
+                up = cmpHalf > 0 || (cmpHalf == 0 && (quotient & 1) == 1);
+                break;
+            case UNNECESSARY:
+                if (inexact) {
+                    throw new ArithmeticException("Rounding necessary");
+                }
+                up = false;
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported rounding mode: " + mode);
+        }
+        if (up) {
+            quotient = Math.addExact(quotient, 1);
+        }
+        return negative ? -quotient : quotient;
+    }
+}
@@ -0,0 +1,207 @@
+package org.netno;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events of the trading loop, so a recording shows its
+ * ticks, the requests to Coinbase, the orders, the saves of the assets and
+ * the waits for its locks next to the events of the JVM.
+ *
+ * An event begins when it is created and ends with finish. While no
+ * recording runs, committing an event does nothing. Stack traces are left
+ * out, the fields say where the time went.
+ */
+final class FlightEvents {
+
+    static final String RECORDING = "trading";
+    static final Duration MAX_AGE = Duration.ofHours(24);
+    static final long MAX_SIZE = 250L * 1024 * 1024;
+
+    private FlightEvents() {
+    }
+
+    /**
+     * Starts the continuous recording of config.json's flightRecording: the
+     * JDK's default settings, made for production at about 1% overhead, and
+     * the events of this class. The last MAX_AGE, at most MAX_SIZE, are kept
+     * and written to destination when the bot exits; jcmd with JFR.dump
+     * name=trading writes them at any time.
+     */
+    static Recording start(Path destination) throws IOException, ParseException {
+        Files.createDirectories(destination.toAbsolutePath().getParent());
+        Recording recording = new Recording(Configuration.getConfiguration("default"));
+        recording.setName(RECORDING);
+        recording.setToDisk(true);
+        recording.setMaxAge(MAX_AGE);
+        recording.setMaxSize(MAX_SIZE);
+        recording.setDestination(destination);
+        recording.setDumpOnExit(true);
+        recording.start();
+        return recording;
+    }
+
+    // The outcome of a call that threw e
+    static String outcome(RuntimeException e) {
+        if (e instanceof CircuitBreaker.OpenException) {
+            return "CIRCUIT_OPEN";
+        }
+        return e.getCause() instanceof TimeoutException ? "TIMEOUT" : "FAILED";
+    }
+
+    @Name("org.netno.Tick")
+    @Label("Trading Tick")
+    @Description("A run of a scheduled task of the trading loop, including the wait for the trading lock")
+    @Category("Trading Bot")
+    @StackTrace(false)
+    static final class Tick extends Event {
+        @Label("Task")
+        String task;
+        @Label("Traded Coins")
+        int coins;
+        @Label("Held Coins")
+        int held;
+        @Label("Outcome")
+        String outcome;
+
+        Tick(String task) {
+            this.task = task;
+            begin();
+        }
+
+        // Called by the task while it holds the trading lock, so the counts are the ones it evaluated
+        void evaluated(boolean failed, int coins, int held) {
+            this.outcome = failed ? "FAILED" : "OK";
+            this.coins = coins;
+            this.held = held;
+        }
+
+        void finish() {
+            if (outcome == null) {
+                outcome = "FAILED"; // the task threw before it was evaluated
+            }
+            commit();
+        }
+    }
+
+    @Name("org.netno.MarketData")
+    @Label("Market Data Request")
+    @Description("A request of the MarketDataFetcher to Coinbase, including hedged attempts")
+    @Category("Trading Bot")
+    @StackTrace(false)
+    static final class MarketData extends Event {
+        @Label("Endpoint")
+        String endpoint;
+        @Label("Trading Pair")
+        String pair; // null for the balance
+        @Label("Outcome")
+        String outcome;
+
+        MarketData(String endpoint, String pair) {
+            this.endpoint = endpoint;
+            this.pair = pair;
+            begin();
+        }
+
+        void finish(String outcome) {
+            this.outcome = outcome;
+            commit();
+        }
+    }
+
+    @Name("org.netno.Order")
+    @Label("Order")
+    @Description("A createOrder call to Coinbase")
+    @Category("Trading Bot")
+    @StackTrace(false)
+    static final class Order extends Event {
+        @Label("Coin")
+        String coin;
+        @Label("Trading Pair")
+        String pair;
+        @Label("Side")
+        String side;
+        @Label("Client Order Id")
+        String clientOrderId;
+        @Label("Sent Again")
+        boolean resent;
+        @Label("Outcome")
+        String outcome;
+
+        Order(PendingOrders.Order order, boolean resent) {
+            this.coin = order.coin;
+            this.pair = order.productId;
+            this.side = order.side;
+            this.clientOrderId = order.clientOrderId;
+            this.resent = resent;
+            begin();
+        }
+
+        void finish(String outcome) {
+            this.outcome = outcome;
+            commit();
+        }
+    }
+
+    @Name("org.netno.AssetsSave")
+    @Label("Assets Save")
+    @Description("A write of the held coins to the assets file")
+    @Category("Trading Bot")
+    @StackTrace(false)
+    static final class AssetsSave extends Event {
+        @Label("File")
+        String file;
+        @Label("Held Coins")
+        int held;
+        @Label("Outcome")
+        String outcome;
+
+        AssetsSave(String file, int held) {
+            this.file = file;
+            this.held = held;
+            begin();
+        }
+
+        void finish(String outcome) {
+            this.outcome = outcome;
+            commit();
+        }
+    }
+
+    @Name("org.netno.LockWait")
+    @Label("Lock Wait")
+    @Description("A wait for the trading lock or the lock of the shard ledger")
+    @Category("Trading Bot")
+    @Threshold("1 ms") // waits for a free lock are left out
+    @StackTrace(false)
+    static final class LockWait extends Event {
+        @Label("Lock")
+        String lock;
+        @Label("Task")
+        String task;
+
+        LockWait(String lock, String task) {
+            this.lock = lock;
+            this.task = task;
+            begin();
+        }
+
+        void acquired() {
+            commit();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package org.netno;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Technical indicators per coin, updated with every price the trading loop
+ * fetches.
+ *
+ * Every update costs the same few arithmetic operations on a handful of
+ * doubles per coin, whatever the history length, because all indicators are
+ * kept as exponentially weighted or Wilder-smoothed running values:
+ *
+ * - a fast and a slow exponential moving average of the price
+ * - the volatility of the returns, per hour, weighted by the time between samples
+ * - the relative strength index (RSI) with Wilder's smoothing
+ * - a volume weighted average price (VWAP), weighted by the growth of the
+ *   24h volume between two samples, as the bot does not see single trades
+ *
+ * The smoothing is by time, not by the number of updates: the periods are
+ * given in samples of SAMPLE_MILLIS, the interval of the trading loop, and
+ * an update after dt milliseconds weighs like dt / SAMPLE_MILLIS samples. So
+ * the averages cover the same time whether a coin is polled every second or
+ * every minute.
+ *
+ * Updates come from the trading thread, reads from any thread.
+ */
+public class IndicatorEngine {
+
+    static final long SAMPLE_MILLIS = 15_000;
+    static final int FAST_EMA_SAMPLES = 20; // 5 minutes
+    static final int SLOW_EMA_SAMPLES = 240; // 1 hour
+    static final int RSI_SAMPLES = 14;
+    static final int VOLATILITY_SAMPLES = 60; // 15 minutes
+    private static final double FAST_ALPHA = 2.0 / (FAST_EMA_SAMPLES + 1);
+    private static final double SLOW_ALPHA = 2.0 / (SLOW_EMA_SAMPLES + 1);
+    private static final double VOLATILITY_ALPHA = 2.0 / (VOLATILITY_SAMPLES + 1);
+
+    private final Map<String, State> states = new ConcurrentHashMap<>();
+
+    public void update(String coin, long epochMillis, double price, double volume24h) {
+        if (!(price > 0)) {
+            return;
+        }
+        states.computeIfAbsent(coin, c -> new State()).update(epochMillis, price, volume24h);
+    }
+
+    // The current values for coin, or null if no price has been seen
+    public Values get(String coin) {
+        State state = states.get(coin);
+        return state == null ? null : state.values(coin);
+    }
+
+    public Map<String, Values> getAll() {
+        Map<String, Values> all = new TreeMap<>();
+        states.forEach((coin, state) -> all.put(coin, state.values(coin)));
+        return all;
+    }
+
+    // Forgets the coins not matching keep
+    public void retain(Predicate<String> keep) {
+        states.keySet().removeIf(keep.negate());
+    }
+
+    /**
+     * True while the price of coin is still falling: it is below the fast
+     * average, which is below the slow one. False until there are enough
+     * samples to tell.
+     */
+    public boolean isFalling(String coin) {
+        Values values = get(coin);
+        return values != null && values.isReady() && values.price < values.fastEma && values.fastEma < values.slowEma;
+    }
+
+    // The weight of a new value in an average with alpha per sample, after the given number of samples
+    private static double weight(double alpha, double samples) {
+        return 1 - Math.pow(1 - alpha, samples);
+    }
+
+    private static final class State {
+        private long samples;
+        private long firstMillis;
+        private long lastMillis;
+        private double lastPrice;
+        private double fastEma;
+        private double slowEma;
+        private double averageGain;
+        private double averageLoss;
+        private double variancePerSecond;
+        private double lastVolume24h;
+        private double vwapPriceVolume;
+        private double vwapVolume;
+
+        synchronized void update(long epochMillis, double price, double volume24h) {
+            samples++;
+            if (samples == 1) {
+                firstMillis = epochMillis;
+                fastEma = price;
+                slowEma = price;
+            } else {
+                double elapsed = Math.max(0, epochMillis - lastMillis) / (double) SAMPLE_MILLIS; // in samples
+                fastEma += weight(FAST_ALPHA, elapsed) * (price - fastEma);
+                slowEma += weight(SLOW_ALPHA, elapsed) * (price - slowEma);
+
+                // Wilder's smoothing, seeded with the plain average of the first changes
+                double change = price - lastPrice;
+                double gain = Math.max(change, 0);
+                double loss = Math.max(-change, 0);
+                long changes = samples - 1;
+                if (changes <= RSI_SAMPLES) {
+                    averageGain += (gain - averageGain) / changes;
+                    averageLoss += (loss - averageLoss) / changes;
+                } else {
+                    double rsiWeight = weight(1.0 / RSI_SAMPLES, elapsed);
+                    averageGain += rsiWeight * (gain - averageGain);
+                    averageLoss += rsiWeight * (loss - averageLoss);
+                }
+
+                double seconds = (epochMillis - lastMillis) / 1000.0;
+                if (seconds > 0) {
+                    double logReturn = Math.log(price / lastPrice);
+                    double variance = logReturn * logReturn / seconds;
+                    variancePerSecond = changes == 1 ? variance
+                            : variancePerSecond + weight(VOLATILITY_ALPHA, elapsed) * (variance - variancePerSecond);
+                }
+
+                double traded = volume24h - lastVolume24h;
+                if (traded > 0) {
+                    double kept = 1 - weight(SLOW_ALPHA, elapsed);
+                    vwapPriceVolume = vwapPriceVolume * kept + price * traded;
+                    vwapVolume = vwapVolume * kept + traded;
+                }
+            }
+            lastMillis = epochMillis;
+            lastPrice = price;
+            lastVolume24h = volume24h;
+        }
+
+        synchronized Values values(String coin) {
+            double rsi = averageLoss == 0 ? (averageGain == 0 ? 50 : 100)
+                    : 100 - 100 / (1 + averageGain / averageLoss);
+            return new Values(coin, samples, lastMillis - firstMillis, lastMillis, lastPrice, fastEma, slowEma, rsi,
+                    Math.sqrt(variancePerSecond * 3600) * 100, vwapVolume > 0 ? vwapPriceVolume / vwapVolume : Double.NaN);
+        }
+    }
+
+    /**
+     * The indicators of a coin at one point in time.
+     */
+    public static final class Values {
+        final String coin;
+        final long samples;
+        final long spanMillis; // from the first to the last sample
+        final long timestamp; // epoch millis of the last sample
+        final double price;
+        final double fastEma;
+        final double slowEma;
+        final double rsi;
+        final double hourlyVolatilityPercent;
+        final double vwap; // NaN until volume has been seen
+
+        Values(String coin, long samples, long spanMillis, long timestamp, double price, double fastEma, double slowEma, double rsi,
+                double hourlyVolatilityPercent, double vwap) {
+            this.coin = coin;
+            this.samples = samples;
+            this.spanMillis = spanMillis;
+            this.timestamp = timestamp;
+            this.price = price;
+            this.fastEma = fastEma;
+            this.slowEma = slowEma;
+            this.rsi = rsi;
+            this.hourlyVolatilityPercent = hourlyVolatilityPercent;
+            this.vwap = vwap;
+        }
+
+        // Enough samples for the RSI and enough time for the fast average to mean something
+        public boolean isReady() {
+            return samples > RSI_SAMPLES && spanMillis >= FAST_EMA_SAMPLES * SAMPLE_MILLIS;
+        }
+
+        public String getCoin() {
+            return coin;
+        }
+
+        public long getSamples() {
+            return samples;
+        }
+
+        public double getPrice() {
+            return price;
+        }
+
+        public double getFastEma() {
+            return fastEma;
+        }
+
+        public double getSlowEma() {
+            return slowEma;
+        }
+
+        public double getRsi() {
+            return rsi;
+        }
+
+        public double getHourlyVolatilityPercent() {
+            return hourlyVolatilityPercent;
+        }
+
+        public double getVwap() {
+            return vwap;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.netno;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+/**
+ * Decides which of several bot instances started in the same directory
+ * trades.
+ *
+ * The leader holds an exclusive lock on leader.lock. The operating system
+ * releases the lock when the leader's process ends, also when it crashes, so
+ * a standby that tries every checkMillis takes over within that time. While
+ * waiting the standby runs whileStandingBy, e.g. to keep its state current.
+ * If onElected throws, the instance gives the lock up again and keeps
+ * standing by, so it never leads without having taken over.
+ */
+public class LeaderElection {
+
+    static final String FILE = "leader.lock";
+
+    private final Path file;
+    private final long checkMillis;
+    private final Runnable whileStandingBy;
+    private final Runnable onElected;
+    private FileChannel channel;
+    private FileLock lock;
+    private volatile boolean stopped;
+    private Thread thread;
+
+    public LeaderElection(String file, long checkMillis, Runnable whileStandingBy, Runnable onElected) {
+        this.file = Path.of(file);
+        this.checkMillis = checkMillis;
+        this.whileStandingBy = whileStandingBy;
+        this.onElected = onElected;
+    }
+
+    /**
+     * Becomes the leader right away if no other instance is, otherwise keeps
+     * trying in the background. Returns whether this instance leads.
+     */
+    public boolean start() throws IOException {
+        if (tryAcquire() && elect()) {
+            return true;
+        }
+        thread = new Thread(this::standBy, "leader-election");
+        thread.setDaemon(true);
+        thread.start();
+        return false;
+    }
+
+    private void standBy() {
+        while (!stopped) {
+            try {
+                if (tryAcquire() && (stopped || elect())) {
+                    return;
+                }
+                whileStandingBy.run();
+                Thread.sleep(checkMillis);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                System.out.println("Leader election failed: " + e.getMessage());
+                try {
+                    Thread.sleep(checkMillis);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Runs onElected, or gives the lock up again if it fails
+    private boolean elect() {
+        try {
+            onElected.run();
+            return true;
+        } catch (RuntimeException e) {
+            System.out.println("Failed to take over, standing by again: " + e.getMessage());
+            release();
+            return false;
+        }
+    }
+
+    // Takes the lock if nobody holds it and notes who holds it for people looking at the file
+    synchronized boolean tryAcquire() throws IOException {
+        if (lock != null) {
+            return true;
+        }
+        if (stopped) {
+            return false;
+        }
+        if (channel == null) {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        }
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null; // held by another election in this JVM
+        }
+        if (lock == null) {
+            return false;
+        }
+        String holder = String.format("pid %d since %s%n", ProcessHandle.current().pid(), Instant.now());
+        channel.truncate(0);
+        channel.write(ByteBuffer.wrap(holder.getBytes(StandardCharsets.UTF_8)), 0);
+        channel.force(false);
+        return true;
+    }
+
+    public synchronized boolean isLeader() {
+        return lock != null;
+    }
+
+    // Stops waiting and gives up the leadership, a standby takes over
+    public void stop() {
+        stopped = true;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        release();
+    }
+
+    private synchronized void release() {
+        try {
+            if (channel != null) {
+                channel.close(); // releases the lock
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to release " + file + ": " + e.getMessage());
+        }
+        channel = null;
+        lock = null;
+    }
+}
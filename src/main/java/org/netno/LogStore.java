@@ -0,0 +1,538 @@
+package org.netno;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * The log file of the bot, split into segments that can be searched without
+ * reading all of them.
+ *
+ * Entries are appended to logs/trading.log. When it grows beyond
+ * maxSegmentBytes or a new day starts, it is renamed to
+ * trading-yyyyMMdd-HHmmss.log and a background thread compresses it into
+ * trading-yyyyMMdd-HHmmss.log.gz. The compressed file consists of one gzip
+ * member per block of about BLOCK_BYTES, so zcat still reads it as a whole,
+ * and trading-yyyyMMdd-HHmmss.idx lists per block its position, the time of
+ * its first and last entry, the levels and the coins it mentions. A search
+ * only decompresses the blocks whose index entry can match.
+ *
+ * Only one process writes a directory: the first to append locks
+ * trading.lock, so a standby instance in the same directory doesn't rotate
+ * the leader's log away. Its entries are only printed until it gets the lock.
+ */
+public class LogStore {
+
+    static final String DIRECTORY = "logs";
+    static final String ACTIVE = "trading.log";
+    static final String LOCK = "trading.lock";
+    static final long MAX_SEGMENT_BYTES = 10 * 1024 * 1024;
+    static final int BLOCK_BYTES = 64 * 1024;
+    static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS xxx");
+    private static final DateTimeFormatter SEGMENT_NAME = DateTimeFormatter.ofPattern("'trading-'yyyyMMdd-HHmmss");
+    private static final Pattern ENTRY = Pattern.compile("^\\[([^\\]]+)\\] \\[([A-Z]+)\\] ");
+    private static final Pattern COIN = Pattern.compile("\\b[A-Z][A-Z0-9]{1,9}\\b");
+
+    private final Path directory;
+    private final long maxSegmentBytes;
+    private final ExecutorService compressor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "log-compressor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // guarded by this
+    private FileLock lock; // held while this process writes the directory
+    private boolean closed; // nothing is written after close
+    private FileChannel active;
+    private long activeSize;
+    private LocalDate activeDay;
+    private ZonedDateTime activeStart;
+    private List<Block> activeBlocks = new ArrayList<>();
+
+    // guarded by segments, taken after this: rotated segments waiting for compression, and the read indexes
+    private final Object segments = new Object();
+    private final Map<Path, List<Block>> rotated = new TreeMap<>();
+    private final Map<Path, List<Block>> indexes = new HashMap<>();
+
+    public LogStore(Path directory, long maxSegmentBytes) {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+    }
+
+    /**
+     * The position and summary of a run of whole entries: in the active or a
+     * rotated segment its bytes, in a compressed segment its gzip member.
+     */
+    static final class Block {
+        long offset;
+        long length;
+        long from = Long.MAX_VALUE; // epoch millis of the first entry
+        long to = Long.MIN_VALUE;
+        int levels; // a bit per TradingBot.LogLevel ordinal
+        Set<String> coins = new HashSet<>(); // null if not known, then the block may mention any coin
+
+        // A block of a segment written by an earlier run, which may contain anything
+        static Block unknown(long length) {
+            Block block = new Block();
+            block.length = length;
+            block.from = Long.MIN_VALUE;
+            block.to = Long.MAX_VALUE;
+            block.levels = -1;
+            block.coins = null;
+            return block;
+        }
+
+        boolean mayMatch(String coin, int levelMask, long fromMillis, long toMillis) {
+            return to >= fromMillis && from <= toMillis && (levels & levelMask) != 0
+                    && (coin == null || coins == null || coins.contains(coin));
+        }
+
+        Block copy() {
+            Block block = new Block();
+            block.offset = offset;
+            block.length = length;
+            block.from = from;
+            block.to = to;
+            block.levels = levels;
+            block.coins = coins == null ? null : new HashSet<>(coins);
+            return block;
+        }
+
+        JSONObject toJson() {
+            return new JSONObject().put("offset", offset).put("length", length).put("from", from).put("to", to)
+                    .put("levels", levels).put("coins", coins == null ? JSONObject.NULL : new JSONArray(coins));
+        }
+
+        static Block fromJson(JSONObject json) {
+            Block block = new Block();
+            block.offset = json.getLong("offset");
+            block.length = json.getLong("length");
+            block.from = json.getLong("from");
+            block.to = json.getLong("to");
+            block.levels = json.getInt("levels");
+            if (json.isNull("coins")) {
+                block.coins = null;
+            } else {
+                JSONArray coins = json.getJSONArray("coins");
+                for (int i = 0; i < coins.length(); i++) {
+                    block.coins.add(coins.getString(i));
+                }
+            }
+            return block;
+        }
+    }
+
+    // An entry found by search
+    public static final class Entry {
+        final long epochMillis;
+        final String level;
+        final String text; // as written, with the timestamp, the level and any continuation lines
+
+        Entry(long epochMillis, String level, String text) {
+            this.epochMillis = epochMillis;
+            this.level = level;
+            this.text = text;
+        }
+
+        public long getEpochMillis() {
+            return epochMillis;
+        }
+
+        public String getLevel() {
+            return level;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+
+    /**
+     * Appends an entry, which is in the file when this returns. Segments the day
+     * of time differs from are rotated, so every segment covers one day in
+     * the zone of time. Returns false without writing if another process
+     * writes the directory.
+     */
+    public synchronized boolean append(ZonedDateTime time, TradingBot.LogLevel level, String message)
+            throws IOException {
+        if (closed || lock == null && !lockDirectory()) {
+            return false;
+        }
+        if (active == null) {
+            open(time);
+        } else if (activeSize >= maxSegmentBytes || !time.toLocalDate().equals(activeDay)) {
+            rotate();
+            open(time);
+        }
+        byte[] bytes = String.format("[%s] [%s] %s%n", TIMESTAMP.format(time), level, message)
+                .getBytes(StandardCharsets.UTF_8);
+        Block block = activeBlocks.isEmpty() ? null : activeBlocks.get(activeBlocks.size() - 1);
+        if (block == null || block.length >= BLOCK_BYTES) {
+            block = new Block();
+            block.offset = activeSize;
+            activeBlocks.add(block);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            active.write(buffer);
+        }
+        long millis = time.toInstant().toEpochMilli();
+        activeSize += bytes.length;
+        block.length += bytes.length;
+        block.from = Math.min(block.from, millis);
+        block.to = Math.max(block.to, millis);
+        block.levels |= 1 << level.ordinal();
+        Matcher coins = COIN.matcher(message);
+        while (coins.find()) {
+            block.coins.add(coins.group());
+        }
+        return true;
+    }
+
+    // Takes the lock of the directory unless another process holds it
+    private boolean lockDirectory() throws IOException {
+        Files.createDirectories(directory);
+        FileChannel channel = FileChannel.open(directory.resolve(LOCK), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null; // held by another store of this process
+        }
+        if (lock == null) {
+            channel.close();
+            return false;
+        }
+        return true;
+    }
+
+    private void open(ZonedDateTime time) throws IOException {
+        Path path = directory.resolve(ACTIVE);
+        if (activeStart == null) {
+            // the first entry of this run: queue what an earlier run left uncompressed
+            Files.createDirectories(directory);
+            if (Files.exists(path) && Files.size(path) > 0) {
+                activeStart = Files.getLastModifiedTime(path).toInstant().atZone(time.getZone());
+                activeBlocks = List.of(Block.unknown(Files.size(path)));
+                rotateFile(path);
+            }
+            compressLeftovers();
+        }
+        active = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        activeSize = active.size();
+        activeDay = time.toLocalDate();
+        activeStart = time;
+        activeBlocks = new ArrayList<>();
+    }
+
+    private void rotate() throws IOException {
+        active.close();
+        active = null;
+        rotateFile(directory.resolve(ACTIVE));
+    }
+
+    // Renames the active segment after the time it was started and queues it for compression
+    private void rotateFile(Path path) throws IOException {
+        String name = SEGMENT_NAME.format(activeStart);
+        Path target = directory.resolve(name + ".log");
+        for (int i = 1; Files.exists(target) || Files.exists(gzipOf(target)); i++) {
+            target = directory.resolve(name + "-" + i + ".log");
+        }
+        List<Block> blocks = activeBlocks;
+        Path segment = target;
+        synchronized (segments) {
+            Files.move(path, segment, StandardCopyOption.ATOMIC_MOVE);
+            rotated.put(segment, blocks);
+        }
+        compressor.execute(() -> compress(segment, blocks));
+    }
+
+    // Queues the rotated segments whose compression an earlier run did not finish
+    private void compressLeftovers() throws IOException {
+        List<Path> leftovers = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> file.getFileName().toString().matches("trading-.*\\.log")).sorted()
+                    .forEach(leftovers::add);
+        }
+        for (Path segment : leftovers) {
+            List<Block> blocks = List.of(Block.unknown(Files.size(segment)));
+            synchronized (segments) {
+                if (rotated.putIfAbsent(segment, blocks) != null) {
+                    continue;
+                }
+            }
+            compressor.execute(() -> compress(segment, blocks));
+        }
+    }
+
+    private static Path gzipOf(Path segment) {
+        return segment.resolveSibling(segment.getFileName() + ".gz");
+    }
+
+    private static Path indexOf(Path gzip) {
+        return gzip.resolveSibling(gzip.getFileName().toString().replaceFirst("\\.log\\.gz$", ".idx"));
+    }
+
+    /**
+     * Writes every block of segment as a gzip member and then the index. The
+     * index is written last, so a segment without one is compressed again on
+     * the next start.
+     */
+    private void compress(Path segment, List<Block> blocks) {
+        Path gzip = gzipOf(segment);
+        Path index = indexOf(gzip);
+        try {
+            List<Block> compressed = new ArrayList<>();
+            try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ);
+                    FileChannel out = FileChannel.open(gzip, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (Block block : blocks) {
+                    ByteArrayOutputStream member = new ByteArrayOutputStream();
+                    try (GZIPOutputStream zip = new GZIPOutputStream(member)) {
+                        zip.write(read(in, block.offset, block.length));
+                    }
+                    Block packed = block.copy();
+                    packed.offset = out.position();
+                    packed.length = member.size();
+                    ByteBuffer buffer = ByteBuffer.wrap(member.toByteArray());
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    compressed.add(packed);
+                }
+                out.force(true);
+            }
+            JSONArray list = new JSONArray();
+            compressed.forEach(block -> list.put(block.toJson()));
+            Path temp = index.resolveSibling(index.getFileName() + ".tmp");
+            Files.writeString(temp, new JSONObject().put("blocks", list).toString(), StandardCharsets.UTF_8);
+            // a search sees the segment either plain or compressed, never both
+            synchronized (segments) {
+                Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                indexes.put(gzip, compressed);
+                rotated.remove(segment);
+            }
+            Files.delete(segment);
+        } catch (IOException e) {
+            System.out.println("Failed to compress " + segment + ": " + e.getMessage());
+        }
+    }
+
+    private static byte[] read(FileChannel channel, long offset, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) >= 0) {
+            // until the block is read or the file ends
+        }
+        return buffer.array();
+    }
+
+    /**
+     * The entries of minLevel or above, written between fromMillis and
+     * toMillis, that mention coin (any if null), oldest first. If there are
+     * more than limit, the newest limit of them: the segments are read newest
+     * first until limit entries are found.
+     */
+    public List<Entry> search(String coin, TradingBot.LogLevel minLevel, long fromMillis, long toMillis, int limit)
+            throws IOException {
+        int levelMask = -1 << minLevel.ordinal();
+        Pattern mention = coin == null ? null : Pattern.compile("\\b" + Pattern.quote(coin) + "\\b");
+        // the plain segments are opened while nothing rotates, so a rotation or compression afterwards can't
+        // hide entries; an open segment stays readable after the compressor deleted it
+        List<Path> opened = new ArrayList<>();
+        List<FileChannel> plain = new ArrayList<>();
+        List<List<Block>> plainBlocks = new ArrayList<>();
+        try {
+            synchronized (this) {
+                synchronized (segments) {
+                    for (Map.Entry<Path, List<Block>> segment : rotated.entrySet()) {
+                        plain.add(FileChannel.open(segment.getKey(), StandardOpenOption.READ));
+                        plainBlocks.add(segment.getValue());
+                        opened.add(gzipOf(segment.getKey()));
+                    }
+                }
+                if (active != null) {
+                    List<Block> blocks = new ArrayList<>();
+                    activeBlocks.forEach(block -> blocks.add(block.copy()));
+                    plain.add(FileChannel.open(directory.resolve(ACTIVE), StandardOpenOption.READ));
+                    plainBlocks.add(blocks);
+                }
+            }
+
+            List<Entry> found = new ArrayList<>(); // newest first
+            for (int i = plain.size() - 1; i >= 0 && found.size() < limit; i--) {
+                FileChannel in = plain.get(i);
+                collectNewestFirst(plainBlocks.get(i), block -> read(in, block.offset, block.length), coin, mention,
+                        levelMask, fromMillis, toMillis, limit, found);
+            }
+            // listed after the snapshot, so a segment compressed meanwhile is skipped here instead of read twice
+            List<Path> gzips = new ArrayList<>();
+            if (found.size() < limit && Files.isDirectory(directory)) {
+                try (Stream<Path> files = Files.list(directory)) {
+                    files.filter(file -> file.getFileName().toString().endsWith(".idx")).sorted().forEach(
+                            index -> gzips.add(directory.resolve(index.getFileName().toString()
+                                    .replaceFirst("\\.idx$", ".log.gz"))));
+                }
+                gzips.removeAll(opened);
+            }
+            for (int i = gzips.size() - 1; i >= 0 && found.size() < limit; i--) {
+                Path gzip = gzips.get(i);
+                try (FileChannel in = FileChannel.open(gzip, StandardOpenOption.READ)) {
+                    collectNewestFirst(index(gzip), block -> {
+                        try (InputStream zip = new GZIPInputStream(
+                                new ByteArrayInputStream(read(in, block.offset, block.length)))) {
+                            return zip.readAllBytes();
+                        }
+                    }, coin, mention, levelMask, fromMillis, toMillis, limit, found);
+                }
+            }
+            Collections.reverse(found);
+            return found;
+        } finally {
+            for (FileChannel channel : plain) {
+                channel.close();
+            }
+        }
+    }
+
+    private interface BlockReader {
+        byte[] read(Block block) throws IOException;
+    }
+
+    // Adds the matching entries of blocks to found, newest first, until it holds limit entries
+    private static void collectNewestFirst(List<Block> blocks, BlockReader reader, String coin, Pattern mention,
+            int levelMask, long fromMillis, long toMillis, int limit, List<Entry> found) throws IOException {
+        for (int i = blocks.size() - 1; i >= 0 && found.size() < limit; i--) {
+            Block block = blocks.get(i);
+            if (block.mayMatch(coin, levelMask, fromMillis, toMillis)) {
+                List<Entry> entries = new ArrayList<>();
+                collect(reader.read(block), mention, levelMask, fromMillis, toMillis, entries);
+                for (int j = entries.size() - 1; j >= 0 && found.size() < limit; j--) {
+                    found.add(entries.get(j));
+                }
+            }
+        }
+    }
+
+    // The blocks of a compressed segment, read from its index once
+    private List<Block> index(Path gzip) throws IOException {
+        synchronized (segments) {
+            List<Block> blocks = indexes.get(gzip);
+            if (blocks != null) {
+                return blocks;
+            }
+        }
+        List<Block> blocks = readIndex(indexOf(gzip));
+        synchronized (segments) {
+            indexes.put(gzip, blocks);
+        }
+        return blocks;
+    }
+
+    private static List<Block> readIndex(Path index) throws IOException {
+        JSONArray list = new JSONObject(Files.readString(index, StandardCharsets.UTF_8)).getJSONArray("blocks");
+        List<Block> blocks = new ArrayList<>();
+        for (int i = 0; i < list.length(); i++) {
+            blocks.add(Block.fromJson(list.getJSONObject(i)));
+        }
+        return blocks;
+    }
+
+    // Adds the matching entries of block; lines without a timestamp, like stack traces, belong to the entry before
+    private static void collect(byte[] block, Pattern mention, int levelMask, long fromMillis, long toMillis,
+            List<Entry> found) {
+        StringBuilder text = null;
+        long millis = 0;
+        String level = null;
+        for (String line : new String(block, StandardCharsets.UTF_8).split("\r?\n")) {
+            Matcher entry = ENTRY.matcher(line);
+            Long lineMillis = null;
+            if (entry.find()) {
+                try {
+                    lineMillis = ZonedDateTime.parse(entry.group(1), TIMESTAMP).toInstant().toEpochMilli();
+                } catch (RuntimeException e) {
+                    // not a timestamp of ours, a continuation line
+                }
+            }
+            if (lineMillis == null) {
+                if (text != null) {
+                    text.append('\n').append(line);
+                }
+                continue;
+            }
+            add(text, millis, level, mention, levelMask, fromMillis, toMillis, found);
+            text = new StringBuilder(line);
+            millis = lineMillis;
+            level = entry.group(2);
+        }
+        add(text, millis, level, mention, levelMask, fromMillis, toMillis, found);
+    }
+
+    private static void add(StringBuilder text, long millis, String level, Pattern mention, int levelMask,
+            long fromMillis, long toMillis, List<Entry> found) {
+        if (text == null || millis < fromMillis || millis > toMillis) {
+            return;
+        }
+        TradingBot.LogLevel entryLevel;
+        try {
+            entryLevel = TradingBot.LogLevel.valueOf(level);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        if ((levelMask & (1 << entryLevel.ordinal())) != 0 && (mention == null || mention.matcher(text).find())) {
+            found.add(new Entry(millis, level, text.toString()));
+        }
+    }
+
+    // Releases the directory for another store, later entries are not written
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (active != null) {
+            active.close();
+            active = null;
+        }
+        if (lock != null) {
+            lock.channel().close(); // releases the lock
+            lock = null;
+        }
+    }
+
+    // Waits until the rotated segments are compressed, for tests
+    void awaitCompression() throws InterruptedException, ExecutionException {
+        compressor.submit(() -> {
+        }).get();
+    }
+}
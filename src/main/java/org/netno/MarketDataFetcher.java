@@ -1,7 +1,15 @@
 package org.netno;
 
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.coinbase.advanced.client.CoinbaseAdvancedClient;
 import com.coinbase.advanced.factory.CoinbaseAdvancedServiceFactory;
@@ -17,24 +25,58 @@ import com.coinbase.advanced.model.portfolios.Portfolio;
 import com.coinbase.advanced.model.portfolios.PortfolioBalances;
 
 public class MarketDataFetcher {
+    private static final long PRODUCT_MAX_AGE_MILLIS = 1000; // a fetched product answers all questions of one evaluation
+    private static final int FETCH_THREADS = 8;
+
     private final ProductsService productsService;
     private final PortfoliosService portfoliosService;
-    private final Portfolio portfolio;
+    private final String portfolioUuid;
+    private final WarmStartCache cache;
+    private final Map<String, FetchedProduct> products = new ConcurrentHashMap<>();
+    // market data reads can be repeated, so slow ones are hedged
+    private final ExchangeEndpoint productEndpoint = new ExchangeEndpoint("getProduct", true);
+    private final ExchangeEndpoint balanceEndpoint = new ExchangeEndpoint("getPortfolioBreakdown", true);
+    private final ExecutorService fetchThreads = Executors.newFixedThreadPool(FETCH_THREADS, r -> {
+        Thread thread = new Thread(r, "market-data");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public MarketDataFetcher(CoinbaseAdvancedClient client, String portfolioId) {
+        this(client, portfolioId, new WarmStartCache());
+    }
+
+    // Skips looking up the portfolio if the cache already knows it
+    public MarketDataFetcher(CoinbaseAdvancedClient client, String portfolioId, WarmStartCache cache) {
         this.productsService = CoinbaseAdvancedServiceFactory.createProductsService(client);
         this.portfoliosService = CoinbaseAdvancedServiceFactory.createPortfoliosService(client);
-        this.portfolio = findPortfolioById(portfolioId);
+        this.cache = cache;
+        if (cache.portfolioId != null && cache.portfolioId.equalsIgnoreCase(portfolioId)) {
+            this.portfolioUuid = cache.portfolioId;
+        } else {
+            Portfolio portfolio = findPortfolioById(portfolioId);
+            this.portfolioUuid = portfolio == null ? null : portfolio.getUuid();
+            cache.portfolioId = portfolioUuid;
+        }
     }
 
     // Method to get the current USDC balance
     public double getUsdcBalance() {
 
-        if(portfolio == null) {
+        if(portfolioUuid == null) {
             return 0.0;
         }
-        
-        GetPortfolioBreakdownResponse getPortfolioBreakdownResponse = portfoliosService.getPortfolioBreakdown(new GetPortfolioBreakdownRequest(portfolio.getUuid()));
+
+        FlightEvents.MarketData event = new FlightEvents.MarketData("getPortfolioBreakdown", null);
+        GetPortfolioBreakdownResponse getPortfolioBreakdownResponse;
+        try {
+            getPortfolioBreakdownResponse = balanceEndpoint.call(
+                    () -> portfoliosService.getPortfolioBreakdown(new GetPortfolioBreakdownRequest(portfolioUuid)));
+        } catch (RuntimeException e) {
+            event.finish(FlightEvents.outcome(e));
+            throw e;
+        }
+        event.finish("OK");
         PortfolioBalances balances = getPortfolioBreakdownResponse.getBreakdown().getPortfolioBalances();
         try {
             return Double.parseDouble(balances.getTotalCashEquivalentBalance().getValue());
@@ -44,24 +86,47 @@ public class MarketDataFetcher {
         }
     }
 
+    /**
+     * Fetches the given products concurrently, so the following price
+     * queries of the same evaluation are answered without waiting for
+     * Coinbase one pair after the other. Failures are left to those queries.
+     */
+    public void prefetch(Collection<String> tradingPairs) {
+        List<Future<?>> fetches = new ArrayList<>();
+        for (String tradingPair : tradingPairs) {
+            fetches.add(fetchThreads.submit(() -> getProduct(tradingPair)));
+        }
+        for (Future<?> fetch : fetches) {
+            try {
+                fetch.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                // reported by the query for this pair
+            }
+        }
+    }
+
     // Get 24h price change percentage
     public double get24hPriceChangePercentage(String tradingPair) throws Exception {
-        GetProductRequest request = new GetProductRequest.Builder()
-                .productId(tradingPair)
-                .build();
-
-        GetProductResponse response = productsService.getProduct(request);
-        return Double.parseDouble(response.getPricePercentageChange24h());
+        return Double.parseDouble(getProduct(tradingPair).getPricePercentageChange24h());
     }
 
     // Get current price
     public double getCurrentPrice(String tradingPair) throws Exception {
-        GetProductRequest request = new GetProductRequest.Builder()
-                .productId(tradingPair)
-                .build();
+        return Double.parseDouble(getProduct(tradingPair).getPrice());
+    }
 
-        GetProductResponse response = productsService.getProduct(request);
-        return Double.parseDouble(response.getPrice());
+    // Get the traded volume of the last 24 hours in units of the base currency, 0 if not reported
+    public double getVolume24h(String tradingPair) throws Exception {
+        String volume = getProduct(tradingPair).getVolume24h();
+        return volume == null || volume.isEmpty() ? 0 : Double.parseDouble(volume);
+    }
+
+    // The endpoints used for market data, with the state of their circuit breakers
+    public List<ExchangeEndpoint> getEndpoints() {
+        return List.of(productEndpoint, balanceEndpoint);
     }
 
     private Portfolio findPortfolioById(String uuid) {
@@ -77,13 +142,95 @@ public class MarketDataFetcher {
         return result.orElse(null);
     }
 
-    // Fetch precision for base currency size
+    // Fetch precision for base currency size, which does not change and is kept in the warm start cache
     public double getBasePrecision(String tradingPair) throws Exception {
+        String baseIncrement = cache.baseIncrements.get(tradingPair);
+        if (baseIncrement == null) {
+            baseIncrement = getProduct(tradingPair).getBaseIncrement();
+        }
+        return Double.parseDouble(baseIncrement);
+    }
+
+    // The product, fetched again if the last fetch is older than PRODUCT_MAX_AGE_MILLIS
+    private GetProductResponse getProduct(String tradingPair) {
+        long now = System.currentTimeMillis();
+        FetchedProduct fetched = products.get(tradingPair);
+        if (fetched != null && now - fetched.at < PRODUCT_MAX_AGE_MILLIS) {
+            return fetched.response;
+        }
         GetProductRequest request = new GetProductRequest.Builder()
                 .productId(tradingPair)
                 .build();
 
-        GetProductResponse response = productsService.getProduct(request);
-        return Double.parseDouble(response.getBaseIncrement());
+        FlightEvents.MarketData event = new FlightEvents.MarketData("getProduct", tradingPair);
+        GetProductResponse response;
+        try {
+            response = productEndpoint.call(() -> productsService.getProduct(request));
+        } catch (RuntimeException e) {
+            event.finish(FlightEvents.outcome(e));
+            throw e;
+        }
+        event.finish("OK");
+        products.put(tradingPair, new FetchedProduct(response, now, System.nanoTime()));
+        if (response.getBaseIncrement() != null) {
+            cache.baseIncrements.put(tradingPair, response.getBaseIncrement());
+        }
+        return response;
+    }
+
+    // When the product with the last price of tradingPair arrived, in System.nanoTime,
+    // DecisionTracer.NOT_MEASURED if it was never fetched
+    public long getFetchedNanos(String tradingPair) {
+        FetchedProduct fetched = products.get(tradingPair);
+        return fetched == null ? DecisionTracer.NOT_MEASURED : fetched.nanos;
+    }
+
+    /**
+     * The last fetched product of tradingPair without fetching it again,
+     * null if it was never fetched or lacks a price. Read by the shadow
+     * strategies, which trade on the prices the trading loop fetched.
+     */
+    public Quote getQuote(String tradingPair) {
+        FetchedProduct fetched = products.get(tradingPair);
+        if (fetched == null) {
+            return null;
+        }
+        try {
+            String baseIncrement = cache.baseIncrements.get(tradingPair);
+            return new Quote(fetched.at,
+                    FixedPoint.fromDouble(Double.parseDouble(fetched.response.getPrice()), FixedPoint.PRICE_SCALE,
+                            RoundingMode.HALF_EVEN),
+                    Double.parseDouble(fetched.response.getPricePercentageChange24h()),
+                    baseIncrement == null ? -1 : FixedPoint.scaleOf(Double.parseDouble(baseIncrement)));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    // A price of a product as of a fetch
+    public static final class Quote {
+        final long at; // epoch millis of the fetch
+        final long price; // at FixedPoint.PRICE_SCALE
+        final double priceChangePercentage24h;
+        final int decimalPlaces; // of the base size, -1 if not known
+
+        Quote(long at, long price, double priceChangePercentage24h, int decimalPlaces) {
+            this.at = at;
+            this.price = price;
+            this.priceChangePercentage24h = priceChangePercentage24h;
+            this.decimalPlaces = decimalPlaces;
+        }
+    }
+
+    private static final class FetchedProduct {
+        final GetProductResponse response;
+        final long at;
+        final long nanos; // arrival
+
+        FetchedProduct(GetProductResponse response, long at, long nanos) {
+            this.response = response;
+            this.at = at;
+            this.nanos = nanos;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,142 @@
+package org.netno;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Orders sent to Coinbase whose outcome is not yet in currentAssets.json.
+ *
+ * An order is saved here before it is sent and removed once its result was
+ * saved with the assets. An order still listed after a crash, a failed
+ * request or a takeover by another instance may or may not have been placed.
+ * It is sent again with the same client order id, which Coinbase answers with
+ * the existing order instead of placing a second one, and its result is then
+ * applied to the assets like for a new order.
+ */
+public class PendingOrders {
+
+    static final String FILE = "pendingOrders.json";
+
+    private final String filePath;
+    private final Map<String, Order> orders = new LinkedHashMap<>(); // by client order id, oldest first
+
+    private PendingOrders(String filePath) {
+        this.filePath = filePath;
+    }
+
+    // Reads the pending orders, there are none if the file does not exist
+    public static PendingOrders load(String filePath) throws IOException {
+        PendingOrders pending = new PendingOrders(filePath);
+        Path path = Path.of(filePath);
+        if (Files.exists(path)) {
+            JSONArray orders = new JSONObject(Files.readString(path, StandardCharsets.UTF_8)).getJSONArray("orders");
+            for (int i = 0; i < orders.length(); i++) {
+                Order order = Order.fromJson(orders.getJSONObject(i));
+                pending.orders.put(order.clientOrderId, order);
+            }
+        }
+        return pending;
+    }
+
+    // Saves order before it is sent; an order that cannot be saved must not be sent
+    public synchronized void add(Order order) throws IOException {
+        orders.put(order.clientOrderId, order);
+        try {
+            save();
+        } catch (IOException e) {
+            orders.remove(order.clientOrderId);
+            throw e;
+        }
+    }
+
+    public synchronized void remove(String clientOrderId) throws IOException {
+        if (orders.remove(clientOrderId) != null) {
+            save();
+        }
+    }
+
+    public synchronized List<Order> list() {
+        return new ArrayList<>(orders.values());
+    }
+
+    public synchronized boolean isEmpty() {
+        return orders.isEmpty();
+    }
+
+    public synchronized boolean contains(String coin) {
+        return orders.values().stream().anyMatch(order -> order.coin.equals(coin));
+    }
+
+    private void save() throws IOException {
+        JSONArray list = new JSONArray();
+        orders.values().forEach(order -> list.put(order.toJson()));
+        // write a copy and move it into place, so a crash never leaves half a file
+        Path path = Path.of(filePath).toAbsolutePath();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.writeString(temp, new JSONObject().put("orders", list).toString(), StandardCharsets.UTF_8);
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * A market order of the bot with everything needed to send it again and
+     * apply its result.
+     */
+    public static final class Order {
+        final String clientOrderId;
+        final String coin;
+        final String productId;
+        final String side; // BUY or SELL
+        final long amountUnits; // base size at decimalPlaces
+        final int decimalPlaces;
+        final long priceUnits; // price the order was decided on, at FixedPoint.PRICE_SCALE
+        final boolean averageDown; // a BUY adding to a held coin
+
+        Order(String clientOrderId, String coin, String productId, String side, long amountUnits, int decimalPlaces,
+                long priceUnits, boolean averageDown) {
+            this.clientOrderId = clientOrderId;
+            this.coin = coin;
+            this.productId = productId;
+            this.side = side;
+            this.amountUnits = amountUnits;
+            this.decimalPlaces = decimalPlaces;
+            this.priceUnits = priceUnits;
+            this.averageDown = averageDown;
+        }
+
+        String baseSize() {
+            return FixedPoint.toPlainString(amountUnits, decimalPlaces);
+        }
+
+        boolean isBuy() {
+            return side.equals("BUY");
+        }
+
+        JSONObject toJson() {
+            return new JSONObject()
+                    .put("clientOrderId", clientOrderId)
+                    .put("coin", coin)
+                    .put("productId", productId)
+                    .put("side", side)
+                    .put("amountUnits", amountUnits)
+                    .put("decimalPlaces", decimalPlaces)
+                    .put("priceUnits", priceUnits)
+                    .put("averageDown", averageDown);
+        }
+
+        static Order fromJson(JSONObject json) {
+            return new Order(json.getString("clientOrderId"), json.getString("coin"), json.getString("productId"),
+                    json.getString("side"), json.getLong("amountUnits"), json.getInt("decimalPlaces"),
+                    json.getLong("priceUnits"), json.getBoolean("averageDown"));
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package org.netno;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Realized and unrealized results of the bot over time.
+ *
+ * Every buy, every sell and every EQUITY_MILLIS a sample of the unrealized
+ * win/loss of the held coins become an Event. Each event carries the running
+ * totals after it, so it costs the same no matter how long the bot has been
+ * trading, and the events together are the equity curve. They are appended
+ * as one JSON object per line to performance.jsonl, whose last line holds
+ * the totals to continue with after a restart.
+ *
+ * Amounts are in cents like the win/loss of TradeInfo.
+ */
+public class PerformanceTracker {
+
+    static final String FILE = "performance.jsonl";
+    static final long EQUITY_MILLIS = 15 * 60 * 1000;
+
+    private final Path file; // null to keep the events in memory only
+    private final long equityMillis;
+    private final List<Event> events = new ArrayList<>(); // oldest first
+    private final Set<String> recorded = new HashSet<>(); // client order ids of the recorded trades
+    private Event last = new Event(0, "START", null, null, 0, 0, 0);
+    private long unrealizedCents; // as of the latest sample, even if it was not recorded
+    private long sampledAt;
+    private boolean cutOff; // the file does not end with a whole line
+
+    public PerformanceTracker(Path file) {
+        this(file, EQUITY_MILLIS);
+    }
+
+    // Records an equity sample every equityMillis, Long.MAX_VALUE for none
+    PerformanceTracker(Path file, long equityMillis) {
+        this.file = file;
+        this.equityMillis = equityMillis;
+        if (file == null || !Files.exists(file)) {
+            return;
+        }
+        String content;
+        try {
+            content = Files.readString(file, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.out.println("Failed to read " + file + ": " + e.getMessage());
+            return;
+        }
+        for (String line : content.split("\n")) {
+            try {
+                if (!line.isBlank()) {
+                    keep(Event.fromJson(new JSONObject(line)));
+                }
+            } catch (JSONException e) {
+                // a line cut off by a crash, the totals continue from the line before
+                System.out.println("Skipped a line of " + file + ": " + e.getMessage());
+            }
+        }
+        cutOff = !content.isEmpty() && !content.endsWith("\n");
+        unrealizedCents = last.unrealizedCents;
+        sampledAt = last.time;
+    }
+
+    private void keep(Event event) {
+        events.add(event);
+        if (event.clientOrderId != null) {
+            recorded.add(event.clientOrderId);
+        }
+        last = event;
+    }
+
+    private void record(Event event) {
+        keep(event);
+        if (file != null) {
+            try {
+                Files.writeString(file, (cutOff ? "\n" : "") + event.toJson().toString() + "\n",
+                        StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                cutOff = false;
+            } catch (IOException e) {
+                System.out.println("Failed to write " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A purchase, initial or averaging down, that paid feeCents. Orders sent
+     * again after a restart are recorded once.
+     */
+    public synchronized void bought(long time, String coin, String clientOrderId, long feeCents) {
+        if (recorded.contains(clientOrderId)) {
+            return;
+        }
+        Event event = new Event(time, "BUY", coin, clientOrderId, 0, feeCents, 0);
+        event.continueFrom(last, unrealizedCents);
+        record(event);
+    }
+
+    /**
+     * The sale of a whole position held for holdMillis, with its win or loss
+     * after the fees of all purchases and of the sale.
+     */
+    public synchronized void sold(long time, String coin, String clientOrderId, long winLossCents, long feeCents,
+            long holdMillis) {
+        if (recorded.contains(clientOrderId)) {
+            return;
+        }
+        Event event = new Event(time, "SELL", coin, clientOrderId, winLossCents, feeCents, holdMillis);
+        event.continueFrom(last, unrealizedCents);
+        event.realizedCents += winLossCents;
+        event.sales++;
+        if (winLossCents > 0) {
+            event.wins++;
+        }
+        event.holdMillis += holdMillis;
+        record(event);
+    }
+
+    // The unrealized win/loss of the held coins, recorded every equityMillis
+    public synchronized void sample(long time, long unrealizedCents) {
+        this.unrealizedCents = unrealizedCents;
+        if (time - sampledAt < equityMillis) {
+            return;
+        }
+        sampledAt = time;
+        Event event = new Event(time, "EQUITY", null, null, 0, 0, 0);
+        event.continueFrom(last, unrealizedCents);
+        record(event);
+    }
+
+    // The running totals, with the unrealized win/loss of the latest sample
+    public synchronized JSONObject summary() {
+        return new JSONObject()
+                .put("realized", FixedPoint.toDouble(last.realizedCents, FixedPoint.USDC_SCALE))
+                .put("unrealized", FixedPoint.toDouble(unrealizedCents, FixedPoint.USDC_SCALE))
+                .put("total", FixedPoint.toDouble(last.realizedCents + unrealizedCents, FixedPoint.USDC_SCALE))
+                .put("fees", FixedPoint.toDouble(last.feesCents, FixedPoint.USDC_SCALE))
+                .put("sales", last.sales)
+                .put("wins", last.wins)
+                .put("winRate", last.sales == 0 ? 0.0 : last.wins * 100.0 / last.sales)
+                .put("averageHoldHours", last.sales == 0 ? 0.0 : last.holdMillis / 3_600_000.0 / last.sales);
+    }
+
+    // Realized and unrealized win/loss in cents
+    public synchronized long totalCents() {
+        return last.realizedCents + unrealizedCents;
+    }
+
+    // Events newest first, skipping offset of them
+    public synchronized List<Event> page(int offset, int limit) {
+        List<Event> page = new ArrayList<>(Math.max(0, Math.min(limit, events.size() - offset)));
+        for (int i = events.size() - 1 - offset; i >= 0 && page.size() < limit; i--) {
+            page.add(events.get(i));
+        }
+        return page;
+    }
+
+    public synchronized int size() {
+        return events.size();
+    }
+
+    /**
+     * A trade or equity sample together with the totals after it.
+     */
+    public static final class Event {
+        final long time; // epoch millis
+        final String type; // BUY, SELL or EQUITY
+        final String coin; // null for EQUITY
+        final String clientOrderId; // null for EQUITY
+        final long winLossCents; // of a SELL
+        final long feeCents; // of a BUY or SELL
+        final long holdMillisOfSale;
+        // totals after this event
+        long realizedCents;
+        long unrealizedCents;
+        long feesCents;
+        int sales;
+        int wins;
+        long holdMillis; // of all sales
+
+        Event(long time, String type, String coin, String clientOrderId, long winLossCents, long feeCents,
+                long holdMillisOfSale) {
+            this.time = time;
+            this.type = type;
+            this.coin = coin;
+            this.clientOrderId = clientOrderId;
+            this.winLossCents = winLossCents;
+            this.feeCents = feeCents;
+            this.holdMillisOfSale = holdMillisOfSale;
+            this.feesCents = feeCents;
+        }
+
+        private void continueFrom(Event previous, long unrealized) {
+            realizedCents = previous.realizedCents;
+            unrealizedCents = unrealized;
+            feesCents += previous.feesCents;
+            sales = previous.sales;
+            wins = previous.wins;
+            holdMillis = previous.holdMillis;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public double getRealized() {
+            return FixedPoint.toDouble(realizedCents, FixedPoint.USDC_SCALE);
+        }
+
+        public double getUnrealized() {
+            return FixedPoint.toDouble(unrealizedCents, FixedPoint.USDC_SCALE);
+        }
+
+        JSONObject toJson() {
+            JSONObject json = new JSONObject()
+                    .put("time", time)
+                    .put("type", type)
+                    .put("realizedCents", realizedCents)
+                    .put("unrealizedCents", unrealizedCents)
+                    .put("feesCents", feesCents)
+                    .put("sales", sales)
+                    .put("wins", wins)
+                    .put("holdMillis", holdMillis);
+            if (coin != null) {
+                json.put("coin", coin)
+                        .put("clientOrderId", clientOrderId)
+                        .put("winLossCents", winLossCents)
+                        .put("feeCents", feeCents)
+                        .put("holdMillisOfSale", holdMillisOfSale);
+            }
+            return json;
+        }
+
+        static Event fromJson(JSONObject json) {
+            Event event = new Event(json.getLong("time"), json.getString("type"), json.optString("coin", null),
+                    json.optString("clientOrderId", null), json.optLong("winLossCents"), json.optLong("feeCents"),
+                    json.optLong("holdMillisOfSale"));
+            event.realizedCents = json.getLong("realizedCents");
+            event.unrealizedCents = json.getLong("unrealizedCents");
+            event.feesCents = json.getLong("feesCents");
+            event.sales = json.getInt("sales");
+            event.wins = json.getInt("wins");
+            event.holdMillis = json.getLong("holdMillis");
+            return event;
+        }
+
+        // For /api/performance, amounts in USDC
+        JSONObject toDisplayJson() {
+            JSONObject json = new JSONObject()
+                    .put("time", time)
+                    .put("type", type)
+                    .put("realized", getRealized())
+                    .put("unrealized", getUnrealized())
+                    .put("fees", FixedPoint.toDouble(feesCents, FixedPoint.USDC_SCALE));
+            if (coin != null) {
+                json.put("coin", coin)
+                        .put("fee", FixedPoint.toDouble(feeCents, FixedPoint.USDC_SCALE));
+            }
+            if (type.equals("SELL")) {
+                json.put("winLoss", FixedPoint.toDouble(winLossCents, FixedPoint.USDC_SCALE))
+                        .put("holdHours", holdMillisOfSale / 3_600_000.0);
+            }
+            return json;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.netno;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Decides how often each coin is polled.
+ *
+ * A coin close to the price that would make the bot act, relative to how
+ * much its price moves, is polled often, a calm coin far from it rarely. With
+ * the hourly volatility v and the distance d to the nearest trigger, both in
+ * percent, the price needs about (d / v)^2 hours to get there; the coin is
+ * polled SAFETY times within that time, but at most every MIN_MILLIS and at
+ * least every MAX_MILLIS. If all coins together would need more than
+ * maxRequestsPerSecond, every interval is stretched by the same factor.
+ */
+public class PollingPlanner {
+
+    static final long MIN_MILLIS = 1_000;
+    static final long MAX_MILLIS = 60_000;
+    private static final double SAFETY = 10;
+
+    private final long defaultMillis; // for coins whose volatility is not known yet
+    private volatile double maxRequestsPerSecond;
+    private final Map<String, Coin> coins = new HashMap<>();
+    private double requestsPerSecond; // of all coins at their unstretched intervals
+
+    public PollingPlanner(long defaultMillis, double maxRequestsPerSecond) {
+        this.defaultMillis = defaultMillis;
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+    }
+
+    private static final class Coin {
+        long polledAt; // epoch millis
+        long intervalMillis;
+    }
+
+    public void setMaxRequestsPerSecond(double maxRequestsPerSecond) {
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+    }
+
+    // Whether coin should be polled in the pass starting at now; new coins are always due
+    public synchronized boolean isDue(String coin, long now) {
+        Coin state = coins.get(coin);
+        // half a pass early is close enough, otherwise a small delay of the pass skips a whole one
+        return state == null || now - state.polledAt >= scaledMillis(state) - MIN_MILLIS / 2;
+    }
+
+    /**
+     * Records that coin was polled at now and plans the next poll from its
+     * distance to the nearest trigger and its hourly volatility, both in
+     * percent and NaN if not known.
+     */
+    public synchronized void polled(String coin, long now, double triggerDistancePercent,
+            double hourlyVolatilityPercent) {
+        Coin state = coins.computeIfAbsent(coin, c -> new Coin());
+        if (state.intervalMillis > 0) {
+            requestsPerSecond -= 1000.0 / state.intervalMillis;
+        }
+        state.polledAt = now;
+        state.intervalMillis = intervalMillis(triggerDistancePercent, hourlyVolatilityPercent, defaultMillis);
+        requestsPerSecond += 1000.0 / state.intervalMillis;
+    }
+
+    // The polling interval before stretching it to the request budget
+    static long intervalMillis(double triggerDistancePercent, double hourlyVolatilityPercent, long defaultMillis) {
+        if (Double.isNaN(triggerDistancePercent) || !(hourlyVolatilityPercent > 0)) {
+            return defaultMillis;
+        }
+        double hours = Math.pow(Math.max(0, triggerDistancePercent) / hourlyVolatilityPercent, 2);
+        long millis = (long) (hours * 3_600_000 / SAFETY);
+        return Math.max(MIN_MILLIS, Math.min(MAX_MILLIS, millis));
+    }
+
+    private long scaledMillis(Coin state) {
+        double budget = maxRequestsPerSecond;
+        double stretch = budget > 0 && requestsPerSecond > budget ? requestsPerSecond / budget : 1;
+        return (long) (state.intervalMillis * stretch);
+    }
+
+    // The current interval per coin, stretched to the request budget
+    public synchronized Map<String, Long> getIntervals() {
+        Map<String, Long> intervals = new TreeMap<>();
+        coins.forEach((coin, state) -> intervals.put(coin, scaledMillis(state)));
+        return intervals;
+    }
+
+    public synchronized void retain(Predicate<String> keep) {
+        coins.entrySet().removeIf(entry -> {
+            if (keep.test(entry.getKey())) {
+                return false;
+            }
+            requestsPerSecond -= 1000.0 / entry.getValue().intervalMillis;
+            return true;
+        });
+    }
+}
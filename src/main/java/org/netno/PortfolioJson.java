@@ -0,0 +1,89 @@
+package org.netno;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+// JSON representation of portfolio snapshots for the web API and the dashboard events
+final class PortfolioJson {
+
+    private PortfolioJson() {
+    }
+
+    // GET /api/positions
+    static JSONObject positions(PortfolioSnapshot snapshot, Config config) {
+        JSONArray positions = new JSONArray();
+        positionsByCoin(snapshot, config).values().forEach(positions::put);
+        return header(snapshot).put("positions", positions);
+    }
+
+    // GET /api/cash
+    static JSONObject cash(PortfolioSnapshot snapshot) {
+        return header(snapshot).put("usdcBalance", snapshot.getUsdcBalance());
+    }
+
+    // The fields shown on the dashboard for every held coin, in table order
+    static Map<String, JSONObject> positionsByCoin(PortfolioSnapshot snapshot, Config config) {
+        ZoneId zoneId = ZoneId.of(config.timeZone);
+        LocalDateTime now = LocalDateTime.now();
+        Map<String, JSONObject> positions = new LinkedHashMap<>();
+        for (PortfolioSnapshot.Position position : snapshot.getPositions()) {
+            positions.put(position.getCoin(), position(position, config, zoneId, now));
+        }
+        return positions;
+    }
+
+    static JSONObject position(PortfolioSnapshot.Position position, Config config, ZoneId zoneId,
+            LocalDateTime now) {
+        double highestPerformance = position.getHighestPerformance();
+        JSONObject json = new JSONObject()
+                .put("coin", position.getCoin())
+                .put("purchaseDate", position.getPurchaseDate().atZone(zoneId)
+                        .format(DateTimeFormatter.ISO_OFFSET_DATE_TIME))
+                .put("daysHeld", ChronoUnit.DAYS.between(position.getPurchaseDate(), now))
+                .put("amount", position.getAmount())
+                .put("purchasePrice", position.getPurchasePrice())
+                .put("highestPrice", position.getHighestPrice())
+                .put("highestPerformance", highestPerformance)
+                .put("aboveSellBarrier",
+                        highestPerformance > (config.minimumProfitPercentage + config.stopLossSalePercentage))
+                .put("averageDownSteps", position.getAverageDownStepIndex());
+        if (position.hasCurrentPrice()) {
+            json.put("currentPrice", position.getCurrentPrice())
+                    .put("currentValue", position.getCurrentValue())
+                    .put("winLossPercent", position.getWinLossPercent())
+                    .put("winLoss", position.getWinLossIncludingFees());
+        } else {
+            // not evaluated since the start yet
+            json.put("currentPrice", JSONObject.NULL)
+                    .put("currentValue", JSONObject.NULL)
+                    .put("winLossPercent", JSONObject.NULL)
+                    .put("winLoss", JSONObject.NULL);
+        }
+        return json;
+    }
+
+    // Fields of current that differ from previous, or null if nothing changed
+    static JSONObject changedFields(JSONObject previous, JSONObject current) {
+        JSONObject changed = new JSONObject();
+        for (String key : current.keySet()) {
+            if (!current.get(key).equals(previous.opt(key))) {
+                changed.put(key, current.get(key));
+            }
+        }
+        return changed.isEmpty() ? null : changed;
+    }
+
+    private static JSONObject header(PortfolioSnapshot snapshot) {
+        return new JSONObject()
+                .put("version", snapshot.getVersion())
+                .put("timestamp", snapshot.getTimestamp() == null ? JSONObject.NULL
+                        : snapshot.getTimestamp().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+    }
+}
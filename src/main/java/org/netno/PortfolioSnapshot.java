@@ -0,0 +1,200 @@
+package org.netno;
+
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Immutable view of the portfolio as the trading loop last saw it.
+ *
+ * TradingBot builds a new snapshot after every evaluation and publishes it
+ * through a volatile reference. Readers such as the web server render from the
+ * snapshot without taking locks and without calling the exchange.
+ *
+ * Prices and values are fixed point at FixedPoint.PRICE_SCALE, win/loss in
+ * cents, like in TradeInfo. The getters convert to double for display.
+ */
+public final class PortfolioSnapshot {
+
+    static final PortfolioSnapshot EMPTY = new PortfolioSnapshot(0, null, 0, Collections.emptyList());
+
+    private final long version;
+    private final ZonedDateTime timestamp;
+    private final long usdcBalanceCents;
+    private final List<Position> positions;
+
+    PortfolioSnapshot(long version, ZonedDateTime timestamp, long usdcBalanceCents, List<Position> positions) {
+        this.version = version;
+        this.timestamp = timestamp;
+        this.usdcBalanceCents = usdcBalanceCents;
+        this.positions = positions;
+    }
+
+    /**
+     * Builds a snapshot of the given positions, valued at the last known prices.
+     * Must be called by the thread that owns the positions.
+     */
+    static PortfolioSnapshot of(long version, ZonedDateTime timestamp, double usdcBalance,
+            Map<String, TradeInfo> assets, Map<String, Long> lastPrices, double takerFeePercentage) {
+        long takerFeePercent = FixedPoint.fromDouble(takerFeePercentage, FixedPoint.PERCENT_SCALE,
+                RoundingMode.HALF_EVEN);
+        List<Position> positions = new ArrayList<>(assets.size());
+        assets.forEach((coin, tradeInfo) -> {
+            Long lastPrice = lastPrices.get(coin);
+            positions.add(new Position(coin, tradeInfo, lastPrice == null ? -1 : lastPrice, takerFeePercent));
+        });
+        positions.sort((a, b) -> a.coin.compareTo(b.coin));
+        return new PortfolioSnapshot(version, timestamp,
+                FixedPoint.fromDouble(usdcBalance, FixedPoint.USDC_SCALE, RoundingMode.HALF_EVEN),
+                Collections.unmodifiableList(positions));
+    }
+
+    // True if other holds the same positions, prices and cash, ignoring version and timestamp
+    boolean hasSameContent(PortfolioSnapshot other) {
+        return usdcBalanceCents == other.usdcBalanceCents && positions.equals(other.positions);
+    }
+
+    // Increases whenever the content changes, 0 before the first snapshot
+    public long getVersion() {
+        return version;
+    }
+
+    // Time the snapshot was taken, null before the first one
+    public ZonedDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    public double getUsdcBalance() {
+        return FixedPoint.toDouble(usdcBalanceCents, FixedPoint.USDC_SCALE);
+    }
+
+    long usdcBalanceCents() {
+        return usdcBalanceCents;
+    }
+
+    // Win/loss in cents of selling all positions that have a price
+    long unrealizedCents() {
+        long total = 0;
+        for (Position position : positions) {
+            total += position.winLossCents;
+        }
+        return total;
+    }
+
+    // Held positions ordered by coin
+    public List<Position> getPositions() {
+        return positions;
+    }
+
+    /**
+     * One held position together with the values derived from its last known price.
+     */
+    public static final class Position {
+
+        final String coin;
+        final LocalDateTime purchaseDate;
+        final long purchasePrice;
+        final long amount;
+        final int decimalPlaces;
+        final long highestPrice;
+        final int averageDownStepIndex;
+        final long currentPrice; // -1 while no price has been fetched
+        final long currentValue;
+        final long winLossCents;
+        final long invest;
+
+        Position(String coin, TradeInfo tradeInfo, long currentPrice, long takerFeePercent) {
+            this.coin = coin;
+            this.purchaseDate = tradeInfo.getPurchaseDate();
+            this.purchasePrice = tradeInfo.purchasePriceUnits();
+            this.amount = tradeInfo.amountUnits();
+            this.decimalPlaces = tradeInfo.getDecimalPlaces();
+            this.highestPrice = tradeInfo.highestPriceUnits();
+            this.averageDownStepIndex = tradeInfo.getAverageDownStepIndex();
+            this.currentPrice = currentPrice;
+            this.currentValue = currentPrice < 0 ? 0 : tradeInfo.value(currentPrice);
+            this.winLossCents = currentPrice < 0 ? 0 : tradeInfo.winLossIncludingFees(currentPrice, takerFeePercent);
+            this.invest = tradeInfo.value(purchasePrice);
+        }
+
+        public String getCoin() {
+            return coin;
+        }
+
+        public LocalDateTime getPurchaseDate() {
+            return purchaseDate;
+        }
+
+        public double getPurchasePrice() {
+            return FixedPoint.toDouble(purchasePrice, FixedPoint.PRICE_SCALE);
+        }
+
+        public double getAmount() {
+            return FixedPoint.toDouble(amount, decimalPlaces);
+        }
+
+        public double getHighestPrice() {
+            return FixedPoint.toDouble(highestPrice, FixedPoint.PRICE_SCALE);
+        }
+
+        public int getAverageDownStepIndex() {
+            return averageDownStepIndex;
+        }
+
+        public boolean hasCurrentPrice() {
+            return currentPrice >= 0;
+        }
+
+        public double getCurrentPrice() {
+            return hasCurrentPrice() ? FixedPoint.toDouble(currentPrice, FixedPoint.PRICE_SCALE) : 0.0;
+        }
+
+        public double getCurrentValue() {
+            return FixedPoint.toDouble(currentValue, FixedPoint.PRICE_SCALE);
+        }
+
+        public double getWinLossIncludingFees() {
+            return FixedPoint.toDouble(winLossCents, FixedPoint.USDC_SCALE);
+        }
+
+        public double getWinLossPercent() {
+            return invest == 0 ? 0.0
+                    : getWinLossIncludingFees() / FixedPoint.toDouble(invest, FixedPoint.PRICE_SCALE) * 100;
+        }
+
+        // Gain from the purchase price to the highest observed price in percent
+        public double getHighestPerformance() {
+            return (double) (highestPrice - purchasePrice) / purchasePrice * 100;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Position)) {
+                return false;
+            }
+            Position other = (Position) o;
+            return coin.equals(other.coin)
+                    && purchaseDate.equals(other.purchaseDate)
+                    && purchasePrice == other.purchasePrice
+                    && amount == other.amount
+                    && decimalPlaces == other.decimalPlaces
+                    && highestPrice == other.highestPrice
+                    && averageDownStepIndex == other.averageDownStepIndex
+                    && currentPrice == other.currentPrice
+                    && winLossCents == other.winLossCents;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(coin, purchaseDate, purchasePrice, amount, highestPrice, currentPrice);
+        }
+    }
+}
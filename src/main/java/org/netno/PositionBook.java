@@ -0,0 +1,436 @@
+package org.netno;
+
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Columnar store for held positions.
+ *
+ * Coin symbols are interned to int ids and every position is a row in parallel
+ * primitive arrays, so scanning all positions touches a few contiguous arrays and
+ * allocates nothing. Rows are kept dense: removing a position moves the last row
+ * into its place.
+ *
+ * The trading loop scans the rows once per tick. The row based methods read the
+ * columns directly, the caller holds the book's lock for the whole scan:
+ *
+ *     synchronized (book) {
+ *         for (int row = 0; row < book.size(); row++) { ... book.amountAt(row) ... }
+ *     }
+ *
+ * For other callers the book is also a Map<String, TradeInfo>. The values are
+ * views that read and write the columns, so TradingBot can mutate them in place
+ * as it does with plain TradeInfo objects. There is one view per coin. A view of
+ * a coin that has been removed throws IllegalStateException.
+ *
+ * The Map methods and the views lock the book, so other threads can read it.
+ * forEach, values() and entrySet() iterate over a copy of the held coins, so the
+ * positions can be bought and sold while iterating.
+ */
+public class PositionBook extends AbstractMap<String, TradeInfo> {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // interned coin symbols, ids are never reused
+    private final Map<String, Integer> ids = new HashMap<>();
+    private String[] symbols = new String[INITIAL_CAPACITY];
+    private View[] views = new View[INITIAL_CAPACITY];
+    private int[] rowOfId = new int[INITIAL_CAPACITY];   // -1 while the coin is not held
+    private int coinCount;
+
+    // one row per held position, same scales as TradeInfo
+    private int size;
+    private int[] coinId = new int[INITIAL_CAPACITY];
+    private long[] purchasePrice = new long[INITIAL_CAPACITY];
+    private long[] amount = new long[INITIAL_CAPACITY];
+    private long[] highestPrice = new long[INITIAL_CAPACITY];
+    private long[] purchaseFee = new long[INITIAL_CAPACITY];
+    private long[] purchaseEpochMillis = new long[INITIAL_CAPACITY]; // purchase date as local time, UTC offset
+    private int[] averageDownStep = new int[INITIAL_CAPACITY];
+    private int[] decimalPlaces = new int[INITIAL_CAPACITY];
+
+    public PositionBook() {
+    }
+
+    public PositionBook(Map<String, TradeInfo> positions) {
+        putAll(positions);
+    }
+
+    // Returns the id of a coin symbol, interning it on first use
+    private int idOf(String coin) {
+        Integer id = ids.get(coin);
+        if (id != null) {
+            return id;
+        }
+        if (coinCount == symbols.length) {
+            symbols = Arrays.copyOf(symbols, coinCount * 2);
+            views = Arrays.copyOf(views, coinCount * 2);
+            rowOfId = Arrays.copyOf(rowOfId, coinCount * 2);
+        }
+        symbols[coinCount] = coin;
+        views[coinCount] = new View(coinCount);
+        rowOfId[coinCount] = -1;
+        ids.put(coin, coinCount);
+        return coinCount++;
+    }
+
+    public synchronized String symbolOf(int id) {
+        return symbols[id];
+    }
+
+    // Number of interned symbols; ids range from 0 to coinCount() - 1
+    public synchronized int coinCount() {
+        return coinCount;
+    }
+
+    // ---- row based access for scans under the book's lock, row ranges from 0 to size() - 1 ----
+
+    public int coinIdAt(int row) {
+        return coinId[row];
+    }
+
+    public long purchasePriceAt(int row) {
+        return purchasePrice[row];
+    }
+
+    public long amountAt(int row) {
+        return amount[row];
+    }
+
+    public long highestPriceAt(int row) {
+        return highestPrice[row];
+    }
+
+    public long purchaseFeeAt(int row) {
+        return purchaseFee[row];
+    }
+
+    public long purchaseEpochMillisAt(int row) {
+        return purchaseEpochMillis[row];
+    }
+
+    public int averageDownStepAt(int row) {
+        return averageDownStep[row];
+    }
+
+    public int decimalPlacesAt(int row) {
+        return decimalPlaces[row];
+    }
+
+    public void setHighestPriceAt(int row, long price) {
+        highestPrice[row] = price;
+    }
+
+    // Sum of all positions valued at their average purchase price, at FixedPoint.PRICE_SCALE
+    public synchronized long totalInvested() {
+        long total = 0;
+        for (int row = 0; row < size; row++) {
+            total += TradeInfo.value(purchasePrice[row], amount[row], decimalPlaces[row]);
+        }
+        return total;
+    }
+
+    // Sum of all positions valued at the given prices, indexed by coin id, at FixedPoint.PRICE_SCALE
+    public synchronized long totalValue(long[] pricesByCoinId) {
+        long total = 0;
+        for (int row = 0; row < size; row++) {
+            total += TradeInfo.value(pricesByCoinId[coinId[row]], amount[row], decimalPlaces[row]);
+        }
+        return total;
+    }
+
+    // ---- Map view ----
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        return rowOfKey(key) >= 0;
+    }
+
+    @Override
+    public synchronized TradeInfo get(Object key) {
+        int row = rowOfKey(key);
+        return row < 0 ? null : views[coinId[row]];
+    }
+
+    @Override
+    public synchronized TradeInfo put(String coin, TradeInfo tradeInfo) {
+        int id = idOf(coin);
+        int row = rowOfId[id];
+        TradeInfo previous = row < 0 ? null : copyOf(row);
+        if (row < 0) {
+            row = size++;
+            ensureRowCapacity(size);
+            coinId[row] = id;
+            rowOfId[id] = row;
+        }
+        purchasePrice[row] = tradeInfo.purchasePriceUnits();
+        amount[row] = tradeInfo.amountUnits();
+        highestPrice[row] = tradeInfo.highestPriceUnits();
+        purchaseFee[row] = tradeInfo.purchaseFeeCents();
+        purchaseEpochMillis[row] = toEpochMillis(tradeInfo.getPurchaseDate());
+        averageDownStep[row] = tradeInfo.getAverageDownStepIndex();
+        decimalPlaces[row] = tradeInfo.getDecimalPlaces();
+        return previous;
+    }
+
+    @Override
+    public synchronized TradeInfo remove(Object key) {
+        int row = rowOfKey(key);
+        if (row < 0) {
+            return null;
+        }
+        TradeInfo previous = copyOf(row);
+        rowOfId[coinId[row]] = -1;
+        int last = --size;
+        if (row != last) {
+            coinId[row] = coinId[last];
+            purchasePrice[row] = purchasePrice[last];
+            amount[row] = amount[last];
+            highestPrice[row] = highestPrice[last];
+            purchaseFee[row] = purchaseFee[last];
+            purchaseEpochMillis[row] = purchaseEpochMillis[last];
+            averageDownStep[row] = averageDownStep[last];
+            decimalPlaces[row] = decimalPlaces[last];
+            rowOfId[coinId[row]] = row;
+        }
+        return previous;
+    }
+
+    @Override
+    public synchronized void clear() {
+        for (int row = 0; row < size; row++) {
+            rowOfId[coinId[row]] = -1;
+        }
+        size = 0;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super TradeInfo> action) {
+        int[] held;
+        synchronized (this) {
+            held = Arrays.copyOf(coinId, size);
+        }
+        for (int id : held) {
+            View view;
+            synchronized (this) {
+                if (rowOfId[id] < 0) {
+                    continue; // removed meanwhile
+                }
+                view = views[id];
+            }
+            action.accept(view.coin, view);
+        }
+    }
+
+    @Override
+    public synchronized Collection<TradeInfo> values() {
+        List<TradeInfo> values = new ArrayList<>(size);
+        for (int row = 0; row < size; row++) {
+            values.add(views[coinId[row]]);
+        }
+        return values;
+    }
+
+    @Override
+    public synchronized Set<Entry<String, TradeInfo>> entrySet() {
+        List<Entry<String, TradeInfo>> entries = new ArrayList<>(size);
+        for (int row = 0; row < size; row++) {
+            entries.add(new SimpleImmutableEntry<>(symbols[coinId[row]], views[coinId[row]]));
+        }
+        return new AbstractSet<Entry<String, TradeInfo>>() {
+            @Override
+            public Iterator<Entry<String, TradeInfo>> iterator() {
+                Iterator<Entry<String, TradeInfo>> iterator = entries.iterator();
+                return new Iterator<Entry<String, TradeInfo>>() {
+                    private Entry<String, TradeInfo> current;
+
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, TradeInfo> next() {
+                        current = iterator.next();
+                        return current;
+                    }
+
+                    @Override
+                    public void remove() {
+                        PositionBook.this.remove(current.getKey());
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return entries.size();
+            }
+        };
+    }
+
+    private int rowOfKey(Object key) {
+        Integer id = key instanceof String ? ids.get(key) : null;
+        return id == null ? -1 : rowOfId[id];
+    }
+
+    private TradeInfo copyOf(int row) {
+        return TradeInfo.ofUnits(purchasePrice[row], amount[row], toDateTime(purchaseEpochMillis[row]),
+                highestPrice[row], purchaseFee[row], averageDownStep[row], decimalPlaces[row]);
+    }
+
+    private void ensureRowCapacity(int capacity) {
+        if (capacity <= coinId.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, coinId.length * 2);
+        coinId = Arrays.copyOf(coinId, newCapacity);
+        purchasePrice = Arrays.copyOf(purchasePrice, newCapacity);
+        amount = Arrays.copyOf(amount, newCapacity);
+        highestPrice = Arrays.copyOf(highestPrice, newCapacity);
+        purchaseFee = Arrays.copyOf(purchaseFee, newCapacity);
+        purchaseEpochMillis = Arrays.copyOf(purchaseEpochMillis, newCapacity);
+        averageDownStep = Arrays.copyOf(averageDownStep, newCapacity);
+        decimalPlaces = Arrays.copyOf(decimalPlaces, newCapacity);
+    }
+
+    static long toEpochMillis(LocalDateTime dateTime) {
+        return dateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    static LocalDateTime toDateTime(long epochMillis) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(epochMillis, 1000L),
+                (int) Math.floorMod(epochMillis, 1000L) * 1_000_000, ZoneOffset.UTC);
+    }
+
+    // TradeInfo whose state lives in the book's columns, looked up by coin id on every access
+    private final class View extends TradeInfo {
+
+        private final int id;
+        private final String coin;
+
+        View(int id) {
+            this.id = id;
+            this.coin = symbols[id];
+        }
+
+        // The row of the coin, the caller holds the book's lock
+        private int row() {
+            int row = rowOfId[id];
+            if (row < 0) {
+                throw new IllegalStateException(coin + " is no longer held");
+            }
+            return row;
+        }
+
+        @Override
+        long purchasePriceUnits() {
+            synchronized (PositionBook.this) {
+                return purchasePrice[row()];
+            }
+        }
+
+        @Override
+        long amountUnits() {
+            synchronized (PositionBook.this) {
+                return amount[row()];
+            }
+        }
+
+        @Override
+        long highestPriceUnits() {
+            synchronized (PositionBook.this) {
+                return highestPrice[row()];
+            }
+        }
+
+        @Override
+        void setHighestPriceUnits(long price) {
+            synchronized (PositionBook.this) {
+                highestPrice[row()] = price;
+            }
+        }
+
+        @Override
+        long purchaseFeeCents() {
+            synchronized (PositionBook.this) {
+                return purchaseFee[row()];
+            }
+        }
+
+        @Override
+        void setPosition(long newPurchasePrice, long newAmount, long newHighestPrice, long newPurchaseFee,
+                int newAverageDownStep) {
+            synchronized (PositionBook.this) {
+                int row = row();
+                purchasePrice[row] = newPurchasePrice;
+                amount[row] = newAmount;
+                highestPrice[row] = newHighestPrice;
+                purchaseFee[row] = newPurchaseFee;
+                averageDownStep[row] = newAverageDownStep;
+            }
+        }
+
+        @Override
+        public LocalDateTime getPurchaseDate() {
+            synchronized (PositionBook.this) {
+                return toDateTime(purchaseEpochMillis[row()]);
+            }
+        }
+
+        @Override
+        public void setPurchaseFee(double newPurchaseFee) {
+            synchronized (PositionBook.this) {
+                purchaseFee[row()] = FixedPoint.fromDouble(newPurchaseFee, FixedPoint.USDC_SCALE,
+                        RoundingMode.HALF_EVEN);
+            }
+        }
+
+        @Override
+        public int getAverageDownStepIndex() {
+            synchronized (PositionBook.this) {
+                return averageDownStep[row()];
+            }
+        }
+
+        @Override
+        public void setAverageDownStepIndex(int index) {
+            synchronized (PositionBook.this) {
+                averageDownStep[row()] = index;
+            }
+        }
+
+        @Override
+        public int getDecimalPlaces() {
+            synchronized (PositionBook.this) {
+                return decimalPlaces[row()];
+            }
+        }
+
+        @Override
+        public void setDecimalPlaces(int places) {
+            synchronized (PositionBook.this) {
+                int row = row();
+                amount[row] = FixedPoint.rescale(amount[row], decimalPlaces[row], places, RoundingMode.HALF_EVEN);
+                decimalPlaces[row] = places;
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package org.netno;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory price history per coin, fed by the trading loop.
+ *
+ * Every coin has a ring buffer of samples (time in seconds, price at
+ * FixedPoint.PRICE_SCALE) holding the most recent capacity samples. A sample
+ * in the same interval as the one before replaces it, so the buffer covers
+ * capacity intervals however often the prices are fetched. The buffer grows
+ * as samples arrive, a coin fetched for a day holds a day of samples. Queries
+ * reduce a time range to a given number of points with
+ * Largest-Triangle-Three-Buckets downsampling, which keeps the visual shape of
+ * the curve including its peaks and dips.
+ */
+public class PriceHistory {
+
+    private static final int INITIAL_SAMPLES = 256;
+
+    private final int capacity;
+    private final long intervalMillis;
+    private final Map<String, Series> series = new ConcurrentHashMap<>();
+
+    // Keeps every sample
+    public PriceHistory(int capacity) {
+        this(capacity, 1);
+    }
+
+    public PriceHistory(int capacity, long intervalMillis) {
+        this.capacity = capacity;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public void record(String coin, long epochMillis, long price) {
+        series.computeIfAbsent(coin, c -> new Series(capacity))
+                .add(epochMillis / 1000, Math.floorDiv(epochMillis, intervalMillis), price);
+    }
+
+    // Number of samples held for coin
+    public int size(String coin) {
+        Series s = series.get(coin);
+        return s == null ? 0 : s.size();
+    }
+
+    /**
+     * Returns the samples of coin from fromMillis on, downsampled to at most
+     * maxPoints points. Returns null if there is no history for coin.
+     */
+    public Samples query(String coin, long fromMillis, int maxPoints) {
+        Series s = series.get(coin);
+        return s == null ? null : s.query(Math.floorDiv(fromMillis, 1000), maxPoints);
+    }
+
+    /**
+     * Result of a query, times in epoch milliseconds and prices at FixedPoint.PRICE_SCALE.
+     */
+    public static final class Samples {
+        final long[] times;
+        final long[] prices;
+
+        Samples(long[] times, long[] prices) {
+            this.times = times;
+            this.prices = prices;
+        }
+
+        public int size() {
+            return times.length;
+        }
+
+        public long timeAt(int i) {
+            return times[i];
+        }
+
+        public long priceAt(int i) {
+            return prices[i];
+        }
+    }
+
+    private static final class Series {
+        private final int capacity;
+        private int[] seconds; // epoch seconds, unsigned
+        private long[] prices;
+        private long lastInterval = Long.MIN_VALUE;
+        private int start;
+        private int size;
+
+        Series(int capacity) {
+            this.capacity = capacity;
+            seconds = new int[Math.min(capacity, INITIAL_SAMPLES)];
+            prices = new long[seconds.length];
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized void add(long epochSecond, long interval, long price) {
+            // keep the series ordered if the clock goes back
+            if (size > 0 && epochSecond < secondAt(size - 1)) {
+                epochSecond = secondAt(size - 1);
+            }
+            int index;
+            if (size > 0 && interval <= lastInterval) {
+                index = physical(size - 1);
+            } else if (size < seconds.length) {
+                index = physical(size++);
+            } else if (seconds.length < capacity) {
+                // the ring has not wrapped yet, start is 0
+                seconds = Arrays.copyOf(seconds, (int) Math.min(2L * seconds.length, capacity));
+                prices = Arrays.copyOf(prices, seconds.length);
+                index = size++;
+            } else {
+                index = start;
+                start = (start + 1) % seconds.length;
+            }
+            seconds[index] = (int) epochSecond;
+            prices[index] = price;
+            lastInterval = Math.max(lastInterval, interval);
+        }
+
+        synchronized Samples query(long fromSecond, int maxPoints) {
+            int first = firstAtOrAfter(fromSecond);
+            int n = size - first;
+            if (n <= maxPoints || n <= 2) {
+                long[] times = new long[n];
+                long[] values = new long[n];
+                for (int i = 0; i < n; i++) {
+                    times[i] = secondAt(first + i) * 1000;
+                    values[i] = priceAt(first + i);
+                }
+                return new Samples(times, values);
+            }
+            return largestTriangleThreeBuckets(first, n, Math.max(maxPoints, 3));
+        }
+
+        // Keeps the first and the last sample and from each of the buckets in between the one
+        // spanning the largest triangle with the previously kept sample and the next bucket's average
+        private Samples largestTriangleThreeBuckets(int first, int n, int points) {
+            long[] times = new long[points];
+            long[] values = new long[points];
+            double bucketSize = (double) (n - 2) / (points - 2);
+            long t0 = secondAt(first); // times relative to the first sample keep the doubles precise
+
+            int kept = 0;
+            times[0] = t0 * 1000;
+            values[0] = priceAt(first);
+            for (int bucket = 0; bucket < points - 2; bucket++) {
+                // average of the next bucket, the last sample for the last bucket
+                int nextStart = (int) ((bucket + 1) * bucketSize) + 1;
+                int nextEnd = Math.min((int) ((bucket + 2) * bucketSize) + 1, n);
+                double averageTime = 0;
+                double averagePrice = 0;
+                for (int i = nextStart; i < nextEnd; i++) {
+                    averageTime += secondAt(first + i) - t0;
+                    averagePrice += priceAt(first + i);
+                }
+                averageTime /= nextEnd - nextStart;
+                averagePrice /= nextEnd - nextStart;
+
+                double keptTime = secondAt(first + kept) - t0;
+                double keptPrice = priceAt(first + kept);
+                int from = (int) (bucket * bucketSize) + 1;
+                int to = (int) ((bucket + 1) * bucketSize) + 1;
+                double maxArea = -1;
+                int selected = from;
+                for (int i = from; i < to; i++) {
+                    double area = Math.abs((keptTime - averageTime) * (priceAt(first + i) - keptPrice)
+                            - (keptTime - (secondAt(first + i) - t0)) * (averagePrice - keptPrice));
+                    if (area > maxArea) {
+                        maxArea = area;
+                        selected = i;
+                    }
+                }
+                kept = selected;
+                times[bucket + 1] = secondAt(first + kept) * 1000;
+                values[bucket + 1] = priceAt(first + kept);
+            }
+            times[points - 1] = secondAt(first + n - 1) * 1000;
+            values[points - 1] = priceAt(first + n - 1);
+            return new Samples(times, values);
+        }
+
+        // Logical index of the first sample at or after fromSecond, size if there is none
+        private int firstAtOrAfter(long fromSecond) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (secondAt(mid) < fromSecond) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private long secondAt(int logical) {
+            return Integer.toUnsignedLong(seconds[physical(logical)]);
+        }
+
+        private long priceAt(int logical) {
+            return prices[physical(logical)];
+        }
+
+        private int physical(int logical) {
+            int index = start + logical;
+            return index < seconds.length ? index : index - seconds.length;
+        }
+    }
+}
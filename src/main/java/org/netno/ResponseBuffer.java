@@ -0,0 +1,129 @@
+package org.netno;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer that responses are rendered into.
+ *
+ * Buffers are reused between requests, so after warming up rendering a page
+ * does not allocate for the output. Numbers are written digit by digit from
+ * fixed point longs instead of going through String.format.
+ */
+final class ResponseBuffer {
+
+    private byte[] bytes;
+    private int size;
+
+    ResponseBuffer(int initialCapacity) {
+        bytes = new byte[initialCapacity];
+    }
+
+    void reset() {
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return bytes.length;
+    }
+
+    // The backing array, valid from 0 to size()
+    byte[] array() {
+        return bytes;
+    }
+
+    ResponseBuffer append(byte[] data) {
+        ensureCapacity(size + data.length);
+        System.arraycopy(data, 0, bytes, size, data.length);
+        size += data.length;
+        return this;
+    }
+
+    // Appends text as UTF-8, copying ASCII characters directly
+    ResponseBuffer append(String text) {
+        int length = text.length();
+        ensureCapacity(size + length);
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                return append(text.substring(i).getBytes(StandardCharsets.UTF_8));
+            }
+            bytes[size++] = (byte) c;
+        }
+        return this;
+    }
+
+    ResponseBuffer append(long value) {
+        return appendDecimal(value, 0, false);
+    }
+
+    /**
+     * Appends a fixed point value with exactly scale digits after the point,
+     * like String.format("%.2f") does for scale 2. The value is already
+     * rounded, so a negative value that rounded to 0 has lost its sign; where
+     * String.format would show "-0.00" the caller appends the minus itself.
+     */
+    ResponseBuffer appendDecimal(long units, int scale) {
+        return appendDecimal(units, scale, false);
+    }
+
+    // Like appendDecimal, but drops trailing zeros and a trailing point ("0.500000" becomes "0.5", "2.00" becomes "2")
+    ResponseBuffer appendDecimalStripped(long units, int scale) {
+        return appendDecimal(units, scale, true);
+    }
+
+    private ResponseBuffer appendDecimal(long units, int scale, boolean stripZeros) {
+        ensureCapacity(size + 21 + scale);
+        if (units < 0) {
+            bytes[size++] = '-';
+        }
+        // digits are produced from the right as negative numbers, which also covers Long.MIN_VALUE
+        long rest = units < 0 ? units : -units;
+        int digits = 0;
+        int start = size;
+        boolean significant = !stripZeros;
+        for (int i = 0; i < scale; i++) {
+            int digit = (int) -(rest % 10);
+            rest /= 10;
+            if (digit != 0) {
+                significant = true;
+            }
+            if (significant) {
+                bytes[start + digits++] = (byte) ('0' + digit);
+            }
+        }
+        if (digits > 0) {
+            bytes[start + digits++] = '.';
+        }
+        do {
+            bytes[start + digits++] = (byte) ('0' - rest % 10);
+            rest /= 10;
+        } while (rest != 0);
+        reverse(start, start + digits - 1);
+        size = start + digits;
+        return this;
+    }
+
+    private void reverse(int from, int to) {
+        while (from < to) {
+            byte b = bytes[from];
+            bytes[from++] = bytes[to];
+            bytes[to--] = b;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, 0, size, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,172 @@
+package org.netno;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * The shadow strategies of the bot, evaluated after every evaluation of the
+ * trading loop on the prices it fetched.
+ *
+ * A round is handed to a pool with a thread per core and the trading thread
+ * continues right away; the strategies of a round are evaluated in parallel.
+ * While a round is still running the next one is skipped; the round after
+ * it evaluates the latest prices then.
+ */
+public class ShadowStrategies {
+
+    private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("shadow-strategy-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }, null, false);
+    private volatile List<ShadowStrategy> strategies = List.of();
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final Map<String, Long> evaluatedAt = new HashMap<>(); // fetch time of the last quote per coin, submit only
+    private final AtomicLong rounds = new AtomicLong();
+    private final AtomicLong skippedRounds = new AtomicLong();
+    private volatile long roundNanos; // duration of the last round
+    // the live win/loss and portfolio value when the strategies started, to compare with
+    private volatile long liveStartCents = Long.MIN_VALUE;
+    private volatile long liveStartValue;
+    private volatile long liveCents;
+
+    /**
+     * Uses the strategies of settings from the next round on. Strategies
+     * whose settings did not change keep their portfolio.
+     */
+    synchronized void configure(List<ShadowStrategy.Settings> settings) {
+        Map<ShadowStrategy.Settings, ShadowStrategy> kept = new HashMap<>();
+        strategies.forEach(strategy -> kept.put(strategy.getSettings(), strategy));
+        List<ShadowStrategy> next = new ArrayList<>();
+        for (ShadowStrategy.Settings setting : settings) {
+            ShadowStrategy strategy = kept.get(setting);
+            next.add(strategy != null ? strategy : new ShadowStrategy(setting));
+        }
+        strategies = List.copyOf(next);
+    }
+
+    boolean isEmpty() {
+        return strategies.isEmpty();
+    }
+
+    // The coins held by any strategy, which need quotes even if the live config no longer trades them
+    Set<String> heldCoins() {
+        Set<String> held = new HashSet<>();
+        strategies.forEach(strategy -> held.addAll(strategy.heldCoins()));
+        return held;
+    }
+
+    /**
+     * Starts a round with the quotes fetched since the last round and
+     * returns at once. Must be called by the trading thread. Returns false
+     * if the previous round is still running.
+     */
+    boolean submit(Round round) {
+        if (!running.compareAndSet(false, true)) {
+            skippedRounds.incrementAndGet();
+            return false;
+        }
+        round.quotes.entrySet().removeIf(quote -> quote.getValue().at <= evaluatedAt.getOrDefault(quote.getKey(), 0L));
+        round.quotes.forEach((coin, quote) -> evaluatedAt.put(coin, quote.at));
+        if (liveStartCents == Long.MIN_VALUE) {
+            liveStartCents = round.liveCents;
+            liveStartValue = round.portfolioValue;
+        }
+        liveCents = round.liveCents;
+        List<ShadowStrategy> evaluated = strategies;
+        pool.execute(() -> {
+            long start = System.nanoTime();
+            try {
+                List<ForkJoinTask<?>> tasks = new ArrayList<>(evaluated.size());
+                for (ShadowStrategy strategy : evaluated) {
+                    tasks.add(ForkJoinTask.adapt(() -> evaluate(strategy, round)));
+                }
+                ForkJoinTask.invokeAll(tasks);
+            } finally {
+                roundNanos = System.nanoTime() - start;
+                rounds.incrementAndGet();
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    private static void evaluate(ShadowStrategy strategy, Round round) {
+        try {
+            strategy.evaluate(round);
+        } catch (RuntimeException e) {
+            System.out.println("Shadow strategy " + strategy.getSettings().name + " failed: " + e.getMessage());
+        }
+    }
+
+    // True until the submitted round is evaluated, for tests
+    boolean isRunning() {
+        return running.get();
+    }
+
+    // The live and the shadow results since the strategies started
+    JSONObject toJson() {
+        double liveStart = FixedPoint.toDouble(liveStartValue, FixedPoint.PRICE_SCALE);
+        double live = liveStartCents == Long.MIN_VALUE ? 0
+                : FixedPoint.toDouble(liveCents - liveStartCents, FixedPoint.USDC_SCALE);
+        JSONArray list = new JSONArray();
+        strategies.forEach(strategy -> list.put(strategy.toJson()));
+        return new JSONObject()
+                .put("live", new JSONObject()
+                        .put("startingFunds", liveStart)
+                        .put("total", live)
+                        .put("totalPercent", liveStart == 0 ? 0.0 : live / liveStart * 100))
+                .put("rounds", rounds.get())
+                .put("skippedRounds", skippedRounds.get())
+                .put("roundMicros", roundNanos / 1000)
+                .put("threads", pool.getParallelism())
+                .put("strategies", list);
+    }
+
+    /**
+     * What a round evaluates: the quotes of the trading loop and the live
+     * settings the strategies don't override. Prices and values at
+     * FixedPoint.PRICE_SCALE.
+     */
+    static final class Round {
+        final long time; // epoch millis
+        final Config config;
+        final long[] averageDownStepPercents; // of config
+        final long takerFeePercent;
+        final ZoneId zoneId;
+        final List<String> coins; // traded by the live config, in its order
+        final Map<String, MarketDataFetcher.Quote> quotes; // by coin
+        final Set<String> falling; // coins the falling knife filter holds back
+        final long portfolioValue; // of the live portfolio, the starting funds of new strategies
+        final long liveCents; // live realized and unrealized win/loss
+
+        Round(long time, Config config, long[] averageDownStepPercents, long takerFeePercent, ZoneId zoneId,
+                List<String> coins, Map<String, MarketDataFetcher.Quote> quotes, Set<String> falling,
+                long portfolioValue, long liveCents) {
+            this.time = time;
+            this.config = config;
+            this.averageDownStepPercents = averageDownStepPercents;
+            this.takerFeePercent = takerFeePercent;
+            this.zoneId = zoneId;
+            this.coins = coins;
+            this.quotes = quotes;
+            this.falling = falling;
+            this.portfolioValue = portfolioValue;
+            this.liveCents = liveCents;
+        }
+    }
+}
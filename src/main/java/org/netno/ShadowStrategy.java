@@ -0,0 +1,270 @@
+package org.netno;
+
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * A variant of the live strategy trading a virtual portfolio.
+ *
+ * It applies the StrategyRules of executeTrade and evaluateInitialPurchase
+ * with its own purchaseDropPercent, stopLossSalePercentage and
+ * averageDownSteps, and the other settings of the live config, to the prices
+ * the trading loop fetched. Orders are filled on paper at the fetched price
+ * with the taker fee. It starts without coins and with the value of the live
+ * portfolio as cash, and is kept in memory only.
+ *
+ * Cash and values are fixed point at FixedPoint.PRICE_SCALE.
+ */
+public class ShadowStrategy {
+
+    private final Settings settings;
+    private final long[] averageDownStepPercents; // null to use the ones of the live config
+    private final Map<String, TradeInfo> positions = new LinkedHashMap<>();
+    private final Map<String, Long> lastPrices = new LinkedHashMap<>();
+    private final PerformanceTracker performance = new PerformanceTracker(null, Long.MAX_VALUE);
+    private long startingFunds = -1; // set by the first round
+    private long cash;
+    private long orders; // for the client order ids of the paper fills
+    private volatile Set<String> held = Set.of(); // the coins of positions as of the last round, read without locking
+
+    ShadowStrategy(Settings settings) {
+        this.settings = settings;
+        this.averageDownStepPercents = settings.averageDownSteps == null ? null
+                : settings.averageDownSteps.stream()
+                        .mapToLong(step -> FixedPoint.fromDouble(step, FixedPoint.PERCENT_SCALE, RoundingMode.HALF_EVEN))
+                        .toArray();
+    }
+
+    Settings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Evaluates the held coins with a quote in round like executeTrade, then
+     * the purchase of the coins of round like evaluateInitialPurchase.
+     */
+    synchronized void evaluate(ShadowStrategies.Round round) {
+        Config config = round.config;
+        if (startingFunds < 0) {
+            startingFunds = round.portfolioValue;
+            cash = startingFunds;
+        }
+        long[] steps = averageDownStepPercents != null ? averageDownStepPercents : round.averageDownStepPercents;
+        double stopLossSalePercentage = settings.stopLossSalePercentage != null ? settings.stopLossSalePercentage
+                : config.stopLossSalePercentage;
+
+        List<String> sales = new ArrayList<>();
+        for (Map.Entry<String, TradeInfo> entry : new ArrayList<>(positions.entrySet())) {
+            String coin = entry.getKey();
+            TradeInfo tradeInfo = entry.getValue();
+            MarketDataFetcher.Quote quote = round.quotes.get(coin);
+            if (quote == null) {
+                continue;
+            }
+            long currentPrice = quote.price;
+            lastPrices.put(coin, currentPrice);
+            if (currentPrice > tradeInfo.highestPriceUnits()) {
+                tradeInfo.setHighestPriceUnits(currentPrice);
+            }
+            long purchasePrice = tradeInfo.purchasePriceUnits();
+            double performancePercentage = ((double) (currentPrice - purchasePrice) / purchasePrice) * 100;
+
+            long nextAverageDownPrice = StrategyRules.nextAverageDownPrice(tradeInfo, steps);
+            if (nextAverageDownPrice > 0 && currentPrice <= nextAverageDownPrice) {
+                if (!(config.fallingKnifeFilter && round.falling.contains(coin))) {
+                    buy(coin, quote, StrategyRules.averageDownFunds(cash, tradeInfo.value(currentPrice),
+                            () -> budget(config)), true, round);
+                }
+                continue;
+            }
+            if (StrategyRules.isTimeBasedSale(performancePercentage, tradeInfo.getWeeks(), config.negativeProfitLevels)
+                    || StrategyRules.isProfitDropSale(currentPrice, purchasePrice, tradeInfo.highestPriceUnits(),
+                            config.minimumProfitPercentage, stopLossSalePercentage)) {
+                sales.add(coin);
+            }
+        }
+        for (String coin : sales) {
+            sell(coin, round.quotes.get(coin), round);
+        }
+
+        if (positions.size() < config.maxHeldCoins) {
+            double purchaseDropPercent = settings.purchaseDropPercent != null ? settings.purchaseDropPercent
+                    : config.purchaseDropPercent;
+            String bestCoinToBuy = null;
+            for (String coin : round.coins) {
+                MarketDataFetcher.Quote quote = round.quotes.get(coin);
+                if (quote == null) {
+                    continue;
+                }
+                double priceChangePercentage = quote.priceChangePercentage24h;
+                if (positions.containsKey(coin)
+                        || !StrategyRules.isPurchaseDrop(priceChangePercentage, purchaseDropPercent)
+                        || (config.fallingKnifeFilter && round.falling.contains(coin))) {
+                    continue;
+                }
+                if (bestCoinToBuy == null
+                        || priceChangePercentage < round.quotes.get(bestCoinToBuy).priceChangePercentage24h) {
+                    bestCoinToBuy = coin;
+                }
+            }
+            if (bestCoinToBuy != null) {
+                buy(bestCoinToBuy, round.quotes.get(bestCoinToBuy), budget(config), false, round);
+            }
+        }
+
+        long unrealizedCents = 0;
+        for (Map.Entry<String, TradeInfo> entry : positions.entrySet()) {
+            Long price = lastPrices.get(entry.getKey());
+            if (price != null) {
+                unrealizedCents += entry.getValue().winLossIncludingFees(price, round.takerFeePercent);
+            }
+        }
+        performance.sample(round.time, unrealizedCents);
+        held = Set.copyOf(positions.keySet());
+    }
+
+    Set<String> heldCoins() {
+        return held;
+    }
+
+    // What a purchase spends, like TradingBot.getBudgetForNextPurchase
+    private long budget(Config config) {
+        long held = 0;
+        for (TradeInfo tradeInfo : positions.values()) {
+            held += tradeInfo.value(tradeInfo.purchasePriceUnits());
+        }
+        double funds = FixedPoint.toDouble(cash, FixedPoint.PRICE_SCALE);
+        return FixedPoint.fromDouble(StrategyRules.budget(funds, funds + FixedPoint.toDouble(held, FixedPoint.PRICE_SCALE),
+                config.useFundsPortionPerTrade), FixedPoint.PRICE_SCALE, RoundingMode.DOWN);
+    }
+
+    // Fills a market buy for amountToSpend; like Coinbase, an order the cash can't pay with its fee is not filled
+    private void buy(String coin, MarketDataFetcher.Quote quote, long amountToSpend, boolean averageDown,
+            ShadowStrategies.Round round) {
+        if (quote.decimalPlaces < 0) {
+            return; // the base increment was never fetched
+        }
+        long amount = FixedPoint.mulDiv(amountToSpend, FixedPoint.pow10(quote.decimalPlaces), quote.price,
+                RoundingMode.HALF_DOWN);
+        long feeCents = TradeInfo.takerFee(quote.price, amount, quote.decimalPlaces, round.takerFeePercent);
+        long cost = TradeInfo.value(quote.price, amount, quote.decimalPlaces)
+                + FixedPoint.rescale(feeCents, FixedPoint.USDC_SCALE, FixedPoint.PRICE_SCALE, RoundingMode.HALF_EVEN);
+        if (amount <= 0 || cost > cash) {
+            return;
+        }
+        cash -= cost;
+        TradeInfo tradeInfo = positions.get(coin);
+        if (averageDown && tradeInfo != null) {
+            tradeInfo.updatePurchase(quote.price, FixedPoint.rescale(amount, quote.decimalPlaces,
+                    tradeInfo.getDecimalPlaces(), RoundingMode.HALF_EVEN), round.takerFeePercent);
+        } else {
+            positions.put(coin, TradeInfo.ofPurchase(quote.price, amount, quote.decimalPlaces,
+                    LocalDateTime.now(round.zoneId), round.takerFeePercent));
+        }
+        lastPrices.put(coin, quote.price);
+        performance.bought(round.time, coin, Long.toString(++orders), feeCents);
+    }
+
+    private void sell(String coin, MarketDataFetcher.Quote quote, ShadowStrategies.Round round) {
+        TradeInfo tradeInfo = positions.remove(coin);
+        lastPrices.remove(coin);
+        long feeCents = TradeInfo.takerFee(quote.price, tradeInfo.amountUnits(), tradeInfo.getDecimalPlaces(),
+                round.takerFeePercent);
+        cash += tradeInfo.value(quote.price)
+                - FixedPoint.rescale(feeCents, FixedPoint.USDC_SCALE, FixedPoint.PRICE_SCALE, RoundingMode.HALF_EVEN);
+        performance.sold(round.time, coin, Long.toString(++orders),
+                tradeInfo.winLossIncludingFees(quote.price, round.takerFeePercent), feeCents,
+                round.time - tradeInfo.getPurchaseDate().atZone(round.zoneId).toInstant().toEpochMilli());
+    }
+
+    // Total win/loss in cents, realized and unrealized
+    synchronized long totalCents() {
+        return performance.totalCents();
+    }
+
+    synchronized JSONObject toJson() {
+        JSONObject json = settings.toJson();
+        JSONObject summary = performance.summary();
+        for (String key : summary.keySet()) {
+            json.put(key, summary.get(key));
+        }
+        double funds = FixedPoint.toDouble(Math.max(startingFunds, 0), FixedPoint.PRICE_SCALE);
+        return json
+                .put("startingFunds", funds)
+                .put("cash", FixedPoint.toDouble(cash, FixedPoint.PRICE_SCALE))
+                .put("held", new JSONArray(positions.keySet()))
+                .put("totalPercent", funds == 0 ? 0.0 : summary.getDouble("total") / funds * 100);
+    }
+
+    /**
+     * The settings of a shadow strategy from the shadowStrategies of
+     * config.json; null ones are taken from the live config.
+     */
+    static final class Settings {
+        final String name;
+        final Double purchaseDropPercent;
+        final Double stopLossSalePercentage;
+        final List<Double> averageDownSteps;
+
+        Settings(String name, Double purchaseDropPercent, Double stopLossSalePercentage,
+                List<Double> averageDownSteps) {
+            this.name = name;
+            this.purchaseDropPercent = purchaseDropPercent;
+            this.stopLossSalePercentage = stopLossSalePercentage;
+            this.averageDownSteps = averageDownSteps;
+        }
+
+        static Settings fromJson(JSONObject json) {
+            return new Settings(json.getString("name"),
+                    json.has("purchaseDropPercent") ? json.getDouble("purchaseDropPercent") : null,
+                    json.has("stopLossSalePercentage") ? json.getDouble("stopLossSalePercentage") : null,
+                    json.has("averageDownSteps") ? json.getJSONArray("averageDownSteps").toList().stream()
+                            .map(step -> Double.parseDouble(step.toString()))
+                            .collect(Collectors.toUnmodifiableList()) : null);
+        }
+
+        JSONObject toJson() {
+            JSONObject json = new JSONObject().put("name", name);
+            if (purchaseDropPercent != null) {
+                json.put("purchaseDropPercent", purchaseDropPercent);
+            }
+            if (stopLossSalePercentage != null) {
+                json.put("stopLossSalePercentage", stopLossSalePercentage);
+            }
+            if (averageDownSteps != null) {
+                json.put("averageDownSteps", new JSONArray(averageDownSteps));
+            }
+            return json;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Settings)) {
+                return false;
+            }
+            Settings other = (Settings) o;
+            return name.equals(other.name)
+                    && Objects.equals(purchaseDropPercent, other.purchaseDropPercent)
+                    && Objects.equals(stopLossSalePercentage, other.stopLossSalePercentage)
+                    && Objects.equals(averageDownSteps, other.averageDownSteps);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, purchaseDropPercent, stopLossSalePercentage, averageDownSteps);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package org.netno;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Shares the limits of the whole portfolio between the shards running in
+ * the same directory.
+ *
+ * All shards trade from the same USDC balance and together may hold at most
+ * maxHeldCoins coins. The ledger file lists per shard the held coins, their
+ * value at purchase price and the USDC reserved for orders being placed.
+ * Before buying, a shard reserves the amount under an exclusive lock on the
+ * file, which fails if the coin would exceed maxHeldCoins and is cut to the
+ * balance the other shards have not reserved. After the order the reservation
+ * is released; its amount stays as spent for SPENT_MILLIS, so shards that
+ * fetched their balance before the order was filled do not spend it again.
+ * Reservations of a shard that crashed expire after RESERVATION_MILLIS.
+ *
+ * The lock is held on a separate lock file, the ledger itself is replaced by
+ * an atomic move so a crash never leaves half a file. Every shard keeps a copy
+ * of its own entry and puts it back if the ledger lost it.
+ */
+public class ShardLedger {
+
+    static final String FILE = "shards.json";
+    static final long RESERVATION_MILLIS = 2 * 60 * 1000;
+    static final long SPENT_MILLIS = 5 * 60 * 1000;
+    private static final ReentrantLock LOCAL = new ReentrantLock(); // file locks are per process, not per thread
+
+    private final Path file;
+    private final Path lockFile;
+    private final int shard;
+    private JSONObject written; // this shard's entry as last written, null before the first update
+
+    public ShardLedger(String file, int shard) {
+        this.file = Path.of(file).toAbsolutePath();
+        this.lockFile = this.file.resolveSibling(this.file.getFileName() + ".lock");
+        this.shard = shard;
+    }
+
+    /**
+     * Reserves up to amountUnits USDC for buying coin, a coin not yet held if
+     * newCoin. balanceUnits is the USDC balance fetched from Coinbase at
+     * balanceMillis. Returns the reserved amount, 0 if the purchase must not
+     * be made. All amounts are at FixedPoint.PRICE_SCALE.
+     */
+    public long reserve(String coin, boolean newCoin, long amountUnits, long balanceUnits, long balanceMillis,
+            int maxHeldCoins) throws IOException {
+        return update("reserve", ledger -> {
+            long now = System.currentTimeMillis();
+            int held = 0;
+            long unavailable = 0;
+            for (String name : ledger.keySet()) {
+                JSONObject other = ledger.getJSONObject(name);
+                held += other.getJSONArray("held").length();
+                JSONObject reservations = other.getJSONObject("reservations");
+                for (String reserved : reservations.keySet()) {
+                    JSONObject reservation = reservations.getJSONObject(reserved);
+                    if (reservation.getBoolean("newCoin")) {
+                        held++;
+                    }
+                    unavailable += reservation.getLong("amount");
+                }
+                for (Object spent : other.getJSONArray("spent")) {
+                    JSONObject order = (JSONObject) spent;
+                    if (order.getLong("at") > balanceMillis) {
+                        unavailable += order.getLong("amount"); // not yet in balanceUnits
+                    }
+                }
+            }
+            if (newCoin && held >= maxHeldCoins) {
+                return 0L;
+            }
+            long reserved = Math.min(amountUnits, balanceUnits - unavailable);
+            if (reserved <= 0) {
+                return 0L;
+            }
+            own(ledger).getJSONObject("reservations").put(coin, new JSONObject()
+                    .put("amount", reserved)
+                    .put("newCoin", newCoin)
+                    .put("expires", now + RESERVATION_MILLIS));
+            return reserved;
+        });
+    }
+
+    // Ends the reservation for coin; if spent, its amount is counted as spent until the balance shows it
+    public void release(String coin, boolean spent) throws IOException {
+        update("release", ledger -> {
+            JSONObject own = own(ledger);
+            JSONObject reservation = (JSONObject) own.getJSONObject("reservations").remove(coin);
+            if (reservation != null && spent) {
+                own.getJSONArray("spent").put(new JSONObject()
+                        .put("amount", reservation.getLong("amount"))
+                        .put("at", System.currentTimeMillis()));
+            }
+            return null;
+        });
+    }
+
+    // Records the coins this shard holds and their value at purchase price
+    public void publish(Collection<String> held, long valueUnits) throws IOException {
+        update("publish", ledger -> {
+            own(ledger).put("held", new JSONArray(held)).put("value", valueUnits);
+            return null;
+        });
+    }
+
+    // The value at purchase price of the coins held by the other shards, at FixedPoint.PRICE_SCALE
+    public long otherShardsValue() throws IOException {
+        return update("otherShardsValue", ledger -> {
+            long value = 0;
+            for (String name : ledger.keySet()) {
+                if (!name.equals(Integer.toString(shard))) {
+                    value += ledger.getJSONObject(name).optLong("value");
+                }
+            }
+            return value;
+        });
+    }
+
+    private interface Change<T> {
+        T apply(JSONObject ledger);
+    }
+
+    // Reads the ledger, applies change and writes it back while holding the lock on the file
+    private <T> T update(String task, Change<T> change) throws IOException {
+        FlightEvents.LockWait wait = new FlightEvents.LockWait(FILE, task);
+        LOCAL.lock();
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock lock = channel.lock()) {
+            wait.acquired();
+            JSONObject ledger = new JSONObject();
+            try {
+                if (Files.exists(file)) {
+                    String text = Files.readString(file, StandardCharsets.UTF_8);
+                    if (!text.isEmpty()) {
+                        ledger = new JSONObject(text);
+                    }
+                }
+            } catch (JSONException e) {
+                // damaged outside the bot, every shard puts its own entry back below with its next update
+            }
+            String before = ledger.toString();
+            String name = Integer.toString(shard);
+            if (written != null && !ledger.has(name)) {
+                ledger.put(name, new JSONObject(written.toString()));
+            }
+            expire(ledger, System.currentTimeMillis());
+            T result = change.apply(ledger);
+            JSONObject own = ledger.optJSONObject(name);
+            written = own == null ? null : new JSONObject(own.toString());
+            String after = ledger.toString();
+            if (!after.equals(before)) {
+                // write a copy and move it into place, still under the lock
+                Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+                try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                    ByteBuffer buffer = ByteBuffer.wrap(after.getBytes(StandardCharsets.UTF_8));
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    out.force(false);
+                }
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            return result;
+        } finally {
+            LOCAL.unlock();
+        }
+    }
+
+    private static void expire(JSONObject ledger, long now) {
+        for (String name : ledger.keySet()) {
+            JSONObject shard = ledger.getJSONObject(name);
+            JSONObject reservations = shard.getJSONObject("reservations");
+            reservations.keySet().removeIf(coin -> reservations.getJSONObject(coin).getLong("expires") < now);
+            JSONArray spent = shard.getJSONArray("spent");
+            for (Iterator<Object> orders = spent.iterator(); orders.hasNext();) {
+                if (((JSONObject) orders.next()).getLong("at") < now - SPENT_MILLIS) {
+                    orders.remove();
+                }
+            }
+        }
+    }
+
+    private JSONObject own(JSONObject ledger) {
+        String name = Integer.toString(shard);
+        if (!ledger.has(name)) {
+            ledger.put(name, new JSONObject()
+                    .put("held", new JSONArray())
+                    .put("value", 0)
+                    .put("reservations", new JSONObject())
+                    .put("spent", new JSONArray()));
+        }
+        return ledger.getJSONObject(name);
+    }
+}
@@ -0,0 +1,86 @@
+package org.netno;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Assigns coins to shards by consistent hashing.
+ *
+ * Every shard is placed at VIRTUAL_NODES points of a ring of 64 bit hashes
+ * and a coin belongs to the shard of the first point at or after the coin's
+ * hash. The assignment only depends on the coin and the number of shards, so
+ * all processes agree on it without talking to each other, and adding a shard
+ * only moves the coins the new shard takes over.
+ */
+public class ShardRing {
+
+    static final int VIRTUAL_NODES = 128;
+
+    private final int shardCount;
+    private final long[] points; // sorted
+    private final int[] shards; // shard of the point at the same index
+
+    public ShardRing(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be at least 1");
+        }
+        this.shardCount = shardCount;
+        long[][] nodes = new long[shardCount * VIRTUAL_NODES][];
+        for (int shard = 0; shard < shardCount; shard++) {
+            for (int node = 0; node < VIRTUAL_NODES; node++) {
+                nodes[shard * VIRTUAL_NODES + node] = new long[] { hash("shard-" + shard + "#" + node), shard };
+            }
+        }
+        Arrays.sort(nodes, (a, b) -> Long.compare(a[0], b[0]));
+        points = new long[nodes.length];
+        shards = new int[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            points[i] = nodes[i][0];
+            shards[i] = (int) nodes[i][1];
+        }
+    }
+
+    public int shardCount() {
+        return shardCount;
+    }
+
+    public int shardOf(String coin) {
+        if (shardCount == 1) {
+            return 0;
+        }
+        int index = Arrays.binarySearch(points, hash(coin));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return shards[index == points.length ? 0 : index]; // the ring wraps around
+    }
+
+    // The coins of shard, in the order of coins
+    public List<String> owned(List<String> coins, int shard) {
+        List<String> owned = new ArrayList<>();
+        for (String coin : coins) {
+            if (shardOf(coin) == shard) {
+                owned.add(coin);
+            }
+        }
+        return owned;
+    }
+
+    // The first 8 bytes of the MD5 of key: well spread over the ring and the same in every process
+    static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is always available", e);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.netno;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.json.JSONObject;
+
+/**
+ * A product of the ExchangeSimulator, e.g. BTC-USDC.
+ *
+ * The price follows a geometric Brownian motion with a yearly drift and
+ * volatility. It is advanced lazily whenever the product is read, so idle
+ * products cost nothing. One price per simulated minute is kept for the last
+ * 24 hours to answer the 24h change.
+ *
+ * Market orders are filled against a synthetic order book around the current
+ * price: levelCount levels on each side, levelSpacing apart, each offering
+ * levelQuoteSize USDC worth of the coin, starting half the spread away from
+ * the price.
+ */
+class SimulatedProduct {
+
+    private static final double MILLIS_PER_YEAR = 365.25 * 24 * 60 * 60 * 1000;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    final String productId;
+    final String baseCurrency;
+    final BigDecimal baseIncrement;
+    final BigDecimal quoteIncrement;
+    final double drift; // per year, e.g. 0.1 for 10 %
+    final double volatility; // per year, e.g. 0.8 for 80 %
+    final double spread; // fraction of the price between best bid and best ask
+    final int levelCount;
+    final double levelSpacing; // fraction of the price between two levels
+    final double levelQuoteSize; // USDC per level
+
+    private final Random random;
+    private final double timeScale; // simulated milliseconds per real millisecond
+    private double price;
+    private long lastUpdate; // real epoch millis
+    private double simulatedMillis; // simulated time since the last full minute
+    private final double[] minutePrices = new double[MINUTES_PER_DAY]; // ring, oldest at minuteIndex
+    private int minuteIndex;
+    private double tradedVolume; // everything filled since the start, reported as the 24h volume
+
+    SimulatedProduct(String productId, JSONObject settings, double timeScale, long seed) {
+        this.productId = productId;
+        this.baseCurrency = productId.substring(0, productId.indexOf('-'));
+        this.random = new Random(seed);
+        this.timeScale = timeScale;
+        this.price = settings.optDouble("price", 1 + random.nextDouble() * 999);
+        this.drift = settings.optDouble("drift", 0);
+        this.volatility = settings.optDouble("volatility", 0.8);
+        this.spread = settings.optDouble("spreadPercentage", 0.05) / 100;
+        this.levelCount = settings.optInt("levelCount", 20);
+        this.levelSpacing = settings.optDouble("levelSpacingPercentage", 0.02) / 100;
+        this.levelQuoteSize = settings.optDouble("levelQuoteSize", 50_000);
+        this.baseIncrement = settings.has("baseIncrement") ? new BigDecimal(settings.getString("baseIncrement"))
+                : defaultBaseIncrement(price);
+        this.quoteIncrement = new BigDecimal(settings.optString("quoteIncrement", "0.00000001"));
+        // a day ago the price was where the configured 24h change says
+        double change24h = settings.optDouble("change24h", 0);
+        Arrays.fill(minutePrices, price / (1 + change24h / 100));
+        this.lastUpdate = System.currentTimeMillis();
+    }
+
+    // A base increment worth around a cent
+    private static BigDecimal defaultBaseIncrement(double price) {
+        int decimals = Math.max(0, Math.min(8, (int) Math.ceil(Math.log10(price)) + 2));
+        return BigDecimal.ONE.movePointLeft(decimals);
+    }
+
+    synchronized double price() {
+        advance();
+        return price;
+    }
+
+    synchronized double change24h() {
+        advance();
+        double dayAgo = minutePrices[minuteIndex];
+        return (price - dayAgo) / dayAgo * 100;
+    }
+
+    synchronized double tradedVolume() {
+        return tradedVolume;
+    }
+
+    String format(double value) {
+        return BigDecimal.valueOf(value).setScale(quoteIncrement.scale(), RoundingMode.HALF_EVEN)
+                .stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Matches an immediate-or-cancel market order for baseSize coins against
+     * the book. Returns the filled size and the quote amount paid or received;
+     * the unfilled rest is cancelled.
+     */
+    synchronized Fill fill(boolean buy, double baseSize) {
+        advance();
+        double remaining = baseSize;
+        double quote = 0;
+        for (int level = 0; level < levelCount && remaining > 0; level++) {
+            double offset = spread / 2 + level * levelSpacing;
+            double levelPrice = buy ? price * (1 + offset) : price * (1 - offset);
+            double size = Math.min(remaining, levelQuoteSize / levelPrice);
+            quote += size * levelPrice;
+            remaining -= size;
+        }
+        return new Fill(baseSize - Math.max(remaining, 0), quote);
+    }
+
+    synchronized void recordVolume(double size) {
+        tradedVolume += size;
+    }
+
+    // Moves the price forward to now
+    private void advance() {
+        long now = System.currentTimeMillis();
+        long elapsed = now - lastUpdate;
+        if (elapsed <= 0) {
+            return;
+        }
+        lastUpdate = now;
+        double dt = elapsed * timeScale;
+        double years = dt / MILLIS_PER_YEAR;
+        price *= Math.exp((drift - volatility * volatility / 2) * years
+                + volatility * Math.sqrt(years) * random.nextGaussian());
+        simulatedMillis += dt;
+        int minutes = (int) Math.min(simulatedMillis / 60_000, MINUTES_PER_DAY);
+        simulatedMillis -= Math.floor(simulatedMillis / 60_000) * 60_000;
+        for (int i = 0; i < minutes; i++) {
+            minutePrices[minuteIndex] = price;
+            minuteIndex = (minuteIndex + 1) % MINUTES_PER_DAY;
+        }
+    }
+
+    static final class Fill {
+        final double size;
+        final double quote;
+
+        Fill(double size, double quote) {
+            this.size = size;
+            this.quote = quote;
+        }
+
+        double averagePrice() {
+            return size == 0 ? 0 : quote / size;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.netno;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Pushes portfolio changes to the dashboard as Server-Sent Events.
+ *
+ * A new client receives one "snapshot" event with all positions and the cash
+ * balance. After that, every published portfolio snapshot is compared with
+ * the previous one and only the fields that changed are sent as a "delta"
+ * event, so the traffic depends on how often prices and positions change and
+ * not on the number of open dashboards.
+ *
+ * All work runs on a single event thread. The trading loop only hands over
+ * the snapshot and never waits for a client.
+ */
+public class SnapshotEvents {
+
+    private static final long KEEPALIVE_SECONDS = 20;
+
+    private final TradingBot tb;
+    private final ScheduledExecutorService eventThread = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "snapshot-events");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<OutputStream> clients = new ArrayList<>(); // event thread only
+
+    // state the clients have been sent so far, event thread only
+    private long version;
+    private Map<String, JSONObject> positions = new LinkedHashMap<>();
+    private double usdcBalance;
+
+    public SnapshotEvents(TradingBot tradingBot) {
+        this.tb = tradingBot;
+    }
+
+    public void start() {
+        PortfolioSnapshot snapshot = tb.getSnapshot();
+        eventThread.execute(() -> remember(snapshot));
+        tb.addSnapshotListener(this::publish);
+        // comment lines keep proxies from closing idle connections and detect closed browsers
+        eventThread.scheduleAtFixedRate(() -> send(": keepalive\n\n"), KEEPALIVE_SECONDS, KEEPALIVE_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        eventThread.shutdownNow();
+    }
+
+    // Called by the trading loop for every published snapshot
+    void publish(PortfolioSnapshot snapshot) {
+        eventThread.execute(() -> {
+            JSONObject delta = delta(snapshot);
+            if (delta != null) {
+                send("event: delta\ndata: " + delta + "\n\n");
+            }
+        });
+    }
+
+    // Takes over an exchange whose event-stream headers have been sent; it stays open until the client leaves
+    void addClient(HttpExchange exchange) {
+        eventThread.execute(() -> {
+            OutputStream out = exchange.getResponseBody();
+            JSONObject full = new JSONObject()
+                    .put("version", version)
+                    .put("usdcBalance", usdcBalance)
+                    .put("positions", new JSONArray(positions.values()));
+            try {
+                write(out, "retry: 5000\nevent: snapshot\ndata: " + full + "\n\n");
+                clients.add(out);
+                tb.log("DEBUG", String.format("Dashboard connected, %d listening.", clients.size()));
+            } catch (IOException e) {
+                exchange.close();
+            }
+        });
+    }
+
+    // Changes since the last sent state, or null if there are none. Updates the sent state.
+    JSONObject delta(PortfolioSnapshot snapshot) {
+        Map<String, JSONObject> previousPositions = positions;
+        double previousBalance = usdcBalance;
+        remember(snapshot);
+
+        JSONObject changedPositions = new JSONObject();
+        positions.forEach((coin, position) -> {
+            JSONObject previous = previousPositions.get(coin);
+            JSONObject changed = previous == null ? position : PortfolioJson.changedFields(previous, position);
+            if (changed != null) {
+                changedPositions.put(coin, changed);
+            }
+        });
+        JSONArray removed = new JSONArray();
+        previousPositions.keySet().stream().filter(coin -> !positions.containsKey(coin)).forEach(removed::put);
+
+        JSONObject delta = new JSONObject();
+        if (!changedPositions.isEmpty()) {
+            delta.put("positions", changedPositions);
+        }
+        if (!removed.isEmpty()) {
+            delta.put("removed", removed);
+        }
+        if (usdcBalance != previousBalance) {
+            delta.put("usdcBalance", usdcBalance);
+        }
+        return delta.isEmpty() ? null : delta.put("version", version);
+    }
+
+    private void remember(PortfolioSnapshot snapshot) {
+        version = snapshot.getVersion();
+        positions = PortfolioJson.positionsByCoin(snapshot, tb.config);
+        usdcBalance = snapshot.getUsdcBalance();
+    }
+
+    private void send(String event) {
+        Iterator<OutputStream> iterator = clients.iterator();
+        while (iterator.hasNext()) {
+            OutputStream out = iterator.next();
+            try {
+                write(out, event);
+            } catch (IOException e) {
+                // the browser went away
+                iterator.remove();
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static void write(OutputStream out, String event) throws IOException {
+        out.write(event.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+}
@@ -0,0 +1,80 @@
+package org.netno;
+
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * The rules by which the bot buys, averages down and sells, shared by the
+ * trading loop and the shadow strategies so both decide alike. Prices are
+ * fixed point at FixedPoint.PRICE_SCALE like in TradeInfo.
+ */
+final class StrategyRules {
+
+    private StrategyRules() {
+    }
+
+    // True if a coin whose price changed by priceChangePercentage in 24 hours fell enough to be bought
+    static boolean isPurchaseDrop(double priceChangePercentage, double purchaseDropPercent) {
+        return priceChangePercentage <= (purchaseDropPercent * -1);
+    }
+
+    // What to spend on a purchase: the portion of the portfolio value, at most the funds
+    static double budget(double funds, double portfolioValue, double useFundsPortionPerTrade) {
+        double purchaseMoney = portfolioValue * useFundsPortionPerTrade;
+        if (funds < purchaseMoney) {
+            purchaseMoney = funds;
+        }
+        return purchaseMoney;
+    }
+
+    // The price at which tradeInfo reaches its next average down step, 0 if no step is left
+    static long nextAverageDownPrice(TradeInfo tradeInfo, long[] averageDownStepPercents) {
+        return nextAverageDownPrice(tradeInfo.purchasePriceUnits(), tradeInfo.getAverageDownStepIndex(),
+                averageDownStepPercents);
+    }
+
+    // The same for a position read from the columns of a PositionBook
+    static long nextAverageDownPrice(long purchasePrice, int averageDownStep, long[] averageDownStepPercents) {
+        if (averageDownStep >= averageDownStepPercents.length - 1) {
+            return 0;
+        }
+        long nextAverageDownDropPercent = averageDownStepPercents[averageDownStep + 1];
+        return purchasePrice - FixedPoint.mulDivPow10(purchasePrice, nextAverageDownDropPercent,
+                FixedPoint.PERCENT_SCALE + 2, RoundingMode.HALF_EVEN);
+    }
+
+    // What averaging down spends: the same amount again if the funds allow it, otherwise the budget
+    static long averageDownFunds(long funds, long positionValue, LongSupplier budget) {
+        return funds >= positionValue ? positionValue : budget.getAsLong();
+    }
+
+    // The performance in percent a coin held below its purchase price must get back to after weeksHeld weeks
+    static double negativeProfitLevel(long weeksHeld, List<Double> negativeProfitLevels) {
+        int thresholdIndex = (int) Math.min(weeksHeld, negativeProfitLevels.size());
+        return negativeProfitLevels.get(thresholdIndex - 1);
+    }
+
+    // True if a coin held below its purchase price for three weeks or more is sold
+    static boolean isTimeBasedSale(double performancePercentage, long weeksHeld, List<Double> negativeProfitLevels) {
+        return performancePercentage < 0 && weeksHeld >= 3
+                && round(performancePercentage, 1) >= round(-negativeProfitLevel(weeksHeld, negativeProfitLevels), 1);
+    }
+
+    // True if a coin with at least the minimum profit fell stopLossSalePercentage from its highest price
+    static boolean isProfitDropSale(long currentPrice, long purchasePrice, long highestPrice,
+            double minimumProfitPercentage, double stopLossSalePercentage) {
+        double performancePercentage = ((double) (currentPrice - purchasePrice) / purchasePrice) * 100;
+        if (currentPrice <= purchasePrice || performancePercentage < minimumProfitPercentage) {
+            return false;
+        }
+        long stopLossPrice = highestPrice
+                - FixedPoint.percentOf(highestPrice, stopLossSalePercentage, RoundingMode.HALF_EVEN);
+        return currentPrice <= stopLossPrice;
+    }
+
+    private static double round(double value, int precision) {
+        int scale = (int) Math.pow(10, precision);
+        return (double) Math.round(value * scale) / scale;
+    }
+}
@@ -4,20 +4,21 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
-import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 
 public class TradeInfo {
 
-    double purchasePrice; // Average purchase price
-    double amount; // Amount of coins held
-    LocalDateTime purchaseDate; // Date of purchase
-    double highestPrice; // Highest price observed
-    double purchaseFee; // Highest price observed
-    int averageDownStepIndex; // Index of the last reached average down step
-    int decimalPlaces; // number of places after the decimal point for the coin
+    // Prices are fixed point at FixedPoint.PRICE_SCALE, the amount at decimalPlaces and the fee in cents.
+    // The fields are only accessed through the methods below, so a PositionBook view can redirect them.
+    private long purchasePrice; // Average purchase price
+    private long amount; // Amount of coins held
+    private LocalDateTime purchaseDate; // Date of purchase
+    private long highestPrice; // Highest price observed
+    private long purchaseFee; // Fees paid for all purchases
+    private int averageDownStepIndex; // Index of the last reached average down step
+    private int decimalPlaces; // number of places after the decimal point for the coin
 
     // Constructor with parameters for JSON deserialization
     @JsonCreator
@@ -29,6 +30,17 @@ public class TradeInfo {
             @JsonProperty("purchaseFee") double purchaseFee,
             @JsonProperty("averageDownStepIndex") int averageDownStepIndex,
             @JsonProperty("decimalPlaces") int decimalPlaces) {
+        this(FixedPoint.fromDouble(purchasePrice, FixedPoint.PRICE_SCALE, RoundingMode.HALF_EVEN),
+                FixedPoint.fromDouble(amount, decimalPlaces, RoundingMode.HALF_EVEN),
+                purchaseDate,
+                FixedPoint.fromDouble(highestPrice, FixedPoint.PRICE_SCALE, RoundingMode.HALF_EVEN),
+                FixedPoint.fromDouble(purchaseFee, FixedPoint.USDC_SCALE, RoundingMode.HALF_EVEN),
+                averageDownStepIndex,
+                decimalPlaces);
+    }
+
+    private TradeInfo(long purchasePrice, long amount, LocalDateTime purchaseDate, long highestPrice,
+            long purchaseFee, int averageDownStepIndex, int decimalPlaces) {
         this.purchasePrice = purchasePrice;
         this.amount = amount;
         this.purchaseDate = purchaseDate;
@@ -38,13 +50,59 @@ public class TradeInfo {
         this.decimalPlaces = decimalPlaces;
     }
 
+    // for PositionBook views, which keep their state in the book
+    TradeInfo() {
+    }
+
+    static TradeInfo ofUnits(long purchasePrice, long amount, LocalDateTime purchaseDate, long highestPrice,
+            long purchaseFee, int averageDownStepIndex, int decimalPlaces) {
+        return new TradeInfo(purchasePrice, amount, purchaseDate, highestPrice, purchaseFee, averageDownStepIndex,
+                decimalPlaces);
+    }
+
+    // Creates the position for an initial purchase, including the taker fee paid for it
+    static TradeInfo ofPurchase(long price, long amount, int decimalPlaces, LocalDateTime purchaseDate,
+            long takerFeePercent) {
+        return new TradeInfo(price, amount, purchaseDate, price,
+                takerFee(price, amount, decimalPlaces, takerFeePercent), 0, decimalPlaces);
+    }
+
+    // Fixed-point accessors
+    long purchasePriceUnits() {
+        return purchasePrice;
+    }
+
+    long amountUnits() {
+        return amount;
+    }
+
+    long highestPriceUnits() {
+        return highestPrice;
+    }
+
+    void setHighestPriceUnits(long price) {
+        this.highestPrice = price;
+    }
+
+    long purchaseFeeCents() {
+        return purchaseFee;
+    }
+
+    void setPosition(long purchasePrice, long amount, long highestPrice, long purchaseFee, int averageDownStepIndex) {
+        this.purchasePrice = purchasePrice;
+        this.amount = amount;
+        this.highestPrice = highestPrice;
+        this.purchaseFee = purchaseFee;
+        this.averageDownStepIndex = averageDownStepIndex;
+    }
+
     // Getter methods
     public double getPurchasePrice() {
-        return purchasePrice;
+        return FixedPoint.toDouble(purchasePriceUnits(), FixedPoint.PRICE_SCALE);
     }
 
     public double getAmount() {
-        return amount;
+        return FixedPoint.toDouble(amountUnits(), getDecimalPlaces());
     }
 
     public LocalDateTime getPurchaseDate() {
@@ -52,15 +110,15 @@ public class TradeInfo {
     }
 
     public double getHighestPrice() {
-        return highestPrice;
+        return FixedPoint.toDouble(highestPriceUnits(), FixedPoint.PRICE_SCALE);
     }
 
     public double getPurchaseFee() {
-        return purchaseFee;
+        return FixedPoint.toDouble(purchaseFeeCents(), FixedPoint.USDC_SCALE);
     }
 
     public void setPurchaseFee(double newPurchaseFee) {
-        this.purchaseFee = newPurchaseFee;
+        this.purchaseFee = FixedPoint.fromDouble(newPurchaseFee, FixedPoint.USDC_SCALE, RoundingMode.HALF_EVEN);
     }
 
     public int getAverageDownStepIndex() {
@@ -76,52 +134,69 @@ public class TradeInfo {
     }
 
     public void setDecimalPlaces(int places) {
+        this.amount = FixedPoint.rescale(amount, decimalPlaces, places, RoundingMode.HALF_EVEN);
         this.decimalPlaces = places;
     }
 
     @JsonIgnore
     public long getWeeks() {
-        return ChronoUnit.WEEKS.between(this.purchaseDate, LocalDateTime.now());
+        return ChronoUnit.WEEKS.between(getPurchaseDate(), LocalDateTime.now());
     }
 
     @JsonIgnore
     public double getInvest() {
-        return amount * purchasePrice;
+        return FixedPoint.toDouble(value(purchasePriceUnits()), FixedPoint.PRICE_SCALE);
+    }
+
+    // Value of the held amount at the given price, at FixedPoint.PRICE_SCALE
+    long value(long price) {
+        return value(price, amountUnits(), getDecimalPlaces());
+    }
+
+    static long value(long price, long amount, int decimalPlaces) {
+        return FixedPoint.mulDivPow10(price, amount, decimalPlaces, RoundingMode.HALF_EVEN);
     }
 
     @JsonIgnore
     public double getWinLossIncludingFees(double currentPrice, double takerFeePercentage) {
-        double currentValue = currentPrice * amount;
-        double winLoss =  currentValue
-                - (amount * purchasePrice)  //what we initially paid
+        long winLoss = winLossIncludingFees(
+                FixedPoint.fromDouble(currentPrice, FixedPoint.PRICE_SCALE, RoundingMode.HALF_EVEN),
+                FixedPoint.fromDouble(takerFeePercentage, FixedPoint.PERCENT_SCALE, RoundingMode.HALF_EVEN));
+        return FixedPoint.toDouble(winLoss, FixedPoint.USDC_SCALE);
+    }
+
+    // Net win or loss in cents when selling at currentPrice
+    long winLossIncludingFees(long currentPrice, long takerFeePercent) {
+        return winLossIncludingFees(purchasePriceUnits(), amountUnits(), purchaseFeeCents(), getDecimalPlaces(),
+                currentPrice, takerFeePercent);
+    }
+
+    static long winLossIncludingFees(long purchasePrice, long amount, long purchaseFee, int decimalPlaces,
+            long currentPrice, long takerFeePercent) {
+        long grossWinLoss = FixedPoint.mulDivPow10(currentPrice - purchasePrice, amount,
+                decimalPlaces + FixedPoint.PRICE_SCALE - FixedPoint.USDC_SCALE, RoundingMode.HALF_EVEN);
+        return grossWinLoss
                 - purchaseFee               // purchase fee when buying
-                - calculateTakerFee(currentValue, takerFeePercentage);  // purchase fee when selling
-        return winLoss;
+                - takerFee(currentPrice, amount, decimalPlaces, takerFeePercent);  // purchase fee when selling
     }
 
     // Update purchase info for averaging down
-    public void updatePurchase(double newPrice, double additionalAmount, double takerFeePercentage) {
-        double totalValue = (purchasePrice * amount) + (newPrice * additionalAmount);
-        amount += additionalAmount;
-        String newAveragePrice = BigDecimal.valueOf(totalValue / amount)
-                .setScale(6, RoundingMode.HALF_DOWN).toString();
-        purchasePrice = Double.parseDouble(newAveragePrice);
-        //reset highest price
-        highestPrice = purchasePrice;
-
-        purchaseFee += calculateTakerFee(newPrice * additionalAmount, takerFeePercentage);
-        averageDownStepIndex++;
-    }
-
-    private double calculateTakerFee(double value, double takerFeePercentage) {
-        // calculate the purchase fee
-        double fee = value * takerFeePercentage / 100.0;
-        // round the purchase fee to 2 digits after the comma
-        String roundedPurchaseFee = BigDecimal.valueOf(fee)
-                .setScale(2, RoundingMode.HALF_DOWN)
-                .toPlainString();
-
-        return (Double.parseDouble(roundedPurchaseFee));
+    public void updatePurchase(long newPrice, long additionalAmount, long takerFeePercent) {
+        long oldAmount = amountUnits();
+        long newPurchasePrice = FixedPoint.weightedAverage(purchasePriceUnits(), oldAmount, newPrice,
+                additionalAmount, RoundingMode.HALF_DOWN);
+        setPosition(newPurchasePrice,
+                oldAmount + additionalAmount,
+                newPurchasePrice, //reset highest price
+                purchaseFeeCents() + takerFee(newPrice, additionalAmount, getDecimalPlaces(), takerFeePercent),
+                getAverageDownStepIndex() + 1);
+    }
+
+    // Taker fee in cents for trading amount at price, rounded to cents
+    static long takerFee(long price, long amount, int decimalPlaces, long takerFeePercent) {
+        return FixedPoint.mulDivPow10(price, Math.multiplyExact(amount, takerFeePercent),
+                FixedPoint.PRICE_SCALE + decimalPlaces + FixedPoint.PERCENT_SCALE + 2 - FixedPoint.USDC_SCALE,
+                RoundingMode.HALF_DOWN);
     }
 
 }
@@ -11,24 +11,38 @@ import com.coinbase.advanced.model.orders.OrderConfiguration;
 import com.coinbase.advanced.orders.OrdersService;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
 import java.time.ZonedDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.math.BigDecimal;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.math.RoundingMode;
 
 public class TradingBot {
@@ -37,48 +51,150 @@ public class TradingBot {
         TRACE, DEBUG, INFO, ERROR
     }
 
-    private LogLevel logLevel;
+    // Told about every evaluation of the trading loop, with its start and end in System.nanoTime
+    interface TickListener {
+        void tick(String task, long startNanos, long endNanos);
+    }
+
     private static final String ASSETS_FILE = "currentAssets.json";
-    private static final String LOG_FILE = "trading.log";
 
     static final String QUOTECURRENCY = "USDC";
+    private static final long HISTORY_INTERVAL_MILLIS = 15_000; // the last price fetched in an interval is kept
+    private static final int HISTORY_SAMPLES = (int) (30 * 24 * 60 * 60 * 1000L / HISTORY_INTERVAL_MILLIS); // 30 days
+    private static final long CANDLES_SAVE_MILLIS = 5 * 60 * 1000; // a crash loses at most this much of the candles
+    private static final int MAX_APPLIED_ORDERS = 100; // client order ids remembered in the assets file
+    private static final int MAX_COMMANDS = 1000; // finished commands are forgotten after this many newer ones
+    private static final long WEEK_MILLIS = 7 * 24 * 60 * 60 * 1000L;
 
     private final OrdersService ordersService;
     private final MarketDataFetcher marketDataFetcher;
-    private Map<String, TradeInfo> currentAssets = new ConcurrentHashMap<>();
+    private final ExchangeEndpoint orderEndpoint = new ExchangeEndpoint("createOrder", false); // orders are never hedged
+    private final DecisionTracer tracer;
+    private final LogStore logStore; // null if the log is only printed
+    private PositionBook currentAssets = new PositionBook();
+    private long[] tickPrices = new long[0]; // price fetched by the current evaluation per coin id, 0 if none
+    private int[] tickCoinIds = new int[0]; // held coins polled by the current evaluation
     double usdcBalance;
-    public Config config;
+    private final Map<String, Long> lastPrices = new ConcurrentHashMap<>(); // last fetched price per held coin, at FixedPoint.PRICE_SCALE
+    private volatile PortfolioSnapshot snapshot = PortfolioSnapshot.EMPTY; // read by the web server without locking
+    private final List<Consumer<PortfolioSnapshot>> snapshotListeners = new CopyOnWriteArrayList<>();
+    private final PriceHistory priceHistory = new PriceHistory(HISTORY_SAMPLES, HISTORY_INTERVAL_MILLIS);
+    private final IndicatorEngine indicators = new IndicatorEngine();
+    private final PollingPlanner polling = new PollingPlanner(15_000, 0); // unknown coins at the fixed rate
+    private long warmStartSavedAt; // epoch millis
+    private final CandleAggregator candles;
+    private long candlesSavedAt; // epoch millis
+    private final Map<String, TradingCommand> commands = Collections.synchronizedMap(
+            new LinkedHashMap<String, TradingCommand>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, TradingCommand> eldest) {
+                    return size() > MAX_COMMANDS;
+                }
+            });
+    private final WarmStartCache warmStart; // null in unit tests
+    private PendingOrders pendingOrders;
+    private volatile PerformanceTracker performance;
+    private final ShadowStrategies shadows = new ShadowStrategies();
+    private final Set<String> appliedOrders = Collections.synchronizedSet(new LinkedHashSet<>()); // oldest first
+    private long assetsLoadedModified; // modification time of the assets file when it was last read
+    private volatile boolean trading; // startTrading was called
+    public volatile Config config; // replaced as a whole by reloadConfig, never modified
+    private volatile DerivedConfig derived; // published by applyConfig before config
     public boolean initialized = false;
+    String assetsFile = ASSETS_FILE; // location of the persisted assets, overridden by the benchmarks
+    String pendingOrdersFile = PendingOrders.FILE; // a temporary file in unit tests and benchmarks
+    private final String candlesFile; // null if the candles are only kept in memory
+    private String warmStartFile = WarmStartCache.FILE;
+    private final ShardLedger shardLedger; // null unless the coins are split across shards
+    private long usdcBalanceMillis; // when usdcBalance was fetched
     final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1); // Single-threaded executor
+    long tickMillis = 15_000; // period of the trading loop, shortened by the load harness
+    volatile TickListener tickListener; // for measurements, null if nobody listens
 
     public TradingBot(CoinbaseAdvancedClient client, Config config) {
+        long start = System.currentTimeMillis();
+        this.logStore = new LogStore(Path.of(config.shardFile(LogStore.DIRECTORY)), LogStore.MAX_SEGMENT_BYTES);
         this.ordersService = CoinbaseAdvancedServiceFactory.createOrdersService(client);
-        this.marketDataFetcher = new MarketDataFetcher(client, config.portfolioId);
+        applyConfig(null, config);
         this.config = config;
+        // every shard keeps its own files next to the ones of the other shards
+        this.assetsFile = config.shardFile(ASSETS_FILE);
+        this.pendingOrdersFile = config.shardFile(PendingOrders.FILE);
+        this.candlesFile = config.shardFile(CandleAggregator.FILE);
+        this.warmStartFile = config.shardFile(WarmStartCache.FILE);
+        this.shardLedger = config.shardCount > 1 ? new ShardLedger(ShardLedger.FILE, config.shardIndex) : null;
+        this.tracer = new DecisionTracer(Path.of(config.shardFile(DecisionTracer.FILE)));
+        this.performance = new PerformanceTracker(Path.of(config.shardFile(PerformanceTracker.FILE)));
+        this.warmStart = WarmStartCache.load(warmStartFile);
+        this.candles = CandleAggregator.load(candlesFile);
+        this.candlesSavedAt = System.currentTimeMillis();
+        // the assets file is read while Coinbase is asked for the portfolio and the balance
+        CompletableFuture<PositionBook> assets = CompletableFuture.supplyAsync(() -> {
+            try {
+                return loadAssets();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+        this.marketDataFetcher = new MarketDataFetcher(client, config.portfolioId, warmStart);
+        getEndpoints().forEach(endpoint -> endpoint.setLog(this::log));
+        getUsdcBalance();
         try {
-            this.currentAssets = loadAssets();
-        } catch (Exception e) {
+            this.currentAssets = assets.join();
+            this.pendingOrders = PendingOrders.load(pendingOrdersFile);
+        } catch (CompletionException e) {
+            return;
+        } catch (IOException e) {
+            log("ERROR", "Failed to load the pending orders: " + e.getMessage());
             return;
         }
-        this.logLevel = LogLevel.valueOf(config.logLevel.toUpperCase());
-        getUsdcBalance();
-        log("INFO", "TradingBot initialized.");
+        // show the prices of the last run until the first evaluation has fetched new ones
+        warmStart.lastPrices.forEach((coin, price) -> {
+            if (currentAssets.containsKey(coin)) {
+                lastPrices.put(coin, price);
+            }
+        });
+        if (shardLedger != null) {
+            publishHeldCoins();
+            log("INFO", String.format("Shard %d of %d trades %s.", config.shardIndex + 1, config.shardCount,
+                    String.join(", ", derived.ownedCoins)));
+        }
+        log("INFO", String.format("TradingBot initialized in %d ms.", System.currentTimeMillis() - start));
         log("INFO", String.format("Current cash: %s USDC.", usdcBalance));
+        publishSnapshot();
         initialized = true;
     }
 
     // for unit tests only
     public TradingBot(OrdersService orderService, MarketDataFetcher marketDataFetcher, Config config,
-            Map<String, TradeInfo> purchaseHistory) {
+            PositionBook purchaseHistory) {
 
         this.ordersService = orderService;
         this.marketDataFetcher = marketDataFetcher;
+        this.warmStart = null;
+        this.candlesFile = null;
+        this.candles = new CandleAggregator();
+        this.shardLedger = null;
+        this.tracer = new DecisionTracer(null);
+        this.performance = new PerformanceTracker(null);
+        this.logStore = null;
+        try {
+            // never the pendingOrders.json of a bot trading in the same directory
+            Path pending = Files.createTempFile("pendingOrders", ".json");
+            Files.delete(pending); // created with the first order
+            pending.toFile().deleteOnExit();
+            this.pendingOrdersFile = pending.toString();
+            this.pendingOrders = PendingOrders.load(pendingOrdersFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        applyConfig(null, config);
         this.config = config;
         getUsdcBalance();
         this.currentAssets = purchaseHistory;
-        this.logLevel = LogLevel.valueOf(config.logLevel.toUpperCase());
         log("INFO", "TradingBot initialized.");
         log("INFO", String.format("Current cash: %s USDC.", usdcBalance));
+        publishSnapshot();
     }
 
     public Map<String, TradeInfo> getCurrentAssets() {
@@ -89,6 +205,216 @@ public class TradingBot {
         return marketDataFetcher;
     }
 
+    // The Coinbase endpoints the bot calls, with the state of their circuit breakers
+    public List<ExchangeEndpoint> getEndpoints() {
+        List<ExchangeEndpoint> endpoints = new ArrayList<>(marketDataFetcher.getEndpoints());
+        endpoints.add(orderEndpoint);
+        return endpoints;
+    }
+
+    // Prices fetched by the trading loop, for charts
+    public PriceHistory getPriceHistory() {
+        return priceHistory;
+    }
+
+    public CandleAggregator getCandles() {
+        return candles;
+    }
+
+    public IndicatorEngine getIndicators() {
+        return indicators;
+    }
+
+    public ShadowStrategies getShadows() {
+        return shadows;
+    }
+
+    public DecisionTracer getTracer() {
+        return tracer;
+    }
+
+    public PerformanceTracker getPerformance() {
+        return performance;
+    }
+
+    public LogStore getLogStore() {
+        return logStore;
+    }
+
+    public PollingPlanner getPolling() {
+        return polling;
+    }
+
+    // The portfolio as of the last evaluation; never null and safe to read from any thread
+    public PortfolioSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    // Listeners are called on the trading thread after every published snapshot and must return quickly
+    public void addSnapshotListener(Consumer<PortfolioSnapshot> listener) {
+        snapshotListeners.add(listener);
+    }
+
+    /**
+     * Reads currentAssets.json again if another instance changed it since it
+     * was last read. A standby instance calls this to keep up with the leader.
+     */
+    public synchronized void refreshAssets() {
+        File file = new File(assetsFile);
+        if (file.lastModified() == assetsLoadedModified) {
+            return;
+        }
+        try {
+            currentAssets = loadAssets();
+            lastPrices.keySet().retainAll(currentAssets.keySet());
+            log("DEBUG", String.format("Reloaded %d held coins from %s.", currentAssets.size(), assetsFile));
+            publishSnapshot();
+        } catch (Exception e) {
+            log("ERROR", "Failed to reload the assets: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Takes over from an instance that stopped: reads the assets, pending
+     * orders, candles and warm start cache it left. The pending orders are
+     * resent by the first evaluation. Throws if the assets or the pending
+     * orders can't be read, trading on the state from before would buy or
+     * sell twice.
+     */
+    public synchronized void takeOver() throws Exception {
+        currentAssets = loadAssets();
+        lastPrices.keySet().retainAll(currentAssets.keySet());
+        pendingOrders = PendingOrders.load(pendingOrdersFile);
+        // the standby loaded these at start, saving them as they are would lose what the leader recorded since
+        if (candlesFile != null) {
+            candles.reload(candlesFile);
+        }
+        if (warmStart != null) {
+            warmStart.reload(warmStartFile);
+        }
+        // the results the leader recorded until now
+        performance = new PerformanceTracker(Path.of(config.shardFile(PerformanceTracker.FILE)));
+        log("INFO", String.format("Taking over with %d held coins and %d pending orders.", currentAssets.size(),
+                pendingOrders.list().size()));
+        publishSnapshot();
+    }
+
+    /**
+     * Replaces the configuration. The new settings take effect with the next
+     * evaluation; an evaluation that is running finishes with the old ones.
+     * Credentials, the API URL and the web server threads are only read at start and keep
+     * their current values.
+     */
+    public void reloadConfig(Config next) {
+        next.validate();
+        synchronized (this) { // swapped between the scheduled tasks
+            Config previous = config;
+            List<String> changed = previous.changedFields(next);
+            for (String restartOnly : List.of("apiKey", "apiSecret", "portfolioId", "apiUrl", "webServerThreads",
+                    "highAvailability", "shardCount", "shardIndex", "adaptivePolling", "flightRecording")) {
+                if (changed.remove(restartOnly)) {
+                    log("INFO", String.format("Changed setting %s takes effect after a restart.", restartOnly));
+                }
+            }
+            if (changed.isEmpty()) {
+                return;
+            }
+            // the caller's config stays as loaded, the published one keeps the settings of the start
+            Config published = next.copy();
+            published.apiKey = previous.apiKey;
+            published.apiSecret = previous.apiSecret;
+            published.portfolioId = previous.portfolioId;
+            published.apiUrl = previous.apiUrl;
+            published.webServerThreads = previous.webServerThreads;
+            published.highAvailability = previous.highAvailability;
+            published.shardCount = previous.shardCount;
+            published.shardIndex = previous.shardIndex;
+            published.adaptivePolling = previous.adaptivePolling;
+            published.flightRecording = previous.flightRecording;
+            applyConfig(previous, published);
+            config = published;
+            log("INFO", "Configuration reloaded, changed: " + String.join(", ", changed));
+        }
+    }
+
+    // Publishes the values derived from next, recomputing those whose settings differ from previous (null at start)
+    private void applyConfig(Config previous, Config next) {
+        DerivedConfig applied = new DerivedConfig(derived, previous, next);
+        derived = applied;
+        if (previous == null || !previous.coins.equals(next.coins)) {
+            List<String> owned = applied.ownedCoins;
+            // a copy, the trading loop asks the planner while it holds the lock of the book
+            Set<String> held = new HashSet<>(currentAssets.keySet());
+            // coins no longer traded lose their indicators, held ones keep them until sold
+            indicators.retain(coin -> owned.contains(coin) || held.contains(coin));
+            polling.retain(coin -> owned.contains(coin) || held.contains(coin));
+        }
+        if (previous == null || previous.maxRequestsPerSecond != next.maxRequestsPerSecond) {
+            polling.setMaxRequestsPerSecond(next.maxRequestsPerSecond);
+        }
+        if (previous == null || !previous.shadowStrategies.equals(next.shadowStrategies)) {
+            shadows.configure(next.shadowStrategies);
+        }
+    }
+
+    // Lets the shadow strategies trade on the prices the last evaluation fetched
+    void runShadows() {
+        if (shadows.isEmpty()) {
+            return;
+        }
+        DerivedConfig current = derived;
+        List<String> coins = current.ownedCoins;
+        Set<String> quoted = new LinkedHashSet<>(coins);
+        quoted.addAll(shadows.heldCoins());
+        Map<String, MarketDataFetcher.Quote> quotes = new HashMap<>();
+        Set<String> falling = new HashSet<>();
+        for (String coin : quoted) {
+            MarketDataFetcher.Quote quote = marketDataFetcher.getQuote(tradingPair(coin));
+            if (quote != null) {
+                quotes.put(coin, quote);
+            }
+            if (config.fallingKnifeFilter && indicators.isFalling(coin)) {
+                falling.add(coin);
+            }
+        }
+        shadows.submit(new ShadowStrategies.Round(System.currentTimeMillis(), config, current.averageDownStepPercents,
+                current.takerFeePercent, current.zoneId, coins, quotes, falling,
+                FixedPoint.fromDouble(usdcBalance + getTotalUsdcValueOfHeldCoins(), FixedPoint.PRICE_SCALE,
+                        RoundingMode.HALF_EVEN),
+                performance.totalCents()));
+    }
+
+    // The product id of coin, e.g. BTC-USDC
+    private String tradingPair(String coin) {
+        String pair = derived.tradingPairs.get(coin);
+        return pair != null ? pair : coin + "-" + QUOTECURRENCY; // held coins removed from the configuration
+    }
+
+    // Builds a new snapshot from the current state and makes it visible to readers.
+    // If nothing changed the previous snapshot stays, so its version can be used to detect changes.
+    synchronized void publishSnapshot() {
+        try {
+            ZonedDateTime now = ZonedDateTime.now(derived.zoneId);
+            PortfolioSnapshot next;
+            synchronized (currentAssets) { // every position as of the same moment
+                next = PortfolioSnapshot.of(snapshot.getVersion() + 1, now, usdcBalance, currentAssets, lastPrices,
+                        config.takerFeePercentage);
+            }
+            if (trading) {
+                performance.sample(now.toInstant().toEpochMilli(), next.unrealizedCents());
+            }
+            if (snapshot.getTimestamp() != null && next.hasSameContent(snapshot)) {
+                return;
+            }
+            snapshot = next;
+            for (Consumer<PortfolioSnapshot> listener : snapshotListeners) {
+                listener.accept(next);
+            }
+        } catch (Exception e) {
+            log("ERROR", "Error publishing portfolio snapshot: " + e.getMessage());
+        }
+    }
+
     int getNumberOfHeldCoins() {
         return currentAssets.size();
     }
@@ -101,35 +427,22 @@ public class TradingBot {
      * @return The total USDC value of all held coins.
      */
     public double getTotalUsdcValueOfHeldCoins() {
-        double totalUsdcValue = 0.0;
-
-        for (Map.Entry<String, TradeInfo> entry : currentAssets.entrySet()) {
-            TradeInfo tradeInfo = entry.getValue();
-            double coinValue = tradeInfo.getAmount() * tradeInfo.getPurchasePrice();
-            totalUsdcValue += coinValue;
-        }
-        return totalUsdcValue;
+        return FixedPoint.toDouble(currentAssets.totalInvested(), FixedPoint.PRICE_SCALE);
     }
 
     public void startTrading() {
         log("INFO", "Starting trading loop...");
+        trading = true;
 
-        scheduler.scheduleAtFixedRate(() -> {
-            synchronized (this) { // Ensure only one task modifies state at a time
-                try {
-                    evaluateInitialPurchase();
-                } catch (Exception e) {
-                    log("ERROR", "Error in evaluateInitialPurchase: " + e.getMessage());
-                }
-            }
-        }, 0, 15, TimeUnit.SECONDS); // Initial delay 0, repeat every 15 seconds
-
-        // Schedule executeTrade every 10 seconds
-        scheduler.scheduleAtFixedRate(() -> {
+        Consumer<FlightEvents.Tick> trade = tick -> {
+            FlightEvents.LockWait wait = new FlightEvents.LockWait("TradingBot", "executeTrade");
             synchronized (this) { // Ensure only one task modifies state at a time
+                wait.acquired();
+                boolean failed = false;
                 try {
                     executeTrade();
                 } catch (Exception e) {
+                    failed = true;
                     log("ERROR", "Error in executeTrade: " + e.getMessage());
                     log("ERROR", "Exception: " + e.toString());
                     Writer buffer = new StringWriter();
@@ -137,8 +450,151 @@ public class TradingBot {
                     e.printStackTrace(pw);
                     log("ERROR", "Stacktrace: " + buffer.toString());
                 }
+                publishSnapshot();
+                runShadows();
+                saveWarmStart();
+                if (System.currentTimeMillis() - candlesSavedAt >= CANDLES_SAVE_MILLIS) {
+                    saveCandles();
+                }
+                tick.evaluated(failed, derived.ownedCoins.size(), currentAssets.size());
             }
-        }, 7, 15, TimeUnit.SECONDS); // Initial delay 7 seconds, repeat every 15 seconds
+        };
+
+        if (config.adaptivePolling) {
+            scheduler.scheduleAtFixedRate(timed("poll", tick -> {
+                FlightEvents.LockWait wait = new FlightEvents.LockWait("TradingBot", "poll");
+                synchronized (this) {
+                    wait.acquired();
+                    boolean failed = !poll(System.currentTimeMillis());
+                    tick.evaluated(failed, derived.ownedCoins.size(), currentAssets.size());
+                }
+            }), 0, PollingPlanner.MIN_MILLIS, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        // held coins are evaluated right away, not only after the first purchase evaluation
+        scheduler.execute(timed("executeTrade at start", trade));
+
+        scheduler.scheduleAtFixedRate(timed("evaluateInitialPurchase", tick -> {
+            FlightEvents.LockWait wait = new FlightEvents.LockWait("TradingBot", "evaluateInitialPurchase");
+            synchronized (this) { // Ensure only one task modifies state at a time
+                wait.acquired();
+                boolean failed = false;
+                try {
+                    evaluateInitialPurchase();
+                } catch (Exception e) {
+                    failed = true;
+                    log("ERROR", "Error in evaluateInitialPurchase: " + e.getMessage());
+                }
+                publishSnapshot();
+                runShadows();
+                tick.evaluated(failed, derived.ownedCoins.size(), currentAssets.size());
+            }
+        }), 0, tickMillis, TimeUnit.MILLISECONDS); // Initial delay 0, repeat every 15 seconds
+
+        // Schedule executeTrade every 15 seconds
+        scheduler.scheduleAtFixedRate(timed("executeTrade", trade), tickMillis * 7 / 15, tickMillis,
+                TimeUnit.MILLISECONDS); // Initial delay 7 seconds, repeat every 15 seconds
+    }
+
+    /**
+     * One pass of adaptive polling: evaluates the coins the PollingPlanner
+     * finds due at now. The USDC balance and the warm start cache are
+     * refreshed at the fixed tick rate. Returns false if an evaluation failed.
+     */
+    boolean poll(long now) {
+        Predicate<String> due = coin -> polling.isDue(coin, now);
+        boolean succeeded = true;
+        try {
+            if (now - usdcBalanceMillis >= tickMillis) {
+                getUsdcBalance();
+            }
+            if (currentAssets.size() < config.maxHeldCoins
+                    && derived.ownedCoins.stream()
+                            .anyMatch(coin -> !currentAssets.containsKey(coin) && due.test(coin))) {
+                evaluateInitialPurchase(due);
+            }
+        } catch (Exception e) {
+            succeeded = false;
+            log("ERROR", "Error in evaluateInitialPurchase: " + e.getMessage());
+        }
+        try {
+            if (currentAssets.keySet().stream().anyMatch(due)) {
+                executeTrade(due);
+            }
+        } catch (Exception e) {
+            succeeded = false;
+            log("ERROR", "Error in executeTrade: " + e.getMessage());
+        }
+        publishSnapshot();
+        runShadows();
+        if (now - warmStartSavedAt >= tickMillis) {
+            warmStartSavedAt = now;
+            saveWarmStart();
+        }
+        if (now - candlesSavedAt >= CANDLES_SAVE_MILLIS) {
+            saveCandles();
+        }
+        return succeeded;
+    }
+
+    // Runs evaluation as a tick of task, evaluation reports its outcome and counts to the tick
+    private Runnable timed(String task, Consumer<FlightEvents.Tick> evaluation) {
+        return () -> {
+            long start = System.nanoTime();
+            FlightEvents.Tick event = new FlightEvents.Tick(task);
+            try {
+                evaluation.accept(event);
+            } finally {
+                event.finish();
+            }
+            TickListener listener = tickListener;
+            if (listener != null) {
+                listener.tick(task, start, System.nanoTime());
+            }
+        };
+    }
+
+    /**
+     * Queues the sale of a held coin behind the running evaluation of the trading loop.
+     * Returns immediately, the returned command reports the outcome.
+     */
+    public TradingCommand submitSell(String coin) {
+        TradingCommand command = new TradingCommand("sell", coin);
+        commands.put(command.getId(), command);
+        try {
+            scheduler.execute(() -> runSell(command));
+        } catch (RejectedExecutionException e) {
+            command.fail("Trading is stopped.");
+        }
+        return command;
+    }
+
+    // The command with the given id, or null if it is unknown or has been forgotten
+    public TradingCommand getCommand(String id) {
+        return commands.get(id);
+    }
+
+    private void runSell(TradingCommand command) {
+        FlightEvents.LockWait wait = new FlightEvents.LockWait("TradingBot", "sell");
+        synchronized (this) { // serialized with the scheduled tasks
+            wait.acquired();
+            command.start();
+            String coin = command.getCoin();
+            try {
+                if (!currentAssets.containsKey(coin)) {
+                    command.fail(String.format("%s is not held.", coin));
+                } else if (sellCoin(coin)) {
+                    command.succeed(String.format("Sold %s.", coin));
+                } else {
+                    command.fail(String.format("Selling %s failed.", coin));
+                }
+            } catch (Exception e) {
+                log("ERROR", "Error while selling " + coin + ": " + e.getMessage());
+                command.fail(String.format("Error selling %s: %s", coin, e.getMessage()));
+            }
+            publishSnapshot();
+        }
     }
 
     // Shutdown method to gracefully terminate the executor service
@@ -152,6 +608,17 @@ public class TradingBot {
         } catch (InterruptedException e) {
             scheduler.shutdownNow();
         }
+        synchronized (this) {
+            saveCandles();
+            trading = false;
+        }
+        if (logStore != null) {
+            try {
+                logStore.close(); // a bot started again in this process, or the next leader, writes the log
+            } catch (IOException e) {
+                System.out.println("Failed to close the log: " + e.getMessage());
+            }
+        }
     }
 
     public void evaluateInitialPurchase() {
@@ -159,8 +626,18 @@ public class TradingBot {
         // get the current amount of trade currency (USDC)
         getUsdcBalance();
 
+        evaluateInitialPurchase(coin -> true);
+    }
+
+    // Evaluates the purchase of the coins accepted by polled, with the last fetched USDC balance
+    private void evaluateInitialPurchase(Predicate<String> polled) {
         log("DEBUG", "---- EVALUATING INITIAL PURCHASE ----");
 
+        if (!resumePendingOrders()) {
+            log("DEBUG", "Orders with unknown outcome are pending. Skipping initial purchase evaluation.");
+            return;
+        }
+
         if (currentAssets.size() >= config.maxHeldCoins) {
             log("DEBUG", String.format("Max held coins limit (%d) reached. Skipping initial purchase evaluation.",
                     config.maxHeldCoins));
@@ -171,21 +648,48 @@ public class TradingBot {
 
         CoinDropInfo bestCoinToBuy = null;
 
-        for (String coin : config.coins) {
+        List<String> coins = new ArrayList<>();
+        for (String coin : derived.ownedCoins) {
+            if (polled.test(coin)) {
+                coins.add(coin);
+            }
+        }
+        List<String> candidatePairs = new ArrayList<>();
+        for (String coin : coins) {
+            if (!currentAssets.containsKey(coin)) {
+                candidatePairs.add(tradingPair(coin));
+            }
+        }
+        marketDataFetcher.prefetch(candidatePairs);
+
+        for (String coin : coins) {
             if (currentAssets.containsKey(coin)) {
                 continue; // Skip already held coins
             }
 
             try {
-                String tradingPair = coin + "-" + QUOTECURRENCY;
+                String tradingPair = tradingPair(coin);
                 double priceChangePercentage = marketDataFetcher.get24hPriceChangePercentage(tradingPair);
                 double currentPrice = marketDataFetcher.getCurrentPrice(tradingPair);
+                long now = System.currentTimeMillis();
+                long price = FixedPoint.fromDouble(currentPrice, FixedPoint.PRICE_SCALE, RoundingMode.HALF_EVEN);
+                double volume24h = marketDataFetcher.getVolume24h(tradingPair);
+                priceHistory.record(coin, now, price);
+                candles.record(coin, now, price, volume24h);
+                indicators.update(coin, now, currentPrice, volume24h);
+                // the 24h change has to fall this much further before the coin is bought
+                polling.polled(coin, now, priceChangePercentage + config.purchaseDropPercent,
+                        hourlyVolatility(coin));
 
                 log("DEBUG", String.format("Checking BUY condition for %s. Price Change: %.2f%%", coin,
                         priceChangePercentage));
 
                 // Keep track of the coin with the strongest decline
-                if (priceChangePercentage <= (config.purchaseDropPercent * -1)) {
+                if (StrategyRules.isPurchaseDrop(priceChangePercentage, config.purchaseDropPercent)) {
+                    if (config.fallingKnifeFilter && indicators.isFalling(coin)) {
+                        logFalling(coin, "buying");
+                        continue;
+                    }
                     if (bestCoinToBuy == null || priceChangePercentage < bestCoinToBuy.priceChangePercentage) {
                         bestCoinToBuy = new CoinDropInfo(coin, tradingPair, currentPrice, priceChangePercentage);
                     }
@@ -202,8 +706,14 @@ public class TradingBot {
             double fundsToSpend = getBudgetForNextPurchase(usdcBalance, config.useFundsPortionPerTrade);
             log("INFO", String.format("Buying %s with strongest decline (%.2f%%) for %.6f USDC at %.6f per unit.",
                     bestCoinToBuy.coin, bestCoinToBuy.priceChangePercentage, fundsToSpend, bestCoinToBuy.currentPrice));
+            DecisionTracer.Span span = tracer.start(bestCoinToBuy.coin, "BUY",
+                    marketDataFetcher.getFetchedNanos(bestCoinToBuy.tradingPair));
+            span.evaluated();
             try {
-                buyCoin(bestCoinToBuy.coin, bestCoinToBuy.tradingPair, fundsToSpend, bestCoinToBuy.currentPrice, false);
+                buyCoin(bestCoinToBuy.coin, bestCoinToBuy.tradingPair,
+                        FixedPoint.fromDouble(fundsToSpend, FixedPoint.PRICE_SCALE, RoundingMode.DOWN),
+                        FixedPoint.fromDouble(bestCoinToBuy.currentPrice, FixedPoint.PRICE_SCALE, RoundingMode.HALF_EVEN),
+                        false, span);
             } catch (Exception e) {
                 log("ERROR", "Error while attempting to buy coin " + bestCoinToBuy.coin + ": " + e.getMessage());
                 e.printStackTrace();
@@ -214,286 +724,582 @@ public class TradingBot {
     }
 
     public void executeTrade() {
-        log("DEBUG", "---- EXECUTING ON HELD COINS ----");
+        executeTrade(coin -> true);
+    }
 
-        List<String> coinsToSell = new ArrayList<>();
+    // Evaluates the held coins accepted by polled. The prices are fetched first, then the
+    // decisions are made in one scan over the columns of the book, then the orders are placed.
+    private void executeTrade(Predicate<String> polled) {
+        log("DEBUG", "---- EXECUTING ON HELD COINS ----");
 
-        currentAssets.forEach((coin, tradeInfo) -> {
-            try {
-                String tradingPair = coin + "-" + QUOTECURRENCY;
-                double currentPrice = marketDataFetcher.getCurrentPrice(tradingPair);
+        resumePendingOrders();
 
-                if(currentPrice > tradeInfo.highestPrice) {
-                    tradeInfo.highestPrice = currentPrice;
-                    saveAssets();
+        PositionBook book = currentAssets; // refreshAssets may replace the book meanwhile
+        List<String> heldPairs = new ArrayList<>();
+        int polledCount = 0;
+        synchronized (book) {
+            if (tickPrices.length < book.coinCount()) {
+                tickPrices = new long[Math.max(book.coinCount(), tickPrices.length * 2)];
+                tickCoinIds = new int[tickPrices.length];
+            }
+            for (int row = 0; row < book.size(); row++) {
+                int id = book.coinIdAt(row);
+                tickPrices[id] = 0;
+                String coin = book.symbolOf(id);
+                if (polled.test(coin)) {
+                    tickCoinIds[polledCount++] = id;
+                    heldPairs.add(tradingPair(coin));
                 }
+            }
+        }
+        marketDataFetcher.prefetch(heldPairs);
+
+        for (int i = 0; i < polledCount; i++) {
+            int id = tickCoinIds[i];
+            String coin = book.symbolOf(id);
+            if (pendingOrders.contains(coin)) {
+                log("DEBUG", String.format("An order for %s is still pending. Skipping %s.", coin, coin));
+                continue;
+            }
+            try {
+                String tradingPair = tradingPair(coin);
+                double price = marketDataFetcher.getCurrentPrice(tradingPair);
+                long currentPrice = FixedPoint.fromDouble(price, FixedPoint.PRICE_SCALE, RoundingMode.HALF_EVEN);
+                lastPrices.put(coin, currentPrice);
+                long now = System.currentTimeMillis();
+                double volume24h = marketDataFetcher.getVolume24h(tradingPair);
+                priceHistory.record(coin, now, currentPrice);
+                candles.record(coin, now, currentPrice, volume24h);
+                indicators.update(coin, now, price, volume24h);
+                tickPrices[id] = currentPrice;
+            } catch (Exception e) {
+                log("ERROR", "Error during executing trade on coin " + coin + ": " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
 
-                // Calculate percentage difference between current price and purchase price
-                double performancePercentage = ((currentPrice - tradeInfo.purchasePrice) / tradeInfo.purchasePrice) * 100;
-
-                // Calculate number of full weeks the coin has been held
-                long weeksHeld = tradeInfo.getWeeks();
-
-                // Display current status of the coin
-                log("DEBUG", String.format(
-                        "%s: Amount: %.6f, Purchase $: %.6f, Current $: %.6f, Highest $: %.6f, Performance: %.2f%%, A/D Step: %d, Weeks Held: %d",
-                        coin, tradeInfo.amount, tradeInfo.purchasePrice, currentPrice,
-                        tradeInfo.highestPrice, performancePercentage, tradeInfo.averageDownStepIndex, weeksHeld));
-
-                // 🔹 Step 1: Average Down Logic
-                boolean canAverageDown = false;
-                double nextAverageDownPrice = 0;
-                if (tradeInfo.getAverageDownStepIndex() < (config.averageDownSteps.size() - 1)) {
-                    canAverageDown = true;
-                    double nextAverageDownDropPercentage = config.averageDownSteps
-                            .get(tradeInfo.getAverageDownStepIndex() + 1);
-                    nextAverageDownPrice = tradeInfo.purchasePrice
-                            - (tradeInfo.purchasePrice / 100 * nextAverageDownDropPercentage);
+        List<AverageDown> averageDowns = new ArrayList<>();
+        List<DecisionTracer.Span> sales = new ArrayList<>();
+        boolean highestPriceChanged = false;
+        synchronized (book) {
+            long now = System.currentTimeMillis();
+            long localNow = PositionBook.toEpochMillis(LocalDateTime.now()); // purchase dates are local times
+            for (int row = 0; row < book.size(); row++) {
+                int id = book.coinIdAt(row);
+                if (id >= tickPrices.length || tickPrices[id] <= 0) {
+                    continue; // not polled, pending, failed or bought meanwhile
                 }
-
-                if (canAverageDown && currentPrice <= nextAverageDownPrice) {
-                    log("INFO", String.format("Averaging down for %s at %.6f.", coin, currentPrice));
-
-                    // if we have enough funds, try buy the same amount again, otherwise use a portion of the remaining funds
-                    double fundsToSpend = usdcBalance >= (tradeInfo.amount * currentPrice)
-                            ? (tradeInfo.amount * currentPrice)
-                            : getBudgetForNextPurchase(usdcBalance, config.useFundsPortionPerTrade);
-
-                    boolean success = buyCoin(coin, tradingPair, fundsToSpend, currentPrice, true);
-
-                    if (success) {
-                        log("INFO", String.format("Held coin %s is now at average down step %d.", coin,
-                                tradeInfo.averageDownStepIndex));
+                long currentPrice = tickPrices[id];
+                String coin = book.symbolOf(id);
+                try {
+                    if (currentPrice > book.highestPriceAt(row)) {
+                        book.setHighestPriceAt(row, currentPrice);
+                        highestPriceChanged = true;
+                    }
+                    double price = FixedPoint.toDouble(currentPrice, FixedPoint.PRICE_SCALE);
+                    long purchasePrice = book.purchasePriceAt(row);
+                    long highestPrice = book.highestPriceAt(row);
+                    int averageDownStep = book.averageDownStepAt(row);
+
+                    // Calculate percentage difference between current price and purchase price
+                    double performancePercentage = ((double) (currentPrice - purchasePrice) / purchasePrice) * 100;
+
+                    // Calculate number of full weeks the coin has been held
+                    long weeksHeld = (localNow - book.purchaseEpochMillisAt(row)) / WEEK_MILLIS;
+
+                    // Display current status of the coin
+                    log("DEBUG", String.format(
+                            "%s: Amount: %.6f, Purchase $: %.6f, Current $: %.6f, Highest $: %.6f, Performance: %.2f%%, A/D Step: %d, Weeks Held: %d",
+                            coin, FixedPoint.toDouble(book.amountAt(row), book.decimalPlacesAt(row)),
+                            FixedPoint.toDouble(purchasePrice, FixedPoint.PRICE_SCALE), price,
+                            FixedPoint.toDouble(highestPrice, FixedPoint.PRICE_SCALE), performancePercentage,
+                            averageDownStep, weeksHeld));
+
+                    // 🔹 Step 1: Average Down Logic
+                    long nextAverageDownPrice = StrategyRules.nextAverageDownPrice(purchasePrice, averageDownStep,
+                            derived.averageDownStepPercents);
+                    polling.polled(coin, now,
+                            triggerDistancePercent(purchasePrice, highestPrice, currentPrice, nextAverageDownPrice),
+                            hourlyVolatility(coin));
+
+                    if (nextAverageDownPrice > 0 && currentPrice <= nextAverageDownPrice) {
+                        if (config.fallingKnifeFilter && indicators.isFalling(coin)) {
+                            logFalling(coin, "averaging down");
+                            continue; // try again once the fall slows down
+                        }
+                        DecisionTracer.Span span = tracer.start(coin, "AVERAGE_DOWN",
+                                marketDataFetcher.getFetchedNanos(tradingPair(coin)));
+                        span.evaluated();
+                        log("INFO", String.format("Averaging down for %s at %.6f.", coin, price));
+                        averageDowns.add(new AverageDown(span, currentPrice,
+                                TradeInfo.value(currentPrice, book.amountAt(row), book.decimalPlacesAt(row))));
+                        continue; // Skip further processing
                     }
 
-                    return; // Skip further processing
-                }
-
-                // 🔹 Step 2: Time-Based Selling for Negative Profit Levels
-                if (performancePercentage < 0 && weeksHeld >= 3) {
-                    int thresholdIndex = (int) Math.min(weeksHeld, config.negativeProfitLevels.size());
-
-                    if (round(performancePercentage, 1) >= round(-config.negativeProfitLevels.get(thresholdIndex - 1), 1)) {
+                    // 🔹 Step 2: Time-Based Selling for Negative Profit Levels
+                    if (StrategyRules.isTimeBasedSale(performancePercentage, weeksHeld, config.negativeProfitLevels)) {
                         log("INFO", String.format(
                                 "Selling %s after %d weeks below purchase price (Current: %.6f, Threshold: %.2f%%)",
-                                coin, weeksHeld, currentPrice, config.negativeProfitLevels.get(thresholdIndex - 1)));
+                                coin, weeksHeld, price,
+                                StrategyRules.negativeProfitLevel(weeksHeld, config.negativeProfitLevels)));
 
-                        coinsToSell.add(coin);
-                        return; // Skip further processing
+                        sales.add(sale(coin, tradingPair(coin)));
+                        continue; // Skip further processing
                     }
-                }
 
-                // 🔹 Step 3: Profit Drop Selling
-                if(currentPrice > tradeInfo.purchasePrice && performancePercentage >= config.minimumProfitPercentage) {
-                    //we have enough profit
-                    double stopLossPrice = tradeInfo.highestPrice - (tradeInfo.highestPrice / 100 * config.stopLossSalePercentage);
-                    if(currentPrice <= stopLossPrice) {
-                        //we dropped at or below stopLoss price, let's sell
+                    // 🔹 Step 3: Profit Drop Selling
+                    // with enough profit, sell once the price dropped to the stop loss below the highest price
+                    if (StrategyRules.isProfitDropSale(currentPrice, purchasePrice, highestPrice,
+                            config.minimumProfitPercentage, config.stopLossSalePercentage)) {
                         log("INFO", String.format(
-                            "Selling %s due to profit drop. Current: %.6f, Highest: (%.6f).",
-                            coin, currentPrice, tradeInfo.highestPrice));
-                    coinsToSell.add(coin);
+                                "Selling %s due to profit drop. Current: %.6f, Highest: (%.6f).",
+                                coin, price, FixedPoint.toDouble(highestPrice, FixedPoint.PRICE_SCALE)));
+                        sales.add(sale(coin, tradingPair(coin)));
 
-                    return; // Skip further processing
+                        continue; // Skip further processing
                     }
-                }
 
-                // 🔹 Step 4: Hold the coin if no condition is met
-                log("DEBUG",
-                        String.format("Holding %s. Price above stop-loss and profit levels. Skipping SALE.", coin));
+                    // 🔹 Step 4: Hold the coin if no condition is met
+                    log("DEBUG",
+                            String.format("Holding %s. Price above stop-loss and profit levels. Skipping SALE.", coin));
 
+                } catch (Exception e) {
+                    log("ERROR", "Error during executing trade on coin " + coin + ": " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+        }
+        if (highestPriceChanged) {
+            saveAssets();
+        }
+
+        for (AverageDown averageDown : averageDowns) {
+            String coin = averageDown.span.coin;
+            try {
+                // if we have enough funds, try buy the same amount again, otherwise use a portion of the remaining funds
+                long fundsToSpend = StrategyRules.averageDownFunds(
+                        FixedPoint.fromDouble(usdcBalance, FixedPoint.PRICE_SCALE, RoundingMode.DOWN),
+                        averageDown.positionValue,
+                        () -> FixedPoint.fromDouble(getBudgetForNextPurchase(usdcBalance, config.useFundsPortionPerTrade),
+                                FixedPoint.PRICE_SCALE, RoundingMode.DOWN));
+
+                boolean success = buyCoin(coin, tradingPair(coin), fundsToSpend, averageDown.price, true,
+                        averageDown.span);
+
+                if (success) {
+                    log("INFO", String.format("Held coin %s is now at average down step %d.", coin,
+                            currentAssets.get(coin).getAverageDownStepIndex()));
+                }
             } catch (Exception e) {
-                log("ERROR", "Error during executing trade on coin " + coin + ": " + e.getMessage());
+                log("ERROR", "Error while averaging down " + coin + ": " + e.getMessage());
                 e.printStackTrace();
             }
-        });
+        }
 
-        for (String coin : coinsToSell) {
+        for (DecisionTracer.Span sale : sales) {
             try {
-                sellCoin(coin);
+                sellCoin(sale.coin, sale);
             } catch (Exception e) {
-                log("ERROR", "Error while selling " + coin + ": " + e.getMessage());
+                log("ERROR", "Error while selling " + sale.coin + ": " + e.getMessage());
                 e.printStackTrace();
             }
         }
     }
 
-    private boolean buyCoin(String coin, String tradingPair, double amountToSpend, double currentPrice, boolean update)
-            throws Exception {
+    // An average down decided while scanning the book, the order is placed after the scan
+    private static final class AverageDown {
+        final DecisionTracer.Span span;
+        final long price; // at FixedPoint.PRICE_SCALE
+        final long positionValue; // of the held amount at price
+
+        AverageDown(DecisionTracer.Span span, long price, long positionValue) {
+            this.span = span;
+            this.price = price;
+            this.positionValue = positionValue;
+        }
+    }
+
+    // The span of the decision to sell coin, made now
+    private DecisionTracer.Span sale(String coin, String tradingPair) {
+        DecisionTracer.Span span = tracer.start(coin, "SELL", marketDataFetcher.getFetchedNanos(tradingPair));
+        span.evaluated();
+        return span;
+    }
+
+    private void logFalling(String coin, String action) {
+        IndicatorEngine.Values values = indicators.get(coin);
+        log("DEBUG", String.format(
+                "Not %s %s yet, price %.6f is still falling (EMA %d: %.6f, EMA %d: %.6f, RSI: %.1f).", action, coin,
+                values.price, IndicatorEngine.FAST_EMA_SAMPLES, values.fastEma, IndicatorEngine.SLOW_EMA_SAMPLES,
+                values.slowEma, values.rsi));
+    }
+
+    // amountToSpend and currentPrice are fixed point at FixedPoint.PRICE_SCALE
+    private boolean buyCoin(String coin, String tradingPair, long amountToSpend, long currentPrice, boolean update,
+            DecisionTracer.Span span) throws Exception {
 
         // Fetch precision requirement for the trading pair
         double precision = marketDataFetcher.getBasePrecision(tradingPair);
 
         // Calculate the number of decimal places based on the precision value
-        int decimalPlaces = BigDecimal.valueOf(precision)
-                .stripTrailingZeros()
-                .scale();
-
-        // Calculate how many coins can be bought for the USD amount
-        double amountToBuy = amountToSpend / currentPrice;
-
-        // Round the number of coins to the required precision
-        String roundedBaseSize = BigDecimal.valueOf(amountToBuy)
-                .setScale(decimalPlaces, RoundingMode.HALF_DOWN)
-                .toPlainString();
-
-        // Create the OrderConfiguration using baseSize
-        OrderConfiguration orderConfig = new OrderConfiguration();
-        orderConfig.setMarketMarketIoc(new MarketIoc.Builder()
-                .baseSize(roundedBaseSize) // Use baseSize instead of quoteSize
-                .build());
-
-        // Build the order request
-        CreateOrderRequest orderRequest = new CreateOrderRequest.Builder()
-                .clientOrderId(LocalDateTime.now().toString())
-                .productId(tradingPair)
-                .side("BUY")
-                .orderConfiguration(orderConfig)
-                .build();
-
-        // Execute the order
-        CreateOrderResponse orderResponse = ordersService.createOrder(orderRequest);
-
-        if (orderResponse.isSuccess()) {
-            log("INFO", String.format("Bought %s coins of %s. Order ID: %s", roundedBaseSize, coin,
-                    orderResponse.getSuccessResponse().getOrderId()));
-
-            // If this is an update (averaging down)
-            if (update) {
-                TradeInfo tradeInfo = currentAssets.get(coin);
-                if (tradeInfo != null) {
-                    // Update purchase price and amount
-                    tradeInfo.updatePurchase(currentPrice, Double.parseDouble(roundedBaseSize), config.takerFeePercentage);
-                }
-            } else { // Initial purchase
-                // Calculate the initial stop-loss price
-                
-
-                //calculate the purchase fee
-                double purchaseFee = currentPrice * Double.parseDouble(roundedBaseSize) * config.takerFeePercentage / 100.0;
-                // round the purchase fee to 2 digits after the comma
-                String roundedPurchaseFee = BigDecimal.valueOf(purchaseFee)
-                        .setScale(2, RoundingMode.HALF_DOWN)
-                        .toPlainString();
-
-
-                // Add new entry to the purchase history
-                currentAssets.put(coin,
-                        new TradeInfo(
-                                currentPrice,
-                                Double.parseDouble(roundedBaseSize), 
-                                java.time.ZonedDateTime.now(ZoneId.of(config.timeZone)).toLocalDateTime(),
-                                currentPrice,
-                                Double.parseDouble(roundedPurchaseFee),
-                                0,
-                                decimalPlaces
-                            ));
-            }
-
-            // Save updated assets to file
-            saveAssets();
-            log("DEBUG", String.format("Current cash: %s USDC.", usdcBalance));
-            return true;
-        } else {
-            log("ERROR", String.format("Buying %s failed!", coin));
-            log("ERROR", String.format(orderResponse.getErrorResponse().getError()));
-            return false;
+        int decimalPlaces = FixedPoint.scaleOf(precision);
+
+        if (shardLedger != null) {
+            // the other shards trade from the same funds and count towards maxHeldCoins
+            long reserved = shardLedger.reserve(coin, !update, amountToSpend,
+                    FixedPoint.fromDouble(usdcBalance, FixedPoint.PRICE_SCALE, RoundingMode.DOWN), usdcBalanceMillis,
+                    config.maxHeldCoins);
+            if (reserved == 0) {
+                log("INFO", String.format("Not buying %s, the shards together reached the held coins limit or the funds.",
+                        coin));
+                tracer.finish(span, "NOT_RESERVED");
+                return false;
+            }
+            amountToSpend = reserved;
+        }
+
+        // Calculate how many coins can be bought for the USD amount, rounded to the required precision
+        long amountToBuy = FixedPoint.mulDiv(amountToSpend, FixedPoint.pow10(decimalPlaces), currentPrice,
+                RoundingMode.HALF_DOWN);
+
+        boolean spent = true; // unless the order was rejected, it may have been filled
+        try {
+            spent = placeOrder(new PendingOrders.Order(UUID.randomUUID().toString(), coin, tradingPair, "BUY",
+                    amountToBuy, decimalPlaces, currentPrice, update), span);
+            return spent;
+        } finally {
+            if (shardLedger != null) {
+                shardLedger.release(coin, spent);
+            }
         }
     }
 
     boolean sellCoin(String coin) throws Exception {
-        String tradingPair = coin + "-" + QUOTECURRENCY;
+        DecisionTracer.Span span = tracer.start(coin, "MANUAL_SELL", DecisionTracer.NOT_MEASURED);
+        span.evaluated();
+        return sellCoin(coin, span);
+    }
+
+    private boolean sellCoin(String coin, DecisionTracer.Span span) throws Exception {
+        String tradingPair = tradingPair(coin);
 
         TradeInfo tradeInfo = currentAssets.get(coin);
         if (tradeInfo == null) {
             log("ERROR", String.format("Selling %s failed because it's not in the assets.", coin));
+            tracer.finish(span, "NOT_HELD");
             return false;
         }
 
-        // Use the exact amount from purchase history without rounding
-        String exactSize = Double.toString(tradeInfo.amount);
-
-        // Create the OrderConfiguration using baseSize
-        OrderConfiguration orderConfig = new OrderConfiguration();
-        orderConfig.setMarketMarketIoc(new MarketIoc.Builder()
-                .baseSize(exactSize) // Use exact amount
-                .build());
-
-        // Build the order request
-        CreateOrderRequest orderRequest = new CreateOrderRequest.Builder()
-                .clientOrderId(LocalDateTime.now().toString())
-                .productId(tradingPair)
-                .side("SELL")
-                .orderConfiguration(orderConfig)
-                .build();
-
         // Get the current price for profit/loss calculation
         double currentPrice = marketDataFetcher.getCurrentPrice(tradingPair);
 
+        // Use the exact amount from purchase history without rounding
+        return placeOrder(new PendingOrders.Order(UUID.randomUUID().toString(), coin, tradingPair, "SELL",
+                tradeInfo.amountUnits(), tradeInfo.getDecimalPlaces(),
+                FixedPoint.fromDouble(currentPrice, FixedPoint.PRICE_SCALE, RoundingMode.HALF_EVEN), false), span);
+    }
 
-        // Execute the order
-        CreateOrderResponse orderResponse = ordersService.createOrder(orderRequest);
-        if (orderResponse.isSuccess()) {
-            log("INFO", String.format(
-                    "Sold %s coins of %s. Order ID: %s, Profit/Loss: %.2f USDC",
-                    exactSize, coin, orderResponse.getSuccessResponse().getOrderId(), tradeInfo.getWinLossIncludingFees(currentPrice, config.takerFeePercentage )));
+    // Sends order and applies its result to the assets. Until the assets are saved the order stays in
+    // pendingOrders, so an order whose outcome is unknown is sent again instead of being forgotten.
+    // The stages are recorded in span, null for orders that are sent again.
+    private boolean placeOrder(PendingOrders.Order order, DecisionTracer.Span span) throws Exception {
+        String outcome = "UNKNOWN"; // unless createOrder answered
+        try {
+            pendingOrders.add(order);
+
+            // Create the OrderConfiguration using baseSize
+            OrderConfiguration orderConfig = new OrderConfiguration();
+            orderConfig.setMarketMarketIoc(new MarketIoc.Builder()
+                    .baseSize(order.baseSize())
+                    .build());
+
+            // Build the order request
+            CreateOrderRequest orderRequest = new CreateOrderRequest.Builder()
+                    .clientOrderId(order.clientOrderId)
+                    .productId(order.productId)
+                    .side(order.side)
+                    .orderConfiguration(orderConfig)
+                    .build();
+            if (span != null) {
+                span.built();
+            }
 
-            // Remove the coin from purchase history
-            currentAssets.remove(coin);
-            saveAssets();
+            // Execute the order
+            // a timeout leaves the order pending, it is sent again with the same client order id
+            FlightEvents.Order event = new FlightEvents.Order(order, span == null);
+            CreateOrderResponse orderResponse;
+            try {
+                orderResponse = orderEndpoint.call(() -> ordersService.createOrder(orderRequest));
+            } catch (RuntimeException e) {
+                event.finish(FlightEvents.outcome(e));
+                throw e;
+            }
+            event.finish(orderResponse.isSuccess() ? "PLACED" : "REJECTED");
+            if (span != null) {
+                span.returned();
+            }
+            if (!orderResponse.isSuccess()) {
+                outcome = "REJECTED";
+                log("ERROR", String.format(order.isBuy() ? "Buying %s failed!" : "Selling %s failed!", order.coin));
+                log("ERROR", String.format(orderResponse.getErrorResponse().getError()));
+                pendingOrders.remove(order.clientOrderId);
+                return false;
+            }
+
+            String orderId = orderResponse.getSuccessResponse().getOrderId();
+            if (span != null) {
+                span.orderId = orderId;
+            }
+            if (appliedOrders.contains(order.clientOrderId)) {
+                log("INFO", String.format("Order %s for %s was already applied.", orderId, order.coin));
+            } else if (order.isBuy()) {
+                applyBuy(order, orderId);
+            } else {
+                applySell(order, orderId);
+            }
+            pendingOrders.remove(order.clientOrderId);
+            if (span != null) {
+                span.persisted();
+            }
+            outcome = "PLACED";
             return true;
+        } finally {
+            if (span != null) {
+                span.clientOrderId = order.clientOrderId;
+                span.priceUnits = order.priceUnits;
+                tracer.finish(span, outcome);
+            }
+        }
+    }
+
+    private void applyBuy(PendingOrders.Order order, String orderId) {
+        String coin = order.coin;
+        log("INFO", String.format("Bought %s coins of %s. Order ID: %s", order.baseSize(), coin, orderId));
+
+        long feeCents = TradeInfo.takerFee(order.priceUnits, order.amountUnits, order.decimalPlaces,
+                derived.takerFeePercent);
+        // If this is an update (averaging down)
+        if (order.averageDown) {
+            TradeInfo tradeInfo = currentAssets.get(coin);
+            if (tradeInfo != null) {
+                // Update purchase price and amount
+                tradeInfo.updatePurchase(order.priceUnits,
+                        FixedPoint.rescale(order.amountUnits, order.decimalPlaces, tradeInfo.getDecimalPlaces(),
+                                RoundingMode.HALF_EVEN),
+                        derived.takerFeePercent);
+            }
+        } else { // Initial purchase
+            // Add new entry to the purchase history
+            currentAssets.put(coin,
+                    TradeInfo.ofPurchase(
+                            order.priceUnits,
+                            order.amountUnits,
+                            order.decimalPlaces,
+                            java.time.ZonedDateTime.now(derived.zoneId).toLocalDateTime(),
+                            derived.takerFeePercent));
+        }
+
+        lastPrices.put(coin, order.priceUnits);
+        performance.bought(System.currentTimeMillis(), coin, order.clientOrderId, feeCents);
+
+        // Save updated assets to file
+        markApplied(order);
+        saveAssets();
+        log("DEBUG", String.format("Current cash: %s USDC.", usdcBalance));
+    }
+
+    private void applySell(PendingOrders.Order order, String orderId) {
+        String coin = order.coin;
+        TradeInfo tradeInfo = currentAssets.get(coin);
+        log("INFO", String.format(
+                "Sold %s coins of %s. Order ID: %s, Profit/Loss: %.2f USDC",
+                order.baseSize(), coin, orderId, tradeInfo == null ? 0.0 : tradeInfo.getWinLossIncludingFees(
+                        FixedPoint.toDouble(order.priceUnits, FixedPoint.PRICE_SCALE), config.takerFeePercentage)));
+
+        if (tradeInfo != null) {
+            long now = System.currentTimeMillis();
+            performance.sold(now, coin, order.clientOrderId,
+                    tradeInfo.winLossIncludingFees(order.priceUnits, derived.takerFeePercent),
+                    TradeInfo.takerFee(order.priceUnits, tradeInfo.amountUnits(), tradeInfo.getDecimalPlaces(),
+                            derived.takerFeePercent),
+                    now - tradeInfo.getPurchaseDate().atZone(derived.zoneId).toInstant().toEpochMilli());
+        }
+
+        // Remove the coin from purchase history
+        currentAssets.remove(coin);
+        lastPrices.remove(coin);
+        List<String> owned = derived.ownedCoins;
+        indicators.retain(held -> !held.equals(coin) || owned.contains(coin));
+        polling.retain(held -> !held.equals(coin) || owned.contains(coin));
+        markApplied(order);
+        saveAssets();
+    }
+
+    // Remembered with the assets, so an order is not applied twice if the bot stops before it is removed from pendingOrders
+    private void markApplied(PendingOrders.Order order) {
+        synchronized (appliedOrders) {
+            appliedOrders.add(order.clientOrderId);
+            if (appliedOrders.size() > MAX_APPLIED_ORDERS) {
+                appliedOrders.remove(appliedOrders.iterator().next());
+            }
+        }
+    }
+
+    /**
+     * Sends the orders whose outcome is unknown again and applies their
+     * results. Returns true if none is left pending.
+     */
+    boolean resumePendingOrders() {
+        for (PendingOrders.Order order : pendingOrders.list()) {
+            log("INFO", String.format("Resending pending %s order %s for %s.", order.side, order.clientOrderId,
+                    order.coin));
+            try {
+                placeOrder(order, null);
+            } catch (Exception e) {
+                log("ERROR", "Error while resending the order for " + order.coin + ": " + e.getMessage());
+            }
+        }
+        return pendingOrders.isEmpty();
+    }
+
+    // Writes the candles to candlesFile, unless this instance is a standby that does not trade
+    void saveCandles() {
+        if (candlesFile == null || !trading) {
+            return;
+        }
+        candlesSavedAt = System.currentTimeMillis();
+        try {
+            candles.save(candlesFile);
+        } catch (IOException e) {
+            log("ERROR", "Failed to save the candles: " + e.getMessage());
+        }
+    }
+
+    // Remembers the portfolio, products and prices for the next start
+    void saveWarmStart() {
+        if (warmStart == null) {
+            return;
+        }
+        try {
+            warmStart.lastPrices.clear();
+            warmStart.lastPrices.putAll(lastPrices);
+            warmStart.save(warmStartFile);
+        } catch (IOException e) {
+            log("ERROR", "Failed to save the warm start cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * How far in percent the price of a held coin is from the nearest price
+     * at which the bot acts: averaging down (nextAverageDownPrice, 0 if no
+     * step is left), reaching the minimum profit, or the stop loss once the
+     * minimum profit is reached. All prices at FixedPoint.PRICE_SCALE.
+     */
+    private double triggerDistancePercent(long purchasePriceUnits, long highestPrice, long currentPrice,
+            long nextAverageDownPrice) {
+        double price = currentPrice;
+        double distance = nextAverageDownPrice > 0 ? (price - nextAverageDownPrice) / price * 100 : Double.MAX_VALUE;
+        double purchasePrice = purchasePriceUnits;
+        double minimumProfitPrice = purchasePrice * (1 + config.minimumProfitPercentage / 100);
+        if (price < minimumProfitPrice) {
+            distance = Math.min(distance, (minimumProfitPrice - price) / price * 100);
         } else {
-            log("ERROR", String.format("Selling %s failed!", coin));
-            log("ERROR", String.format(orderResponse.getErrorResponse().getError()));
-            return false;
+            double stopLossPrice = highestPrice * (1 - config.stopLossSalePercentage / 100);
+            distance = Math.min(distance, Math.max(0, price - stopLossPrice) / price * 100);
         }
+        return distance;
+    }
+
+    // The hourly volatility in percent of coin, NaN until enough prices were seen
+    private double hourlyVolatility(String coin) {
+        IndicatorEngine.Values values = indicators.get(coin);
+        return values != null && values.isReady() ? values.getHourlyVolatilityPercent() : Double.NaN;
     }
 
     // calculates how much USDC we can spend on the next initial purchase
     double getBudgetForNextPurchase(double funds, double useFundsPortionPerTrade) {
-        double portfolioValue = funds + getTotalUsdcValueOfHeldCoins();
-        double purchaseMoney = portfolioValue * useFundsPortionPerTrade;
-        if (funds < purchaseMoney) {
-            purchaseMoney = funds;
+        return StrategyRules.budget(funds, funds + getTotalUsdcValueOfHeldCoins() + getUsdcValueOfOtherShards(),
+                useFundsPortionPerTrade);
+    }
+
+    // The purchase value of the coins held by the other shards, 0 if the coins are not sharded
+    private double getUsdcValueOfOtherShards() {
+        if (shardLedger == null) {
+            return 0;
+        }
+        try {
+            return FixedPoint.toDouble(shardLedger.otherShardsValue(), FixedPoint.PRICE_SCALE);
+        } catch (IOException e) {
+            log("ERROR", "Failed to read the shard ledger: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    // Tells the other shards which coins this shard holds
+    private void publishHeldCoins() {
+        try {
+            shardLedger.publish(new ArrayList<>(currentAssets.keySet()),
+                    FixedPoint.fromDouble(getTotalUsdcValueOfHeldCoins(), FixedPoint.PRICE_SCALE, RoundingMode.HALF_EVEN));
+        } catch (IOException e) {
+            log("ERROR", "Failed to update the shard ledger: " + e.getMessage());
         }
-        return purchaseMoney;
     }
 
     // Save purchase history to file
     void saveAssets() {
+        FlightEvents.AssetsSave event = new FlightEvents.AssetsSave(assetsFile, currentAssets.size());
         try {
             ObjectMapper mapper = new ObjectMapper();
             mapper.registerModule(new JavaTimeModule());
 
             // Use the wrapper class to save both assets and stop-loss marker
-            AssetDataWrapper dataWrapper = new AssetDataWrapper(currentAssets);
+            AssetDataWrapper dataWrapper;
+            synchronized (appliedOrders) {
+                dataWrapper = new AssetDataWrapper(currentAssets, new ArrayList<>(appliedOrders));
+            }
 
-            mapper.writeValue(new File(ASSETS_FILE), dataWrapper);
+            // write a copy and move it into place, so a standby instance never reads half a file
+            Path path = Path.of(assetsFile).toAbsolutePath();
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            mapper.writeValue(temp.toFile(), dataWrapper);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            event.finish("OK");
         } catch (IOException e) {
+            event.finish("FAILED");
             log("ERROR", "Failed to save purchase history: " + e.getMessage());
         }
+        if (shardLedger != null) {
+            publishHeldCoins();
+        }
     }
 
     // Load purchase history from file
-    Map<String, TradeInfo> loadAssets() throws Exception {
+    PositionBook loadAssets() throws Exception {
         try {
-            File file = new File(ASSETS_FILE);
+            File file = new File(assetsFile);
             if (file.exists()) {
                 ObjectMapper mapper = new ObjectMapper();
                 mapper.registerModule(new JavaTimeModule());
 
                 // Deserialize into the wrapper class
+                long modified = file.lastModified();
                 AssetDataWrapper dataWrapper = mapper.readValue(file, AssetDataWrapper.class);
-                return dataWrapper.getCurrentAssets();
+                synchronized (appliedOrders) {
+                    appliedOrders.clear();
+                    appliedOrders.addAll(dataWrapper.getAppliedOrders());
+                }
+                assetsLoadedModified = modified;
+                return new PositionBook(dataWrapper.getCurrentAssets());
             }
         } catch (IOException e) {
             log("ERROR", "Failed to load purchase history: " + e.getMessage());
             throw new Exception("Error when trying to load existing asset file!");
         }
-        return new HashMap<>();
+        return new PositionBook();
     }
 
     public void getUsdcBalance() {
+        usdcBalanceMillis = System.currentTimeMillis();
         double newAmount = marketDataFetcher.getUsdcBalance();
         if (newAmount != usdcBalance) {
             log("INFO", String.format("Current cash: %s USDC.", usdcBalance));
@@ -503,23 +1309,69 @@ public class TradingBot {
 
     void log(String level, String message) {
         try {
-            ZoneId zoneId = ZoneId.of(config.timeZone);
             LogLevel currentLevel = LogLevel.valueOf(level.toUpperCase());
-            String timestamp = ZonedDateTime.now(zoneId).format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss z"));
+            DerivedConfig current = derived;
+            ZonedDateTime now = ZonedDateTime.now(current.zoneId);
+            String timestamp = now.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss z"));
             // Print log to console
             System.out.printf("[%s] [%s] %s%n", timestamp, level, message);
 
             // Write to file only if log level is met or surpassed
-            if (currentLevel.ordinal() >= logLevel.ordinal()) {
-                try (PrintWriter out = new PrintWriter(new FileWriter(LOG_FILE, true))) {
-                    out.printf("[%s] [%s] %s%n", timestamp, level, message);
-                }
+            if (logStore != null && currentLevel.ordinal() >= current.logLevel.ordinal()) {
+                logStore.append(now, currentLevel, message);
             }
         } catch (Exception e) {
             System.out.println("Failed to write log: " + e.getMessage());
         }
     }
 
+    /**
+     * The values derived from a Config. A new instance is built completely
+     * and then published through the volatile derived field, so the web and
+     * watcher threads see either the old or the new values, never a mix.
+     */
+    private static final class DerivedConfig {
+        final LogLevel logLevel;
+        final ZoneId zoneId;
+        final List<String> ownedCoins; // the coins of config this shard trades
+        final Map<String, String> tradingPairs; // coin -> product id
+        final long[] averageDownStepPercents; // at FixedPoint.PERCENT_SCALE
+        final long takerFeePercent; // at FixedPoint.PERCENT_SCALE
+
+        // Keeps the values of previous whose settings are the same in previousConfig and next, both null at start
+        DerivedConfig(DerivedConfig previous, Config previousConfig, Config next) {
+            boolean start = previousConfig == null;
+            logLevel = start || !previousConfig.logLevel.equals(next.logLevel)
+                    ? LogLevel.valueOf(next.logLevel.toUpperCase())
+                    : previous.logLevel;
+            zoneId = start || !previousConfig.timeZone.equals(next.timeZone)
+                    ? ZoneId.of(next.timeZone)
+                    : previous.zoneId;
+            if (start || !previousConfig.coins.equals(next.coins)) {
+                ownedCoins = next.shardCount > 1
+                        ? new ShardRing(next.shardCount).owned(next.coins, next.shardIndex)
+                        : next.coins;
+                Map<String, String> pairs = new HashMap<>();
+                for (String coin : ownedCoins) {
+                    pairs.put(coin, coin + "-" + QUOTECURRENCY);
+                }
+                tradingPairs = pairs;
+            } else {
+                ownedCoins = previous.ownedCoins;
+                tradingPairs = previous.tradingPairs;
+            }
+            averageDownStepPercents = start || !previousConfig.averageDownSteps.equals(next.averageDownSteps)
+                    ? next.averageDownSteps.stream()
+                            .mapToLong(step -> FixedPoint.fromDouble(step, FixedPoint.PERCENT_SCALE,
+                                    RoundingMode.HALF_EVEN))
+                            .toArray()
+                    : previous.averageDownStepPercents;
+            takerFeePercent = start || previousConfig.takerFeePercentage != next.takerFeePercentage
+                    ? FixedPoint.fromDouble(next.takerFeePercentage, FixedPoint.PERCENT_SCALE, RoundingMode.HALF_EVEN)
+                    : previous.takerFeePercent;
+        }
+    }
+
     // Helper class to store information about a coin's decline
     private static class CoinDropInfo {
         String coin;
@@ -534,9 +1386,4 @@ public class TradingBot {
             this.priceChangePercentage = priceChangePercentage;
         }
     }
-
-    private static double round(double value, int precision) {
-        int scale = (int) Math.pow(10, precision);
-        return (double) Math.round(value * scale) / scale;
-    }
 }
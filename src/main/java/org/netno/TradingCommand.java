@@ -0,0 +1,88 @@
+package org.netno;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import org.json.JSONObject;
+
+/**
+ * A manual action, such as selling a coin from the web interface, queued for
+ * the trading loop. Commands run on the trading thread between the scheduled
+ * evaluations, so they never race with automated buys and sells.
+ *
+ * The status is updated by the trading thread and can be read from any thread.
+ */
+public class TradingCommand {
+
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED
+    }
+
+    private final String id = UUID.randomUUID().toString();
+    private final String type;
+    private final String coin;
+    private final Instant created = Instant.now();
+    private volatile Status status = Status.QUEUED;
+    private volatile String message;
+    private volatile Instant finished;
+
+    TradingCommand(String type, String coin) {
+        this.type = type;
+        this.coin = coin;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getCoin() {
+        return coin;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public boolean isDone() {
+        Status current = status;
+        return current == Status.SUCCEEDED || current == Status.FAILED;
+    }
+
+    void start() {
+        status = Status.RUNNING;
+    }
+
+    void succeed(String message) {
+        finish(Status.SUCCEEDED, message);
+    }
+
+    void fail(String message) {
+        finish(Status.FAILED, message);
+    }
+
+    private void finish(Status result, String resultMessage) {
+        message = resultMessage;
+        finished = Instant.now();
+        status = result; // last, so a reader seeing the result also sees the message
+    }
+
+    JSONObject toJson() {
+        Status current = status;
+        return new JSONObject()
+                .put("id", id)
+                .put("type", type)
+                .put("coin", coin)
+                .put("status", current.name())
+                .put("message", message == null ? JSONObject.NULL : message)
+                .put("created", created.toString())
+                .put("finished", finished == null ? JSONObject.NULL : finished.toString());
+    }
+}
@@ -0,0 +1,86 @@
+package org.netno;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.JSONObject;
+
+/**
+ * State remembered between runs so that a restart does not have to wait for
+ * Coinbase: the verified portfolio id, the base increments of the traded
+ * products and the last fetched prices.
+ *
+ * Everything in it can be fetched again, so a missing or unreadable file only
+ * makes the start slower.
+ */
+public class WarmStartCache {
+
+    static final String FILE = "warmStart.json";
+    private static final long MAX_PRICE_AGE_MILLIS = 60 * 60 * 1000; // older prices are not shown at start
+
+    volatile String portfolioId; // known to exist
+    final Map<String, String> baseIncrements = new ConcurrentHashMap<>(); // trading pair -> base increment
+    final Map<String, Long> lastPrices = new ConcurrentHashMap<>(); // coin -> price at FixedPoint.PRICE_SCALE
+    long savedAt; // epoch millis
+
+    // Reads the cache, or returns an empty one if there is none
+    public static WarmStartCache load(String filePath) {
+        WarmStartCache cache = new WarmStartCache();
+        Path path = Path.of(filePath);
+        if (!Files.exists(path)) {
+            return cache;
+        }
+        try {
+            JSONObject json = new JSONObject(Files.readString(path, StandardCharsets.UTF_8));
+            cache.portfolioId = json.optString("portfolioId", null);
+            cache.savedAt = json.optLong("savedAt");
+            JSONObject increments = json.optJSONObject("baseIncrements");
+            if (increments != null) {
+                for (String pair : increments.keySet()) {
+                    cache.baseIncrements.put(pair, increments.getString(pair));
+                }
+            }
+            JSONObject prices = json.optJSONObject("lastPrices");
+            if (prices != null && System.currentTimeMillis() - cache.savedAt < MAX_PRICE_AGE_MILLIS) {
+                for (String coin : prices.keySet()) {
+                    cache.lastPrices.put(coin, prices.getLong(coin));
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("Ignoring unreadable " + filePath + ": " + e.getMessage());
+            return new WarmStartCache();
+        }
+        return cache;
+    }
+
+    // Replaces the contents with the ones saved in filePath, when another instance wrote them
+    void reload(String filePath) {
+        WarmStartCache saved = load(filePath);
+        if (saved.portfolioId != null) {
+            portfolioId = saved.portfolioId;
+        }
+        baseIncrements.putAll(saved.baseIncrements);
+        lastPrices.keySet().retainAll(saved.lastPrices.keySet());
+        lastPrices.putAll(saved.lastPrices);
+        savedAt = saved.savedAt;
+    }
+
+    public void save(String filePath) throws IOException {
+        savedAt = System.currentTimeMillis();
+        JSONObject json = new JSONObject()
+                .put("portfolioId", portfolioId == null ? JSONObject.NULL : portfolioId)
+                .put("savedAt", savedAt)
+                .put("baseIncrements", new JSONObject(baseIncrements))
+                .put("lastPrices", new JSONObject(lastPrices));
+        // write a copy and move it into place, so a crash never leaves half a file
+        Path path = Path.of(filePath).toAbsolutePath();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.writeString(temp, json.toString(), StandardCharsets.UTF_8);
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
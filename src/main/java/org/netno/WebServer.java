@@ -1,17 +1,26 @@
 package org.netno;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
@@ -23,10 +32,26 @@ import java.nio.charset.StandardCharsets;
 
 public class WebServer {
 
+    private static final int GZIP_MIN_BYTES = 1024; // smaller responses are not worth compressing
+    private static final String JSON = "application/json; charset=UTF-8";
+    private static final String COMMANDS_PATH = "/api/commands/";
+
+    private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+    private static final int MAX_POOLED_BUFFER_BYTES = 4 * 1024 * 1024;
+    private static final int DEFAULT_HISTORY_POINTS = 300;
+    private static final int MAX_HISTORY_POINTS = 5000;
+    private static final int MAX_LOG_ENTRIES = 1000;
+    private static final int MAX_PERFORMANCE_EVENTS = 1000;
+    private static final long DEFAULT_HISTORY_MILLIS = 24L * 60 * 60 * 1000;
+
     private final TradingBot tb;
+    private final SnapshotEvents events;
+    private final DashboardPage page = new DashboardPage();
+    private final Queue<ResponseBuffer> buffers = new ConcurrentLinkedQueue<>(); // reused between requests
 
     public WebServer(TradingBot tradingBot) {
         this.tb = tradingBot;
+        this.events = new SnapshotEvents(tradingBot);
     }
 
     public void start() throws IOException {
@@ -34,201 +59,527 @@ public class WebServer {
         HttpServer server = HttpServer.create(new InetSocketAddress(8080), 0);
         server.createContext("/", new HeldCoinsHandler());
         server.createContext("/sell", new SellCoinHandler());
-        server.setExecutor(null); // Use default executor
+        server.createContext("/api/positions", new JsonHandler(snapshot -> PortfolioJson.positions(snapshot, tb.config)));
+        server.createContext("/api/cash", new JsonHandler(PortfolioJson::cash));
+        server.createContext("/api/events", new EventsHandler());
+        server.createContext("/api/history", new HistoryHandler());
+        server.createContext("/api/indicators", new IndicatorsHandler());
+        server.createContext("/api/candles", new CandlesHandler());
+        server.createContext("/api/endpoints", new EndpointsHandler());
+        server.createContext("/api/traces", new TracesHandler());
+        server.createContext("/api/logs", new LogsHandler());
+        server.createContext("/api/performance", new PerformanceHandler());
+        server.createContext("/api/shadows", new ShadowsHandler());
+        server.createContext(COMMANDS_PATH, new CommandHandler());
+        events.start();
+        server.setExecutor(createExecutor(tb.config.webServerThreads));
         server.start();
         tb.log("INFO", "Web server started on http://localhost:8080");
     }
 
+    // Requests are handled concurrently, so a slow sell order does not block page loads
+    static Executor createExecutor(int threads) {
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(r, "web-server");
+            thread.setDaemon(true);
+            return thread;
+        };
+        if (threads > 0) {
+            return Executors.newFixedThreadPool(threads, threadFactory);
+        }
+        try {
+            // Java 21+, looked up reflectively so the bot still runs on Java 11
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(threadFactory);
+        }
+    }
+
+    // ETag of everything rendered from the snapshot: its version, the time zone the dates are shown in, and
+    // the days held, which grow at the time of day of each purchase while the snapshot stays the same
+    static String etag(PortfolioSnapshot snapshot, String timeZone) {
+        long nowMillis = PositionBook.toEpochMillis(LocalDateTime.now());
+        long daysHeld = 0;
+        for (PortfolioSnapshot.Position position : snapshot.getPositions()) {
+            daysHeld += DashboardPage.daysHeld(position, nowMillis);
+        }
+        return "\"" + snapshot.getVersion() + "-" + timeZone + "-" + daysHeld + "\"";
+    }
+
+    // True if the client already has the current version; a 304 has then been sent
+    static boolean notModified(HttpExchange exchange, String etag) throws IOException {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch == null || !Arrays.asList(ifNoneMatch.split("\\s*,\\s*")).contains(etag)) {
+            return false;
+        }
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+        return true;
+    }
+
+    // Sends body, gzip compressed if it is large enough and the client accepts it, and closes the exchange
+    static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        send(exchange, status, contentType, body, body.length);
+    }
+
+    static void send(HttpExchange exchange, int status, String contentType, byte[] body, int length)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (length >= GZIP_MIN_BYTES && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 4);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(body, 0, length);
+            }
+            body = compressed.toByteArray();
+            length = body.length;
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body, 0, length);
+        }
+    }
+
+    // Renders the held coins dashboard from the current snapshot; package-private for the benchmarks
+    void renderDashboard(ResponseBuffer out) {
+        tb.log("DEBUG", "Generating HTML response...");
+        page.render(tb.getSnapshot(), tb.config, out);
+    }
+
+    private ResponseBuffer acquireBuffer() {
+        ResponseBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = new ResponseBuffer(INITIAL_BUFFER_BYTES);
+        }
+        buffer.reset();
+        return buffer;
+    }
+
+    private void releaseBuffer(ResponseBuffer buffer) {
+        // don't keep the memory of an exceptionally large page around
+        if (buffer.capacity() <= MAX_POOLED_BUFFER_BYTES) {
+            buffers.offer(buffer);
+        }
+    }
+
     private class HeldCoinsHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
             try {
                 tb.log("DEBUG", "Received request: " + exchange.getRequestURI());
-                String response = generateHtmlResponse();
-                exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
-                exchange.sendResponseHeaders(200, response.getBytes().length);
-                exchange.getResponseBody().write(response.getBytes());
-                exchange.getResponseBody().close();
+                String etag = etag(tb.getSnapshot(), tb.config.timeZone);
+                if (notModified(exchange, etag)) {
+                    return;
+                }
+                // render after taking the ETag, a newer snapshot in between is only sent again
+                ResponseBuffer response = acquireBuffer();
+                try {
+                    renderDashboard(response);
+                    exchange.getResponseHeaders().set("ETag", etag);
+                    exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+                    send(exchange, 200, "text/html; charset=UTF-8", response.array(), response.size());
+                } finally {
+                    releaseBuffer(response);
+                }
                 tb.log("DEBUG", "Response successfully sent to client.");
             } catch (Exception e) {
                 tb.log("ERROR", "Error handling request: " + e.getMessage());
                 e.printStackTrace();
                 String errorResponse = "<html><body><h1>500 Internal Server Error</h1><p>" + e.getMessage()
                         + "</p></body></html>";
-                exchange.sendResponseHeaders(500, errorResponse.getBytes().length);
-                exchange.getResponseBody().write(errorResponse.getBytes());
-                exchange.getResponseBody().close();
+                send(exchange, 500, "text/html; charset=UTF-8", errorResponse.getBytes(StandardCharsets.UTF_8));
             }
         }
+    }
+
+    // Serves a JSON document built from the current snapshot
+    private class JsonHandler implements HttpHandler {
+        private final Function<PortfolioSnapshot, JSONObject> document;
 
-        private String generateHtmlResponse() {
-            StringBuilder html = new StringBuilder();
+        JsonHandler(Function<PortfolioSnapshot, JSONObject> document) {
+            this.document = document;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+                exchange.close();
+                return;
+            }
             try {
-                tb.log("DEBUG", "Generating HTML response...");
-
-                ZoneId zoneId = ZoneId.of(tb.config.timeZone);
-                DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss z");
-
-                html.append("<!DOCTYPE html>");
-                html.append("<html>");
-                html.append("<head>");
-                html.append("<meta http-equiv='refresh' content='5'>"); // Auto-refresh every 10 seconds
-                html.append("<title>CoinbaseBot</title>");
-                html.append("<style>");
-                html.append("body { font-family: Arial, sans-serif; margin: 0; padding: 0; }");
-                html.append("table { border-collapse: collapse; width: 90%; margin: auto; }");
-                html.append("th, td { border: 1px solid black; padding: 8px; text-align: center; }");
-                html.append("th { background-color: #f2f2f2; }");
-                html.append(".profit { color: green; }");
-                html.append(".loss { color: red; }");
-                html.append(".neutral { color: black; }");
-                html.append(".cash-info { text-align: center; font-size: 18px; margin-top: 20px; }");
-                html.append(".datetime { position: absolute; top: 10px; left: 10px; font-size: 12px; color: gray; }");
-                html.append(
-                        ".collapsible { cursor: pointer; padding: 10px; text-align: left; background-color: #f2f2f2; border: none; outline: none; width: 90%; margin: auto; font-size: 16px; }");
-                html.append(
-                        ".content { padding: 10px 15px; display: none; background-color: #ffffff; width: 90%; margin: auto; }");
-                html.append(".collapsible:after { content: '\\002B'; float: right; }");
-                html.append(".active:after { content: '\\2212'; }");
-                html.append(
-                        "@media screen and (max-width: 600px) { table { font-size: 12px; } th, td { padding: 5px; } }");
-                html.append("</style>");
-                html.append("<script>");
-                html.append("document.addEventListener('DOMContentLoaded', () => {");
-                html.append("    const collapsibles = document.querySelectorAll('.collapsible');");
-                html.append("    collapsibles.forEach(button => {");
-                html.append("        button.addEventListener('click', () => {");
-                html.append("            button.classList.toggle('active');");
-                html.append("            const content = button.nextElementSibling;");
-                html.append(
-                        "            content.style.display = content.style.display === 'block' ? 'none' : 'block';");
-                html.append("        });");
-                html.append("    });");
-                html.append("});");
-                html.append("</script>");
-                html.append("</head>");
-                html.append("<body>");
-
-                // Current Date and Time (with local timezone)
-                html.append("<div class='datetime'>")
-                        .append(java.time.ZonedDateTime.now(zoneId).format(formatter))
-                        .append("</div>");
-
-                // Held Coins Table
-                html.append("<h1 style='text-align:center;'>CoinbaseBot</h1>");
-                html.append("<table>");
-                html.append("<tr>");
-                html.append("<th>Coin</th>");
-                html.append("<th>Purchase<br>Date</th>");
-                html.append("<th>Days<br>Held</th>");
-                html.append("<th>Average<br>Purchase<br>Price</th>");
-                html.append("<th>Highest Price<br>Highest Gross Win %</th>");
-                html.append("<th>Current<br>Price</th>");
-                html.append("<th>Current<br>Gross Value<br>(USDC)</th>");
-                html.append("<th>Net<br>Win/Loss<br>(%)</th>");
-                html.append("<th>Net<br>Win/Loss<br>(USDC)</th>");
-                html.append("<th>Average<br>Down<br>Steps</th>");
-                html.append("<th>Action</th>");
-                html.append("</tr>");
-
-                // **Snapshot of currentAssets to avoid concurrent modification**
-                Map<String, TradeInfo> purchaseHistorySnapshot = new HashMap<>(tb.getCurrentAssets());
-                purchaseHistorySnapshot.forEach((coin, tradeInfo) -> {
-                    double currentPrice;
-                    try {
-                        currentPrice = tb.getMarketDataFetcher().getCurrentPrice(coin + "-USDC");
-                    } catch (Exception e) {
-                        currentPrice = 0.0; // Fallback if fetching fails
-                    }
-
-                    double currentValue = currentPrice * tradeInfo.getAmount();
-                    double winLossUSDC = tradeInfo.getWinLossIncludingFees(currentPrice, tb.config.takerFeePercentage);
-                    double winLossPercent = winLossUSDC / tradeInfo.getInvest() * 100;
-                    double highestPerformance = (tradeInfo.getHighestPrice() - tradeInfo.getPurchasePrice()) / tradeInfo.getPurchasePrice() * 100;
-                    boolean aboveSellBarrier = highestPerformance > (tb.config.minimumProfitPercentage + tb.config.stopLossSalePercentage);
-                    long daysHeld = ChronoUnit.DAYS.between(tradeInfo.getPurchaseDate(), LocalDateTime.now());
-                    String averageDownStep = String.format("%d", tradeInfo.getAverageDownStepIndex());
-
-                    html.append("<tr>");
-                    html.append("<td>").append(coin).append("</td>");
-                    html.append("<td>").append(
-                            tradeInfo.getPurchaseDate()
-                                    .atZone(zoneId)
-                                    .format(formatter))
-                            .append("</td>");
-                    html.append("<td>").append(daysHeld).append("</td>");
-                    html.append("<td>")
-                            .append(String.format("%.6f", tradeInfo.getPurchasePrice()).replaceAll("\\.?0+$", ""))
-                            .append("</td>");
-                    html.append("<td class='").append(aboveSellBarrier ? "profit" : "neutral").append("'>")
-                            .append(String.format("%.6f", tradeInfo.getHighestPrice()).replaceAll("\\.?0+$", ""))
-                            .append(" ("+String.format("%.2f", highestPerformance).replaceAll("\\.?0+$", "")+"%)")
-                            .append("</td>");
-                    html.append("<td>")
-                            .append(String.format("%.6f", currentPrice).replaceAll("\\.?0+$", "")).append("</td>");
-                    html.append("<td>").append(String.format("%.2f", currentValue)).append("</td>");
-                    html.append("<td class='").append(winLossPercent >= 0 ? "profit" : "loss").append("'>")
-                            .append(String.format("%.2f%%", winLossPercent)).append("</td>");
-                    html.append("<td class='").append(winLossUSDC >= 0 ? "profit" : "loss").append("'>")
-                            .append(String.format("%.2f USDC", winLossUSDC)).append("</td>");
-                    html.append("<td>").append(tradeInfo.getAverageDownStepIndex() > 0 ? averageDownStep : "None")
-                            .append("</td>");
-                    html.append("<td>");
-                    html.append("<form method='post' action='/sell'>");
-                    html.append("<input type='hidden' name='coin' value='").append(coin).append("'/>");
-                    html.append("<input type='submit' value='Sell'/>");
-                    html.append("</form>");
-                    html.append("</td>");
-                    html.append("</tr>");
-                });
-
-                html.append("</table>");
-
-                // Display Current USDC Cash
-                html.append("<div class='cash-info'>");
-                html.append("Current USDC Cash: ").append(String.format("%.2f USDC", tb.usdcBalance));
-                html.append("</div>");
-
-                html.append("</body>");
-                html.append("</html>");
+                PortfolioSnapshot snapshot = tb.getSnapshot();
+                String etag = etag(snapshot, tb.config.timeZone);
+                if (notModified(exchange, etag)) {
+                    return;
+                }
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+                send(exchange, 200, JSON,
+                        document.apply(snapshot).toString().getBytes(StandardCharsets.UTF_8));
             } catch (Exception e) {
-                tb.log("ERROR", "Error generating HTML response: " + e.getMessage());
-                e.printStackTrace();
-                return "<html><body><h1>Error Generating Response</h1><p>" + e.getMessage() + "</p></body></html>";
+                tb.log("ERROR", "Error handling API request: " + e.getMessage());
+                send(exchange, 500, JSON,
+                        new JSONObject().put("error", String.valueOf(e.getMessage())).toString()
+                                .getBytes(StandardCharsets.UTF_8));
             }
-            return html.toString();
         }
     }
 
-    private class SellCoinHandler implements HttpHandler {
+    // GET /api/history?coin=BTC&from=...&points=N, from as epoch milliseconds or ISO-8601 instant, default the last day
+    private class HistoryHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
-                // Parse the form data
-                Map<String, String> formData = parseFormData(exchange.getRequestBody());
-                String coin = formData.get("coin");
-
-                if (coin != null && !coin.isEmpty()) {
-                    try {
-                        // Execute the sell operation
-                        boolean success = tb.sellCoin(coin);
-                        String response = success ? "Successfully sold " + coin : "Failed to sell " + coin;
-                        exchange.sendResponseHeaders(200, response.getBytes().length);
-                        exchange.getResponseBody().write(response.getBytes());
-                    } catch (Exception e) {
-                        String response = "Error selling " + coin + ": " + e.getMessage();
-                        exchange.sendResponseHeaders(500, response.getBytes().length);
-                        exchange.getResponseBody().write(response.getBytes());
-                    }
-                } else {
-                    String response = "Invalid coin specified.";
-                    exchange.sendResponseHeaders(400, response.getBytes().length);
-                    exchange.getResponseBody().write(response.getBytes());
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+                exchange.close();
+                return;
+            }
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            String coin = query.get("coin");
+            long from;
+            int points;
+            try {
+                from = parseTime(query.get("from"), System.currentTimeMillis() - DEFAULT_HISTORY_MILLIS);
+                points = query.containsKey("points") ? Integer.parseInt(query.get("points")) : DEFAULT_HISTORY_POINTS;
+            } catch (RuntimeException e) {
+                sendJsonError(exchange, 400, "Invalid parameter: " + e.getMessage());
+                return;
+            }
+            if (coin == null || coin.isEmpty() || points < 3 || points > MAX_HISTORY_POINTS) {
+                sendJsonError(exchange, 400, "Expected coin and points between 3 and " + MAX_HISTORY_POINTS);
+                return;
+            }
+
+            PriceHistory.Samples samples = tb.getPriceHistory().query(coin, from, points);
+            if (samples == null) {
+                sendJsonError(exchange, 404, "No history for " + coin);
+                return;
+            }
+            ResponseBuffer response = acquireBuffer();
+            try {
+                response.append("{\"coin\":").append(JSONObject.quote(coin)).append(",\"points\":[");
+                for (int i = 0; i < samples.size(); i++) {
+                    response.append(i == 0 ? "[" : ",[").append(samples.timeAt(i)).append(",")
+                            .appendDecimalStripped(samples.priceAt(i), FixedPoint.PRICE_SCALE).append("]");
+                }
+                response.append("]}");
+                send(exchange, 200, JSON, response.array(), response.size());
+            } finally {
+                releaseBuffer(response);
+            }
+        }
+    }
+
+    // GET /api/candles?coin=BTC&resolution=1h&from=..., from as epoch milliseconds or ISO-8601 instant, default all
+    private class CandlesHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+                exchange.close();
+                return;
+            }
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            String coin = query.get("coin");
+            CandleAggregator.Resolution resolution = CandleAggregator.Resolution.of(query.getOrDefault("resolution", "1h"));
+            long from;
+            try {
+                from = parseTime(query.get("from"), 0);
+            } catch (RuntimeException e) {
+                sendJsonError(exchange, 400, "Invalid parameter: " + e.getMessage());
+                return;
+            }
+            if (coin == null || coin.isEmpty() || resolution == null) {
+                sendJsonError(exchange, 400, "Expected coin and resolution 1m, 5m, 1h or 1d");
+                return;
+            }
+
+            CandleAggregator.Candles candles = tb.getCandles().query(coin, resolution, from);
+            if (candles == null) {
+                sendJsonError(exchange, 404, "No candles for " + coin);
+                return;
+            }
+            ResponseBuffer response = acquireBuffer();
+            try {
+                response.append("{\"coin\":").append(JSONObject.quote(coin))
+                        .append(",\"resolution\":\"").append(resolution.getLabel()).append("\",\"candles\":[");
+                for (int i = 0; i < candles.size(); i++) {
+                    response.append(i == 0 ? "[" : ",[").append(candles.timeAt(i)).append(",")
+                            .appendDecimalStripped(candles.openAt(i), FixedPoint.PRICE_SCALE).append(",")
+                            .appendDecimalStripped(candles.highAt(i), FixedPoint.PRICE_SCALE).append(",")
+                            .appendDecimalStripped(candles.lowAt(i), FixedPoint.PRICE_SCALE).append(",")
+                            .appendDecimalStripped(candles.closeAt(i), FixedPoint.PRICE_SCALE).append(",")
+                            .append(Double.toString(candles.volumeAt(i))).append("]");
                 }
-            } else {
+                response.append("]}");
+                send(exchange, 200, JSON, response.array(), response.size());
+            } finally {
+                releaseBuffer(response);
+            }
+        }
+    }
+
+    // GET /api/indicators, the current indicators of every coin the bot has fetched prices for
+    private class IndicatorsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+                exchange.close();
+                return;
+            }
+            IndicatorEngine engine = tb.getIndicators();
+            Map<String, Long> pollIntervals = tb.getPolling().getIntervals();
+            JSONArray indicators = new JSONArray();
+            for (IndicatorEngine.Values values : engine.getAll().values()) {
+                indicators.put(new JSONObject()
+                        .put("coin", values.coin)
+                        .put("timestamp", values.timestamp)
+                        .put("samples", values.samples)
+                        .put("ready", values.isReady())
+                        .put("falling", engine.isFalling(values.coin))
+                        .put("price", values.price)
+                        .put("fastEma", values.fastEma)
+                        .put("slowEma", values.slowEma)
+                        .put("rsi", values.rsi)
+                        .put("hourlyVolatilityPercent", values.hourlyVolatilityPercent)
+                        .put("vwap", Double.isNaN(values.vwap) ? JSONObject.NULL : values.vwap)
+                        .put("pollMillis", pollIntervals.containsKey(values.coin) ? pollIntervals.get(values.coin)
+                                : JSONObject.NULL));
+            }
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            send(exchange, 200, JSON, new JSONObject().put("indicators", indicators).toString()
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private class EndpointsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+                exchange.close();
+                return;
+            }
+            JSONArray endpoints = new JSONArray();
+            for (ExchangeEndpoint endpoint : tb.getEndpoints()) {
+                endpoints.put(new JSONObject()
+                        .put("name", endpoint.getName())
+                        .put("circuit", endpoint.getState().name())
+                        .put("p95LatencyMillis", endpoint.p95LatencyNanos() / 1_000_000.0)
+                        .put("hedges", endpoint.getHedges()));
+            }
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            send(exchange, 200, JSON, new JSONObject().put("endpoints", endpoints).toString()
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private class TracesHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
                 exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+                exchange.close();
+                return;
+            }
+            int limit;
+            try {
+                limit = Integer.parseInt(parseQuery(exchange.getRequestURI().getRawQuery()).getOrDefault("limit", "20"));
+            } catch (NumberFormatException e) {
+                sendJsonError(exchange, 400, "limit must be a number");
+                return;
             }
-            exchange.getResponseBody().close();
+            DecisionTracer tracer = tb.getTracer();
+            JSONArray spans = new JSONArray();
+            tracer.recent(Math.max(0, limit)).forEach(span -> spans.put(span.toJson()));
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            send(exchange, 200, JSON, new JSONObject()
+                    .put("stages", tracer.stageSummary())
+                    .put("spans", spans)
+                    .toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * GET /api/logs?coin=SOL&level=INFO&from=...&to=...&limit=200: the newest
+     * entries of the log file at level or above that mention coin, from and
+     * to as epoch milliseconds or ISO-8601 instants. Only the blocks of the
+     * log whose index can match are read.
+     */
+    private class LogsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+                exchange.close();
+                return;
+            }
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            String coin = query.get("coin");
+            TradingBot.LogLevel level;
+            long from;
+            long to;
+            int limit;
+            try {
+                level = TradingBot.LogLevel.valueOf(query.getOrDefault("level", "TRACE").toUpperCase());
+                from = parseTime(query.get("from"), 0);
+                to = parseTime(query.get("to"), Long.MAX_VALUE);
+                limit = Integer.parseInt(query.getOrDefault("limit", "200"));
+            } catch (RuntimeException e) {
+                sendJsonError(exchange, 400, "Invalid parameter: " + e.getMessage());
+                return;
+            }
+            if (limit < 1 || limit > MAX_LOG_ENTRIES) {
+                sendJsonError(exchange, 400, "Expected limit between 1 and " + MAX_LOG_ENTRIES);
+                return;
+            }
+            LogStore logStore = tb.getLogStore();
+            if (logStore == null) {
+                sendJsonError(exchange, 404, "The log is not written to a file");
+                return;
+            }
+
+            JSONArray entries = new JSONArray();
+            for (LogStore.Entry entry : logStore.search(coin == null || coin.isEmpty() ? null : coin.toUpperCase(),
+                    level, from, to, limit)) {
+                entries.put(new JSONObject()
+                        .put("time", entry.getEpochMillis())
+                        .put("level", entry.getLevel())
+                        .put("text", entry.getText()));
+            }
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            send(exchange, 200, JSON, new JSONObject().put("entries", entries).toString()
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * GET /api/performance?offset=0&limit=100: the realized and unrealized
+     * totals, and a page of the trades and equity samples behind them,
+     * newest first.
+     */
+    private class PerformanceHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+                exchange.close();
+                return;
+            }
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            int offset;
+            int limit;
+            try {
+                offset = Integer.parseInt(query.getOrDefault("offset", "0"));
+                limit = Integer.parseInt(query.getOrDefault("limit", "100"));
+            } catch (NumberFormatException e) {
+                sendJsonError(exchange, 400, "offset and limit must be numbers");
+                return;
+            }
+            if (offset < 0 || limit < 1 || limit > MAX_PERFORMANCE_EVENTS) {
+                sendJsonError(exchange, 400, "Expected offset of at least 0 and limit between 1 and "
+                        + MAX_PERFORMANCE_EVENTS);
+                return;
+            }
+
+            PerformanceTracker performance = tb.getPerformance();
+            JSONArray events = new JSONArray();
+            performance.page(offset, limit).forEach(event -> events.put(event.toDisplayJson()));
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            send(exchange, 200, JSON, new JSONObject()
+                    .put("summary", performance.summary())
+                    .put("total", performance.size())
+                    .put("offset", offset)
+                    .put("events", events)
+                    .toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // GET /api/shadows: the win/loss of the shadow strategies next to the live one since they started
+    private class ShadowsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            send(exchange, 200, JSON, tb.getShadows().toJson().toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // A time parameter as epoch milliseconds or ISO-8601 instant, defaultMillis if missing
+    static long parseTime(String parameter, long defaultMillis) {
+        if (parameter == null) {
+            return defaultMillis;
+        }
+        return parameter.chars().allMatch(Character::isDigit) ? Long.parseLong(parameter)
+                : Instant.parse(parameter).toEpochMilli();
+    }
+
+    private static void sendJsonError(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, JSON,
+                new JSONObject().put("error", message).toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    // Opens a Server-Sent Events stream; the connection is handed to SnapshotEvents and stays open
+    private class EventsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().add("Content-Type", "text/event-stream; charset=UTF-8");
+            exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, 0); // chunked, no length
+            events.addClient(exchange);
+        }
+    }
+
+    // Queues a manual sale and answers 202 with the command, whose status is at /api/commands/{id}
+    private class SellCoinHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+                exchange.close();
+                return;
+            }
+            // Parse the form data
+            Map<String, String> formData = parseFormData(exchange.getRequestBody());
+            String coin = formData.get("coin");
+
+            if (coin == null || coin.isEmpty()) {
+                sendJsonError(exchange, 400, "Invalid coin specified.");
+                return;
+            }
+            TradingCommand command = tb.submitSell(coin);
+            tb.log("INFO", String.format("Manual sale of %s queued as command %s.", coin, command.getId()));
+            exchange.getResponseHeaders().set("Location", COMMANDS_PATH + command.getId());
+            send(exchange, 202, JSON, command.toJson().toString().getBytes(StandardCharsets.UTF_8));
         }
 
         private Map<String, String> parseFormData(InputStream requestBody) throws IOException {
@@ -238,11 +589,27 @@ public class WebServer {
             while ((line = reader.readLine()) != null) {
                 formData.append(line);
             }
-            return Arrays.stream(formData.toString().split("&"))
-                    .map(s -> s.split("="))
-                    .collect(Collectors.toMap(
-                            e -> URLDecoder.decode(e[0], StandardCharsets.UTF_8),
-                            e -> URLDecoder.decode(e[1], StandardCharsets.UTF_8)));
+            return parseQuery(formData.toString());
+        }
+    }
+
+    // GET /api/commands/{id}
+    private class CommandHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+                exchange.close();
+                return;
+            }
+            String id = exchange.getRequestURI().getPath().substring(COMMANDS_PATH.length());
+            TradingCommand command = tb.getCommand(id);
+            if (command == null) {
+                sendJsonError(exchange, 404, "Unknown command " + id);
+                return;
+            }
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            send(exchange, 200, JSON, command.toJson().toString().getBytes(StandardCharsets.UTF_8));
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,152 @@
+package org.netno;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CandleAggregatorTest {
+
+    private static final long MINUTE = 60_000;
+    private static final long DAY = 24 * 60 * MINUTE;
+    private static final long START = 1_700_006_400_000L; // a UTC midnight
+
+    private final CandleAggregator aggregator = new CandleAggregator();
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        file = Files.createTempFile("candles", ".dat");
+        Files.delete(file);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void testAllResolutionsAtOnce() {
+        // one price every 15 seconds for 10 minutes: 100, 101, ..., 139
+        for (int i = 0; i < 40; i++) {
+            aggregator.record("BTC", START + i * 15_000, 100 + i, 1000 + i * 2);
+        }
+
+        CandleAggregator.Candles minutes = aggregator.query("BTC", CandleAggregator.Resolution.ONE_MINUTE, 0);
+        assertEquals(10, minutes.size());
+        assertEquals(START + MINUTE, minutes.timeAt(1));
+        assertEquals(104, minutes.openAt(1));
+        assertEquals(107, minutes.highAt(1));
+        assertEquals(104, minutes.lowAt(1));
+        assertEquals(107, minutes.closeAt(1));
+        assertEquals(8, minutes.volumeAt(1), 1e-9);
+        assertEquals(6, minutes.volumeAt(0), 1e-9); // the first price has no volume before it
+
+        CandleAggregator.Candles fiveMinutes = aggregator.query("BTC", CandleAggregator.Resolution.FIVE_MINUTES, 0);
+        assertEquals(2, fiveMinutes.size());
+        assertEquals(120, fiveMinutes.openAt(1));
+        assertEquals(139, fiveMinutes.closeAt(1));
+
+        CandleAggregator.Candles days = aggregator.query("BTC", CandleAggregator.Resolution.ONE_DAY, 0);
+        assertEquals(1, days.size());
+        assertEquals(START, days.timeAt(0));
+        assertEquals(100, days.lowAt(0));
+        assertEquals(139, days.highAt(0));
+        assertEquals(78, days.volumeAt(0), 1e-9);
+
+        assertNull(aggregator.query("ETH", CandleAggregator.Resolution.ONE_MINUTE, 0));
+    }
+
+    @Test
+    void testFallingVolumeIsNotCounted() {
+        aggregator.record("BTC", START, 100, 1000);
+        aggregator.record("BTC", START + 15_000, 100, 900); // trades older than 24h dropped out
+        aggregator.record("BTC", START + 30_000, 100, 950);
+
+        assertEquals(50, aggregator.query("BTC", CandleAggregator.Resolution.ONE_MINUTE, 0).volumeAt(0), 1e-9);
+    }
+
+    @Test
+    void testCapacityIsBounded() {
+        int capacity = CandleAggregator.Resolution.ONE_MINUTE.capacity;
+        for (int i = 0; i < capacity + 10; i++) {
+            aggregator.record("BTC", START + i * MINUTE, i, 0);
+        }
+
+        CandleAggregator.Candles minutes = aggregator.query("BTC", CandleAggregator.Resolution.ONE_MINUTE, 0);
+        assertEquals(capacity, minutes.size());
+        assertEquals(START + 10 * MINUTE, minutes.timeAt(0));
+        assertEquals(capacity + 9, minutes.closeAt(capacity - 1));
+
+        CandleAggregator.Candles recent = aggregator.query("BTC", CandleAggregator.Resolution.ONE_MINUTE,
+                START + capacity * MINUTE);
+        assertEquals(10, recent.size());
+    }
+
+    @Test
+    void testClockGoingBackUpdatesLatestCandle() {
+        aggregator.record("BTC", START + 2 * MINUTE, 100, 0);
+        aggregator.record("BTC", START + MINUTE, 90, 0);
+
+        CandleAggregator.Candles minutes = aggregator.query("BTC", CandleAggregator.Resolution.ONE_MINUTE, 0);
+        assertEquals(1, minutes.size());
+        assertEquals(90, minutes.lowAt(0));
+        assertEquals(90, minutes.closeAt(0));
+    }
+
+    @Test
+    void testSaveAndLoad() throws Exception {
+        for (int i = 0; i < 3 * 24 * 60; i++) {
+            aggregator.record("BTC", START + i * MINUTE, 1000 + i % 7, i);
+            aggregator.record("ETH", START + i * MINUTE, 50, 0);
+        }
+        aggregator.save(file.toString());
+
+        CandleAggregator loaded = CandleAggregator.load(file.toString());
+        for (CandleAggregator.Resolution resolution : CandleAggregator.Resolution.values()) {
+            CandleAggregator.Candles expected = aggregator.query("BTC", resolution, 0);
+            CandleAggregator.Candles actual = loaded.query("BTC", resolution, 0);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.timeAt(i), actual.timeAt(i));
+                assertEquals(expected.openAt(i), actual.openAt(i));
+                assertEquals(expected.highAt(i), actual.highAt(i));
+                assertEquals(expected.lowAt(i), actual.lowAt(i));
+                assertEquals(expected.closeAt(i), actual.closeAt(i));
+                assertEquals(expected.volumeAt(i), actual.volumeAt(i));
+            }
+        }
+        assertEquals(3, loaded.size("ETH", CandleAggregator.Resolution.ONE_DAY));
+
+        // aggregation continues in the latest candle
+        loaded.record("BTC", START + 3 * DAY - 1, 2000, 0);
+        CandleAggregator.Candles days = loaded.query("BTC", CandleAggregator.Resolution.ONE_DAY, START + 2 * DAY);
+        assertEquals(1, days.size());
+        assertEquals(2000, days.highAt(0));
+    }
+
+    @Test
+    void testReloadReplacesTheCandles() throws Exception {
+        CandleAggregator leader = new CandleAggregator();
+        leader.record("BTC", START, 1000, 0);
+        leader.record("BTC", START + MINUTE, 1100, 0);
+        leader.save(file.toString());
+        aggregator.record("ETH", START, 50, 0); // only the standby knows ETH
+
+        aggregator.reload(file.toString());
+
+        assertEquals(2, aggregator.size("BTC", CandleAggregator.Resolution.ONE_MINUTE));
+        assertNull(aggregator.query("ETH", CandleAggregator.Resolution.ONE_MINUTE, 0));
+    }
+
+    @Test
+    void testUnreadableFileGivesEmptyAggregator() throws Exception {
+        Files.writeString(file, "no candles");
+
+        assertEquals(0, CandleAggregator.load(file.toString()).size("BTC", CandleAggregator.Resolution.ONE_HOUR));
+    }
+}
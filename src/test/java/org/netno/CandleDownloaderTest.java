@@ -0,0 +1,132 @@
+package org.netno;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CandleDownloaderTest {
+
+    private static final CandleAggregator.Resolution HOUR = CandleAggregator.Resolution.ONE_HOUR;
+    private static final long DAY = 24 * 3600;
+    private static final long START = 1_700_006_400L; // a UTC midnight
+
+    private Path directory;
+    private CandleStore store;
+    private final List<long[]> requests = new ArrayList<>();
+    private int failures; // requests to fail before answering
+
+    @BeforeEach
+    void setUp() throws Exception {
+        directory = Files.createTempDirectory("history");
+        store = new CandleStore(directory);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    // Answers like Coinbase: newest first, including the candle starting at end, prices as strings
+    private JSONArray page(String productId, CandleAggregator.Resolution resolution, long start, long end)
+            throws IOException {
+        assertEquals("BTC-USDC", productId);
+        assertTrue((end - start) / resolution.seconds <= CandleDownloader.PAGE_CANDLES);
+        requests.add(new long[] { start, end });
+        if (failures > 0) {
+            failures--;
+            throw new IOException("HTTP 429");
+        }
+        JSONArray candles = new JSONArray();
+        for (long t = end; t >= start; t -= resolution.seconds) {
+            long hour = (t - START) / 3600;
+            candles.put(new JSONObject()
+                    .put("start", Long.toString(t))
+                    .put("open", Long.toString(100 + hour))
+                    .put("high", Long.toString(101 + hour))
+                    .put("low", Long.toString(99 + hour))
+                    .put("close", (100 + hour) + ".5")
+                    .put("volume", "12.25"));
+        }
+        return candles;
+    }
+
+    private CandleDownloader downloader() {
+        CandleDownloader downloader = new CandleDownloader(this::page, store, 0);
+        downloader.retryMillis = 1;
+        return downloader;
+    }
+
+    @Test
+    void testDownloadInPages() throws Exception {
+        // 30 days of hours up to the middle of an hour
+        long added = downloader().download("BTC", HOUR, START, START + 30 * DAY + 1800);
+
+        assertEquals(30 * 24, added);
+        assertEquals(3, requests.size()); // 720 candles in pages of 300
+        CandleStore.Series series = store.open("BTC", HOUR);
+        assertEquals(30 * 24, series.size());
+        for (int i = 0; i < series.size(); i++) {
+            assertEquals(START + i * 3600L, series.timeAt(i));
+        }
+        assertEquals(FixedPoint.fromDouble(105.5, FixedPoint.PRICE_SCALE, RoundingMode.HALF_EVEN),
+                series.closeAt(5));
+        assertEquals(12.25, series.volumeAt(5));
+    }
+
+    @Test
+    void testResumesAfterStoredCandles() throws Exception {
+        downloader().download("BTC", HOUR, START, START + 10 * DAY);
+        requests.clear();
+
+        long added = downloader().download("BTC", HOUR, START, START + 12 * DAY);
+
+        assertEquals(48, added);
+        assertEquals(1, requests.size());
+        assertEquals(START + 10 * DAY, requests.get(0)[0]);
+        assertEquals(12 * 24, store.open("BTC", HOUR).size());
+    }
+
+    @Test
+    void testFailedRequestsAreRetried() throws Exception {
+        failures = 3;
+
+        downloader().download("BTC", HOUR, START, START + DAY);
+
+        assertEquals(4, requests.size());
+        assertEquals(24, store.open("BTC", HOUR).size());
+    }
+
+    @Test
+    void testGivingUpKeepsCompletePages() throws Exception {
+        CandleDownloader downloader = downloader();
+        CandleDownloader.CandleSource flaky = (productId, resolution, start, end) -> {
+            if (start >= START + 20 * DAY) {
+                throw new IOException("connection reset");
+            }
+            return page(productId, resolution, start, end);
+        };
+        CandleDownloader failing = new CandleDownloader(flaky, store, 0);
+        failing.retryMillis = 1;
+
+        assertThrows(IOException.class, () -> failing.download("BTC", HOUR, START, START + 30 * DAY));
+        assertEquals(600, store.open("BTC", HOUR).size()); // two complete pages
+
+        assertEquals(120, downloader.download("BTC", HOUR, START, START + 30 * DAY));
+        assertEquals(30 * 24, store.open("BTC", HOUR).size());
+    }
+}
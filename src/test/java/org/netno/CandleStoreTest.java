@@ -0,0 +1,104 @@
+package org.netno;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CandleStoreTest {
+
+    private static final CandleAggregator.Resolution HOUR = CandleAggregator.Resolution.ONE_HOUR;
+
+    private Path directory;
+    private CandleStore store;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        directory = Files.createTempDirectory("history");
+        store = new CandleStore(directory);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    void testAppendAndMap() throws Exception {
+        try (CandleStore.Appender appender = store.append("BTC", HOUR)) {
+            for (int i = 0; i < 3000; i++) { // more than one buffer
+                appender.append(i * 3600L, 100 + i, 110 + i, 90 + i, 105 + i, i / 2.0);
+            }
+        }
+
+        CandleStore.Series series = store.open("BTC", HOUR);
+        assertEquals(3000, series.size());
+        assertEquals(2999 * 3600L, series.timeAt(2999));
+        assertEquals(107, series.openAt(7));
+        assertEquals(117, series.highAt(7));
+        assertEquals(97, series.lowAt(7));
+        assertEquals(112, series.closeAt(7));
+        assertEquals(3.5, series.volumeAt(7));
+        assertEquals(10, series.firstAtOrAfter(9 * 3600L + 1));
+        assertEquals(3000, series.firstAtOrAfter(Long.MAX_VALUE));
+        assertEquals(8 * 3000, Files.size(directory.resolve("BTC").resolve("1h").resolve("close.i64")));
+    }
+
+    @Test
+    void testMissingCoinIsEmpty() throws Exception {
+        assertEquals(0, store.open("ETH", HOUR).size());
+    }
+
+    @Test
+    void testAppendContinuesAfterStoredCandles() throws Exception {
+        try (CandleStore.Appender appender = store.append("BTC", HOUR)) {
+            appender.append(0, 1, 1, 1, 1, 1);
+        }
+        try (CandleStore.Appender appender = store.append("BTC", HOUR)) {
+            assertEquals(1, appender.size());
+            assertEquals(0, appender.lastTime());
+            assertThrows(IllegalArgumentException.class, () -> appender.append(0, 2, 2, 2, 2, 2));
+            appender.append(3600, 2, 2, 2, 2, 2);
+        }
+
+        assertEquals(2, store.open("BTC", HOUR).closeAt(1));
+    }
+
+    @Test
+    void testInterruptedWriteIsCutBack() throws Exception {
+        try (CandleStore.Appender appender = store.append("BTC", HOUR)) {
+            appender.append(0, 1, 1, 1, 1, 1);
+            appender.append(3600, 2, 2, 2, 2, 2);
+        }
+        // a crash after writing the time and half the open of a third candle
+        Path series = directory.resolve("BTC").resolve("1h");
+        try (FileChannel time = FileChannel.open(series.resolve("time.i64"), StandardOpenOption.APPEND);
+                FileChannel open = FileChannel.open(series.resolve("open.i64"), StandardOpenOption.APPEND)) {
+            time.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(0, 7200));
+            open.write(ByteBuffer.allocate(4));
+        }
+        assertEquals(2, store.open("BTC", HOUR).size());
+
+        try (CandleStore.Appender appender = store.append("BTC", HOUR)) {
+            assertEquals(3600, appender.lastTime());
+            appender.append(7200, 3, 3, 3, 3, 3);
+        }
+
+        CandleStore.Series repaired = store.open("BTC", HOUR);
+        assertEquals(3, repaired.size());
+        assertEquals(3, repaired.openAt(2));
+        assertEquals(3.0, repaired.volumeAt(2));
+    }
+}
@@ -0,0 +1,74 @@
+package org.netno;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+
+    private long now = 1_000_000;
+    private final CircuitBreaker breaker = new CircuitBreaker("getProduct", 3, 30_000, () -> now);
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++) {
+            breaker.acquire();
+            breaker.failed();
+        }
+    }
+
+    @Test
+    void testOpensAfterFailuresInARow() {
+        fail(2);
+        breaker.acquire();
+        breaker.succeeded(); // starts counting again
+        fail(2);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+
+        fail(1);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertThrows(CircuitBreaker.OpenException.class, breaker::acquire);
+    }
+
+    @Test
+    void testSuccessfulProbeCloses() {
+        fail(3);
+        now += 30_000;
+
+        breaker.acquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        assertThrows(CircuitBreaker.OpenException.class, breaker::acquire); // a single probe at a time
+        breaker.succeeded();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        breaker.acquire();
+    }
+
+    @Test
+    void testFailedProbeOpensAgain() {
+        fail(3);
+        now += 30_000;
+
+        fail(1);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        now += 29_999;
+        assertThrows(CircuitBreaker.OpenException.class, breaker::acquire);
+        now += 1;
+        breaker.acquire();
+    }
+
+    @Test
+    void testReleasedProbeLetsTheNextOneThrough() {
+        fail(3);
+        now += 30_000;
+
+        breaker.acquire();
+        breaker.released(); // the request was rejected, which says nothing about the endpoint
+
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        breaker.acquire();
+        breaker.succeeded();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    }
+}
@@ -0,0 +1,110 @@
+package org.netno;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConfigTest {
+
+    private static final String CONFIG = "{\"apiKey\": \"key\", \"apiSecret\": \"secret\", \"portfolioId\": \"id\","
+            + " \"coins\": [\"BTC\", \"ETH\"], \"purchaseDropPercent\": 3.5, \"maxHeldCoins\": 4,"
+            + " \"useFundsPortionPerTrade\": 0.05, \"stopLossSalePercentage\": 1.0,"
+            + " \"negativeProfitLevels\": [0.0, 0.0, 1.0], \"averageDownSteps\": [0.0, 2.0, 4.0],"
+            + " \"minimumProfitPercentage\": 2.0, \"takerFeePercentage\": 0.4, \"logLevel\": \"info\","
+            + " \"timeZone\": \"Europe/Berlin\"}";
+
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        file = Files.createTempFile("config", ".json");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void testLoadConfig() throws Exception {
+        Files.writeString(file, CONFIG);
+
+        Config config = Config.loadConfig(file.toString());
+
+        assertEquals(List.of("BTC", "ETH"), config.coins);
+        assertEquals(List.of(0.0, 2.0, 4.0), config.averageDownSteps);
+        assertEquals("INFO", config.logLevel);
+        assertThrows(UnsupportedOperationException.class, () -> config.coins.add("SOL"));
+    }
+
+    @Test
+    void testShadowStrategies() throws Exception {
+        Files.writeString(file, CONFIG.replace("\"coins\"", "\"shadowStrategies\": [{\"name\": \"deep\","
+                + " \"purchaseDropPercent\": 8, \"averageDownSteps\": [0, 5]}], \"coins\""));
+
+        Config config = Config.loadConfig(file.toString());
+
+        assertEquals(List.of(new ShadowStrategy.Settings("deep", 8.0, null, List.of(0.0, 5.0))),
+                config.shadowStrategies);
+        assertEquals(List.of(), new Config().shadowStrategies);
+    }
+
+    @Test
+    void testInvalidSettingsRejected() throws Exception {
+        Files.writeString(file, CONFIG.replace("\"averageDownSteps\": [0.0, 2.0, 4.0]", "\"averageDownSteps\": []"));
+        assertThrows(IllegalArgumentException.class, () -> Config.loadConfig(file.toString()));
+
+        Files.writeString(file, CONFIG.replace("\"info\"", "\"verbose\""));
+        assertThrows(IllegalArgumentException.class, () -> Config.loadConfig(file.toString()));
+
+        Files.writeString(file, CONFIG.replace("0.05", "5"));
+        assertThrows(IllegalArgumentException.class, () -> Config.loadConfig(file.toString()));
+
+        Files.writeString(file, CONFIG.replace("\"coins\"", "\"shardCount\": 2, \"shardIndex\": 2, \"coins\""));
+        assertThrows(IllegalArgumentException.class, () -> Config.loadConfig(file.toString()));
+
+        Files.writeString(file, CONFIG.replace("\"coins\"", "\"shadowStrategies\": [{\"name\": \"a\"}, {\"name\": \"a\"}], \"coins\""));
+        assertThrows(IllegalArgumentException.class, () -> Config.loadConfig(file.toString()));
+    }
+
+    @Test
+    void testShardFile() throws Exception {
+        Files.writeString(file, CONFIG);
+        assertEquals("currentAssets.json", Config.loadConfig(file.toString()).shardFile("currentAssets.json"));
+
+        Files.writeString(file, CONFIG.replace("\"coins\"", "\"shardCount\": 3, \"shardIndex\": 2, \"coins\""));
+        Config sharded = Config.loadConfig(file.toString());
+        assertEquals("currentAssets.shard2.json", sharded.shardFile("currentAssets.json"));
+        assertEquals("leader.shard2.lock", sharded.shardFile("leader.lock"));
+    }
+
+    @Test
+    void testChangedFields() throws Exception {
+        Files.writeString(file, CONFIG);
+        Config config = Config.loadConfig(file.toString());
+        Config same = Config.loadConfig(file.toString());
+        Files.writeString(file, CONFIG.replace("3.5", "4.0").replace("\"ETH\"", "\"SOL\""));
+        Config changed = Config.loadConfig(file.toString());
+
+        assertEquals(List.of(), config.changedFields(same));
+        assertEquals(List.of("coins", "purchaseDropPercent"), config.changedFields(changed));
+    }
+
+    @Test
+    void testCopy() throws Exception {
+        Files.writeString(file, CONFIG);
+        Config config = Config.loadConfig(file.toString());
+        Config copy = config.copy();
+
+        assertNotSame(config, copy);
+        assertEquals(List.of(), config.changedFields(copy));
+        copy.maxHeldCoins++;
+        assertEquals(List.of("maxHeldCoins"), config.changedFields(copy));
+    }
+}
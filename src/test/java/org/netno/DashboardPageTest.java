@@ -0,0 +1,88 @@
+package org.netno;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DashboardPageTest {
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss z");
+
+    @Test
+    void testRendersLikeStringFormat() {
+        LocalDateTime purchaseDate = LocalDateTime.now().minusDays(3).withNano(0);
+        Map<String, TradeInfo> assets = new HashMap<>();
+        Map<String, Long> lastPrices = new HashMap<>();
+        // a loss of one cent on 100,000 USDC, -0.00001%
+        assets.put("BTC", new TradeInfo(100.0, 1000, purchaseDate, 100.0, 0, 0, 3));
+        lastPrices.put("BTC", 9999999000L);
+        // highest price a little below the averaged down purchase price
+        assets.put("ETH", new TradeInfo(1.0, 10, purchaseDate, 0.99999, 0, 2, 3));
+        lastPrices.put("ETH", 100000000L);
+        assets.put("SOL", new TradeInfo(0.123456, 50.5, purchaseDate, 0.2, 0.01, 0, 3));
+        lastPrices.put("SOL", 15000000L);
+        assets.put("ADA", new TradeInfo(0.5, 10, purchaseDate, 0.5, 0, 0, 3)); // not evaluated yet
+        PortfolioSnapshot snapshot = PortfolioSnapshot.of(1, ZonedDateTime.now(), 1234.5, assets, lastPrices, 0);
+        Config config = new Config();
+        config.timeZone = "Europe/Berlin";
+        config.minimumProfitPercentage = 2;
+        config.stopLossSalePercentage = 1;
+
+        ResponseBuffer out = new ResponseBuffer(1024);
+        new DashboardPage().render(snapshot, config, out);
+        String page = out.toString();
+
+        assertEquals(4, snapshot.getPositions().size());
+        for (PortfolioSnapshot.Position position : snapshot.getPositions()) {
+            assertTrue(page.contains(formatted(position, config)), position.getCoin());
+        }
+        assertTrue(page.contains("<span id='cash'>" + String.format("%.2f USDC", snapshot.getUsdcBalance())));
+        // the values that round to zero keep their sign
+        assertTrue(page.contains("<td class='loss'>-0.00%</td>"));
+        assertTrue(page.contains(" (-0%)"));
+    }
+
+    // A row as the web server rendered it with String.format before DashboardPage
+    private static String formatted(PortfolioSnapshot.Position position, Config config) {
+        String coin = position.getCoin();
+        double winLossUSDC = position.getWinLossIncludingFees();
+        double winLossPercent = position.getWinLossPercent();
+        double highestPerformance = position.getHighestPerformance();
+        boolean aboveSellBarrier = highestPerformance > (config.minimumProfitPercentage + config.stopLossSalePercentage);
+        long daysHeld = ChronoUnit.DAYS.between(position.getPurchaseDate(), LocalDateTime.now());
+        StringBuilder html = new StringBuilder();
+        html.append("<tr id='row-").append(coin).append("'>");
+        html.append("<td>").append(coin).append("</td>");
+        html.append("<td>").append(position.getPurchaseDate().atZone(ZoneId.of(config.timeZone)).format(FORMATTER))
+                .append("</td>");
+        html.append("<td>").append(daysHeld).append("</td>");
+        html.append("<td>").append(String.format("%.6f", position.getPurchasePrice()).replaceAll("\\.?0+$", ""))
+                .append("</td>");
+        html.append("<td class='").append(aboveSellBarrier ? "profit" : "neutral").append("'>")
+                .append(String.format("%.6f", position.getHighestPrice()).replaceAll("\\.?0+$", ""))
+                .append(" (" + String.format("%.2f", highestPerformance).replaceAll("\\.?0+$", "") + "%)")
+                .append("</td>");
+        if (position.hasCurrentPrice()) {
+            html.append("<td>").append(String.format("%.6f", position.getCurrentPrice()).replaceAll("\\.?0+$", ""))
+                    .append("</td>");
+            html.append("<td>").append(String.format("%.2f", position.getCurrentValue())).append("</td>");
+            html.append("<td class='").append(winLossPercent >= 0 ? "profit" : "loss").append("'>")
+                    .append(String.format("%.2f%%", winLossPercent)).append("</td>");
+            html.append("<td class='").append(winLossUSDC >= 0 ? "profit" : "loss").append("'>")
+                    .append(String.format("%.2f USDC", winLossUSDC)).append("</td>");
+        } else {
+            html.append("<td>-</td><td>-</td><td>-</td><td>-</td>");
+        }
+        html.append("<td>").append(position.getAverageDownStepIndex() > 0
+                ? String.format("%d", position.getAverageDownStepIndex()) : "None").append("</td>");
+        return html.toString();
+    }
+}
@@ -0,0 +1,118 @@
+package org.netno;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DecisionTracerTest {
+
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        file = Files.createTempFile("traces", ".jsonl");
+        Files.delete(file);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    private static DecisionTracer.Span placed(DecisionTracer tracer, String coin) throws Exception {
+        DecisionTracer.Span span = tracer.start(coin, "SELL", System.nanoTime());
+        Thread.sleep(2);
+        span.evaluated();
+        span.built();
+        Thread.sleep(5);
+        span.returned();
+        span.persisted();
+        span.orderId = "order-" + coin;
+        tracer.finish(span, "PLACED");
+        return span;
+    }
+
+    @Test
+    void testSpanMeasuresEveryStage() throws Exception {
+        DecisionTracer.Span span = placed(new DecisionTracer(null), "BTC");
+
+        JSONObject json = span.toJson();
+        JSONObject stages = json.getJSONObject("stageMicros");
+        assertEquals(DecisionTracer.STAGES.length, stages.length());
+        assertTrue(stages.getLong("evaluate") >= 2_000);
+        assertTrue(stages.getLong("exchange") >= 5_000);
+        assertEquals("order-BTC", json.getString("orderId"));
+        assertEquals("PLACED", json.getString("outcome"));
+        assertTrue(Math.abs(json.getLong("startedAt") - System.currentTimeMillis()) < 1_000);
+    }
+
+    @Test
+    void testStagesNotReachedAreLeftOut() {
+        DecisionTracer tracer = new DecisionTracer(null);
+        DecisionTracer.Span span = tracer.start("BTC", "MANUAL_SELL", DecisionTracer.NOT_MEASURED);
+        span.evaluated();
+        span.built();
+        tracer.finish(span, "UNKNOWN"); // createOrder timed out
+
+        JSONObject stages = span.toJson().getJSONObject("stageMicros");
+        assertEquals(List.of("build"), List.copyOf(stages.keySet()));
+        JSONObject summary = tracer.stageSummary();
+        assertEquals(1, summary.getJSONObject("build").getInt("count"));
+        assertEquals(0, summary.getJSONObject("exchange").getInt("count"));
+    }
+
+    @Test
+    void testPriceFetchedAtNanoTimeZeroIsMeasured() {
+        DecisionTracer.Span span = new DecisionTracer(null).start("BTC", "SELL", 0);
+        span.evaluated();
+
+        // System.nanoTime may be 0 or negative, only NOT_MEASURED means unknown
+        assertEquals(System.nanoTime() / 1000, span.stageMicros(0), 1_000_000);
+    }
+
+    @Test
+    void testSpansKeptAndExported() throws Exception {
+        DecisionTracer tracer = new DecisionTracer(file);
+        placed(tracer, "BTC");
+        placed(tracer, "ETH");
+
+        assertEquals("ETH", tracer.recent(1).get(0).coin);
+        assertEquals(2, tracer.recent(10).size());
+        assertTrue(tracer.stageSummary().getJSONObject("exchange").getLong("p95Micros") >= 5_000);
+
+        for (int i = 0; i < 100 && (!Files.exists(file) || Files.readAllLines(file).size() < 2); i++) {
+            Thread.sleep(10); // written in the background
+        }
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(2, lines.size());
+        assertEquals("BTC", new JSONObject(lines.get(0)).getString("coin"));
+    }
+
+    @Test
+    void testFullFileIsRenamed() throws Exception {
+        Path previous = file.resolveSibling(file.getFileName() + ".1");
+        try {
+            DecisionTracer tracer = new DecisionTracer(file, 1);
+            placed(tracer, "BTC");
+            placed(tracer, "ETH");
+            placed(tracer, "SOL");
+
+            for (int i = 0; i < 100 && (!Files.exists(file) || !Files.readString(file).contains("SOL")); i++) {
+                Thread.sleep(10);
+            }
+            assertEquals("SOL", new JSONObject(Files.readAllLines(file).get(0)).getString("coin"));
+            List<String> lines = Files.readAllLines(previous);
+            assertEquals(1, lines.size());
+            assertEquals("ETH", new JSONObject(lines.get(0)).getString("coin"));
+        } finally {
+            Files.deleteIfExists(previous);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.netno;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.ConnectException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExchangeEndpointTest {
+
+    private static ExchangeEndpoint endpoint(boolean hedged, long timeoutMillis) {
+        return new ExchangeEndpoint("getProduct", hedged, new CircuitBreaker("getProduct", 2, 60_000),
+                timeoutMillis);
+    }
+
+    // Calls endpoint often enough that its latency is known
+    private static void warmUp(ExchangeEndpoint endpoint) {
+        for (int i = 0; i < 30; i++) {
+            endpoint.call(() -> "fast");
+        }
+    }
+
+    @Test
+    void testSlowCallIsHedged() throws Exception {
+        ExchangeEndpoint endpoint = endpoint(true, 5_000);
+        warmUp(endpoint);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch hung = new CountDownLatch(1);
+
+        long start = System.nanoTime();
+        String answer = endpoint.call(() -> {
+            if (calls.incrementAndGet() == 1) {
+                try {
+                    hung.await(); // the first request hangs
+                } catch (InterruptedException e) {
+                    return "cancelled";
+                }
+            }
+            return "hedged";
+        });
+
+        assertEquals("hedged", answer);
+        assertEquals(2, calls.get());
+        assertEquals(1, endpoint.getHedges());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test
+    void testNoHedgeWithoutKnownLatency() {
+        ExchangeEndpoint endpoint = endpoint(true, 200);
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThrows(IllegalStateException.class, () -> endpoint.call(() -> {
+            calls.incrementAndGet();
+            sleep(1_000);
+            return "late";
+        }));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void testTimeoutsOpenTheCircuit() {
+        ExchangeEndpoint endpoint = endpoint(false, 50);
+
+        for (int i = 0; i < 2; i++) {
+            IllegalStateException timeout = assertThrows(IllegalStateException.class,
+                    () -> endpoint.call(() -> sleep(1_000)));
+            assertTrue(timeout.getCause() instanceof TimeoutException);
+        }
+
+        assertEquals(CircuitBreaker.State.OPEN, endpoint.getState());
+        AtomicInteger calls = new AtomicInteger();
+        assertThrows(CircuitBreaker.OpenException.class, () -> endpoint.call(calls::incrementAndGet));
+        assertEquals(0, calls.get());
+    }
+
+    @Test
+    void testErrorsArePassedOn() {
+        ExchangeEndpoint endpoint = endpoint(false, 1_000);
+
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class, () -> endpoint.call(() -> {
+            throw new IllegalArgumentException("unknown product");
+        }));
+        assertEquals("unknown product", error.getMessage());
+        assertEquals(CircuitBreaker.State.CLOSED, endpoint.getState());
+    }
+
+    @Test
+    void testOnlyEndpointFailuresOpenTheCircuit() {
+        ExchangeEndpoint endpoint = endpoint(false, 1_000);
+
+        for (int i = 0; i < 5; i++) {
+            assertThrows(IllegalStateException.class, () -> endpoint.call(() -> {
+                throw new IllegalStateException("Failed to send http request", new IllegalStateException(
+                        "Unexpected response with status code: 404, body: {\"error\":\"NOT_FOUND\"}"));
+            }));
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, endpoint.getState());
+
+        for (int i = 0; i < 2; i++) {
+            assertThrows(IllegalStateException.class, () -> endpoint.call(() -> {
+                throw new IllegalStateException("Unexpected response with status code: 503");
+            }));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, endpoint.getState());
+    }
+
+    @Test
+    void testEndpointFailures() {
+        assertTrue(ExchangeEndpoint.isEndpointFailure(new IllegalStateException(new TimeoutException())));
+        assertTrue(ExchangeEndpoint.isEndpointFailure(
+                new IllegalStateException("Failed to send http request", new ConnectException())));
+        assertTrue(ExchangeEndpoint.isEndpointFailure(new IllegalStateException("status code: 429")));
+        assertFalse(ExchangeEndpoint.isEndpointFailure(new IllegalStateException("status code: 400")));
+        assertFalse(ExchangeEndpoint.isEndpointFailure(new IllegalArgumentException("unknown product")));
+    }
+
+    private static String sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "late";
+    }
+}
@@ -0,0 +1,178 @@
+package org.netno;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.Base64;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExchangeSimulatorTest {
+
+    private final HttpClient http = HttpClient.newHttpClient();
+    private ExchangeSimulator simulator;
+
+    // BTC at a fixed price of 50000, 6% down from yesterday
+    private static JSONObject settings() {
+        return new JSONObject()
+                .put("port", 0)
+                .put("usdcBalance", "1000")
+                .put("takerFeePercentage", 0.4)
+                .put("createUnknownProducts", false)
+                .put("products", new JSONObject().put("BTC", new JSONObject()
+                        .put("price", 50000).put("change24h", -6.0).put("volatility", 0)
+                        .put("spreadPercentage", 0).put("baseIncrement", "0.0001")));
+    }
+
+    private void start(JSONObject settings) throws Exception {
+        simulator = new ExchangeSimulator(settings);
+        simulator.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        simulator.stop();
+    }
+
+    private HttpResponse<String> get(String path, String token) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(simulator.baseUrl() + path));
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        return http.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private JSONObject order(String side, String baseSize) throws Exception {
+        return order(side, baseSize, UUID.randomUUID().toString());
+    }
+
+    private JSONObject order(String side, String baseSize, String clientOrderId) throws Exception {
+        JSONObject order = new JSONObject()
+                .put("client_order_id", clientOrderId)
+                .put("product_id", "BTC-USDC")
+                .put("side", side)
+                .put("order_configuration", new JSONObject()
+                        .put("market_market_ioc", new JSONObject().put("base_size", baseSize)));
+        HttpRequest request = HttpRequest.newBuilder(URI.create(simulator.baseUrl() + "/orders"))
+                .POST(HttpRequest.BodyPublishers.ofString(order.toString()))
+                .header("Content-Type", "application/json")
+                .build();
+        return new JSONObject(http.send(request, HttpResponse.BodyHandlers.ofString()).body());
+    }
+
+    @Test
+    void testProduct() throws Exception {
+        start(settings());
+
+        HttpResponse<String> response = get("/products/BTC-USDC", null);
+
+        assertEquals(200, response.statusCode());
+        JSONObject product = new JSONObject(response.body());
+        assertEquals(50000.0, Double.parseDouble(product.getString("price")));
+        assertEquals(-6.0, Double.parseDouble(product.getString("price_percentage_change_24h")), 1e-9);
+        assertEquals("0.0001", product.getString("base_increment"));
+        assertEquals(404, get("/products/ETH-USDC", null).statusCode());
+    }
+
+    @Test
+    void testBuyAndSellChargeFees() throws Exception {
+        start(settings());
+
+        JSONObject bought = order("BUY", "0.01");
+        assertTrue(bought.getBoolean("success"));
+        // 500 USDC plus 0.4% fee
+        assertEquals(0, new BigDecimal("498").compareTo(simulator.balance("USDC")));
+        assertEquals(0, new BigDecimal("0.01").compareTo(simulator.balance("BTC")));
+
+        JSONObject status = new JSONObject(get("/orders/historical/"
+                + bought.getJSONObject("success_response").getString("order_id"), null).body());
+        assertEquals("FILLED", status.getJSONObject("order").getString("status"));
+
+        assertTrue(order("SELL", "0.01").getBoolean("success"));
+        assertEquals(0, new BigDecimal("996").compareTo(simulator.balance("USDC")));
+
+        JSONObject breakdown = new JSONObject(get("/portfolios/simulated-portfolio", null).body());
+        assertEquals("996.00", breakdown.getJSONObject("breakdown").getJSONObject("portfolio_balances")
+                .getJSONObject("total_cash_equivalent_balance").getString("value"));
+    }
+
+    @Test
+    void testRejectedOrders() throws Exception {
+        start(settings());
+
+        JSONObject tooPrecise = order("BUY", "0.00001");
+        assertFalse(tooPrecise.getBoolean("success"));
+        assertEquals("INVALID_SIZE_PRECISION", tooPrecise.getJSONObject("error_response").getString("error"));
+
+        JSONObject tooExpensive = order("BUY", "1");
+        assertEquals("INSUFFICIENT_FUND", tooExpensive.getJSONObject("error_response").getString("error"));
+
+        JSONObject notHeld = order("SELL", "0.01");
+        assertEquals("INSUFFICIENT_FUND", notHeld.getJSONObject("error_response").getString("error"));
+        assertEquals(0, new BigDecimal("1000").compareTo(simulator.balance("USDC")));
+    }
+
+    @Test
+    void testRepeatedClientOrderIdPlacesNoNewOrder() throws Exception {
+        start(settings());
+
+        JSONObject first = order("BUY", "0.01", "resent");
+        JSONObject again = order("BUY", "0.01", "resent");
+
+        assertEquals(first.getString("order_id"), again.getString("order_id"));
+        assertEquals(0, new BigDecimal("0.01").compareTo(simulator.balance("BTC")));
+    }
+
+    @Test
+    void testRateLimit() throws Exception {
+        start(settings().put("rateLimitPerSecond", 2));
+
+        assertEquals(200, get("/portfolios", null).statusCode());
+        assertEquals(200, get("/portfolios", null).statusCode());
+        assertEquals(429, get("/portfolios", null).statusCode());
+        assertEquals(Long.valueOf(3), simulator.requestCounts().get("GET portfolios"));
+    }
+
+    @Test
+    void testSignedToken() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        KeyPair keys = generator.generateKeyPair();
+        String publicKey = "-----BEGIN PUBLIC KEY-----\n"
+                + Base64.getEncoder().encodeToString(keys.getPublic().getEncoded()) + "\n-----END PUBLIC KEY-----";
+        start(settings().put("apiKey", "test-key").put("publicKey", publicKey));
+
+        String path = ExchangeSimulator.BASE_PATH + "/portfolios";
+        String token = token(keys, "GET localhost" + path);
+        assertEquals(401, get("/portfolios", null).statusCode());
+        assertEquals(200, get("/portfolios", token).statusCode());
+        assertEquals(401, get("/portfolios", token(keys, "GET localhost" + path + "/other")).statusCode());
+
+        KeyPair otherKeys = generator.generateKeyPair();
+        assertEquals(401, get("/portfolios", token(otherKeys, "GET localhost" + path)).statusCode());
+    }
+
+    private static String token(KeyPair keys, String uri) throws Exception {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        long now = System.currentTimeMillis() / 1000;
+        String header = encoder.encodeToString(new JSONObject().put("alg", "ES256").put("kid", "test-key")
+                .toString().getBytes(StandardCharsets.UTF_8));
+        String claims = encoder.encodeToString(new JSONObject().put("sub", "test-key").put("iss", "cdp")
+                .put("nbf", now).put("exp", now + 120).put("uri", uri).toString().getBytes(StandardCharsets.UTF_8));
+        Signature signer = Signature.getInstance("SHA256withECDSAinP1363Format");
+        signer.initSign(keys.getPrivate());
+        signer.update((header + "." + claims).getBytes(StandardCharsets.US_ASCII));
+        return header + "." + claims + "." + encoder.encodeToString(signer.sign());
+    }
+}
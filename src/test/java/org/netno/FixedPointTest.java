@@ -0,0 +1,79 @@
+package org.netno;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FixedPointTest {
+
+    @Test
+    void testFromDoubleIsExactForDecimals() {
+        assertEquals(48900000L, FixedPoint.fromDouble(0.489, FixedPoint.PRICE_SCALE, RoundingMode.HALF_EVEN));
+        // 0.1 + 0.2 is 0.30000000000000004 as a double
+        assertEquals(300L, FixedPoint.fromDouble(0.1 + 0.2, 3, RoundingMode.HALF_EVEN));
+        assertEquals(1234L, FixedPoint.fromDouble(12.345, 2, RoundingMode.HALF_DOWN));
+        assertEquals(1235L, FixedPoint.fromDouble(12.345, 2, RoundingMode.HALF_UP));
+    }
+
+    @Test
+    void testParse() {
+        assertEquals(10000L, FixedPoint.parse("0.00010000", 8, RoundingMode.UNNECESSARY));
+        assertEquals(10000L, FixedPoint.parse("1.0E-4", 8, RoundingMode.UNNECESSARY));
+        assertEquals(-9712345L, FixedPoint.parse("-97123.45", 2, RoundingMode.UNNECESSARY));
+        assertThrows(NumberFormatException.class, () -> FixedPoint.parse("abc", 2, RoundingMode.DOWN));
+    }
+
+    @Test
+    void testToPlainString() {
+        assertEquals("400.000", FixedPoint.toPlainString(400000, 3));
+        assertEquals("0.00000001", FixedPoint.toPlainString(1, 8));
+        assertEquals("-1.50", FixedPoint.toPlainString(-150, 2));
+        assertEquals("42", FixedPoint.toPlainString(42, 0));
+        assertEquals("-9223372036854775808", FixedPoint.toPlainString(Long.MIN_VALUE, 0));
+        assertEquals("-92233720368.54775808", FixedPoint.toPlainString(Long.MIN_VALUE, 8));
+        assertEquals("92233720368.54775807", FixedPoint.toPlainString(Long.MAX_VALUE, 8));
+    }
+
+    @Test
+    void testScaleOf() {
+        assertEquals(3, FixedPoint.scaleOf(0.001));
+        assertEquals(8, FixedPoint.scaleOf(0.00000001));
+        assertEquals(0, FixedPoint.scaleOf(1));
+    }
+
+    @Test
+    void testMulDivPow10RoundsOnce() {
+        // 2.5 rounds to 2 with HALF_DOWN and HALF_EVEN, to 3 with HALF_UP
+        assertEquals(2, FixedPoint.mulDivPow10(5, 5, 1, RoundingMode.HALF_DOWN));
+        assertEquals(2, FixedPoint.mulDivPow10(5, 5, 1, RoundingMode.HALF_EVEN));
+        assertEquals(3, FixedPoint.mulDivPow10(5, 5, 1, RoundingMode.HALF_UP));
+        assertEquals(-3, FixedPoint.mulDivPow10(-5, 5, 1, RoundingMode.HALF_UP));
+        // 100,000 USDC times 1 BTC at 8 places each does not fit into a long before dividing
+        assertEquals(10000000L, FixedPoint.mulDivPow10(10000000000000L, 100000000L, 14, RoundingMode.UNNECESSARY));
+        // exponents above 18 are divided in two steps
+        assertEquals(22000L, FixedPoint.mulDivPow10(11000000000000L, 200000000000L, 20, RoundingMode.UNNECESSARY));
+    }
+
+    @Test
+    void testMulDivOverflow() {
+        assertThrows(ArithmeticException.class,
+                () -> FixedPoint.mulDiv(Long.MAX_VALUE, Long.MAX_VALUE, 1, RoundingMode.DOWN));
+    }
+
+    @Test
+    void testWeightedAverage() {
+        assertEquals(49450000L, FixedPoint.weightedAverage(50000000L, 100000L, 48900000L, 100000L, RoundingMode.HALF_DOWN));
+    }
+
+    @Test
+    void testTradeInfoFeesAreRoundedToCents() {
+        TradeInfo tradeInfo = TradeInfo.ofPurchase(50000000L, 100000L, 3, LocalDateTime.now(), 4000L);
+        // 50 USDC * 0.4 % = 0.20 USDC
+        assertEquals(0.20, tradeInfo.getPurchaseFee());
+        // (0.6 - 0.5) * 100 - 0.20 purchase fee - 0.24 sale fee
+        assertEquals(9.56, tradeInfo.getWinLossIncludingFees(0.6, 0.4));
+    }
+}
@@ -0,0 +1,112 @@
+package org.netno;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlightEventsTest {
+
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        file = Files.createTempFile("trading", ".jfr");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    // The events of this class recorded while events runs
+    private List<RecordedEvent> record(Runnable events) throws Exception {
+        try (Recording recording = new Recording()) {
+            for (String name : List.of("Tick", "MarketData", "Order", "AssetsSave", "LockWait")) {
+                recording.enable("org.netno." + name);
+            }
+            recording.start();
+            events.run();
+            recording.stop();
+            recording.dump(file);
+        }
+        return RecordingFile.readAllEvents(file).stream()
+                .filter(event -> event.getEventType().getName().startsWith("org.netno."))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void testEventsCarryTheirFields() throws Exception {
+        List<RecordedEvent> events = record(() -> {
+            FlightEvents.Tick tick = new FlightEvents.Tick("executeTrade");
+            tick.evaluated(false, 18, 3);
+            tick.finish();
+            new FlightEvents.MarketData("getProduct", "BTC-USDC").finish("TIMEOUT");
+            new FlightEvents.Order(new PendingOrders.Order("client-1", "SOL", "SOL-USDC", "SELL", 1_500, 3,
+                    15_000_000_000L, false), true).finish("PLACED");
+            new FlightEvents.AssetsSave("currentAssets.json", 3).finish("OK");
+        });
+
+        assertEquals(List.of("org.netno.Tick", "org.netno.MarketData", "org.netno.Order", "org.netno.AssetsSave"),
+                events.stream().map(event -> event.getEventType().getName()).collect(Collectors.toList()));
+        assertEquals("executeTrade", events.get(0).getString("task"));
+        assertEquals(18, events.get(0).getInt("coins"));
+        assertEquals("BTC-USDC", events.get(1).getString("pair"));
+        assertEquals("TIMEOUT", events.get(1).getString("outcome"));
+        assertEquals("SOL", events.get(2).getString("coin"));
+        assertEquals("client-1", events.get(2).getString("clientOrderId"));
+        assertTrue(events.get(2).getBoolean("resent"));
+        assertEquals("PLACED", events.get(2).getString("outcome"));
+        assertNull(events.get(2).getStackTrace());
+        assertEquals(3, events.get(3).getInt("held"));
+    }
+
+    @Test
+    void testTickOutcome() throws Exception {
+        List<RecordedEvent> events = record(() -> {
+            FlightEvents.Tick tick = new FlightEvents.Tick("poll");
+            tick.evaluated(true, 18, 3);
+            tick.finish();
+            new FlightEvents.Tick("evaluateInitialPurchase").finish(); // threw before it was evaluated
+        });
+
+        assertEquals("FAILED", events.get(0).getString("outcome"));
+        assertEquals(3, events.get(0).getInt("held"));
+        assertEquals("FAILED", events.get(1).getString("outcome"));
+    }
+
+    @Test
+    void testOnlyLongLockWaitsAreRecorded() throws Exception {
+        List<RecordedEvent> events = record(() -> {
+            new FlightEvents.LockWait("TradingBot", "poll").acquired();
+            FlightEvents.LockWait wait = new FlightEvents.LockWait("TradingBot", "sell");
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            wait.acquired();
+        });
+
+        assertEquals(1, events.size());
+        assertEquals("sell", events.get(0).getString("task"));
+        assertTrue(events.get(0).getDuration().toMillis() >= 5);
+    }
+
+    @Test
+    void testOutcomeOfFailedCalls() {
+        assertEquals("CIRCUIT_OPEN", FlightEvents.outcome(new CircuitBreaker.OpenException("getProduct")));
+        assertEquals("TIMEOUT", FlightEvents.outcome(new IllegalStateException(new TimeoutException())));
+        assertEquals("FAILED", FlightEvents.outcome(new IllegalStateException("rejected")));
+    }
+}
@@ -0,0 +1,118 @@
+package org.netno;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndicatorEngineTest {
+
+    private static final long TICK = 15_000;
+
+    private final IndicatorEngine engine = new IndicatorEngine();
+
+    @Test
+    void testConstantPrice() {
+        for (int i = 0; i < IndicatorEngine.FAST_EMA_SAMPLES; i++) {
+            engine.update("BTC", i * TICK, 100, 0);
+        }
+        IndicatorEngine.Values values = engine.get("BTC");
+        assertFalse(values.isReady());
+        engine.update("BTC", IndicatorEngine.FAST_EMA_SAMPLES * TICK, 100, 0);
+
+        values = engine.get("BTC");
+        assertTrue(values.isReady());
+        assertEquals(100, values.getFastEma(), 1e-9);
+        assertEquals(100, values.getSlowEma(), 1e-9);
+        assertEquals(50, values.getRsi(), 1e-9);
+        assertEquals(0, values.getHourlyVolatilityPercent(), 1e-9);
+        assertTrue(Double.isNaN(values.getVwap()));
+        assertFalse(engine.isFalling("BTC"));
+        assertNull(engine.get("ETH"));
+    }
+
+    @Test
+    void testRsi() {
+        // 10 gains and 4 losses of 1, then one more gain of 1 smoothed in
+        double price = 100;
+        engine.update("BTC", 0, price, 0);
+        for (int i = 1; i <= 14; i++) {
+            price += i <= 10 ? 1 : -1;
+            engine.update("BTC", i * TICK, price, 0);
+        }
+        assertEquals(100 - 100 / (1 + 10.0 / 4), engine.get("BTC").getRsi(), 1e-9);
+
+        engine.update("BTC", 15 * TICK, price + 1, 0);
+        double gain = (10.0 / 14 * 13 + 1) / 14;
+        double loss = (4.0 / 14 * 13) / 14;
+        assertEquals(100 - 100 / (1 + gain / loss), engine.get("BTC").getRsi(), 1e-9);
+    }
+
+    @Test
+    void testHourlyVolatility() {
+        // log returns of +-1% every 15 seconds
+        for (int i = 0; i < 100; i++) {
+            engine.update("BTC", i * TICK, i % 2 == 0 ? 100 : 100 * Math.exp(0.01), 0);
+        }
+        double expected = Math.sqrt(0.0001 / 15 * 3600) * 100;
+        assertEquals(expected, engine.get("BTC").getHourlyVolatilityPercent(), 1e-9);
+    }
+
+    @Test
+    void testVwapWeightsByVolumeGrowth() {
+        engine.update("BTC", 0, 10, 100);
+        engine.update("BTC", TICK, 10, 101);
+        engine.update("BTC", 2 * TICK, 20, 104);
+        engine.update("BTC", 3 * TICK, 30, 90); // the 24h window dropped old trades, nothing to weigh
+
+        double decay = 1 - 2.0 / (IndicatorEngine.SLOW_EMA_SAMPLES + 1);
+        double expected = (10 * decay + 20 * 3) / (decay + 3);
+        assertEquals(expected, engine.get("BTC").getVwap(), 1e-9);
+    }
+
+    @Test
+    void testFalling() {
+        for (int i = 0; i < 30; i++) {
+            engine.update("BTC", i * TICK, 100, 0);
+        }
+        for (int i = 30; i < 40; i++) {
+            engine.update("BTC", i * TICK, 100 - (i - 29), 0);
+        }
+        assertTrue(engine.isFalling("BTC"));
+        assertTrue(engine.get("BTC").getRsi() < 30);
+
+        engine.update("BTC", 40 * TICK, 100, 0);
+        assertFalse(engine.isFalling("BTC"));
+    }
+
+    @Test
+    void testRetain() {
+        engine.update("BTC", 0, 100, 0);
+        engine.update("ETH", 0, 10, 0);
+        engine.update("SOL", 0, 0, 0); // no price, ignored
+
+        engine.retain("ETH"::equals);
+
+        assertEquals(1, engine.getAll().size());
+        assertNotNull(engine.get("ETH"));
+    }
+
+    @Test
+    void testSmoothingFollowsTimeNotPolls() {
+        IndicatorEngine polledEverySecond = new IndicatorEngine();
+        for (long millis = 0; millis <= 3_600_000; millis += 1_000) {
+            double price = millis < 1_800_000 ? 100 : 90;
+            polledEverySecond.update("BTC", millis, price, 0);
+            if (millis % TICK == 0) {
+                engine.update("BTC", millis, price, 0);
+            }
+            if (millis == 30_000) {
+                assertFalse(polledEverySecond.get("BTC").isReady()); // 31 samples, but only 30 seconds
+            }
+        }
+
+        // half an hour after the drop the 1 hour average is about as far along either way
+        assertEquals(engine.get("BTC").getSlowEma(), polledEverySecond.get("BTC").getSlowEma(), 0.05);
+        assertEquals(engine.get("BTC").getFastEma(), polledEverySecond.get("BTC").getFastEma(), 0.05);
+        assertTrue(polledEverySecond.get("BTC").getSlowEma() > 92);
+    }
+}
@@ -0,0 +1,102 @@
+package org.netno;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LeaderElectionTest {
+
+    private Path file;
+    private LeaderElection first;
+    private LeaderElection second;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        file = Files.createTempFile("leader", ".lock");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (first != null) {
+            first.stop();
+        }
+        if (second != null) {
+            second.stop();
+        }
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void testOnlyOneLeader() throws Exception {
+        AtomicInteger elected = new AtomicInteger();
+        first = new LeaderElection(file.toString(), 10, () -> { }, elected::incrementAndGet);
+        second = new LeaderElection(file.toString(), 10, () -> { }, elected::incrementAndGet);
+
+        assertTrue(first.start());
+        assertFalse(second.start());
+        Thread.sleep(100);
+
+        assertEquals(1, elected.get());
+        assertTrue(first.isLeader());
+        assertFalse(second.isLeader());
+        assertTrue(Files.readString(file).startsWith("pid " + ProcessHandle.current().pid()));
+    }
+
+    @Test
+    void testStandbyTakesOverAfterStop() throws Exception {
+        CountDownLatch elected = new CountDownLatch(1);
+        AtomicInteger standingBy = new AtomicInteger();
+        first = new LeaderElection(file.toString(), 10, () -> { }, () -> { });
+        second = new LeaderElection(file.toString(), 10, standingBy::incrementAndGet, elected::countDown);
+        first.start();
+        second.start();
+        Thread.sleep(50);
+        assertTrue(standingBy.get() > 0);
+
+        first.stop();
+
+        assertTrue(elected.await(5, TimeUnit.SECONDS));
+        assertTrue(second.isLeader());
+    }
+
+    @Test
+    void testStoppedStandbyIsNeverElected() throws Exception {
+        AtomicInteger elected = new AtomicInteger();
+        first = new LeaderElection(file.toString(), 10, () -> { }, () -> { });
+        second = new LeaderElection(file.toString(), 10, () -> { }, elected::incrementAndGet);
+        first.start();
+        second.start();
+
+        second.stop();
+        first.stop();
+        Thread.sleep(100);
+
+        assertEquals(0, elected.get());
+        assertFalse(second.isLeader());
+    }
+
+    @Test
+    void testFailedTakeOverGivesUpTheLead() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        first = new LeaderElection(file.toString(), 10, () -> { }, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IllegalStateException("assets unreadable");
+            }
+        });
+
+        assertFalse(first.start());
+
+        // the standby may already have retried, which needs the lock the failed takeover released
+        Thread.sleep(100);
+        assertEquals(2, attempts.get()); // tried again and led from then on
+        assertTrue(first.isLeader());
+    }
+}
@@ -0,0 +1,161 @@
+package org.netno;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogStoreTest {
+
+    private static final ZonedDateTime START = ZonedDateTime.of(2024, 3, 1, 10, 0, 0, 0, ZoneOffset.UTC);
+    private static final TradingBot.LogLevel INFO = TradingBot.LogLevel.INFO;
+
+    private Path directory;
+    private LogStore store;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        directory = Files.createTempDirectory("logs");
+        store = new LogStore(directory, 200 * 1024);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        store.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private List<String> files() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    void testRotatesAndCompressesSegments() throws Exception {
+        // more than one segment of several blocks
+        for (int i = 0; i < 5000; i++) {
+            store.append(START.plusSeconds(i), INFO, String.format("Entry %d about %s.", i, i % 2 == 0 ? "BTC" : "ETH"));
+        }
+        store.awaitCompression();
+
+        List<String> files = files();
+        assertTrue(files.contains("trading.log"));
+        assertTrue(files.contains("trading-20240301-100000.log.gz"));
+        assertTrue(files.contains("trading-20240301-100000.idx"));
+        assertFalse(files.contains("trading-20240301-100000.log"));
+        // the gzip members read as one file
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(
+                Files.readAllBytes(directory.resolve("trading-20240301-100000.log.gz"))))) {
+            String text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(text.startsWith("[2024-03-01 10:00:00.000 +00:00] [INFO] Entry 0 about BTC."));
+        }
+
+        List<LogStore.Entry> entries = store.search(null, INFO, 0, Long.MAX_VALUE, 10_000);
+        assertEquals(5000, entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(START.plusSeconds(i).toInstant().toEpochMilli(), entries.get(i).getEpochMillis());
+        }
+    }
+
+    @Test
+    void testSearchByCoinLevelAndTime() throws Exception {
+        for (int i = 0; i < 3000; i++) {
+            String coin = i % 3 == 0 ? "SOL" : "BTC";
+            TradingBot.LogLevel level = i % 10 == 0 ? TradingBot.LogLevel.ERROR : TradingBot.LogLevel.DEBUG;
+            store.append(START.plusMinutes(i), level, "Price of " + coin + " fetched.");
+        }
+        store.awaitCompression();
+
+        long from = START.plusMinutes(600).toInstant().toEpochMilli();
+        long to = START.plusMinutes(1200).toInstant().toEpochMilli();
+        List<LogStore.Entry> entries = store.search("SOL", TradingBot.LogLevel.ERROR, from, to, 1000);
+
+        assertEquals(21, entries.size()); // every 30th minute from 600 to 1200
+        for (LogStore.Entry entry : entries) {
+            assertEquals("ERROR", entry.getLevel());
+            assertTrue(entry.getText().endsWith("Price of SOL fetched."));
+            assertTrue(entry.getEpochMillis() >= from && entry.getEpochMillis() <= to);
+        }
+        assertEquals(5, store.search("SOL", TradingBot.LogLevel.ERROR, from, to, 5).size());
+        assertEquals(to, store.search("SOL", TradingBot.LogLevel.ERROR, from, to, 1).get(0).getEpochMillis());
+        assertTrue(store.search("XRP", TradingBot.LogLevel.TRACE, 0, Long.MAX_VALUE, 10).isEmpty());
+    }
+
+    @Test
+    void testRotatesEveryDay() throws Exception {
+        store.append(START, INFO, "Bought BTC.");
+        store.append(START.plusDays(1), INFO, "Sold BTC.");
+        store.awaitCompression();
+
+        assertTrue(files().contains("trading-20240301-100000.idx"));
+        List<LogStore.Entry> entries = store.search("BTC", INFO, 0, Long.MAX_VALUE, 10);
+        assertEquals(2, entries.size());
+        assertTrue(entries.get(1).getText().endsWith("Sold BTC."));
+    }
+
+    @Test
+    void testSegmentsOfEarlierRunAreCompressed() throws Exception {
+        store.append(START, INFO, "Bought BTC.");
+        store.append(START.plusSeconds(1), TradingBot.LogLevel.ERROR,
+                "Failed to sell SOL\njava.io.IOException: timeout\n\tat org.netno.TradingBot.sellCoin");
+        store.close();
+
+        LogStore restarted = new LogStore(directory, 200 * 1024);
+        restarted.append(START.plusSeconds(2), INFO, "TradingBot initialized.");
+        restarted.awaitCompression();
+
+        assertEquals(1, files().stream().filter(file -> file.endsWith(".idx")).count());
+        List<LogStore.Entry> entries = restarted.search("SOL", TradingBot.LogLevel.ERROR, 0, Long.MAX_VALUE, 10);
+        assertEquals(1, entries.size());
+        assertTrue(entries.get(0).getText().endsWith("\tat org.netno.TradingBot.sellCoin"));
+        assertEquals(3, restarted.search(null, INFO, 0, Long.MAX_VALUE, 10).size());
+        restarted.close();
+    }
+
+    @Test
+    void testStandbyDoesNotRotateTheLeadersLog() throws Exception {
+        store.append(START, INFO, "Bought BTC.");
+
+        LogStore standby = new LogStore(directory, 200 * 1024);
+        assertFalse(standby.append(START.plusSeconds(1), TradingBot.LogLevel.DEBUG, "Reloaded 1 held coins."));
+        store.append(START.plusSeconds(2), INFO, "Sold BTC.");
+        assertEquals(List.of("trading.lock", "trading.log"), files());
+        assertEquals(2, store.search("BTC", INFO, 0, Long.MAX_VALUE, 10).size());
+
+        store.close(); // the leader stops
+        assertTrue(standby.append(START.plusSeconds(3), INFO, "Taking over."));
+        standby.awaitCompression();
+        assertEquals(3, standby.search(null, INFO, 0, Long.MAX_VALUE, 10).size());
+        standby.close();
+    }
+
+    @Test
+    void testClosedStoreLetsTheNextOneWrite() throws Exception {
+        store.append(START, INFO, "Stopping trading loop...");
+        store.close();
+        assertFalse(store.append(START.plusSeconds(1), INFO, "Trading stopped."));
+
+        // trading started again in the same process
+        LogStore next = new LogStore(directory, 200 * 1024);
+        assertTrue(next.append(START.plusSeconds(2), INFO, "Starting trading loop..."));
+        next.awaitCompression();
+        assertEquals(2, next.search(null, INFO, 0, Long.MAX_VALUE, 10).size());
+        next.close();
+    }
+}
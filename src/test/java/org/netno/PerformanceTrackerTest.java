@@ -0,0 +1,84 @@
+package org.netno;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PerformanceTrackerTest {
+
+    private static final long HOUR = 3_600_000;
+
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        file = Files.createTempFile("performance", ".jsonl");
+        Files.delete(file);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void testTotalsAfterTrades() {
+        PerformanceTracker tracker = new PerformanceTracker(null);
+        tracker.bought(0, "BTC", "a", 50);
+        tracker.bought(HOUR, "ETH", "b", 30);
+        tracker.sold(3 * HOUR, "BTC", "c", 1_000, 55, 3 * HOUR);
+        tracker.sold(2 * HOUR, "ETH", "d", -400, 25, HOUR);
+        tracker.sample(4 * HOUR, 250);
+
+        JSONObject summary = tracker.summary();
+        assertEquals(6.0, summary.getDouble("realized"));
+        assertEquals(2.5, summary.getDouble("unrealized"));
+        assertEquals(8.5, summary.getDouble("total"));
+        assertEquals(1.6, summary.getDouble("fees"));
+        assertEquals(2, summary.getInt("sales"));
+        assertEquals(50.0, summary.getDouble("winRate"));
+        assertEquals(2.0, summary.getDouble("averageHoldHours"));
+    }
+
+    @Test
+    void testEquityIsSampledEveryInterval() {
+        PerformanceTracker tracker = new PerformanceTracker(null);
+        for (long time = 0; time <= HOUR; time += 60_000) {
+            tracker.sample(PerformanceTracker.EQUITY_MILLIS + time, time / 60_000); // a cent per minute
+        }
+
+        assertEquals(5, tracker.size()); // at 0, 15, 30, 45 and 60 minutes
+        List<PerformanceTracker.Event> page = tracker.page(1, 2);
+        assertEquals(2, page.size());
+        assertEquals(PerformanceTracker.EQUITY_MILLIS + 45 * 60_000, page.get(0).getTime());
+        assertEquals(0.3, page.get(1).getUnrealized()); // 30 minutes in
+        assertTrue(tracker.page(5, 10).isEmpty());
+    }
+
+    @Test
+    void testTotalsContinueAfterRestart() throws Exception {
+        PerformanceTracker tracker = new PerformanceTracker(file);
+        tracker.bought(0, "BTC", "a", 50);
+        tracker.sold(HOUR, "BTC", "b", 1_000, 55, HOUR);
+        // a crash while writing the next line
+        Files.writeString(file, "{\"time\":7200000,\"type\":\"BU", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        PerformanceTracker restarted = new PerformanceTracker(file);
+        restarted.sold(2 * HOUR, "BTC", "b", 1_000, 55, HOUR); // sent again after the restart
+        restarted.bought(3 * HOUR, "SOL", "c", 20);
+
+        assertEquals(3, restarted.size());
+        assertEquals(10.0, restarted.summary().getDouble("realized"));
+        assertEquals(1.25, restarted.summary().getDouble("fees"));
+        assertEquals(3, new PerformanceTracker(file).size());
+    }
+}
@@ -0,0 +1,44 @@
+package org.netno;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PollingPlannerTest {
+
+    @Test
+    void testIntervalFromDistanceAndVolatility() {
+        assertEquals(14_400, PollingPlanner.intervalMillis(0.2, 1.0, 15_000)); // (0.2 / 1)^2 h / 10
+        assertEquals(PollingPlanner.MIN_MILLIS, PollingPlanner.intervalMillis(0.01, 1.0, 15_000));
+        assertEquals(PollingPlanner.MIN_MILLIS, PollingPlanner.intervalMillis(-0.5, 1.0, 15_000)); // already past
+        assertEquals(PollingPlanner.MAX_MILLIS, PollingPlanner.intervalMillis(3.0, 1.0, 15_000));
+        assertEquals(15_000, PollingPlanner.intervalMillis(0.2, Double.NaN, 15_000));
+        assertEquals(15_000, PollingPlanner.intervalMillis(Double.NaN, 1.0, 15_000));
+    }
+
+    @Test
+    void testCoinIsDueAfterItsInterval() {
+        PollingPlanner planner = new PollingPlanner(15_000, 0);
+        assertTrue(planner.isDue("BTC", 0)); // never polled
+
+        planner.polled("BTC", 0, 0.2, 1.0);
+
+        assertFalse(planner.isDue("BTC", 10_000));
+        assertTrue(planner.isDue("BTC", 14_000)); // within half a pass
+        assertEquals(14_400L, (long) planner.getIntervals().get("BTC"));
+    }
+
+    @Test
+    void testIntervalsStretchedToTheBudget() {
+        PollingPlanner planner = new PollingPlanner(15_000, 2);
+        for (String coin : new String[] { "BTC", "ETH", "SOL", "ADA" }) {
+            planner.polled(coin, 0, 0.01, 1.0); // each wants a poll per second
+        }
+
+        assertEquals(2_000L, (long) planner.getIntervals().get("BTC"));
+        assertFalse(planner.isDue("BTC", 1_000));
+
+        planner.retain(coin -> coin.equals("BTC") || coin.equals("ETH"));
+        assertEquals(1_000L, (long) planner.getIntervals().get("BTC"));
+    }
+}
@@ -0,0 +1,125 @@
+package org.netno;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PositionBookTest {
+
+    private final LocalDateTime purchaseDate = LocalDateTime.of(2025, 1, 15, 10, 30, 0);
+
+    @Test
+    void testPutAndGetReturnsWriteThroughView() {
+        PositionBook book = new PositionBook();
+        book.put("SOL", new TradeInfo(0.50, 100, purchaseDate, 0.50, 0.2, 0, 3));
+
+        TradeInfo view = book.get("SOL");
+        assertEquals(0.50, view.getPurchasePrice());
+        assertEquals(100.0, view.getAmount());
+        assertEquals(purchaseDate, view.getPurchaseDate());
+
+        // averaging down through the view updates the columns
+        view.updatePurchase(48900000L, 100000L, 0);
+        TradeInfo copy = new PositionBook(book).get("SOL");
+        assertEquals(49450000L, copy.purchasePriceUnits());
+        assertEquals(200000L, copy.amountUnits());
+        assertEquals(1, copy.getAverageDownStepIndex());
+        assertEquals(0.4945, book.get("SOL").getHighestPrice());
+        assertSame(view, book.get("SOL"));
+    }
+
+    @Test
+    void testRemoveKeepsRowsDense() {
+        PositionBook book = new PositionBook();
+        book.put("BTC", new TradeInfo(1.0, 1, purchaseDate, 1.0, 0, 0, 8));
+        book.put("ETH", new TradeInfo(2.0, 1, purchaseDate, 2.0, 0, 0, 8));
+        book.put("SOL", new TradeInfo(3.0, 1, purchaseDate, 3.0, 0, 0, 8));
+        TradeInfo solView = book.get("SOL");
+
+        TradeInfo removed = book.remove("BTC");
+        assertEquals(1.0, removed.getPurchasePrice());
+        assertEquals(2, book.size());
+        assertFalse(book.containsKey("BTC"));
+        // the last row moved into the free row, existing views follow it
+        assertEquals(3.0, solView.getPurchasePrice());
+        assertNull(book.get("BTC"));
+        assertEquals(2.0, book.get("ETH").getPurchasePrice());
+    }
+
+    @Test
+    void testViewOfSoldCoinThrows() {
+        PositionBook book = new PositionBook();
+        book.put("ETH", new TradeInfo(2.0, 1, purchaseDate, 2.0, 0, 0, 8));
+        TradeInfo view = book.get("ETH");
+        book.remove("ETH");
+        assertThrows(IllegalStateException.class, view::getAmount);
+    }
+
+    @Test
+    void testGrowsBeyondInitialCapacity() {
+        Map<String, TradeInfo> positions = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            positions.put("C" + i, new TradeInfo(1.0, 2, purchaseDate, 1.0, 0, 0, 0));
+        }
+        PositionBook book = new PositionBook(positions);
+        assertEquals(1000, book.size());
+        assertEquals(positions.keySet(), book.keySet());
+        // 1000 positions of 2 coins at 1 USDC
+        assertEquals(2000L * FixedPoint.pow10(FixedPoint.PRICE_SCALE), book.totalInvested());
+
+        long[] prices = new long[book.coinCount()];
+        java.util.Arrays.fill(prices, FixedPoint.pow10(FixedPoint.PRICE_SCALE) / 2);
+        assertEquals(1000L * FixedPoint.pow10(FixedPoint.PRICE_SCALE), book.totalValue(prices));
+    }
+
+    @Test
+    void testRowScanReadsAndWritesTheColumns() {
+        PositionBook book = new PositionBook();
+        book.put("BTC", new TradeInfo(1.0, 1, purchaseDate, 1.0, 0, 0, 8));
+        book.put("ETH", new TradeInfo(2.0, 3, purchaseDate, 2.0, 0, 1, 8));
+        TradeInfo ethView = book.get("ETH");
+        Map<String, Long> amounts = new HashMap<>();
+        synchronized (book) {
+            for (int row = 0; row < book.size(); row++) {
+                String coin = book.symbolOf(book.coinIdAt(row));
+                amounts.put(coin, book.amountAt(row));
+                if (coin.equals("ETH")) {
+                    assertEquals(1, book.averageDownStepAt(row));
+                    assertEquals(PositionBook.toEpochMillis(purchaseDate), book.purchaseEpochMillisAt(row));
+                    book.setHighestPriceAt(row, 250000000L);
+                }
+            }
+        }
+        assertEquals(Map.of("BTC", 100000000L, "ETH", 300000000L), amounts);
+        assertEquals(2.5, ethView.getHighestPrice());
+    }
+
+    @Test
+    void testEntrySetIsACopy() {
+        PositionBook book = new PositionBook();
+        book.put("BTC", new TradeInfo(1.0, 1, purchaseDate, 1.0, 0, 0, 8));
+        book.put("ETH", new TradeInfo(2.0, 1, purchaseDate, 2.0, 0, 0, 8));
+        // removing while iterating, as done when selling from a loop over the assets
+        book.forEach((coin, tradeInfo) -> book.remove(coin));
+        assertTrue(book.isEmpty());
+    }
+
+    @Test
+    void testForEachSkipsPositionsSoldMeanwhile() {
+        PositionBook book = new PositionBook();
+        book.put("BTC", new TradeInfo(1.0, 1, purchaseDate, 1.0, 0, 0, 8));
+        book.put("ETH", new TradeInfo(2.0, 1, purchaseDate, 2.0, 0, 0, 8));
+        Map<String, TradeInfo> visited = new HashMap<>();
+        book.forEach((coin, tradeInfo) -> {
+            visited.put(coin, tradeInfo);
+            book.remove(coin.equals("BTC") ? "ETH" : "BTC");
+        });
+        assertEquals(Set.of("BTC"), visited.keySet());
+        assertEquals(Set.of("BTC"), book.keySet());
+    }
+}
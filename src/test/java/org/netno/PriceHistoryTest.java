@@ -0,0 +1,84 @@
+package org.netno;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PriceHistoryTest {
+
+    private static final long START = 1_700_000_000_000L;
+
+    @Test
+    void testReturnsAllSamplesWhenBelowPoints() {
+        PriceHistory history = new PriceHistory(100);
+        for (int i = 0; i < 10; i++) {
+            history.record("BTC", START + i * 15_000L, 100 + i);
+        }
+        PriceHistory.Samples samples = history.query("BTC", START + 5 * 15_000L, 300);
+        assertEquals(5, samples.size());
+        assertEquals(START + 5 * 15_000L, samples.timeAt(0));
+        assertEquals(109, samples.priceAt(4));
+        assertNull(history.query("ETH", START, 300));
+    }
+
+    @Test
+    void testRingKeepsMostRecentSamples() {
+        PriceHistory history = new PriceHistory(4);
+        for (int i = 0; i < 10; i++) {
+            history.record("BTC", START + i * 1000L, i);
+        }
+        PriceHistory.Samples samples = history.query("BTC", 0, 300);
+        assertEquals(4, history.size("BTC"));
+        assertEquals(6, samples.priceAt(0));
+        assertEquals(9, samples.priceAt(3));
+    }
+
+    @Test
+    void testKeepsTheLastSampleOfEachInterval() {
+        PriceHistory history = new PriceHistory(100, 15_000);
+        long start = START - START % 15_000;
+        for (int i = 0; i < 60; i++) {
+            history.record("BTC", start + i * 1000L, 100 + i);
+        }
+        PriceHistory.Samples samples = history.query("BTC", 0, 300);
+        assertEquals(4, history.size("BTC"));
+        assertEquals(start + 14_000, samples.timeAt(0));
+        assertEquals(114, samples.priceAt(0));
+        assertEquals(159, samples.priceAt(3));
+    }
+
+    @Test
+    void testGrowsUntilTheCapacity() {
+        PriceHistory history = new PriceHistory(1000);
+        for (int i = 0; i < 1500; i++) {
+            history.record("BTC", START + i * 15_000L, i);
+        }
+        PriceHistory.Samples samples = history.query("BTC", 0, 2000);
+        assertEquals(1000, samples.size());
+        for (int i = 0; i < samples.size(); i++) {
+            assertEquals(500 + i, samples.priceAt(i));
+        }
+    }
+
+    @Test
+    void testDownsamplingKeepsEndsAndPeaks() {
+        int month = 30 * 24 * 60 * 4;
+        PriceHistory history = new PriceHistory(month);
+        for (int i = 0; i < month; i++) {
+            long price = i == 100_000 ? 5_000 : 1_000 + i % 7;
+            history.record("BTC", START + i * 15_000L, price);
+        }
+        PriceHistory.Samples samples = history.query("BTC", 0, 300);
+        assertEquals(300, samples.size());
+        assertEquals(START, samples.timeAt(0));
+        assertEquals(START + (month - 1) * 15_000L, samples.timeAt(299));
+        boolean peak = false;
+        for (int i = 0; i < samples.size(); i++) {
+            peak |= samples.priceAt(i) == 5_000;
+            if (i > 0) {
+                assertTrue(samples.timeAt(i) > samples.timeAt(i - 1));
+            }
+        }
+        assertTrue(peak);
+    }
+}
@@ -0,0 +1,42 @@
+package org.netno;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseBufferTest {
+
+    @Test
+    void testAppendDecimalKeepsAllDigits() {
+        ResponseBuffer buffer = new ResponseBuffer(4);
+        buffer.appendDecimal(5000, 2).append(" ").appendDecimal(-5, 2).append(" ").appendDecimal(7, 0);
+        assertEquals("50.00 -0.05 7", buffer.toString());
+    }
+
+    @Test
+    void testAppendDecimalStrippedDropsTrailingZeros() {
+        ResponseBuffer buffer = new ResponseBuffer(4);
+        buffer.appendDecimalStripped(500000, 6).append(" ")
+                .appendDecimalStripped(100000000, 6).append(" ")
+                .appendDecimalStripped(0, 6).append(" ")
+                .appendDecimalStripped(-100, 8);
+        assertEquals("0.5 100 0 -0.000001", buffer.toString());
+    }
+
+    @Test
+    void testAppendLongLimits() {
+        ResponseBuffer buffer = new ResponseBuffer(4);
+        buffer.append(Long.MIN_VALUE).append(" ").append(Long.MAX_VALUE);
+        assertEquals("-9223372036854775808 9223372036854775807", buffer.toString());
+    }
+
+    @Test
+    void testResetReusesBuffer() {
+        ResponseBuffer buffer = new ResponseBuffer(4);
+        buffer.append("Käse");
+        assertEquals(5, buffer.size());
+        buffer.reset();
+        buffer.append("ok");
+        assertEquals("ok", buffer.toString());
+    }
+}
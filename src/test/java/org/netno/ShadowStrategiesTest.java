@@ -0,0 +1,96 @@
+package org.netno;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.RoundingMode;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShadowStrategiesTest {
+
+    private static final long USDC = FixedPoint.pow10(FixedPoint.PRICE_SCALE);
+
+    private final ShadowStrategy.Settings live = new ShadowStrategy.Settings("live", null, null, null);
+    private final ShadowStrategy.Settings patient = new ShadowStrategy.Settings("patient", 10.0, null, null);
+    private ShadowStrategies shadows;
+    private Config config;
+    private long time;
+
+    @BeforeEach
+    void setUp() {
+        config = new Config();
+        config.coins = List.of("TEST");
+        config.purchaseDropPercent = 5.0;
+        config.maxHeldCoins = 5;
+        config.useFundsPortionPerTrade = 0.2;
+        config.negativeProfitLevels = List.of(1.0, 2.0, 3.0, 4.0, 5.0);
+        config.averageDownSteps = List.of(0.0, 2.0, 4.0, 6.0);
+        config.minimumProfitPercentage = 2.0;
+        config.stopLossSalePercentage = 1.0;
+        shadows = new ShadowStrategies();
+        shadows.configure(List.of(live, patient));
+    }
+
+    // Evaluates a round with a TEST quote of price USDC and 24h change and waits for it
+    private void round(String price, double change, long liveCents) throws InterruptedException {
+        time += 15_000;
+        Map<String, MarketDataFetcher.Quote> quotes = new HashMap<>();
+        quotes.put("TEST", new MarketDataFetcher.Quote(time, FixedPoint.fromDouble(Double.parseDouble(price),
+                FixedPoint.PRICE_SCALE, RoundingMode.HALF_EVEN), change, 3));
+        assertTrue(shadows.submit(new ShadowStrategies.Round(time, config, new long[] { 0, 20_000, 40_000, 60_000 },
+                0, ZoneId.of("Europe/Berlin"), config.coins, quotes, Set.of(), 1000 * USDC, liveCents)));
+        while (shadows.isRunning()) {
+            Thread.sleep(1);
+        }
+    }
+
+    private JSONObject strategy(String name) {
+        for (Object strategy : shadows.toJson().getJSONArray("strategies")) {
+            if (((JSONObject) strategy).getString("name").equals(name)) {
+                return (JSONObject) strategy;
+            }
+        }
+        throw new AssertionError(name);
+    }
+
+    @Test
+    void testPaperTradesFollowTheOverriddenSettings() throws Exception {
+        round("0.50", -6.0, 0); // a 6% drop: bought for 200 USDC unless 10% are needed
+        assertEquals(Set.of("TEST"), shadows.heldCoins());
+        assertEquals(800.0, strategy("live").getDouble("cash"));
+        assertEquals(1000.0, strategy("patient").getDouble("cash"));
+
+        round("0.60", 12.0, 0);
+        round("0.59", 10.0, 5_000); // 1.7% below the highest price with 18% profit
+        assertEquals(Set.of(), shadows.heldCoins());
+
+        JSONObject result = strategy("live");
+        assertEquals(1036.0, result.getDouble("cash"));
+        assertEquals(36.0, result.getDouble("total"));
+        assertEquals(3.6, result.getDouble("totalPercent"), 1e-9);
+        assertEquals(1, result.getInt("sales"));
+        assertEquals(0.0, strategy("patient").getDouble("total"));
+        assertEquals(50.0, shadows.toJson().getJSONObject("live").getDouble("total"));
+        assertEquals(3, shadows.toJson().getLong("rounds"));
+    }
+
+    @Test
+    void testUnchangedStrategiesKeepTheirPortfolio() throws Exception {
+        round("0.50", -6.0, 0);
+
+        shadows.configure(List.of(live, new ShadowStrategy.Settings("patient", 4.0, null, null)));
+
+        assertEquals(800.0, strategy("live").getDouble("cash"));
+        assertEquals(0.0, strategy("patient").getDouble("startingFunds")); // a new strategy, not started yet
+        round("0.50", -6.0, 0);
+        assertEquals(800.0, strategy("patient").getDouble("cash"));
+        assertEquals(800.0, strategy("live").getDouble("cash"));
+    }
+}
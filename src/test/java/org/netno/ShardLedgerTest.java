@@ -0,0 +1,111 @@
+package org.netno;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardLedgerTest {
+
+    private Path file;
+    private ShardLedger first;
+    private ShardLedger second;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        file = Files.createTempFile("shards", ".json");
+        first = new ShardLedger(file.toString(), 0);
+        second = new ShardLedger(file.toString(), 1);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(Path.of(file + ".lock"));
+    }
+
+    @Test
+    void testHeldCoinsOfAllShardsCount() throws Exception {
+        first.publish(List.of("BTC"), 500);
+        second.publish(List.of("ETH"), 700);
+        long balanceMillis = System.currentTimeMillis();
+
+        assertEquals(0, first.reserve("SOL", true, 100, 1000, balanceMillis, 2));
+        assertEquals(100, first.reserve("SOL", true, 100, 1000, balanceMillis, 3));
+        assertEquals(0, second.reserve("ADA", true, 100, 1000, balanceMillis, 3)); // SOL is being bought
+        assertEquals(100, second.reserve("ETH", false, 100, 1000, balanceMillis, 3)); // averaging down
+        assertEquals(700, first.otherShardsValue());
+        assertEquals(500, second.otherShardsValue());
+    }
+
+    @Test
+    void testReservedFundsAreNotSpentTwice() throws Exception {
+        long balanceMillis = System.currentTimeMillis();
+
+        assertEquals(600, first.reserve("BTC", true, 600, 1000, balanceMillis, 5));
+        assertEquals(400, second.reserve("ETH", true, 600, 1000, balanceMillis, 5));
+        assertEquals(0, second.reserve("SOL", true, 600, 1000, balanceMillis, 5));
+    }
+
+    @Test
+    void testSpentFundsCountUntilTheBalanceShowsThem() throws Exception {
+        long balanceMillis = System.currentTimeMillis() - 1;
+        first.reserve("BTC", true, 600, 1000, balanceMillis, 5);
+        first.release("BTC", true);
+
+        // a balance fetched before the order still contains the 600
+        assertEquals(400, second.reserve("ETH", true, 600, 1000, balanceMillis, 5));
+        second.release("ETH", false);
+        // a balance fetched afterwards does not
+        assertEquals(400, second.reserve("ETH", true, 600, 400, System.currentTimeMillis() + 1, 5));
+    }
+
+    @Test
+    void testRejectedOrderFreesItsFunds() throws Exception {
+        long balanceMillis = System.currentTimeMillis();
+        first.reserve("BTC", true, 1000, 1000, balanceMillis, 5);
+        first.release("BTC", false);
+
+        assertEquals(1000, second.reserve("ETH", true, 1000, 1000, balanceMillis, 5));
+    }
+
+    @Test
+    void testDamagedLedgerStartsOver() throws Exception {
+        Files.writeString(file, "{\"0\": {\"held\": [\"BT");
+
+        assertEquals(100, second.reserve("ETH", true, 100, 1000, System.currentTimeMillis(), 1));
+    }
+
+    @Test
+    void testShardsPutTheirEntriesBackIntoADamagedLedger() throws Exception {
+        long balanceMillis = System.currentTimeMillis();
+        first.publish(List.of("BTC"), 500);
+        assertEquals(200, first.reserve("SOL", true, 200, 1000, balanceMillis, 5));
+        Files.writeString(file, "{\"0\": {\"held\": [\"BT");
+
+        second.publish(List.of("ETH"), 700);
+        assertEquals(0, second.otherShardsValue()); // the first shard has not seen the damage yet
+
+        // with its next update the first shard is back, with its coins and its reservation
+        assertEquals(700, first.otherShardsValue());
+        assertEquals(500, second.otherShardsValue());
+        assertEquals(800, second.reserve("ADA", true, 1000, 1000, balanceMillis, 5));
+    }
+
+    @Test
+    void testLedgerIsReplacedAsAWhole() throws Exception {
+        first.publish(List.of("BTC"), 500);
+        second.publish(List.of("ETH"), 700);
+
+        assertFalse(Files.exists(Path.of(file + ".tmp")));
+        JSONObject ledger = new JSONObject(Files.readString(file));
+        assertEquals(Set.of("0", "1"), ledger.keySet());
+    }
+}
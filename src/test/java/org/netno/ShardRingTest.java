@@ -0,0 +1,54 @@
+package org.netno;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardRingTest {
+
+    private static List<String> coins(int count) {
+        List<String> coins = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            coins.add("COIN" + i);
+        }
+        return coins;
+    }
+
+    @Test
+    void testEveryCoinHasExactlyOneShard() {
+        ShardRing ring = new ShardRing(4);
+        List<String> coins = coins(1000);
+        int total = 0;
+        for (int shard = 0; shard < 4; shard++) {
+            List<String> owned = ring.owned(coins, shard);
+            assertTrue(owned.size() > 150, "shard " + shard + " owns only " + owned.size()); // 250 on average
+            total += owned.size();
+        }
+        assertEquals(1000, total);
+    }
+
+    @Test
+    void testAssignmentIsStable() {
+        assertEquals(new ShardRing(5).shardOf("BTC"), new ShardRing(5).shardOf("BTC"));
+        assertEquals(0, new ShardRing(1).shardOf("BTC"));
+    }
+
+    @Test
+    void testAddingShardOnlyMovesCoinsToIt() {
+        ShardRing three = new ShardRing(3);
+        ShardRing four = new ShardRing(4);
+        int moved = 0;
+        for (String coin : coins(1000)) {
+            int before = three.shardOf(coin);
+            int after = four.shardOf(coin);
+            if (before != after) {
+                assertEquals(3, after);
+                moved++;
+            }
+        }
+        assertTrue(moved > 150 && moved < 350, moved + " coins moved"); // a quarter on average
+    }
+}
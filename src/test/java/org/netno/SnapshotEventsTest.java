@@ -0,0 +1,76 @@
+package org.netno;
+
+import com.coinbase.advanced.orders.OrdersService;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotEventsTest {
+
+    private TradingBot bot;
+    private MarketDataFetcher marketDataFetcherMock;
+    private PositionBook assets;
+    private SnapshotEvents events;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        marketDataFetcherMock = mock(MarketDataFetcher.class);
+        when(marketDataFetcherMock.getUsdcBalance()).thenReturn(1000.0);
+        when(marketDataFetcherMock.getCurrentPrice("TEST-USDC")).thenReturn(0.50);
+
+        Config config = new Config();
+        config.coins = List.of("TEST");
+        config.logLevel = "ERROR";
+        config.timeZone = "Europe/Berlin";
+        config.negativeProfitLevels = List.of(1.0, 2.0, 3.0, 4.0, 5.0);
+        config.averageDownSteps = List.of(0.0, 2.0, 4.0, 6.0);
+        config.minimumProfitPercentage = 2.0;
+        config.stopLossSalePercentage = 1.0;
+
+        assets = new PositionBook();
+        assets.put("TEST", new TradeInfo(0.48, 100, LocalDateTime.now(), 0.48, 0, 0, 3));
+        bot = new TradingBot(mock(OrdersService.class), marketDataFetcherMock, config, assets);
+        events = new SnapshotEvents(bot);
+        bot.publishSnapshot();
+        events.delta(bot.getSnapshot());
+    }
+
+    @Test
+    void testDeltaContainsOnlyChangedFields() {
+        bot.executeTrade();
+        bot.publishSnapshot();
+
+        JSONObject delta = events.delta(bot.getSnapshot());
+        JSONObject test = delta.getJSONObject("positions").getJSONObject("TEST");
+        assertEquals(0.5, test.getDouble("currentPrice"));
+        assertEquals(2.0, test.getDouble("winLoss"));
+        assertFalse(test.has("purchasePrice"));
+        assertFalse(delta.has("usdcBalance"));
+    }
+
+    @Test
+    void testNoDeltaWhenNothingChanged() {
+        bot.publishSnapshot();
+        assertNull(events.delta(bot.getSnapshot()));
+    }
+
+    @Test
+    void testDeltaReportsRemovedCoinsAndCash() {
+        assets.remove("TEST");
+        when(marketDataFetcherMock.getUsdcBalance()).thenReturn(1048.0);
+        bot.getUsdcBalance();
+        bot.publishSnapshot();
+
+        JSONObject delta = events.delta(bot.getSnapshot());
+        assertEquals("TEST", delta.getJSONArray("removed").getString(0));
+        assertEquals(1048.0, delta.getDouble("usdcBalance"));
+        assertFalse(delta.has("positions"));
+    }
+}
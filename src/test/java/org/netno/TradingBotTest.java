@@ -1,16 +1,18 @@
 package org.netno;
 
+import com.coinbase.advanced.model.orders.CreateOrderRequest;
 import com.coinbase.advanced.model.orders.CreateOrderResponse;
 import com.coinbase.advanced.model.orders.SuccessResponse;
 import com.coinbase.advanced.orders.OrdersService;
 
+import org.json.JSONObject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 
 import java.io.File;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
@@ -20,26 +22,16 @@ class TradingBotTest {
 
     private TradingBot bot;
     private MarketDataFetcher marketDataFetcherMock;
-    private Map<String, TradeInfo> purchaseHistoryMock;
+    private PositionBook purchaseHistoryMock;
+    private OrdersService ordersServiceMock;
+    private CreateOrderResponse orderResponse;
 
     @BeforeEach
     void setUp() throws Exception {
         // Mock dependencies
         marketDataFetcherMock = mock(MarketDataFetcher.class);
 
-        Config testConfig = new Config();
-        testConfig.coins = List.of("TEST");
-        testConfig.purchaseDropPercent = 5.0;
-        testConfig.maxHeldCoins = 5;
-        testConfig.useFundsPortionPerTrade = 0.2;
-        testConfig.logLevel = "DEBUG";
-        testConfig.timeZone = "Europe/Berlin";
-        testConfig.negativeProfitLevels = List.of(1.0, 2.0, 3.0, 4.0, 5.0); // -1% to -5%
-        testConfig.averageDownSteps = List.of(0.0, 2.0, 4.0, 6.0);
-        testConfig.minimumProfitPercentage = 2.0;
-        testConfig.stopLossSalePercentage = 1.0;
-        testConfig.takerFeePercentage = 0;
-
+        Config testConfig = testConfig();
 
         // Mock MarketDataFetcher
         when(marketDataFetcherMock.getUsdcBalance()).thenReturn(1000.0);
@@ -48,14 +40,14 @@ class TradingBotTest {
         when(marketDataFetcherMock.getBasePrecision("TEST-USDC")).thenReturn(0.001);
 
         // Mock Purchase History
-        purchaseHistoryMock = new ConcurrentHashMap<>();
+        purchaseHistoryMock = new PositionBook();
 
         // Mock OrdersService
-        OrdersService ordersServiceMock = mock(OrdersService.class);
+        ordersServiceMock = mock(OrdersService.class);
         SuccessResponse successResponse = new SuccessResponse.Builder()
                 .orderId("test-order-id")
                 .build();
-        CreateOrderResponse orderResponse = new CreateOrderResponse.Builder()
+        orderResponse = new CreateOrderResponse.Builder()
                 .orderId("test-order-id")
                 .success(true)
                 .successResponse(successResponse)
@@ -66,6 +58,22 @@ class TradingBotTest {
         bot = new TradingBot(ordersServiceMock, marketDataFetcherMock, testConfig, purchaseHistoryMock);
     }
 
+    private static Config testConfig() {
+        Config testConfig = new Config();
+        testConfig.coins = List.of("TEST");
+        testConfig.purchaseDropPercent = 5.0;
+        testConfig.maxHeldCoins = 5;
+        testConfig.useFundsPortionPerTrade = 0.2;
+        testConfig.logLevel = "DEBUG";
+        testConfig.timeZone = "Europe/Berlin";
+        testConfig.negativeProfitLevels = List.of(1.0, 2.0, 3.0, 4.0, 5.0); // -1% to -5%
+        testConfig.averageDownSteps = List.of(0.0, 2.0, 4.0, 6.0);
+        testConfig.minimumProfitPercentage = 2.0;
+        testConfig.stopLossSalePercentage = 1.0;
+        testConfig.takerFeePercentage = 0;
+        return testConfig;
+    }
+
     @Test
     void testInitialBuyConditionMet() throws Exception {
         // Simulate initial buy condition
@@ -252,6 +260,71 @@ class TradingBotTest {
         assertEquals(407, money);
     }
 
+    @Test
+    void testSnapshotPublishedAfterEvaluation() throws Exception {
+        purchaseHistoryMock.put("TEST", new TradeInfo(
+                0.48, 100, LocalDateTime.now(), 0.48, 0, 0, 3));
+        long previousVersion = bot.getSnapshot().getVersion();
+
+        bot.executeTrade();
+        bot.publishSnapshot();
+
+        PortfolioSnapshot snapshot = bot.getSnapshot();
+        assertTrue(snapshot.getVersion() > previousVersion);
+        assertEquals(1000.0, snapshot.getUsdcBalance());
+        assertEquals(1, snapshot.getPositions().size());
+        PortfolioSnapshot.Position position = snapshot.getPositions().get(0);
+        assertEquals("TEST", position.getCoin());
+        assertEquals(0.50, position.getCurrentPrice());
+        assertEquals(50.0, position.getCurrentValue());
+        assertEquals(2.0, position.getWinLossIncludingFees());
+
+        // the snapshot is not affected by later changes to the assets
+        purchaseHistoryMock.remove("TEST");
+        assertEquals(1, snapshot.getPositions().size());
+    }
+
+    @Test
+    void testSnapshotKeptWhenNothingChanged() throws Exception {
+        purchaseHistoryMock.put("TEST", new TradeInfo(
+                0.48, 100, LocalDateTime.now(), 0.48, 0, 0, 3));
+        bot.executeTrade();
+        bot.publishSnapshot();
+        PortfolioSnapshot snapshot = bot.getSnapshot();
+
+        // same price again, the version used for caching by the web server stays the same
+        bot.executeTrade();
+        bot.publishSnapshot();
+        assertSame(snapshot, bot.getSnapshot());
+    }
+
+    @Test
+    void testManualSellRunsAsCommand() throws Exception {
+        purchaseHistoryMock.put("TEST", new TradeInfo(
+                0.48, 100, LocalDateTime.now(), 0.48, 0, 0, 3));
+
+        TradingCommand command = bot.submitSell("TEST");
+        assertSame(command, bot.getCommand(command.getId()));
+        for (int i = 0; i < 100 && !command.isDone(); i++) {
+            Thread.sleep(50);
+        }
+
+        assertEquals(TradingCommand.Status.SUCCEEDED, command.getStatus());
+        assertFalse(purchaseHistoryMock.containsKey("TEST"));
+        bot.stopTrading();
+    }
+
+    @Test
+    void testManualSellOfCoinNotHeldFails() throws Exception {
+        TradingCommand command = bot.submitSell("TEST");
+        for (int i = 0; i < 100 && !command.isDone(); i++) {
+            Thread.sleep(50);
+        }
+
+        assertEquals(TradingCommand.Status.FAILED, command.getStatus());
+        bot.stopTrading();
+    }
+
     @Test
     void testLogWithDifferentLevels() throws Exception {
         bot.log("TRACE", "This is a TRACE log.");
@@ -349,4 +422,137 @@ class TradingBotTest {
         Map<String, TradeInfo> assets = bot.loadAssets();
         assertTrue(assets.isEmpty());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testReloadedConfigUsedForNextEvaluation() throws Exception {
+        Config reloaded = testConfig();
+        reloaded.purchaseDropPercent = 7.0; // the -6% drop no longer qualifies
+        bot.reloadConfig(reloaded);
+
+        bot.evaluateInitialPurchase();
+
+        assertEquals(7.0, bot.config.purchaseDropPercent);
+        assertFalse(purchaseHistoryMock.containsKey("TEST"));
+    }
+
+    @Test
+    void testReloadKeepsRestartOnlySettingsWithoutChangingTheLoadedConfig() {
+        Config current = bot.config;
+        Config reloaded = testConfig();
+        reloaded.purchaseDropPercent = 7.0;
+        reloaded.shardCount = 4;
+        bot.reloadConfig(reloaded);
+
+        assertEquals(7.0, bot.config.purchaseDropPercent);
+        assertEquals(current.shardCount, bot.config.shardCount);
+        assertEquals(4, reloaded.shardCount);
+        assertNotSame(reloaded, bot.config);
+    }
+
+    @Test
+    void testReloadedAverageDownSteps() throws Exception {
+        purchaseHistoryMock.put("TEST", new TradeInfo(
+                0.50, 100, LocalDateTime.now(), 0.50, 0, 0, 3));
+        when(marketDataFetcherMock.getCurrentPrice("TEST-USDC")).thenReturn(0.489);
+        Config reloaded = testConfig();
+        reloaded.averageDownSteps = List.of(0.0, 3.0, 6.0); // 0.489 is only 2.2% down
+        bot.reloadConfig(reloaded);
+
+        bot.executeTrade();
+
+        assertEquals(0, purchaseHistoryMock.get("TEST").getAverageDownStepIndex());
+    }
+
+    @Test
+    void testInvalidConfigIsNotReloaded() {
+        Config current = bot.config;
+        Config invalid = testConfig();
+        invalid.timeZone = "Nowhere/Nothing";
+
+        assertThrows(IllegalArgumentException.class, () -> bot.reloadConfig(invalid));
+        assertSame(current, bot.config);
+    }
+
+    @Test
+    void testFallingKnifeFilterDelaysBuy() throws Exception {
+        Config filtered = testConfig();
+        filtered.fallingKnifeFilter = true;
+        bot.reloadConfig(filtered);
+        // a steady price over the last minutes, the indicators smooth by time, then a fall of 6%
+        long start = System.currentTimeMillis() - 26 * 15_000L;
+        for (int i = 0; i < 25; i++) {
+            bot.getIndicators().update("TEST", start + i * 15_000L, 0.50, 0);
+        }
+        when(marketDataFetcherMock.get24hPriceChangePercentage("TEST-USDC")).thenReturn(-6.0);
+        when(marketDataFetcherMock.getCurrentPrice("TEST-USDC")).thenReturn(0.47);
+
+        bot.evaluateInitialPurchase();
+        assertFalse(purchaseHistoryMock.containsKey("TEST"));
+
+        // bought once the price is back above the fast average
+        when(marketDataFetcherMock.getCurrentPrice("TEST-USDC")).thenReturn(0.50);
+        bot.evaluateInitialPurchase();
+        assertTrue(purchaseHistoryMock.containsKey("TEST"));
+    }
+
+    @Test
+    void testOrderWithUnknownOutcomeIsResent() throws Exception {
+        when(ordersServiceMock.createOrder(any()))
+                .thenThrow(new RuntimeException("connection reset"))
+                .thenReturn(orderResponse);
+
+        bot.evaluateInitialPurchase();
+        assertFalse(purchaseHistoryMock.containsKey("TEST"));
+        assertEquals(1, PendingOrders.load(bot.pendingOrdersFile).list().size());
+
+        bot.evaluateInitialPurchase();
+
+        // the same order was sent again instead of a new one
+        ArgumentCaptor<CreateOrderRequest> requests = ArgumentCaptor.forClass(CreateOrderRequest.class);
+        verify(ordersServiceMock, times(2)).createOrder(requests.capture());
+        assertEquals(requests.getAllValues().get(0).getClientOrderId(),
+                requests.getAllValues().get(1).getClientOrderId());
+        assertTrue(purchaseHistoryMock.containsKey("TEST"));
+        assertTrue(PendingOrders.load(bot.pendingOrdersFile).isEmpty());
+    }
+
+    @Test
+    void testAdaptivePollingSkipsCoinsNotDue() throws Exception {
+        when(marketDataFetcherMock.get24hPriceChangePercentage("TEST-USDC")).thenReturn(-4.0);
+        long now = System.currentTimeMillis();
+
+        bot.poll(now);
+        bot.poll(now + 1_000); // volatility unknown yet, polled at the fixed rate
+        verify(marketDataFetcherMock, times(1)).getCurrentPrice("TEST-USDC");
+
+        bot.poll(now + 15_000);
+        verify(marketDataFetcherMock, times(2)).getCurrentPrice("TEST-USDC");
+    }
+
+    @Test
+    void testOrderDecisionIsTraced() throws Exception {
+        bot.evaluateInitialPurchase();
+
+        List<DecisionTracer.Span> spans = bot.getTracer().recent(10);
+        assertEquals(1, spans.size());
+        assertEquals("BUY", spans.get(0).decision);
+        assertEquals("PLACED", spans.get(0).outcome);
+        assertEquals("test-order-id", spans.get(0).orderId);
+        assertTrue(spans.get(0).toJson().getJSONObject("stageMicros").has("persist"));
+    }
+
+    @Test
+    void testSaleIsRecordedInPerformance() throws Exception {
+        purchaseHistoryMock.put("TEST", new TradeInfo(
+                0.50, 100, LocalDateTime.now(), 0.80, 0, 0, 3));
+        when(marketDataFetcherMock.getCurrentPrice("TEST-USDC")).thenReturn(0.792);
+
+        bot.executeTrade();
+
+        JSONObject summary = bot.getPerformance().summary();
+        assertEquals(29.2, summary.getDouble("realized"));
+        assertEquals(1, summary.getInt("sales"));
+        assertEquals(100.0, summary.getDouble("winRate"));
+        assertEquals("SELL", bot.getPerformance().page(0, 1).get(0).getType());
+    }
+}
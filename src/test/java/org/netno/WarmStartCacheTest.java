@@ -0,0 +1,84 @@
+package org.netno;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WarmStartCacheTest {
+
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        file = Files.createTempFile("warmStart", ".json");
+        Files.delete(file);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void testMissingFileGivesEmptyCache() {
+        WarmStartCache cache = WarmStartCache.load(file.toString());
+        assertNull(cache.portfolioId);
+        assertTrue(cache.baseIncrements.isEmpty());
+        assertTrue(cache.lastPrices.isEmpty());
+    }
+
+    @Test
+    void testSaveAndLoad() throws Exception {
+        WarmStartCache cache = new WarmStartCache();
+        cache.portfolioId = "123-456";
+        cache.baseIncrements.put("BTC-USDC", "0.00000001");
+        cache.lastPrices.put("BTC", 9_500_012_345_678_901L);
+        cache.save(file.toString());
+
+        WarmStartCache loaded = WarmStartCache.load(file.toString());
+        assertEquals("123-456", loaded.portfolioId);
+        assertEquals("0.00000001", loaded.baseIncrements.get("BTC-USDC"));
+        assertEquals(Long.valueOf(9_500_012_345_678_901L), loaded.lastPrices.get("BTC"));
+    }
+
+    @Test
+    void testReloadTakesTheSavedState() throws Exception {
+        WarmStartCache leader = new WarmStartCache();
+        leader.portfolioId = "123-456";
+        leader.baseIncrements.put("BTC-USDC", "0.00000001");
+        leader.lastPrices.put("BTC", 100L);
+        leader.save(file.toString());
+        WarmStartCache standby = new WarmStartCache();
+        standby.baseIncrements.put("ETH-USDC", "0.0001");
+        standby.lastPrices.put("ETH", 50L);
+
+        standby.reload(file.toString());
+
+        assertEquals("123-456", standby.portfolioId);
+        assertEquals(2, standby.baseIncrements.size());
+        assertEquals(Map.of("BTC", 100L), standby.lastPrices);
+    }
+
+    @Test
+    void testOldPricesAreDropped() throws Exception {
+        Files.writeString(file, "{\"portfolioId\": \"123-456\", \"savedAt\": 1000,"
+                + " \"baseIncrements\": {\"BTC-USDC\": \"0.00000001\"}, \"lastPrices\": {\"BTC\": 100}}");
+
+        WarmStartCache loaded = WarmStartCache.load(file.toString());
+        assertEquals("123-456", loaded.portfolioId);
+        assertEquals(1, loaded.baseIncrements.size());
+        assertTrue(loaded.lastPrices.isEmpty());
+    }
+
+    @Test
+    void testUnreadableFileGivesEmptyCache() throws Exception {
+        Files.writeString(file, "{\"portfolioId\": ");
+        assertNull(WarmStartCache.load(file.toString()).portfolioId);
+    }
+}